@@ -0,0 +1,18 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+
+/**
+ * Realistic messages of the devices, that are shared by all benchmarks.
+ */
+public class BenchmarkFrames {
+
+	/** A control-frame, as sent by a phone roughly every 20 ms while steering a car. */
+	public static final String controlFrame = "{\"phnCtrl\":1,\"steer\":-35,\"acc\":80,\"yaw\":10,\"ptch\":-5}";
+
+	/** A sensor-frame, as sent by a car with every reading of its sensors. */
+	public static final String sensorFrame = "{\"uSSen\":120,\"lISen\":30,\"rISen\":28,\"hSen\":15}";
+
+
+	private BenchmarkFrames() {}
+
+}
@@ -0,0 +1,95 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+
+
+/**
+ * An unconnected {@link Socket}, that lets {@link Connection}s be created and exercised without any network.<br>
+ * Its InputStream returns the same message on every read, one message per read, just like a device that sends in a steady rhythm.
+ * Everything that is written to its OutputStream is discarded.
+ */
+public class BenchmarkSocket extends Socket {
+
+	/** The stream that returns the message of this socket on every read. */
+	private final InputStream inputStream;
+
+	/** The stream that discards everything that is written to it. */
+	private final OutputStream outputStream = new DiscardingOutputStream();
+
+
+	/**
+	 * @param message the message that is returned on every read, e.g. a JSON-frame of a device.
+	 */
+	public BenchmarkSocket(String message) {
+		this.inputStream = new RepeatingInputStream(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	@Override
+	public InputStream getInputStream() { return this.inputStream; }
+
+	@Override
+	public OutputStream getOutputStream() { return this.outputStream; }
+
+	@Override
+	public InetAddress getInetAddress() { return InetAddress.getLoopbackAddress(); }
+
+
+	/**
+	 * Returns the same message on every read. It never reports available bytes,
+	 * so a reader returns after every message instead of trying to fill its buffer.
+	 */
+	private static class RepeatingInputStream extends InputStream {
+
+		/** The message that is returned on every read. */
+		private final byte[] message;
+
+		/** The position of the next byte of the message. */
+		private int position = 0;
+
+
+		private RepeatingInputStream(byte[] message) {
+			this.message = message;
+		}
+
+
+		@Override
+		public int read() {
+			int value = this.message[this.position] & 0xFF;
+			this.position = (this.position + 1) % this.message.length;
+			return value;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) {
+			// returns the rest of the message, so the next read starts with a new message
+			int count = Math.min(length, this.message.length - this.position);
+			System.arraycopy(this.message, this.position, buffer, offset, count);
+			this.position = (this.position + count) % this.message.length;
+			return count;
+		}
+
+		@Override
+		public int available() { return 0; }
+	}
+
+
+	/**
+	 * Discards everything that is written to it.
+	 */
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) {}
+	}
+
+}
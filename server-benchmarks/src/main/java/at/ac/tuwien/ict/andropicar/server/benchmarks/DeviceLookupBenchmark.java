@@ -0,0 +1,90 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.DetachedDevices;
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Measures {@link Server#findCar(long)} and {@link Server#findPhone(String)} with an increasing number of registered devices.<br>
+ * Half of the devices are cars, the other half phones. The looked up devices are the last ones that have registered, which is the worst case for a linear search.
+ * A lookup of an unknown phone is measured as well, since it has to visit every device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// every connection holds its own stream buffers, 100000 of them need almost 2 GB
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeviceLookupBenchmark {
+
+	/** The number of registered devices. */
+	@Param({"10", "100", "1000", "10000", "100000"})
+	private int deviceCount;
+
+	/** The server that the devices are registered at. It is never started. */
+	private Server server;
+
+	/** The id of the car that is looked up. */
+	private long carId;
+
+	/** The id of the phone that is looked up. */
+	private String phoneId;
+
+
+	@Setup
+	public void setUp() {
+		this.server = new Server();
+		LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+		int cars = Math.max(this.deviceCount / 2, 1);
+		int phones = Math.max(this.deviceCount - cars, 1);
+		// phones are only registered if they are whitelisted, which is done first, since it looks up every phone
+		for(int i = 0; i < phones; i++)
+			this.server.allowLink("phone" + i, i);
+		for(int i = 0; i < cars; i++) {
+			CarConnection car = DetachedDevices.createCar(i, new BenchmarkSocket(BenchmarkFrames.sensorFrame), operationQueue);
+			this.server.registerIdentifiedDevice(car);
+		}
+		for(int i = 0; i < phones; i++) {
+			PhoneConnection phone = DetachedDevices.createPhone("phone" + i, new BenchmarkSocket(BenchmarkFrames.controlFrame), operationQueue);
+			this.server.registerIdentifiedDevice(phone);
+		}
+		this.carId = cars - 1;
+		this.phoneId = "phone" + (phones - 1);
+	}
+
+
+	@Benchmark
+	public CarConnection findCar() {
+		return this.server.findCar(this.carId);
+	}
+
+	@Benchmark
+	public PhoneConnection findPhone() {
+		return this.server.findPhone(this.phoneId);
+	}
+
+	@Benchmark
+	public PhoneConnection findUnknownPhone() {
+		return this.server.findPhone("unknown");
+	}
+
+}
@@ -0,0 +1,72 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.DetachedDevices;
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Measures the processing of already decoded messages of a linked phone and car, just like their threads do it (see {@link DetachedDevices}),
+ * which includes selecting the data for the linked device and writing it to its {@link BenchmarkSocket}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForwardingBenchmark {
+
+	/** The phone that is linked to {@link #car}. */
+	private PhoneConnection phone;
+
+	/** The car that is linked to {@link #phone}. */
+	private CarConnection car;
+
+	/** The decoded control-frame of the phone. */
+	private HashMap<String, Object> controlMap;
+
+	/** The decoded sensor-frame of the car. */
+	private HashMap<String, Object> sensorMap;
+
+
+	@Setup
+	public void setUp() {
+		LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+		this.phone = DetachedDevices.createPhone("phone", new BenchmarkSocket(BenchmarkFrames.controlFrame), operationQueue);
+		this.car = DetachedDevices.createCar(1, new BenchmarkSocket(BenchmarkFrames.sensorFrame), operationQueue);
+		this.phone.setLinkedCar(this.car);
+		this.car.setLinkedPhone(this.phone);
+		this.controlMap = JSONDecoder.decode(BenchmarkFrames.controlFrame);
+		this.sensorMap = JSONDecoder.decode(BenchmarkFrames.sensorFrame);
+	}
+
+
+	@Benchmark
+	public void processControlFrame() {
+		DetachedDevices.process(this.phone, this.controlMap);
+	}
+
+	@Benchmark
+	public void processSensorFrame() {
+		DetachedDevices.process(this.car, this.sensorMap);
+	}
+
+}
@@ -0,0 +1,65 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
+
+
+/**
+ * Measures decoding and encoding of control- and sensor-frames with the {@link JSONDecoder}, which every forwarded message passes twice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+	/** The decoded control-frame, that is encoded. */
+	private HashMap<String, Object> controlMap;
+
+	/** The decoded sensor-frame, that is encoded. */
+	private HashMap<String, Object> sensorMap;
+
+
+	@Setup
+	public void setUp() {
+		this.controlMap = JSONDecoder.decode(BenchmarkFrames.controlFrame);
+		this.sensorMap = JSONDecoder.decode(BenchmarkFrames.sensorFrame);
+	}
+
+
+	@Benchmark
+	public HashMap<String, Object> decodeControlFrame() {
+		return JSONDecoder.decode(BenchmarkFrames.controlFrame);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> decodeSensorFrame() {
+		return JSONDecoder.decode(BenchmarkFrames.sensorFrame);
+	}
+
+	@Benchmark
+	public String encodeControlFrame() {
+		return JSONDecoder.encodeFromMap(this.controlMap);
+	}
+
+	@Benchmark
+	public String encodeSensorFrame() {
+		return JSONDecoder.encodeFromMap(this.sensorMap);
+	}
+
+}
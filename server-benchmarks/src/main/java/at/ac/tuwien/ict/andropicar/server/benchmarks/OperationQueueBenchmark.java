@@ -0,0 +1,82 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Measures the round trip of a {@link QueueElement} over an operation-queue, like the one between the connections and the main-thread of the server.<br>
+ * A {@link QueueElement} is put on the operation-queue, taken by a second thread (which stands in for the main-thread)
+ * and handed back over a reply-queue. The result is therefore the latency of two hand-offs between threads, including waking up the waiting threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationQueueBenchmark {
+
+	/** The queue that is consumed by {@link #mainThread}. */
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	/** The queue that {@link #mainThread} hands the elements back over. */
+	private final LinkedBlockingQueue<QueueElement> replyQueue = new LinkedBlockingQueue<>();
+
+	/** The thread that stands in for the main-thread of the server. */
+	private Thread mainThread;
+
+
+	@Setup
+	public void setUp() {
+		this.mainThread = new Thread(new Echo(), "OperationQueueBenchmark-main");
+		this.mainThread.setDaemon(true);
+		this.mainThread.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		this.mainThread.interrupt();
+		this.mainThread.join();
+	}
+
+
+	@Benchmark
+	public QueueElement roundTrip() throws InterruptedException {
+		this.operationQueue.put(new QueueElement(EOperationType.UPDATE_INFO, null));
+		return this.replyQueue.take();
+	}
+
+
+	/**
+	 * Hands every element of the operation-queue back over the reply-queue, until it is interrupted.
+	 */
+	private class Echo implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while(true)
+					OperationQueueBenchmark.this.replyQueue.put(OperationQueueBenchmark.this.operationQueue.take());
+			} catch(InterruptedException ie) {
+				// the benchmark has finished
+			}
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.connections.DetachedDevices;
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Measures reading a message of a {@link Connection} (see {@link DetachedDevices#read(Connection)}), which is done for every message of every device.<br>
+ * The connections read from a {@link BenchmarkSocket}, so the numbers contain the decoding of the characters and the creation of the String,
+ * but no system calls. Reading and decoding to a HashMap is measured as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadFromStreamBenchmark {
+
+	/** A phone that sends a control-frame on every read. */
+	private PhoneConnection phone;
+
+	/** A car that sends a sensor-frame on every read. */
+	private CarConnection car;
+
+
+	@Setup
+	public void setUp() {
+		LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+		this.phone = DetachedDevices.createPhone("phone", new BenchmarkSocket(BenchmarkFrames.controlFrame), operationQueue);
+		this.car = DetachedDevices.createCar(1, new BenchmarkSocket(BenchmarkFrames.sensorFrame), operationQueue);
+	}
+
+
+	@Benchmark
+	public String readControlFrame() {
+		return DetachedDevices.read(this.phone);
+	}
+
+	@Benchmark
+	public String readSensorFrame() {
+		return DetachedDevices.read(this.car);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> readControlFrameToHashMap() {
+		return DetachedDevices.readDecoded(this.phone);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> readSensorFrameToHashMap() {
+		return DetachedDevices.readDecoded(this.car);
+	}
+
+}
@@ -0,0 +1,124 @@
+package at.ac.tuwien.ict.andropicar.server.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder;
+
+
+/**
+ * Measures how many values per second the {@link TelemetryRecorder} records, including rolling its segments.<br>
+ * The segments are small enough to be rolled several times per iteration, so the result includes handing full segments to the thread of the recorder,
+ * which opens the next segments at the same time. The secondary results "recorded" and "dropped" tell how many of the values per second have been recorded,
+ * and how many have been dropped, because the next segment has not been ready in time. Only the recorded values are a rate that can be sustained.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelemetryRecorderBenchmark {
+
+	/** The size of every segment in bytes, which holds about 1M records. */
+	private static final long SEGMENT_SIZE = 32 << 20;
+
+	/** The directory that the segments are written to. */
+	private File directory;
+
+	/** The recorder. */
+	private TelemetryRecorder recorder;
+
+	/** A sensor-frame of a car. */
+	private final HashMap<String, Object> dataset = new HashMap<>();
+
+	/** The value that is recorded next. */
+	private long value = 0;
+
+
+	@Setup(Level.Iteration)
+	public void setUp() throws IOException {
+		this.value = 0;
+		this.directory = Files.createTempDirectory("telemetry-benchmark").toFile();
+		this.recorder = new TelemetryRecorder(this.directory, SEGMENT_SIZE, 1, TimeUnit.MINUTES);
+		this.dataset.put(Keywords.ultrasonicSensor, 120L);
+		this.dataset.put(Keywords.leftInfraredSensor, 1L);
+		this.dataset.put(Keywords.rightInfraredSensor, 0L);
+		this.dataset.put(Keywords.hallSensor, 42L);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		this.recorder.close();
+		File[] files = this.directory.listFiles();
+		if(files != null) {
+			for(File file : files)
+				file.delete();
+		}
+		this.directory.delete();
+	}
+
+
+	/**
+	 * Records one value of a car, which is one record.
+	 */
+	@Benchmark
+	public void recordValue(Values values) {
+		if(this.recorder.record(System.currentTimeMillis(), ETelemetrySource.CAR, 17, "phone-17", Keywords.indexOf(Keywords.hallSensor), this.value++))
+			values.recorded++;
+		else
+			values.dropped++;
+	}
+
+	/**
+	 * Records the four values of a sensor-frame, which are four records.
+	 */
+	@Benchmark
+	public void recordSensorFrame(Values values) {
+		int recorded = this.recorder.record(ETelemetrySource.CAR, 17, "phone-17", this.dataset, Keywords.sensorKeywords);
+		values.recorded += recorded;
+		values.dropped += Keywords.sensorKeywords.length - recorded;
+	}
+
+
+	/**
+	 * Counts the recorded and the dropped values, which are reported as secondary results.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters
+	public static class Values {
+
+		/** The number of recorded values. */
+		public long recorded;
+
+		/** The number of dropped values. */
+		public long dropped;
+
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.recorded = 0;
+			this.dropped = 0;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+
+/**
+ * Holds the settings of the accept path, that are shared by all {@link ConnectionAcceptor}s of a {@link Server}.<br>
+ * Options that the operating system passes on from a listening socket to its accepted sockets (e.g. the receive-buffer-size) are set once on the listening socket.
+ * All other options are applied to every accepted {@link Socket} by {@link #applyTo(Socket)}.<br>
+ * The settings have to be changed before the acceptors are started.
+ */
+public class AcceptorConfiguration {
+
+	/** The number of acceptor-threads per port. */
+	private int acceptorsPerPort = 2;
+
+	/** The maximum number of pending connections in the accept queue of each listening socket. */
+	private int backlog = 1024;
+
+	/** True, if every acceptor-thread should bind its own listening socket (SO_REUSEPORT) where the platform supports it, otherwise false. */
+	private boolean reusePort = true;
+
+	/** True, if the listening sockets should be bound with SO_REUSEADDR, so that a restarted server does not have to wait for old connections to time out. */
+	private boolean reuseAddress = true;
+
+	/** The receive-buffer-size of the listening sockets, which is inherited by the accepted sockets, or 0 to use the default of the operating system. */
+	private int receiveBufferSize = 0;
+
+	/** The read-timeout of the accepted sockets in milliseconds. */
+	private int soTimeout = 1;
+
+	/** True, if nagles algorithm should be deactivated on the accepted sockets, otherwise false. */
+	private boolean tcpNoDelay = true;
+
+	/** The maximum allowed time in seconds for a graceful shutdown of the accepted sockets, or -1 to disable SO_LINGER. */
+	private int soLinger = 1;
+
+	/** The ToS-byte (called DSCP nowadays) of the accepted sockets. */
+	private int trafficClass = 112;
+
+
+	/**
+	 * @return the number of acceptor-threads per port.
+	 */
+	public int getAcceptorsPerPort() {
+		return acceptorsPerPort;
+	}
+
+	/**
+	 * @param acceptorsPerPort the number of acceptor-threads per port. Has to be at least 1.
+	 */
+	public void setAcceptorsPerPort(int acceptorsPerPort) {
+		if(acceptorsPerPort < 1)
+			throw new IllegalArgumentException("acceptorsPerPort must be at least 1: " + acceptorsPerPort);
+		this.acceptorsPerPort = acceptorsPerPort;
+	}
+
+	/**
+	 * @return the maximum number of pending connections in the accept queue of each listening socket.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * @param backlog the maximum number of pending connections in the accept queue of each listening socket.
+	 */
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+	/**
+	 * @return true, if every acceptor-thread should bind its own listening socket where the platform supports it, otherwise false.
+	 */
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * @param reusePort true, if every acceptor-thread should bind its own listening socket where the platform supports it, otherwise false.
+	 */
+	public void setReusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+	}
+
+	/**
+	 * @return true, if the listening sockets are bound with SO_REUSEADDR, otherwise false.
+	 */
+	public boolean isReuseAddress() {
+		return reuseAddress;
+	}
+
+	/**
+	 * @param reuseAddress true, if the listening sockets should be bound with SO_REUSEADDR, otherwise false.
+	 */
+	public void setReuseAddress(boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+	}
+
+	/**
+	 * @return the receive-buffer-size of the listening sockets, or 0 if the default of the operating system is used.
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param receiveBufferSize the receive-buffer-size of the listening sockets, or 0 to use the default of the operating system.
+	 */
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	/**
+	 * @return the read-timeout of the accepted sockets in milliseconds.
+	 */
+	public int getSoTimeout() {
+		return soTimeout;
+	}
+
+	/**
+	 * @param soTimeout the read-timeout of the accepted sockets in milliseconds.
+	 */
+	public void setSoTimeout(int soTimeout) {
+		this.soTimeout = soTimeout;
+	}
+
+	/**
+	 * @return true, if nagles algorithm is deactivated on the accepted sockets, otherwise false.
+	 */
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * @param tcpNoDelay true, if nagles algorithm should be deactivated on the accepted sockets, otherwise false.
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	/**
+	 * @return the maximum allowed time in seconds for a graceful shutdown of the accepted sockets, or -1 if SO_LINGER is disabled.
+	 */
+	public int getSoLinger() {
+		return soLinger;
+	}
+
+	/**
+	 * @param soLinger the maximum allowed time in seconds for a graceful shutdown of the accepted sockets, or -1 to disable SO_LINGER.
+	 */
+	public void setSoLinger(int soLinger) {
+		this.soLinger = soLinger;
+	}
+
+	/**
+	 * @return the ToS-byte of the accepted sockets.
+	 */
+	public int getTrafficClass() {
+		return trafficClass;
+	}
+
+	/**
+	 * @param trafficClass the ToS-byte of the accepted sockets.
+	 */
+	public void setTrafficClass(int trafficClass) {
+		this.trafficClass = trafficClass;
+	}
+
+	/**
+	 * @param channel the listening channel that should be checked.
+	 * @return true, if SO_REUSEPORT is enabled in this configuration and supported by the passed channel, otherwise false.
+	 */
+	public boolean isReusePortSupported(NetworkChannel channel) {
+		return this.reusePort && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+	}
+
+	/**
+	 * Applies all options to the passed listening channel, that have to be set before it is bound.
+	 * @param channel the unbound listening channel.
+	 * @throws IOException if an option could not be set.
+	 */
+	public void applyTo(ServerSocketChannel channel) throws IOException {
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, this.reuseAddress);
+		if(this.isReusePortSupported(channel))
+			channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+		if(this.receiveBufferSize > 0)
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, this.receiveBufferSize);
+	}
+
+	/**
+	 * Applies all options to the passed accepted {@link Socket}, that are not inherited from the listening socket.
+	 * @param socket the accepted {@link Socket}.
+	 * @throws IOException if an option could not be set.
+	 */
+	public void applyTo(Socket socket) throws IOException {
+		socket.setSoTimeout(this.soTimeout);
+		socket.setTcpNoDelay(this.tcpNoDelay);	// deactivate nagle's algorithm, which collects data before it actually sends it to the network
+		socket.setSoLinger(this.soLinger >= 0, Math.max(this.soLinger, 0));	// set maximum allowed time for graceful shutdown
+		socket.setTrafficClass(this.trafficClass);	// set the ToS-Byte (called DSCP nowadays, ToS is deprecated) to prioritize data
+	}
+
+}
@@ -0,0 +1,69 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+
+/**
+ * An AcceptorGroup runs several {@link ConnectionAcceptor}s for the same port, each in its own thread.<br>
+ * The first acceptor is bound synchronously (including the fallback to the next ports, see {@link ConnectionAcceptor}),
+ * all others are then bound to the very same port, so that a reconnecting fleet is accepted by several threads at once.
+ */
+public class AcceptorGroup {
+
+	/** The acceptors of this group. The first one is the one that binds the port. */
+	private final ConnectionAcceptor[] acceptors;
+
+	/** The name of this group, used to name the threads of the acceptors. */
+	private final String name;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(AcceptorGroup.class);
+
+
+	/**
+	 * @param name the name of this group, used to name the threads of the acceptors.
+	 * @param acceptors the acceptors of this group. All of them have to listen on the same port. At least one is required.
+	 */
+	public AcceptorGroup(String name, ConnectionAcceptor... acceptors) {
+		if(acceptors == null || acceptors.length == 0)
+			throw new IllegalArgumentException("At least one acceptor is required.");
+		this.name = name;
+		this.acceptors = acceptors;
+	}
+
+
+	/**
+	 * @return the port that the acceptors of this group listen on, or 0 if binding failed.
+	 */
+	public int getPort() {
+		return this.acceptors[0].getPort();
+	}
+
+	/**
+	 * Binds the port and starts one thread per acceptor.
+	 * @return true, if the port could be bound and the acceptors have been started, otherwise false.
+	 */
+	public boolean start() {
+		ConnectionAcceptor primary = this.acceptors[0];
+		primary.setupAcceptor();
+		if(!primary.isKeepRunning())
+			return false;
+		for(int i = 1; i < this.acceptors.length; i++)
+			this.acceptors[i].shareAcceptor(primary);
+		for(int i = 0; i < this.acceptors.length; i++)
+			(new Thread(this.acceptors[i], this.name + (this.acceptors.length > 1 ? " #" + i : ""))).start();
+		AcceptorGroup.logger.info("Started {} acceptor(s) for port {}.", Unbox.box(this.acceptors.length), Unbox.box(getPort()));
+		return true;
+	}
+	
+	/**
+	 * Stops all acceptors of this group and closes their listening sockets. Already accepted connections are not affected.
+	 */
+	public void finish() {
+		for(ConnectionAcceptor acceptor : this.acceptors)
+			acceptor.finishAcceptor();
+	}
+
+}
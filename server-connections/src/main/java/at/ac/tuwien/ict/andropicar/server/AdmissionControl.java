@@ -0,0 +1,164 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.connections.ConnectionRateLimiter;
+import at.ac.tuwien.ict.andropicar.server.helper.EOverflowPolicy;
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.ITimerTask;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.TokenBucket;
+
+
+/**
+ * AdmissionControl limits the rate of new connections per source-IP-address and hands out the {@link ConnectionRateLimiter}s for the accepted connections.<br>
+ * It is shared by all {@link ConnectionAcceptor}s of a {@link Server}, so that a device that reconnects in a loop cannot fill the list of unidentified devices,
+ * no matter which port it uses.<br>
+ * With {@link EOverflowPolicy#DELAY}, a connection that exceeds the rate of its IP-address is not handed to the server right away, but deferred on the
+ * {@link HashedTimingWheel} of the server until its reservation is due, so the acceptor-threads never wait for a single IP-address. As a connection is
+ * deferred by at most the maximum delay, at most that many seconds worth of connections of an IP-address are pending at once.
+ */
+public class AdmissionControl {
+
+	/** The limits and overflow-policies. */
+	private final RateLimitSettings settings;
+
+	/** The counters of all decisions. */
+	private final RateLimitStatistics statistics;
+
+	/** The timer that deferred connections are handed to the server with. */
+	private final HashedTimingWheel timer;
+
+	/** The connection-rate of every IP-address that has recently connected. */
+	private final Map<InetAddress, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(AdmissionControl.class);
+
+
+	/**
+	 * @param settings the limits and overflow-policies.
+	 * @param statistics the counters that all decisions are added to.
+	 * @param timer the timer that deferred connections are handed to the server with.
+	 */
+	public AdmissionControl(RateLimitSettings settings, RateLimitStatistics statistics, HashedTimingWheel timer) {
+		this.settings = settings;
+		this.statistics = statistics;
+		this.timer = timer;
+	}
+
+
+	/**
+	 * @return the counters of all decisions.
+	 */
+	public RateLimitStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Decides, if the passed, newly accepted {@link Socket} may be handed to the server right away. If it is rejected, the {@link Socket} is closed.<br>
+	 * With {@link EOverflowPolicy#DELAY}, a connection that is not within the limit of its IP-address yet is deferred, and handed to the passed acceptor
+	 * (see {@link ConnectionAcceptor#admitDeferred(Socket)}) by the thread of the {@link #timer}, once it is within the limit.
+	 * @param socket the newly accepted {@link Socket}.
+	 * @param acceptor the acceptor that has accepted the {@link Socket}.
+	 * @return true, if the connection has been admitted right away, otherwise false.
+	 */
+	public boolean admit(Socket socket, ConnectionAcceptor acceptor) {
+		if(this.settings.getConnectionsPerSecond() <= 0) {
+			this.statistics.connectionAdmitted();
+			return true;
+		}
+		InetAddress address = socket.getInetAddress();
+		TokenBucket bucket = this.buckets.get(address);
+		if(bucket == null) {
+			if(this.buckets.size() >= this.settings.getMaxTrackedAddresses())
+				pruneIdleBuckets();
+			bucket = new TokenBucket(Math.max(this.settings.getConnectionBurst(), 1), this.settings.getConnectionsPerSecond());
+			TokenBucket existing = this.buckets.putIfAbsent(address, bucket);
+			if(existing != null)
+				bucket = existing;
+		}
+
+		if(this.settings.getAdmissionPolicy() == EOverflowPolicy.DELAY) {
+			long wait = bucket.reserve(1, TimeUnit.MILLISECONDS.toNanos(this.settings.getMaxDelay()));
+			if(wait == 0) {
+				this.statistics.connectionAdmitted();
+				return true;
+			}
+			if(wait > 0) {
+				this.statistics.connectionDelayed();
+				this.statistics.connectionAdmitted();
+				this.timer.schedule(new DeferredAdmission(socket, acceptor), wait, TimeUnit.NANOSECONDS);
+				return false;
+			}
+		}
+		else if(bucket.tryConsume(1)) {
+			this.statistics.connectionAdmitted();
+			return true;
+		}
+
+		this.statistics.connectionRejected();
+		if(AdmissionControl.logger.isInfoEnabled())
+			AdmissionControl.logger.info("Rejected a new connection from {}, since it exceeded its connection-rate.", address.getHostAddress());
+		try {
+			socket.close();
+		} catch(IOException ioe) {}
+		return false;
+	}
+
+	/**
+	 * @return a new {@link ConnectionRateLimiter} for an accepted connection, or null if messages and bytes per connection are not limited.
+	 */
+	public ConnectionRateLimiter createConnectionRateLimiter() {
+		if(this.settings.getMessagesPerSecond() <= 0 && this.settings.getBytesPerSecond() <= 0)
+			return null;
+		return new ConnectionRateLimiter(this.settings, this.statistics);
+	}
+
+	/**
+	 * Removes the buckets of all IP-addresses, that have not connected for so long that their bucket is full again.
+	 */
+	private void pruneIdleBuckets() {
+		Iterator<TokenBucket> iterator = this.buckets.values().iterator();
+		while(iterator.hasNext()) {
+			if(iterator.next().isFull())
+				iterator.remove();
+		}
+	}
+
+
+	/**
+	 * Hands a deferred connection to its acceptor, once its reservation is due.
+	 */
+	private static class DeferredAdmission implements ITimerTask {
+
+		/** The deferred connection. */
+		private final Socket socket;
+
+		/** The acceptor that has accepted the connection. */
+		private final ConnectionAcceptor acceptor;
+
+
+		private DeferredAdmission(Socket socket, ConnectionAcceptor acceptor) {
+			this.socket = socket;
+			this.acceptor = acceptor;
+		}
+
+
+		@Override
+		public void run(HashedTimingWheel.Timeout timeout) {
+			this.acceptor.admitDeferred(this.socket);
+		}
+	}
+
+}
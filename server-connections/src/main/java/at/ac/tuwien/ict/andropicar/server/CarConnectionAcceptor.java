@@ -32,6 +32,15 @@ public class CarConnectionAcceptor extends ConnectionAcceptor {
 		super(port, operationQueue);
 	}
 	
+	/**
+	 * @param port the port, that the {@link ServerSocket} should try to listen on, first.
+	 * @param operationQueue the {@link LinkedBlockingQueue} that is used to inform the main-thread about new incoming connections.
+	 * @param configuration the settings of the listening and the accepted sockets.
+	 */
+	public CarConnectionAcceptor(int port, LinkedBlockingQueue<QueueElement> operationQueue, AcceptorConfiguration configuration) {
+		super(port, operationQueue, configuration);
+	}
+	
 	
 	@Override
 	/**
@@ -43,16 +52,27 @@ public class CarConnectionAcceptor extends ConnectionAcceptor {
 		setupAcceptor();
 		CarConnectionAcceptor.logger.info("Starting to listen for incoming connect-requests from cars on port " + getPort() + "...");
 		while(super.isKeepRunning()) {
-			CarConnection newConnection = null;
-			(new Thread((newConnection =  new CarConnection(super.setupSocket(), super.getOperationQueue())), "CarConnection")).start();
-			if(!writeToOperationQueue(EOperationType.CONNECT, newConnection)) {
-				// this should never happen, since we never interrupt a thread
-				CarConnectionAcceptor.logger.warn("The accepted car-connection will not be handled anymore.");
-				if(newConnection != null)
-					newConnection.finishConnection();
-			}
+			Socket socket = super.acceptSocket();
+			if(socket == null)
+				break;
+			handOver(socket);
 		}
 		finishAcceptor();
 	}
+	
+	@Override
+	/**
+	 * Creates a new {@link CarConnection} for the passed admitted Socket, starts its thread and informs the main-thread about it.
+	 */
+	protected void handOver(Socket socket) {
+		CarConnection newConnection = new CarConnection(socket, super.getOperationQueue());
+		super.configureConnection(newConnection);
+		(new Thread(newConnection, "CarConnection")).start();
+		if(!writeToOperationQueue(EOperationType.CONNECT, newConnection)) {
+			// this should never happen, since we never interrupt a thread
+			CarConnectionAcceptor.logger.warn("The accepted car-connection will not be handled anymore.");
+			newConnection.finishConnection();
+		}
+	}
 
 }
@@ -1,21 +1,37 @@
 package at.ac.tuwien.ict.andropicar.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
 
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
 import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.connections.SubscriptionIndex;
 import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+import at.ac.tuwien.ict.andropicar.server.helper.TlsStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.TraceSampler;
 import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.SensorHistory;
+import at.ac.tuwien.ict.andropicar.server.management.ConnectionAcceptedEvent;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder;
 
 /**
  * A ConnectionAcceptor listens to new incoming TCP-connections on the specified port until a new connection is available. It then sets up the connections {@link Socket}
  * and creates a new {@link Connection} (or subclass thereof) with it, which is then put onto the {@link ConnectionAcceptor#operationQueue}
- * to inform the main thread.
+ * to inform the main thread.<br>
+ * Several acceptors can serve the same port (see {@link AcceptorGroup}). Where the platform supports SO_REUSEPORT, every acceptor binds its own listening socket
+ * and the operating system distributes new connections among them, otherwise the acceptors share the listening socket of the first one.
  * 
  * @author Boeck
  */
@@ -24,11 +40,44 @@ public abstract class ConnectionAcceptor implements Runnable{
 	/** The {@link ServerSocket} that is used to listen for new incoming Connections. */
 	private ServerSocket acceptor = null;
 	
+	/** The settings of the listening and the accepted sockets. */
+	private AcceptorConfiguration configuration;
+	
+	/** Limits the rate of new connections per IP-address and the messages per connection, or null if there are no limits. */
+	private AdmissionControl admissionControl = null;
+	
+	/** The settings of TLS, that every admitted connection is wrapped into, or null if the connections are not encrypted. */
+	private TlsConfiguration tlsConfiguration = null;
+	
+	/** Counts the TLS-handshakes of all accepted connections, or null. */
+	private TlsStatistics tlsStatistics = null;
+	
+	/** The subscriptions that the data of all accepted connections is delivered to, or null. */
+	private SubscriptionIndex subscriptionIndex = null;
+	
+	/** Records the sensor- and control-data of all accepted connections, or null. */
+	private TelemetryRecorder recorder = null;
+	
+	/** Counts the accepted connections and the traffic of all accepted connections, or null. */
+	private ServerMetrics metrics = null;
+	
+	/** The server-wide histogram of the forwarding latency of all accepted connections, or null. */
+	private LatencyHistogram forwardLatency = null;
+	
+	/** Decides which messages of the accepted connections are traced, or null. */
+	private TraceSampler traceSampler = null;
+	
+	/** The duration of a slot of the sensor history of every accepted car in milliseconds. */
+	private long historyResolution = 100;
+	
+	/** The time in milliseconds that is covered by the sensor history of every accepted car, or 0 if no history is kept. */
+	private long historyLength = 0;
+	
 	/** The port that the {@link ServerSocket} tries to listen on, for new incoming Connections. */
 	private int port;
 	
 	/** The flag, that indicates, if this runnable should continue to be executed or not. */
-	private boolean keepRunning = true;
+	private volatile boolean keepRunning = true;
 	
 	/** The operationQueue can be written to, to inform the main-thread about certain events and send information-relevant data. */
 	private LinkedBlockingQueue<QueueElement> operationQueue;
@@ -42,9 +91,20 @@ public abstract class ConnectionAcceptor implements Runnable{
 	 * @param operationQueue the {@link LinkedBlockingQueue} that is used to inform the main-thread about new incoming connections.
 	 */
 	public ConnectionAcceptor(int port, LinkedBlockingQueue<QueueElement> operationQueue)
+	{
+		this(port, operationQueue, new AcceptorConfiguration());
+	}
+	
+	/**
+	 * @param port the port, that the {@link ServerSocket} should try to listen on.
+	 * @param operationQueue the {@link LinkedBlockingQueue} that is used to inform the main-thread about new incoming connections.
+	 * @param configuration the settings of the listening and the accepted sockets.
+	 */
+	public ConnectionAcceptor(int port, LinkedBlockingQueue<QueueElement> operationQueue, AcceptorConfiguration configuration)
 	{
 		this.port = port;
 		this.operationQueue = operationQueue;
+		this.configuration = configuration;
 	}
 	
 	
@@ -62,6 +122,81 @@ public abstract class ConnectionAcceptor implements Runnable{
 		return this.operationQueue;
 	}
 	
+	/**
+	 * @return the settings of the listening and the accepted sockets.
+	 */
+	public AcceptorConfiguration getConfiguration() {
+		return this.configuration;
+	}
+	
+	/**
+	 * Sets the {@link AdmissionControl} that limits the rate of new connections per IP-address and the messages per connection. Has to be called before the runnable is started.
+	 * @param admissionControl the {@link AdmissionControl}, or null if there should not be any limits.
+	 */
+	public void setAdmissionControl(AdmissionControl admissionControl) {
+		this.admissionControl = admissionControl;
+	}
+	
+	/**
+	 * Makes this acceptor wrap every admitted connection into TLS. Has to be called before the runnable is started.
+	 * @param tlsConfiguration the settings of TLS, or null if the connections should not be encrypted.
+	 * @param tlsStatistics counts the TLS-handshakes of all accepted connections, or null.
+	 */
+	public void setTls(TlsConfiguration tlsConfiguration, TlsStatistics tlsStatistics) {
+		this.tlsConfiguration = tlsConfiguration;
+		this.tlsStatistics = tlsStatistics;
+	}
+	
+	/**
+	 * Sets the index of subscriptions that the data of all accepted connections is delivered to. Has to be called before the runnable is started.
+	 * @param subscriptionIndex the index of subscriptions, or null.
+	 */
+	public void setSubscriptionIndex(SubscriptionIndex subscriptionIndex) {
+		this.subscriptionIndex = subscriptionIndex;
+	}
+	
+	/**
+	 * Sets the recorder of the sensor- and control-data of all accepted connections. Has to be called before the runnable is started.
+	 * @param recorder the recorder, or null to not record anything.
+	 */
+	public void setRecorder(TelemetryRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Sets the metrics, that the accepted connections and their traffic are counted in. Has to be called before the runnable is started.
+	 * @param metrics the metrics, or null.
+	 */
+	public void setMetrics(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets the server-wide histogram, that the forwarding latency of all accepted connections is recorded to. Has to be called before the runnable is started.
+	 * @param forwardLatency the histogram, or null.
+	 */
+	public void setForwardLatency(LatencyHistogram forwardLatency) {
+		this.forwardLatency = forwardLatency;
+	}
+	
+	/**
+	 * Sets the sampler, that decides which messages of the accepted connections are traced. Has to be called before the runnable is started.
+	 * @param traceSampler the sampler, or null.
+	 */
+	public void setTraceSampler(TraceSampler traceSampler) {
+		this.traceSampler = traceSampler;
+	}
+	
+	/**
+	 * Sets the size of the sensor history of every accepted car (see {@link SensorHistory}). Has to be called before the runnable is started.
+	 * @param resolution the duration of a slot in milliseconds.
+	 * @param length the time in milliseconds that is covered by the history, or 0 to not keep a history.
+	 */
+	public void setSensorHistory(long resolution, long length) {
+		this.historyResolution = resolution;
+		this.historyLength = length;
+	}
+	
 	/**
 	 * @return true, if this runnable should continue to be executed, othwise false.
 	 */
@@ -70,11 +205,17 @@ public abstract class ConnectionAcceptor implements Runnable{
 	}
 	
 	/**
-	 * Sets the keepRunning-flag to false, so that the {@link ServerSocket} will be closed and the runnable will finish.
+	 * Sets the keepRunning-flag to false and closes the {@link ServerSocket}, so that a blocking accept returns and the runnable finishes.
+	 * Acceptors that share the {@link ServerSocket} of this acceptor finish as well.
 	 */
 	public void finishAcceptor()
 	{
 		keepRunning = false;
+		if(this.acceptor != null) {
+			try {
+				this.acceptor.close();
+			} catch(IOException ioe) {}
+		}
 	}
 	
 	/** 
@@ -91,8 +232,8 @@ public abstract class ConnectionAcceptor implements Runnable{
 		{
 			try {
 				if((numberOfTries%3) == 1)
-					ConnectionAcceptor.logger.info("Trying to bind ServerSocket to port " + currentPort);
-				acceptor = new ServerSocket(currentPort);
+					ConnectionAcceptor.logger.info("Trying to bind ServerSocket to port {}", Unbox.box(currentPort));
+				acceptor = openAcceptor(currentPort);
 				ConnectionAcceptor.logger.info("Binding successful");
 			} catch(IOException ioe) {
 				if(numberOfTries%3 == 0)
@@ -111,10 +252,50 @@ public abstract class ConnectionAcceptor implements Runnable{
 	}
 	
 	/**
-	 * Tries to bind the acceptor on a port.
+	 * Opens a new listening socket with the configured options and backlog and binds it to the passed port.
+	 * @param port the port to bind to.
+	 * @return the bound {@link ServerSocket}.
+	 * @throws IOException if the socket could not be opened or bound.
+	 */
+	private ServerSocket openAcceptor(int port) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			this.configuration.applyTo(channel);
+			channel.bind(new InetSocketAddress(port), this.configuration.getBacklog());
+		} catch(IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+		return channel.socket();
+	}
+	
+	/**
+	 * Makes this acceptor serve the same port as the passed, already bound acceptor.
+	 * If SO_REUSEPORT is available, this acceptor binds its own listening socket to that port, otherwise it shares the listening socket of the passed acceptor.
+	 * @param primary the acceptor that has already been bound.
+	 */
+	void shareAcceptor(ConnectionAcceptor primary) {
+		this.port = primary.port;
+		if(primary.acceptor == null)
+			return;
+		if(this.configuration.isReusePortSupported(primary.acceptor.getChannel())) {
+			try {
+				this.acceptor = openAcceptor(this.port);
+				return;
+			} catch(IOException ioe) {
+				ConnectionAcceptor.logger.warn("Unable to bind an additional ServerSocket to port {}. Sharing the existing one.", Unbox.box(this.port), ioe);
+			}
+		}
+		this.acceptor = primary.acceptor;
+	}
+	
+	/**
+	 * Tries to bind the acceptor on a port, unless it has already been bound or shares the socket of another acceptor.
 	 * Informs the main-thread, if it is unable to do so and sets keepRunning to false.
 	 */
 	protected void setupAcceptor() {
+		if(acceptor != null)
+			return;
 		port = bindAcceptor();
 		if(port == 0){
 			ConnectionAcceptor.logger.error("Unable to bind ServerSocket to a port!");
@@ -130,27 +311,31 @@ public abstract class ConnectionAcceptor implements Runnable{
 	
 	/**
 	 * Blocks until the acceptor accepts a new Socket, sets up the Socket and return it.<br>
-	 * After being accepted, the Sockets so_timeout is set to 1 ms,
+	 * After being accepted, the options of the {@link AcceptorConfiguration} are applied to the Socket. By default, the Sockets so_timeout is set to 1 ms,
 	 * nagles algorithm is deactivated (prevent data-collection),
 	 * maximum allowed shutdown time is set to 1 second and
 	 * the DSCP-byte is set to prioritize the Sockets data-packets over others.
-	 * @return the fully set up Socket.
+	 * @return the fully set up Socket, or null if the acceptor has been finished.
 	 */
 	protected Socket setupSocket() {
 		Socket newConnection = null;
 		while(newConnection == null) {
 			try {
-				ConnectionAcceptor.logger.info("Listening for incoming connect-requests...");
+				ConnectionAcceptor.logger.debug("Listening for incoming connect-requests...");
 				
 				newConnection = this.acceptor.accept();
-				ConnectionAcceptor.logger.info("Accepted new connection. Setting it up for further usage.");
-				newConnection.setSoTimeout(1);
-				newConnection.setTcpNoDelay(true);	// deactivate nagle's algorithm, which collects data before it actually sends it to the network
-				newConnection.setSoLinger(true, 1);	// set maximum allowed time for graceful shutdown
-				newConnection.setTrafficClass(112);	// set the ToS-Byte (called DSCP nowadays, ToS is deprecated) to prioritize data
+				ConnectionAcceptor.logger.debug("Accepted new connection. Setting it up for further usage.");
+				this.configuration.applyTo(newConnection);
 				return newConnection;
 			} catch(IOException ioe) {
+				if(newConnection != null) {
+					try {
+						newConnection.close();
+					} catch(IOException ioe2) {}
+				}
 				newConnection = null;
+				if(!this.keepRunning || this.acceptor.isClosed())
+					return null;
 				ConnectionAcceptor.logger.error("Error accepting new Connection.",ioe);
 				ioe.printStackTrace();
 			}
@@ -158,6 +343,95 @@ public abstract class ConnectionAcceptor implements Runnable{
 		return newConnection;
 	}
 	
+	/**
+	 * Blocks until the acceptor accepts a new Socket, that is admitted by the {@link #admissionControl}, sets up the Socket and return it.
+	 * Sockets that are rejected are closed right away, sockets that are deferred are handed over by {@link #admitDeferred(Socket)} later on.
+	 * If TLS is enabled, the admitted Socket is wrapped into TLS; the handshake is done by the thread of the connection later on.
+	 * @return the fully set up and admitted Socket, or null if the acceptor has been finished.
+	 */
+	protected Socket acceptSocket() {
+		while(true) {
+			Socket newConnection = setupSocket();
+			if(newConnection == null)
+				return null;
+			if(this.admissionControl != null && !this.admissionControl.admit(newConnection, this))
+				continue;
+			newConnection = wrapSocket(newConnection);
+			if(newConnection != null)
+				return newConnection;
+		}
+	}
+	
+	/**
+	 * Hands a connection, that has been deferred by the {@link #admissionControl}, to the server. Called by the thread of the timer, once the connection is
+	 * within the limit of its IP-address. If this acceptor has been finished in the meantime, the connection is closed.
+	 * @param socket the deferred and already set up Socket.
+	 */
+	void admitDeferred(Socket socket) {
+		if(!this.keepRunning) {
+			try {
+				socket.close();
+			} catch(IOException ioe) {}
+			return;
+		}
+		socket = wrapSocket(socket);
+		if(socket != null)
+			handOver(socket);
+	}
+	
+	/**
+	 * Wraps the passed admitted Socket into TLS, if TLS is enabled.
+	 * @param socket the admitted Socket.
+	 * @return the wrapped Socket, the passed one if TLS is disabled, or null if it could not be wrapped and has been closed.
+	 */
+	private Socket wrapSocket(Socket socket) {
+		if(this.tlsConfiguration == null)
+			return socket;
+		try {
+			return this.tlsConfiguration.wrap(socket);
+		} catch(IOException ioe) {
+			ConnectionAcceptor.logger.warn("Unable to wrap a new connection into TLS: {}", ioe.getMessage());
+			try {
+				socket.close();
+			} catch(IOException ioe2) {}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a new {@link Connection} for the passed admitted Socket, starts its thread and informs the main-thread about it.
+	 * Is called by the thread of this acceptor and, for deferred connections, by the thread of the timer.
+	 * @param socket the admitted and fully set up Socket.
+	 */
+	protected abstract void handOver(Socket socket);
+	
+	/**
+	 * Applies the per-connection settings (e.g. the rate limits) to a newly created {@link Connection}, before its runnable is started.
+	 * @param connection the newly created {@link Connection}.
+	 */
+	protected void configureConnection(Connection connection) {
+		if(this.admissionControl != null)
+			connection.setRateLimiter(this.admissionControl.createConnectionRateLimiter());
+		connection.setSubscriptionIndex(this.subscriptionIndex);
+		connection.setRecorder(this.recorder);
+		connection.setForwardLatency(this.forwardLatency);
+		connection.setTraceSampler(this.traceSampler);
+		if(this.tlsConfiguration != null)
+			connection.setTls(this.tlsConfiguration.getHandshakeTimeout(), this.tlsStatistics);
+		if(this.metrics != null) {
+			this.metrics.connectionAccepted();
+			connection.setMetrics(this.metrics);
+		}
+		if(connection instanceof CarConnection && this.historyLength > 0)
+			((CarConnection) connection).setSensorHistory(new SensorHistory(Keywords.sensorKeywords, this.historyResolution, this.historyLength, TimeUnit.MILLISECONDS));
+		ConnectionAcceptedEvent event = new ConnectionAcceptedEvent();
+		if(event.isEnabled()) {
+			event.setDeviceType(connection instanceof CarConnection ? "car" : "phone");
+			event.setAddress(connection.getIpAddress());
+			event.commit();
+		}
+	}
+	
 	/**
 	 * Creates a new {@link QueueElement} with the passed operation-type and {@link Connection} and puts it on the {@link #operationQueue}.
 	 * @param operationType the operationType for the new {@link QueueElement}
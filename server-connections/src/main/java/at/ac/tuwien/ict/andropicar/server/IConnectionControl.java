@@ -1,12 +1,19 @@
 package at.ac.tuwien.ict.andropicar.server;
 
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
+import at.ac.tuwien.ict.andropicar.server.connections.DataSubscription;
+import at.ac.tuwien.ict.andropicar.server.connections.IDataListener;
 import at.ac.tuwien.ict.andropicar.server.helper.CarInformation;
+import at.ac.tuwien.ict.andropicar.server.helper.ELatencyDirection;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.helper.SensorAggregate;
 
 
 /**
- * IConnectionControl provides methods to allow or disallow linking of certain devices as well as obtain {@link CarInformation}s of all registered cars.
+ * IConnectionControl provides methods to allow or disallow linking and observing of certain devices and commanding groups of cars as well as obtain {@link CarInformation}s of all registered cars.<br>
+ * It also allows other components to subscribe to the data that is received from cars and phones and to query the recent sensor-data of cars.
  * 
  * @author Boeck
  */
@@ -27,9 +34,99 @@ public interface IConnectionControl {
 	 */
 	boolean terminateLink(String phoneId);
 	
+	/**
+	 * Allows a {@link at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection} with the specified ID to observe the sensor-data of the {@link at.ac.tuwien.ict.andropicar.server.connections.CarConnection} with the specified ID,
+	 * without being able to control the car. A phone may be allowed to observe any number of cars, but observes at most one at a time.
+	 * A phone that is allowed to establish a link with a car may observe it as well.
+	 * @param phoneId the ID of the affected phone.
+	 * @param carId the ID of the affected car.
+	 */
+	void allowObservation(String phoneId, long carId);
+	
+	/**
+	 * Removes the permission of a {@link at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection} to observe a {@link at.ac.tuwien.ict.andropicar.server.connections.CarConnection} and
+	 * ends the observation, if the phone currently observes that car. The connection of the phone is not closed.
+	 * @param phoneId the ID of the affected phone.
+	 * @param carId the ID of the affected car.
+	 * @return true, if the current state of this object has changed due to the call of this method, otherwise false.
+	 */
+	boolean terminateObservation(String phoneId, long carId);
+	
+	/**
+	 * Defines a group of cars, that can be sent commands (e.g. stop, lights or winkers) at once, replacing any existing group with the same ID.
+	 * Cars that are not connected yet become members of the group as soon as they register.
+	 * @param groupId the ID of the group.
+	 * @param carIds the IDs of the cars that belong to the group.
+	 */
+	void defineCarGroup(String groupId, Collection<Long> carIds);
+	
+	/**
+	 * Removes a group of cars and the permissions of all phones to send commands to it.
+	 * @param groupId the ID of the group.
+	 * @return true, if the current state of this object has changed due to the call of this method, otherwise false.
+	 */
+	boolean removeCarGroup(String groupId);
+	
+	/**
+	 * Allows a {@link at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection} with the specified ID to send commands to all cars of a group.
+	 * A phone may command at most one group, so any previous permission of the phone is replaced.
+	 * @param phoneId the ID of the affected phone.
+	 * @param groupId the ID of the group.
+	 */
+	void allowGroupCommands(String phoneId, String groupId);
+	
+	/**
+	 * Removes the permission of a {@link at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection} to send commands to a group of cars. The connection of the phone is not closed.
+	 * @param phoneId the ID of the affected phone.
+	 * @return true, if the current state of this object has changed due to the call of this method, otherwise false.
+	 */
+	boolean terminateGroupCommands(String phoneId);
+	
 	/**
 	 * @return the list of all {@link CarInformation}s of all connected cars.
 	 */
 	Collection<CarInformation> getCarInformations();
+	
+	/**
+	 * Subscribes the passed listener to all data-sets of all connections, that match the passed {@link DataSubscription}.
+	 * A listener can only have one subscription, an existing one is replaced.
+	 * @param listener the listener to be informed.
+	 * @param subscription the filter of the data-sets (car IDs, phone ID and keywords). Unknown keywords are already rejected, when the subscription is created.
+	 */
+	void subscribe(IDataListener listener, DataSubscription subscription);
+	
+	/**
+	 * Removes the subscription of the passed listener.
+	 * @param listener the listener that should no longer be informed.
+	 * @return true, if the listener had a subscription, otherwise false.
+	 */
+	boolean unsubscribe(IDataListener listener);
+	
+	/**
+	 * Aggregates the values that a connected car has sent for one of its sensors within the last time window (e.g. the minimum front distance within the last 10 seconds).<br>
+	 * The query neither blocks the car nor allocates memory, so it can be called frequently, with a reused result.
+	 * @param carId the ID of the car.
+	 * @param sensor the keyword of the sensor (e.g. {@link at.ac.tuwien.ict.andropicar.server.helper.Keywords#ultrasonicSensor}).
+	 * @param window the duration of the window, which ends now. It is limited to the length of the history.
+	 * @param unit the {@link TimeUnit} of window.
+	 * @param result the object that the count, minimum, maximum and average are written to.
+	 * @return true, if the car is connected and has sent values for the sensor within the window, otherwise false.
+	 */
+	boolean getSensorAggregate(long carId, String sensor, long window, TimeUnit unit, SensorAggregate result);
+	
+	/**
+	 * Returns the percentiles of the time between receiving data from a device and writing it to the linked device, for all links that have existed since the server has been started.
+	 * @param direction the direction of the data.
+	 * @return the snapshot of the latencies.
+	 */
+	LatencySnapshot getLatencySnapshot(ELatencyDirection direction);
+	
+	/**
+	 * Returns the percentiles of the time between receiving data from a device and writing it to the linked device, for the current link of a car.
+	 * @param carId the ID of the car.
+	 * @param direction the direction of the data.
+	 * @return the snapshot of the latencies, or null if the car is not connected or not linked to a phone.
+	 */
+	LatencySnapshot getLinkLatencySnapshot(long carId, ELatencyDirection direction);
 
 }
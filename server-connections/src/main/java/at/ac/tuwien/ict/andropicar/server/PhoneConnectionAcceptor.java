@@ -32,6 +32,15 @@ public class PhoneConnectionAcceptor extends ConnectionAcceptor {
 		super(port, operationQueue);
 	}
 	
+	/**
+	 * @param port the port, that the {@link ServerSocket} should try to listen on, first.
+	 * @param operationQueue the {@link LinkedBlockingQueue} that is used to inform the main-thread about new incoming connections.
+	 * @param configuration the settings of the listening and the accepted sockets.
+	 */
+	public PhoneConnectionAcceptor(int port, LinkedBlockingQueue<QueueElement> operationQueue, AcceptorConfiguration configuration) {
+		super(port, operationQueue, configuration);
+	}
+	
 	
 	@Override
 	/**
@@ -42,16 +51,27 @@ public class PhoneConnectionAcceptor extends ConnectionAcceptor {
 		setupAcceptor();
 		PhoneConnectionAcceptor.logger.info("Starting to listen for incoming connect-requests from phones on port " + getPort() + "...");
 		while(super.isKeepRunning()) {
-			PhoneConnection newConnection = null;
-			(new Thread((newConnection =  new PhoneConnection(super.setupSocket(), super.getOperationQueue())), "PhoneConnection")).start();
-			if(!writeToOperationQueue(EOperationType.CONNECT, newConnection)) {
-				// this should never happen, since we never interrupt a thread
-				PhoneConnectionAcceptor.logger.warn("The accepted phone-connection will not be handled anymore.");
-				if(newConnection != null)
-					newConnection.finishConnection();
-			}
+			Socket socket = super.acceptSocket();
+			if(socket == null)
+				break;
+			handOver(socket);
 		}
 		finishAcceptor();
 	}
+	
+	@Override
+	/**
+	 * Creates a new {@link PhoneConnection} for the passed admitted Socket, starts its thread and informs the main-thread about it.
+	 */
+	protected void handOver(Socket socket) {
+		PhoneConnection newConnection = new PhoneConnection(socket, super.getOperationQueue());
+		super.configureConnection(newConnection);
+		(new Thread(newConnection, "PhoneConnection")).start();
+		if(!writeToOperationQueue(EOperationType.CONNECT, newConnection)) {
+			// this should never happen, since we never interrupt a thread
+			PhoneConnectionAcceptor.logger.warn("The accepted phone-connection will not be handled anymore.");
+			newConnection.finishConnection();
+		}
+	}
 
 }
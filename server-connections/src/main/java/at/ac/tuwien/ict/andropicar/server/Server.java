@@ -1,18 +1,62 @@
 package at.ac.tuwien.ict.andropicar.server;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
 
+import at.ac.tuwien.ict.andropicar.server.cluster.ClusterConfiguration;
+import at.ac.tuwien.ict.andropicar.server.cluster.ClusterNode;
+import at.ac.tuwien.ict.andropicar.server.cluster.ClusterPeer;
 import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.CarGroup;
 import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.connections.ControlWatchdog;
+import at.ac.tuwien.ict.andropicar.server.connections.DataSubscription;
+import at.ac.tuwien.ict.andropicar.server.connections.HeartbeatMonitor;
+import at.ac.tuwien.ict.andropicar.server.connections.IDataListener;
 import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayCarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayPhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.SubscriptionIndex;
 import at.ac.tuwien.ict.andropicar.server.helper.CarInformation;
+import at.ac.tuwien.ict.andropicar.server.helper.ELatencyDirection;
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
 import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
 import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.TlsStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.SensorAggregate;
+import at.ac.tuwien.ict.andropicar.server.helper.SensorHistory;
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+import at.ac.tuwien.ict.andropicar.server.helper.TraceSampler;
+import at.ac.tuwien.ict.andropicar.server.management.ManagementAgent;
+import at.ac.tuwien.ict.andropicar.server.management.OperationEvent;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder;
+import at.ac.tuwien.ict.andropicar.server.replication.Change;
+import at.ac.tuwien.ict.andropicar.server.replication.EChangeType;
+import at.ac.tuwien.ict.andropicar.server.replication.ReplicationConfiguration;
+import at.ac.tuwien.ict.andropicar.server.replication.ReplicationReplica;
+import at.ac.tuwien.ict.andropicar.server.replication.ReplicationSource;
+import at.ac.tuwien.ict.andropicar.server.video.IVideoAuthorization;
+import at.ac.tuwien.ict.andropicar.server.video.VideoConfiguration;
+import at.ac.tuwien.ict.andropicar.server.video.VideoRelay;
 
 import org.apache.logging.log4j.LogManager;
 
@@ -38,8 +82,41 @@ import org.apache.logging.log4j.LogManager;
  * regardless of the previous connection state of the car (a previously connected phone gets disconnected).<br>
  * An existing link between a phone and a car can be terminated at any time by removing the corresponding entry from the {@link #whitelist}.
  * This can be done via the {@link IConnectionControl}-interface.<br>
+ * Phones can also request to observe a car, which means that they receive its sensor-data without controlling it. Any number of phones can observe the same car,
+ * if they are allowed to in the {@link #observerWhitelist} (or the {@link #whitelist}).<br>
+ * A phone that is allowed to in the {@link #groupWhitelist} can send commands like stop to a whole {@link CarGroup} at once.
+ * The command is encoded only once and sent by the threads of the cars in parallel, so the time it takes does not depend on the size of the group.<br>
  * 
  * If a connection is closed, its corresponding thread finishes and it is removed from {@link #identifiedDevices} or {@link #unidentifiedDevices}, whichever applies.<br>
+ * Every accepted connection is watched by the {@link HeartbeatMonitor}, which pings idle devices and aborts the connections of devices that do not answer,
+ * so that dead devices do not hold links forever.<br>
+ * The traffic and the work of the server are counted in its {@link ServerMetrics}, which are exposed via JMX together with the counters of every registered device
+ * (see {@link ManagementAgent}).<br>
+ * The time that data takes from being received until being written to the linked device is recorded per link and per direction
+ * (see {@link #getLatencySnapshot(ELatencyDirection)}).<br>
+ * Every link is watched by the {@link ControlWatchdog}, which stops the car right away, if its phone has not sent control-data within the {@link #controlTimeout}.<br>
+ * New connections are rate-limited per IP-address and every connection is limited in the number of messages and bytes it may send (see {@link RateLimitSettings}),
+ * so that a single misbehaving device cannot slow down the server for all others.<br>
+ * The car- and phone-ports can be encrypted with TLS (see {@link #setTlsConfiguration(TlsConfiguration)}). Reconnecting devices resume their previous
+ * TLS-session, so a reconnecting fleet does not cost a full handshake per device (see {@link TlsStatistics}).<br>
+ * <br>
+ * The server is stopped via {@link #shutdown()}, which is also called by a shutdown-hook when the JVM terminates. It stops accepting new connections,
+ * tells all linked cars to stop, lets every connection send its pending output and close itself and forcibly closes the connections that did not make it
+ * within the {@link #drainTimeout}.<br>
+ * If a {@link TelemetryRecorder} has been set, the sensor-data of every car and the control-data of every phone is recorded to binary segment files,
+ * together with the registrations and link-requests of the devices, so that the traffic can be replayed later on.<br>
+ * Several servers can form a cluster (see {@link #setClusterConfiguration(ClusterConfiguration)}). A phone can then be linked to a car that is connected to another server,
+ * the link is relayed between the servers by the {@link ClusterNode}.<br>
+ * If the placement of the cluster is enabled, every car belongs to one server of the cluster. A car that registers with another server, and a phone that requests
+ * a link to a car of another server, are answered with the state 4 and the host and port of the server that the car belongs to, so that they connect to it instead.<br>
+ * A server can replicate its state (the whitelists, the groups, the links and the {@link CarInformation}s) to a standby server,
+ * which takes over once the server is confirmed to be lost (see {@link #setReplicationConfiguration(ReplicationConfiguration)}). The standby opens its device-ports
+ * only once it has taken over, so the devices never talk to both servers. It then accepts the reconnecting devices and links every phone to its car again,
+ * as soon as both have registered, without a new link-request of the phone.<br>
+ * The recent sensor-data of every car is kept in a {@link SensorHistory}, which can be queried via {@link #getSensorAggregate(long, String, long, TimeUnit, SensorAggregate)}
+ * without disturbing the car (see {@link #setSensorHistory(long, long)}).<br>
+ * The frames of the cameras of the cars can be relayed to their linked and observing phones over a binary video-port (see {@link #setVideoConfiguration(VideoConfiguration)}).
+ * The frames do not pass the main-thread: the {@link VideoRelay} only asks the server, if a car is registered and if a phone is linked to or observes a car.<br>
  * 
  * @author Boeck
  *
@@ -58,6 +135,9 @@ public class Server implements IConnectionControl {
 	/** The list of devices, that have identified themselves. */
 	private List<Connection> identifiedDevices = new ArrayList<Connection>();
 	
+	/** The cars, that have identified themselves, by their ID. Can be read by any thread. */
+	private ConcurrentHashMap<Long, CarConnection> cars = new ConcurrentHashMap<>();
+	
 	/** The operationQueue can be written to, to inform the main-thread about certain events and send information-relevant data. */  
 	private LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
 	
@@ -67,10 +147,149 @@ public class Server implements IConnectionControl {
 	/** The list of all links between phones and cars that the server allows. */
 	private HashMap<String, Long> whitelist = new HashMap<>();
 	
+	/** The cars that each phone is allowed to observe, in addition to the car of its entry in the {@link #whitelist}. */
+	private HashMap<String, Set<Long>> observerWhitelist = new HashMap<>();
+	
+	/** The groups of cars that can be sent commands at once, by their ID. Is also read by the main-thread, when cars register or disconnect. */
+	private ConcurrentHashMap<String, CarGroup> carGroups = new ConcurrentHashMap<>();
+	
+	/** The group of cars that each phone is allowed to send commands to, by the phones ID. */
+	private HashMap<String, String> groupWhitelist = new HashMap<>();
+	
+	/** The time in milliseconds without incoming data, after which a device is pinged. */
+	private long heartbeatInterval = 5000;
+	
+	/** The time in milliseconds that a pinged device has to answer within, before its connection is aborted. */
+	private long heartbeatTimeout = 5000;
+	
+	/** The time in milliseconds without control-data from a linked phone, after which its car is stopped, or 0 if cars are not stopped. */
+	private long controlTimeout = 250;
+	
+	/** The settings of the accept path (number of acceptors per port, backlog, socket options). */
+	private AcceptorConfiguration acceptorConfiguration = new AcceptorConfiguration();
+	
+	/** The rate limits for new connections per IP-address and for the messages and bytes per connection. */
+	private RateLimitSettings rateLimitSettings = new RateLimitSettings();
+	
+	/** The counters of all rate limit decisions. */
+	private RateLimitStatistics rateLimitStatistics = new RateLimitStatistics();
+	
+	/** The settings of TLS on the car- and phone-ports, or null if the connections are not encrypted. */
+	private TlsConfiguration tlsConfiguration = null;
+	
+	/** The counters of all TLS-handshakes. */
+	private TlsStatistics tlsStatistics = new TlsStatistics();
+	
+	/** The subscriptions of listeners to the data of all connections. */
+	private SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
+	
+	/** Records the sensor-data of all cars and the control-data of all phones, or null if nothing is recorded. */
+	private TelemetryRecorder recorder = null;
+	
+	/** The time between receiving data from a car and writing it to its linked phone, for all links. */
+	private LatencyHistogram carToPhoneLatency = new LatencyHistogram();
+	
+	/** The time between receiving data from a phone and writing it to its linked car, for all links. */
+	private LatencyHistogram phoneToCarLatency = new LatencyHistogram();
+	
+	/** Counts the traffic and the work of this server. */
+	private ServerMetrics metrics = new ServerMetrics();
+	
+	/** Decides which messages of the devices are traced, i.e. one out of every 100 per connection, once the trace-logger is enabled. */
+	private TraceSampler traceSampler = new TraceSampler(100);
+	
+	/** Exposes the metrics of this server and its connections via JMX, or null if they are not exposed. */
+	private ManagementAgent managementAgent = null;
+	
+	/** True, if the metrics of this server and its connections are exposed via JMX, otherwise false. */
+	private boolean jmxEnabled = true;
+	
+	/** The duration of a slot of the sensor history of every car in milliseconds. */
+	private long historyResolution = 100;
+	
+	/** The time in milliseconds that is covered by the sensor history of every car, or 0 if no history is kept. */
+	private long historyLength = 600000;
+	
+	/** The maximum time in milliseconds that connections are given to send their pending output and close themselves during a shutdown. */
+	private long drainTimeout = 5000;
+	
+	/** The flag, that indicates, if the main-thread should continue to process operations or not. */
+	private volatile boolean keepRunning = true;
+	
+	/** True, if the server is stopped because it was unable to bind a ServerSocket, otherwise false. */
+	private volatile boolean socketError = false;
+	
+	/** The acceptors of this server, which are stopped during a shutdown. */
+	private List<AcceptorGroup> acceptorGroups = new ArrayList<>();
+	
+	/** Released, once the server has been drained and stopped. */
+	private CountDownLatch terminated = new CountDownLatch(1);
+	
+	/** The time in milliseconds that the last drain took. */
+	private volatile long drainTime = 0;
+	
+	/** The timing wheel that manages all deadlines of this server (e.g. heartbeats). */
+	private HashedTimingWheel timer = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 512);
+	
+	/** Watches all connections and aborts the ones, whose devices do not respond anymore. */
+	private HeartbeatMonitor heartbeatMonitor = null;
+	
+	/** Stops cars whose linked phone does not send control-data anymore, or null if cars are not stopped. */
+	private ControlWatchdog controlWatchdog = null;
+	
+	/** The settings of this server as a node of a cluster, or null if it does not belong to a cluster. */
+	private ClusterConfiguration clusterConfiguration = null;
+	
+	/** Relays the links to the cars of the other nodes of the cluster, or null if the server has not been started or does not belong to a cluster. */
+	private ClusterNode cluster = null;
+	
+	/** The settings of the replication to or from another server, or null if the state of this server is not replicated. */
+	private ReplicationConfiguration replicationConfiguration = null;
+	
+	/** Sends the changes of the state of this server to its standby, or null if this server has no standby (yet). */
+	private volatile ReplicationSource replicationSource = null;
+	
+	/** Follows the primary, while this server is its standby, or null if this server is not a standby. */
+	private ReplicationReplica replica = null;
+	
+	/** True, once this server has taken over from its primary and opened its device-ports. Only used by the main-thread. */
+	private boolean promoted = false;
+	
+	/** The settings of the video-relay, or null if no video is relayed. */
+	private VideoConfiguration videoConfiguration = null;
+	
+	/** Relays the frames of the cameras of the cars to their phones, or null if the server has not been started or relays no video. */
+	private VideoRelay videoRelay = null;
+	
+	/** The links that have been replicated from the primary, but not restored yet, by the ID of the phone. */
+	private HashMap<String, Long> restoredLinks = new HashMap<>();
+	
+	/** The IDs of the phones of {@link #restoredLinks}, by the ID of the car. */
+	private HashMap<Long, String> restoredPhones = new HashMap<>();
+	
 	/** The logger that is used for logging messages. Part of the log4j2 library. */
 	private static final Logger logger = LogManager.getLogger(Server.class);
 	
 	
+	/**
+	 * Creates a server that accepts cars on port 6633 and phones on port 6636.
+	 */
+	public Server()
+	{
+	}
+	
+	/**
+	 * Creates a server that accepts cars and phones on the passed ports, e.g. to run several servers on the same host.
+	 * @param carAcceptorPort the port that the CarConnectionAcceptor listens on for new connections.
+	 * @param phoneAcceptorPort the port that the PhoneConnectionAcceptor listens on for new connections.
+	 */
+	public Server(int carAcceptorPort, int phoneAcceptorPort)
+	{
+		this.carAcceptorPort = carAcceptorPort;
+		this.phoneAcceptorPort = phoneAcceptorPort;
+	}
+	
+	
 	/**
 	 * @return the port that the CarConnectionAcceptor tries to listen on for new Connections
 	 */
@@ -87,6 +306,345 @@ public class Server implements IConnectionControl {
 		return phoneAcceptorPort;
 	}
 	
+	/**
+	 * @return the time in milliseconds without incoming data, after which a device is pinged.
+	 */
+	public long getHeartbeatInterval()
+	{
+		return heartbeatInterval;
+	}
+	
+	/**
+	 * Sets the time without incoming data, after which a device is pinged. Has to be called before the server is started.
+	 * @param heartbeatInterval the time in milliseconds.
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval)
+	{
+		this.heartbeatInterval = heartbeatInterval;
+	}
+	
+	/**
+	 * @return the time in milliseconds that a pinged device has to answer within, before its connection is aborted.
+	 */
+	public long getHeartbeatTimeout()
+	{
+		return heartbeatTimeout;
+	}
+	
+	/**
+	 * Sets the time that a pinged device has to answer within, before its connection is aborted. Has to be called before the server is started.
+	 * @param heartbeatTimeout the time in milliseconds.
+	 */
+	public void setHeartbeatTimeout(long heartbeatTimeout)
+	{
+		this.heartbeatTimeout = heartbeatTimeout;
+	}
+	
+	/**
+	 * @return the time in milliseconds without control-data from a linked phone, after which its car is stopped, or 0 if cars are not stopped.
+	 */
+	public long getControlTimeout()
+	{
+		return controlTimeout;
+	}
+	
+	/**
+	 * Sets the time without control-data from a linked phone, after which its car is stopped. Has to be called before the server is started.
+	 * The car is stopped at most one tick of the {@link #timer} (10 ms) after this time.
+	 * @param controlTimeout the time in milliseconds, or 0 to not stop cars.
+	 */
+	public void setControlTimeout(long controlTimeout)
+	{
+		this.controlTimeout = controlTimeout;
+	}
+	
+	/**
+	 * @return true, if the metrics of this server and its connections are exposed via JMX, otherwise false.
+	 */
+	public boolean isJmxEnabled()
+	{
+		return jmxEnabled;
+	}
+	
+	/**
+	 * Sets if the metrics of this server and its connections are exposed via JMX (see {@link ManagementAgent}). Has to be called before the server is started.
+	 * @param jmxEnabled true, to expose the metrics, otherwise false.
+	 */
+	public void setJmxEnabled(boolean jmxEnabled)
+	{
+		this.jmxEnabled = jmxEnabled;
+	}
+	
+	/**
+	 * @return the settings of this server as a node of a cluster, or null if it does not belong to a cluster.
+	 */
+	public ClusterConfiguration getClusterConfiguration()
+	{
+		return clusterConfiguration;
+	}
+	
+	/**
+	 * Makes this server a node of a cluster. Has to be called before the server is started.
+	 * @param clusterConfiguration the settings of this node, or null if the server does not belong to a cluster.
+	 */
+	public void setClusterConfiguration(ClusterConfiguration clusterConfiguration)
+	{
+		this.clusterConfiguration = clusterConfiguration;
+	}
+	
+	/**
+	 * @return the node that relays the links to the cars of the other nodes of the cluster, or null if the server has not been started or does not belong to a cluster.
+	 */
+	public ClusterNode getCluster()
+	{
+		return cluster;
+	}
+	
+	/**
+	 * @return the settings of the replication to or from another server, or null if the state of this server is not replicated.
+	 */
+	public ReplicationConfiguration getReplicationConfiguration()
+	{
+		return this.replicationConfiguration;
+	}
+	
+	/**
+	 * Replicates the state of this server to a standby, or makes this server the standby of another server. Has to be set before the server is started.
+	 * @param replicationConfiguration the settings of the replication, or null if the state of this server should not be replicated.
+	 */
+	public void setReplicationConfiguration(ReplicationConfiguration replicationConfiguration)
+	{
+		this.replicationConfiguration = replicationConfiguration;
+	}
+	
+	/**
+	 * @return the settings of the video-relay, or null if no video is relayed.
+	 */
+	public VideoConfiguration getVideoConfiguration()
+	{
+		return this.videoConfiguration;
+	}
+	
+	/**
+	 * Relays the frames of the cameras of the cars to their phones over a port of its own. Has to be set before the server is started.
+	 * @param videoConfiguration the settings of the video-relay, or null if no video should be relayed.
+	 */
+	public void setVideoConfiguration(VideoConfiguration videoConfiguration)
+	{
+		this.videoConfiguration = videoConfiguration;
+	}
+	
+	/**
+	 * @return the relay of the frames of the cameras of the cars, or null if the server has not been started or relays no video.
+	 */
+	public VideoRelay getVideoRelay()
+	{
+		return this.videoRelay;
+	}
+	
+	/**
+	 * @return the source that sends the changes of the state of this server to its standby, or null if this server has no standby (yet).
+	 */
+	public ReplicationSource getReplicationSource()
+	{
+		return this.replicationSource;
+	}
+	
+	/**
+	 * @return the replica that follows the primary, or null if this server is not a standby or has not been started yet.
+	 */
+	public ReplicationReplica getReplica()
+	{
+		return this.replica;
+	}
+	
+	/**
+	 * @return the counters of the traffic and the work of this server.
+	 */
+	public ServerMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * The interval of the sampler can be changed at any time. The events are only logged, if the logger {@link TraceSampler#LOGGER_NAME} is enabled at level TRACE.
+	 * @return the sampler, that decides which messages of the devices are traced.
+	 */
+	public TraceSampler getTraceSampler()
+	{
+		return traceSampler;
+	}
+	
+	/**
+	 * @return the number of operations that wait on the operation-queue to be processed by the main-thread.
+	 */
+	public int getOperationQueueSize()
+	{
+		return this.operationQueue.size();
+	}
+	
+	/**
+	 * @return the number of cars that have registered and are still connected.
+	 */
+	public int getRegisteredCarCount()
+	{
+		return this.cars.size();
+	}
+	
+	/**
+	 * @return the number of phones that have registered and are still connected. May be slightly off, if it is not called by the main-thread.
+	 */
+	public int getRegisteredPhoneCount()
+	{
+		return Math.max(this.identifiedDevices.size() - this.cars.size(), 0);
+	}
+	
+	/**
+	 * @return the number of connections whose device has not identified itself yet. May be slightly off, if it is not called by the main-thread.
+	 */
+	public int getUnidentifiedDeviceCount()
+	{
+		return this.unidentifiedDevices.size();
+	}
+	
+	/**
+	 * @return the number of links between phones and cars.
+	 */
+	public int getActiveLinkCount()
+	{
+		int links = 0;
+		for(CarConnection car : this.cars.values())
+			if(car.getLinkedPhone() != null)
+				links++;
+		return links;
+	}
+	
+	/**
+	 * @return the watchdog that stops cars whose linked phone does not send control-data anymore, or null if the server has not been started or cars are not stopped.
+	 */
+	public ControlWatchdog getControlWatchdog()
+	{
+		return controlWatchdog;
+	}
+	
+	/**
+	 * @return the settings of the accept path. Changes have to be made before the server is started.
+	 */
+	public AcceptorConfiguration getAcceptorConfiguration()
+	{
+		return acceptorConfiguration;
+	}
+	
+	/**
+	 * @return the rate limits for new connections per IP-address and for the messages and bytes per connection. Changes have to be made before the server is started.
+	 */
+	public RateLimitSettings getRateLimitSettings()
+	{
+		return rateLimitSettings;
+	}
+	
+	/**
+	 * @return the counters of all rate limit decisions.
+	 */
+	public RateLimitStatistics getRateLimitStatistics()
+	{
+		return rateLimitStatistics;
+	}
+	
+	/**
+	 * @return the settings of TLS on the car- and phone-ports, or null if the connections are not encrypted.
+	 */
+	public TlsConfiguration getTlsConfiguration()
+	{
+		return tlsConfiguration;
+	}
+	
+	/**
+	 * Encrypts the connections of all cars and phones with TLS. Has to be set before the server is started.
+	 * @param tlsConfiguration the settings of TLS, or null if the connections should not be encrypted.
+	 */
+	public void setTlsConfiguration(TlsConfiguration tlsConfiguration)
+	{
+		this.tlsConfiguration = tlsConfiguration;
+	}
+	
+	/**
+	 * @return the counters of all TLS-handshakes.
+	 */
+	public TlsStatistics getTlsStatistics()
+	{
+		return tlsStatistics;
+	}
+	
+	/**
+	 * @return the recorder of the sensor- and control-data, or null if nothing is recorded.
+	 */
+	public TelemetryRecorder getRecorder()
+	{
+		return recorder;
+	}
+	
+	/**
+	 * Sets the recorder of the sensor-data of all cars and the control-data of all phones. Has to be called before the server is started.
+	 * The recorder is closed, once the server has been drained.
+	 * @param recorder the recorder, or null to not record anything.
+	 */
+	public void setRecorder(TelemetryRecorder recorder)
+	{
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return the duration of a slot of the sensor history of every car in milliseconds.
+	 */
+	public long getHistoryResolution()
+	{
+		return historyResolution;
+	}
+	
+	/**
+	 * @return the time in milliseconds that is covered by the sensor history of every car, or 0 if no history is kept.
+	 */
+	public long getHistoryLength()
+	{
+		return historyLength;
+	}
+	
+	/**
+	 * Sets the size of the sensor history of every car (see {@link SensorHistory}). Has to be called before the server is started.
+	 * @param historyResolution the duration of a slot in milliseconds.
+	 * @param historyLength the time in milliseconds that is covered by the history, or 0 to not keep a history.
+	 */
+	public void setSensorHistory(long historyResolution, long historyLength)
+	{
+		this.historyResolution = historyResolution;
+		this.historyLength = historyLength;
+	}
+	
+	/**
+	 * @return the maximum time in milliseconds that connections are given to send their pending output and close themselves during a shutdown.
+	 */
+	public long getDrainTimeout()
+	{
+		return drainTimeout;
+	}
+	
+	/**
+	 * @param drainTimeout the maximum time in milliseconds that connections are given to send their pending output and close themselves during a shutdown.
+	 */
+	public void setDrainTimeout(long drainTimeout)
+	{
+		this.drainTimeout = drainTimeout;
+	}
+	
+	/**
+	 * @return the timing wheel that manages all deadlines of this server.
+	 */
+	public HashedTimingWheel getTimer()
+	{
+		return timer;
+	}
+	
 	/**
 	 * 
 	 * @param phoneId the id of the {@link at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection PhoneConnection} that should be found.
@@ -108,13 +666,17 @@ public class Server implements IConnectionControl {
 	 * @return the {@link CarConnection} whose id matches the passed one or null, if no match was found.
 	 */
 	public CarConnection findCar(long carId) {
-		for(Connection conn : this.identifiedDevices) {
-			if(conn instanceof CarConnection) {
-				if(((CarConnection) conn).getId() == carId)
-					return (CarConnection) conn;
-			}
-		}
-		return null;
+		return this.cars.get(carId);
+	}
+	
+	/**
+	 * Registers a device, that has already been identified and whose thread is not run by this server (see {@link at.ac.tuwien.ict.andropicar.server.connections.DetachedDevices DetachedDevices}),
+	 * just like the main-thread registers a device that has identified itself. Phones are only registered, if they are whitelisted.<br>
+	 * Has to be called before the server is started, since the registered devices are owned by its main-thread afterwards.
+	 * @param connection the car or phone to be registered.
+	 */
+	public void registerIdentifiedDevice(Connection connection) {
+		this.identifyDevice(connection);
 	}
 	
 	/**
@@ -127,6 +689,7 @@ public class Server implements IConnectionControl {
 		if(this.findPhone(phoneId) != null && this.whitelist.get(phoneId) != null && this.whitelist.get(phoneId) != carId)
 			this.findPhone(phoneId).setLinkedCar(null);
 		this.whitelist.put(phoneId, carId);
+		this.publish(EChangeType.ALLOW_LINK, phoneId, null, carId);
 	}
 
 	/**
@@ -138,6 +701,7 @@ public class Server implements IConnectionControl {
 	public boolean terminateLink(String phoneId) {
 		if(this.whitelist.remove(phoneId) == null)
 			return false;
+		this.publish(EChangeType.TERMINATE_LINK, phoneId, null);
 		for(Connection conn : this.identifiedDevices) {
 			if(conn instanceof PhoneConnection) {
 				if(((PhoneConnection) conn).getId().equals(phoneId)) {
@@ -150,6 +714,95 @@ public class Server implements IConnectionControl {
 		return false;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void allowObservation(String phoneId, long carId) {
+		Set<Long> observableCars = this.observerWhitelist.get(phoneId);
+		if(observableCars == null) {
+			observableCars = new HashSet<>();
+			this.observerWhitelist.put(phoneId, observableCars);
+		}
+		observableCars.add(carId);
+		this.publish(EChangeType.ALLOW_OBSERVATION, phoneId, null, carId);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean terminateObservation(String phoneId, long carId) {
+		Set<Long> observableCars = this.observerWhitelist.get(phoneId);
+		if(observableCars == null || !observableCars.remove(carId))
+			return false;
+		if(observableCars.isEmpty())
+			this.observerWhitelist.remove(phoneId);
+		this.publish(EChangeType.TERMINATE_OBSERVATION, phoneId, null, carId);
+		PhoneConnection phone = this.findPhone(phoneId);
+		if(phone != null && !this.mayObserve(phoneId, carId)) {
+			CarConnection car = phone.getObservedCar();
+			if(car != null && car.getId() == carId)
+				phone.setObservedCar(null);
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void defineCarGroup(String groupId, Collection<Long> carIds) {
+		CarGroup group = new CarGroup(groupId, carIds);
+		for(long carId : group.getCarIds()) {
+			CarConnection car = this.cars.get(carId);
+			if(car != null)
+				group.addMember(car);
+		}
+		this.carGroups.put(groupId, group);
+		updateGroupPermissions(groupId, group);
+		this.publishGroup(group);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean removeCarGroup(String groupId) {
+		if(this.carGroups.remove(groupId) == null)
+			return false;
+		this.groupWhitelist.values().removeAll(Collections.singleton(groupId));
+		updateGroupPermissions(groupId, null);
+		this.publish(EChangeType.REMOVE_GROUP, groupId, null);
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void allowGroupCommands(String phoneId, String groupId) {
+		this.groupWhitelist.put(phoneId, groupId);
+		this.publish(EChangeType.ALLOW_GROUP_COMMANDS, phoneId, groupId);
+		PhoneConnection phone = this.findPhone(phoneId);
+		if(phone != null)
+			phone.setCarGroup(this.carGroups.get(groupId));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean terminateGroupCommands(String phoneId) {
+		if(this.groupWhitelist.remove(phoneId) == null)
+			return false;
+		this.publish(EChangeType.TERMINATE_GROUP_COMMANDS, phoneId, null);
+		PhoneConnection phone = this.findPhone(phoneId);
+		if(phone != null)
+			phone.setCarGroup(null);
+		return true;
+	}
+	
 	/**
 	 * @return the list of all {@link CarInformation}s of all connected cars.
 	 */
@@ -158,6 +811,54 @@ public class Server implements IConnectionControl {
 		return this.carInformations;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void subscribe(IDataListener listener, DataSubscription subscription) {
+		this.subscriptionIndex.subscribe(listener, subscription);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean unsubscribe(IDataListener listener) {
+		return this.subscriptionIndex.unsubscribe(listener);
+	}
+	
+	@Override
+	public boolean getSensorAggregate(long carId, String sensor, long window, TimeUnit unit, SensorAggregate result) {
+		CarConnection car = this.cars.get(carId);
+		if(car == null)
+			return false;
+		SensorHistory history = car.getSensorHistory();
+		return history != null && history.aggregate(sensor, window, unit, result);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LatencySnapshot getLatencySnapshot(ELatencyDirection direction) {
+		return (direction == ELatencyDirection.CAR_TO_PHONE ? this.carToPhoneLatency : this.phoneToCarLatency).getSnapshot();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LatencySnapshot getLinkLatencySnapshot(long carId, ELatencyDirection direction) {
+		CarConnection car = this.cars.get(carId);
+		if(car == null)
+			return null;
+		PhoneConnection phone = car.getLinkedPhone();
+		if(phone == null)
+			return null;
+		LatencyHistogram linkLatency = direction == ELatencyDirection.CAR_TO_PHONE ? car.getLinkLatency() : phone.getLinkLatency();
+		return linkLatency != null ? linkLatency.getSnapshot() : null;
+	}
+	
 	/**
 	 * Adds the passed {@link Connection} to {@link #unidentifiedDevices}, removing any already contained {@link Connection}s with the same device.
 	 * @param connection the {@link Connection} to be added to {@link #unidentifiedDevices}.
@@ -165,6 +866,7 @@ public class Server implements IConnectionControl {
 	private void addUnidentifiedDevice(Connection connection) {
 		this.unidentifiedDevices.remove(connection);
 		this.unidentifiedDevices.add(connection);
+		this.heartbeatMonitor.watch(connection);
 		if(connection instanceof PhoneConnection)
 			Server.logger.info("Added a new PhoneConnection to the list of unidentified devices.");
 		if(connection instanceof CarConnection)
@@ -173,7 +875,7 @@ public class Server implements IConnectionControl {
 	
 	/**
 	 * Takes a {@link Connection} and adds it to the list of identified devices.
-	 * {@link PhoneConnection}s can only be added, if an entry in the whitelist exists for that phone,
+	 * {@link PhoneConnection}s can only be added, if an entry in the whitelist, the observer-whitelist or the group-whitelist exists for that phone,
 	 * otherwise the registration will be rejected and the connection closed.<br>
 	 * The registering device is informed, if the process has been successful or not.
 	 * @param connection The {@link Connection} to be registered.
@@ -182,9 +884,14 @@ public class Server implements IConnectionControl {
 		if(connection instanceof PhoneConnection) {
 			PhoneConnection phone = (PhoneConnection) connection;
 			// only add the phone if it is whitelisted
-			if(this.whitelist.containsKey(phone.getId())) {
+			if(this.whitelist.containsKey(phone.getId()) || this.observerWhitelist.containsKey(phone.getId()) || this.groupWhitelist.containsKey(phone.getId())) {
 				this.identifiedDevices.add(connection);
-				Server.logger.info("Added the phone to the list of connected phones.");
+				if(this.managementAgent != null)
+					this.managementAgent.register(connection);
+				String groupId = this.groupWhitelist.get(phone.getId());
+				if(groupId != null)
+					phone.setCarGroup(this.carGroups.get(groupId));
+				Server.logger.info("Added the phone {} to the list of connected phones.", phone.getId());
 				// registering was successful, informing the client
 				phone.addToOutputMessageMap(Keywords.state, 1);
 			}
@@ -196,14 +903,25 @@ public class Server implements IConnectionControl {
 			
 		}
 		else if(connection instanceof CarConnection) {
+			if(this.redirect(connection, ((CarConnection) connection).getId())) {
+				connection.finishConnection();
+				return;
+			}
 			if(this.findCar(((CarConnection) connection).getId()) == null) {
 				this.identifiedDevices.add(connection);
+				this.cars.put(((CarConnection) connection).getId(), (CarConnection) connection);
+				if(this.managementAgent != null)
+					this.managementAgent.register(connection);
+				for(CarGroup group : this.carGroups.values())
+					group.addMember((CarConnection) connection);
+				if(this.cluster != null)
+					this.cluster.carRegistered(((CarConnection) connection).getId());
 				connection.addToOutputMessageMap(Keywords.state, 1);
-				Server.logger.info("Added the car to the list of connected cars.");
+				Server.logger.info("Added the car {} to the list of connected cars.", connection.getDeviceId());
 			}
 			else {
 				connection.addToOutputMessageMap(Keywords.state, -1);
-				Server.logger.info("A car with a duplicate ID tried to connect.");
+				Server.logger.info("A car with the duplicate ID {} tried to connect.", connection.getDeviceId());
 				return;
 			}
 		}
@@ -212,6 +930,9 @@ public class Server implements IConnectionControl {
 		}
 		if(this.unidentifiedDevices.remove(connection))
 			Server.logger.info("Removed aformentioned device from list of unidentified devices");
+		// the links are only restored by a server that serves the devices, i.e. not by a standby that has not taken over yet
+		if(!this.restoredLinks.isEmpty() && (this.replica == null || this.promoted))
+			restoreLink(connection);
 	}
 	
 	/**
@@ -219,7 +940,9 @@ public class Server implements IConnectionControl {
 	 * The passed connection has to be the {@link PhoneConnection} that requested control over a car.
 	 * If that requirement is met, and the {@link PhoneConnection} has permission to be linked with the car,
 	 * the corresponding {@link CarConnection} is searched for in the list of {@link #identifiedDevices}.
-	 * If the car is found, a link between the two devices is established.<br>
+	 * If the car is found, a link between the two devices is established.
+	 * Otherwise, if the car belongs to another node of the cluster, the phone is redirected to that node,
+	 * or, if the placement is disabled and the car is connected to another node, the link is relayed to that node (see {@link ClusterNode}).<br>
 	 * The {@link PhoneConnection} is informed of the success of the operation.
 	 * @param connection the {@link PhoneConnection} to be linked to a car.
 	 */
@@ -227,10 +950,15 @@ public class Server implements IConnectionControl {
 		if(connection instanceof PhoneConnection)
 		{
 			PhoneConnection phone = ((PhoneConnection)connection);
-			Server.logger.info("A phone wants to be connected to a car with and ID of " + phone.getLinkRequestId());
-			if(this.whitelist.get(phone.getId()) != phone.getLinkRequestId()) {
+			Server.logger.info("The phone {} wants to be connected to the car with an ID of {}.", phone.getId(), Unbox.box(phone.getLinkRequestId()));
+			// the link of a phone of another node has already been checked against the whitelist of that node
+			boolean relayed = phone instanceof RelayPhoneConnection;
+			if(relayed && ((RelayPhoneConnection) phone).isReleased())
+				return;
+			Long allowedCarId = this.whitelist.get(phone.getId());
+			if(!relayed && (allowedCarId == null || allowedCarId != phone.getLinkRequestId())) {
 				phone.addToOutputMessageMap(Keywords.state, 0);
-				Server.logger.info("Phone is not whitelisted to be connected with that car");
+				Server.logger.info("The phone {} is not whitelisted to be connected with that car.", phone.getId());
 				return;
 			}
 			boolean found = false;
@@ -244,19 +972,121 @@ public class Server implements IConnectionControl {
 					car.setLinkedPhone(phone);
 					phone.setLinkedCar(car);
 					phone.addToOutputMessageMap(Keywords.state, 2);
+					if(!relayed)
+						this.publish(EChangeType.LINKED, phone.getId(), null, car.getId());
+					// the watchdog of the node of a relayed phone watches the link
+					if(this.controlWatchdog != null && !relayed)
+						this.controlWatchdog.watch(phone, car);
 					found = true;
-					Server.logger.info("Found the requested car and connected the phone to it.");
+					Server.logger.info("Found the requested car and connected the phone {} to it.", phone.getId());
 					break;
 				}
 			}
+			if(found == false && !relayed && this.redirect(phone, phone.getLinkRequestId()))
+				return;
+			if(found == false && this.cluster != null && !relayed)
+			{
+				RelayCarConnection car = this.cluster.link(phone, phone.getLinkRequestId());
+				if(car != null) {
+					// the phone is told about the link, once the node of the car has established it
+					if(this.controlWatchdog != null)
+						this.controlWatchdog.watch(phone, car);
+					this.publish(EChangeType.LINKED, phone.getId(), null, car.getId());
+					found = true;
+					Server.logger.info("Relayed the link of the phone {} to the node of the car.", phone.getId());
+				}
+			}
 			if(found == false)
 			{
-				Server.logger.info("The car with an ID of " + phone.getLinkRequestId() + ", is not connected at the moment.");
+				Server.logger.info("The car with an ID of {} is not connected at the moment.", Unbox.box(phone.getLinkRequestId()));
 				phone.addToOutputMessageMap(Keywords.state, 0);
 			}
 		}
 	}
 	
+	/**
+	 * Redirects the passed device to the node of the cluster, that the car belongs to, if that is not this node.
+	 * The device is sent the state 4 together with the host and the port of that node.
+	 * @param connection the car that registers or the phone that requests a link.
+	 * @param carId the ID of the car.
+	 * @return true, if the device has been redirected, otherwise false.
+	 */
+	private boolean redirect(Connection connection, long carId) {
+		if(this.cluster == null)
+			return false;
+		ClusterPeer peer = this.cluster.redirectOf(carId);
+		if(peer == null)
+			return false;
+		HashMap<String, Object> redirection = new HashMap<>();
+		redirection.put(Keywords.state, 4);
+		redirection.put(Keywords.host, peer.getHost());
+		redirection.put(Keywords.port, connection instanceof CarConnection ? peer.getCarPort() : peer.getPhonePort());
+		connection.addToOutputMessageMap(redirection);
+		Server.logger.info("Redirected the device {} to the node of the car with an ID of {}.", connection.getDeviceId(), Unbox.box(carId));
+		return true;
+	}
+	
+	/**
+	 * Hands the passed group to every connected phone that is allowed to send commands to a group with the passed ID.
+	 * @param groupId the ID of the group.
+	 * @param group the group, or null if it has been removed.
+	 */
+	private void updateGroupPermissions(String groupId, CarGroup group) {
+		for(Connection conn : this.identifiedDevices) {
+			if(conn instanceof PhoneConnection) {
+				PhoneConnection phone = (PhoneConnection) conn;
+				CarGroup currentGroup = phone.getCarGroup();
+				if(groupId.equals(this.groupWhitelist.get(phone.getId())) || (currentGroup != null && currentGroup.getId().equals(groupId)))
+					phone.setCarGroup(group);
+			}
+		}
+	}
+	
+	/**
+	 * @param phoneId the ID of a phone.
+	 * @param carId the ID of a car.
+	 * @return true, if the phone is allowed to observe the car, either through the {@link #observerWhitelist} or the {@link #whitelist}, otherwise false.
+	 */
+	private boolean mayObserve(String phoneId, long carId) {
+		Long allowedCarId = this.whitelist.get(phoneId);
+		if(allowedCarId != null && allowedCarId == carId)
+			return true;
+		Set<Long> observableCars = this.observerWhitelist.get(phoneId);
+		return observableCars != null && observableCars.contains(carId);
+	}
+	
+	/**
+	 * Lets the passed {@link PhoneConnection} observe the car that it requested to observe, if it is allowed to and the car is connected.<br>
+	 * The {@link PhoneConnection} is informed of the success of the operation.
+	 * @param connection the {@link PhoneConnection} that wants to observe a car.
+	 */
+	private void observeCar(Connection connection) {
+		if(!(connection instanceof PhoneConnection))
+			return;
+		PhoneConnection phone = (PhoneConnection) connection;
+		long carId = phone.getObserveRequestId();
+		if(!this.mayObserve(phone.getId(), carId)) {
+			phone.addToOutputMessageMap(Keywords.state, 0);
+			Server.logger.info("The phone {} is not allowed to observe the car with an ID of {}.", phone.getId(), Unbox.box(carId));
+			return;
+		}
+		CarConnection car = this.cars.get(carId);
+		if(car == null) {
+			phone.addToOutputMessageMap(Keywords.state, 0);
+			Server.logger.info("The car with an ID of {} is not connected at the moment.", Unbox.box(carId));
+			return;
+		}
+		phone.setObservedCar(car);
+		car.addObserver(phone);
+		if(phone.getCloseConnection() || car.getCloseConnection()) {
+			// one of the devices has been closed in the meantime
+			phone.setObservedCar(null);
+			return;
+		}
+		phone.addToOutputMessageMap(Keywords.state, 3);
+		Server.logger.info("The phone {} observes the car with an ID of {} now, together with {} other phones.", phone.getId(), Unbox.box(carId), Unbox.box(car.getObserverCount() - 1));
+	}
+	
 	/**
 	 * Removes the passed {@link Connection} either from {@link #unidentifiedDevices} or {@link #identifiedDevices}, whichever list contains the element.
 	 * @param connection the connection to be removed from the lists of connected devices.
@@ -268,10 +1098,20 @@ public class Server implements IConnectionControl {
 			return;
 		}
 		else if(this.identifiedDevices.remove(connection)) {
-			if(connection instanceof PhoneConnection)
-				Server.logger.warn("A phone just got disconnected.");
-			else if(connection instanceof CarConnection)
-				Server.logger.warn("A car just got disconnected.");
+			if(this.managementAgent != null)
+				this.managementAgent.unregister(connection);
+			if(connection instanceof PhoneConnection) {
+				this.publish(EChangeType.UNLINKED, ((PhoneConnection) connection).getId(), null);
+				Server.logger.warn("The phone {} just got disconnected.", connection.getDeviceId());
+			}
+			else if(connection instanceof CarConnection) {
+				this.publish(EChangeType.CAR_DISCONNECTED, null, null, ((CarConnection) connection).getId());
+				if(this.cars.remove(((CarConnection) connection).getId(), connection) && this.cluster != null)
+					this.cluster.carRemoved(((CarConnection) connection).getId());
+				for(CarGroup group : this.carGroups.values())
+					group.removeMember((CarConnection) connection);
+				Server.logger.warn("The car {} just got disconnected.", connection.getDeviceId());
+			}
 		}
 		else {
 			Server.logger.warn("A request to remove a connected device could not be executed, because the device was not in any list of connected devices.");
@@ -289,19 +1129,236 @@ public class Server implements IConnectionControl {
 		CarInformation carInfo = ((CarConnection) connection).getCarInformation();
 		this.carInformations.remove(carInfo);
 		this.carInformations.add(carInfo);
+		this.publish(EChangeType.CAR_INFO, null, carInfo.getIp(), carInfo.getId(), Server.capabilitiesOf(carInfo));
+	}
+	
+	/**
+	 * Links the phone of a link, that has been replicated from the primary, to its car again, once both have registered with this server.
+	 * The phone is informed like after a link-request of its own.
+	 * @param connection the phone or car, that has just registered.
+	 */
+	private void restoreLink(Connection connection) {
+		PhoneConnection phone;
+		Long carId;
+		if(connection instanceof PhoneConnection) {
+			phone = (PhoneConnection) connection;
+			carId = this.restoredLinks.get(phone.getId());
+		}
+		else if(connection instanceof CarConnection) {
+			carId = ((CarConnection) connection).getId();
+			String phoneId = this.restoredPhones.get(carId);
+			phone = phoneId != null ? this.findPhone(phoneId) : null;
+		}
+		else
+			return;
+		if(phone == null || carId == null || this.cars.get(carId) == null)
+			return;
+		this.restoredLinks.remove(phone.getId());
+		this.restoredPhones.remove(carId);
+		Server.logger.info("Restoring the link of the phone {} to the car with an ID of {}.", phone.getId(), carId);
+		phone.setLinkRequest(carId);
+		linkDevices(phone);
+	}
+	
+	/**
+	 * Publishes a change of the state of this server to its standby, if it has one.
+	 * @param type the type of the change.
+	 * @param id the ID of the phone or group, or null.
+	 * @param text a second string, or null.
+	 * @param values the numbers of the change.
+	 */
+	private void publish(EChangeType type, String id, String text, long... values) {
+		ReplicationSource source = this.replicationSource;
+		if(source != null)
+			source.publish(type, id, text, values);
+	}
+	
+	/**
+	 * Publishes the definition of a group of cars to the standby, if this server has one.
+	 * @param group the group.
+	 */
+	private void publishGroup(CarGroup group) {
+		if(this.replicationSource == null)
+			return;
+		long[] carIds = new long[group.getCarIds().size()];
+		int i = 0;
+		for(long carId : group.getCarIds())
+			carIds[i++] = carId;
+		this.publish(EChangeType.DEFINE_GROUP, group.getId(), null, carIds);
+	}
+	
+	/**
+	 * Publishes the whole state of this server to the standby, that has just connected. Has to be executed by the main-thread.<br>
+	 * The changes, that are published while the snapshot is taken, are sent in between and are idempotent, so the standby ends up with the current state.
+	 */
+	private void publishSnapshot() {
+		this.publish(EChangeType.SNAPSHOT_BEGIN, null, null);
+		for(Map.Entry<String, Long> entry : this.whitelist.entrySet())
+			this.publish(EChangeType.ALLOW_LINK, entry.getKey(), null, entry.getValue());
+		for(Map.Entry<String, Set<Long>> entry : this.observerWhitelist.entrySet()) {
+			for(long carId : entry.getValue())
+				this.publish(EChangeType.ALLOW_OBSERVATION, entry.getKey(), null, carId);
+		}
+		for(CarGroup group : this.carGroups.values())
+			this.publishGroup(group);
+		for(Map.Entry<String, String> entry : this.groupWhitelist.entrySet())
+			this.publish(EChangeType.ALLOW_GROUP_COMMANDS, entry.getKey(), entry.getValue());
+		for(CarInformation carInfo : this.carInformations)
+			this.publish(EChangeType.CAR_INFO, null, carInfo.getIp(), carInfo.getId(), Server.capabilitiesOf(carInfo));
+		for(Connection conn : this.identifiedDevices) {
+			if(conn instanceof PhoneConnection && ((PhoneConnection) conn).getLinkedCar() != null)
+				this.publish(EChangeType.LINKED, ((PhoneConnection) conn).getId(), null, ((PhoneConnection) conn).getLinkedCar().getId());
+		}
+		// the links that this server has taken over, but not restored yet
+		for(Map.Entry<String, Long> entry : this.restoredLinks.entrySet())
+			this.publish(EChangeType.LINKED, entry.getKey(), null, entry.getValue());
+		this.publish(EChangeType.SNAPSHOT_END, null, null);
+	}
+	
+	/**
+	 * Applies all changes, that have been received from the primary, and takes over, if the primary has been lost. Has to be executed by the main-thread.
+	 */
+	private void replicate() {
+		Change change;
+		while((change = this.replica.poll()) != null) {
+			applyChange(change);
+			this.replica.applied(change);
+		}
+		if(this.replica.isPromoted() && !this.promoted) {
+			this.promoted = true;
+			Server.logger.warn("Took over from the primary with {} whitelisted phones and {} links, {} ms after its last change.",
+					Unbox.box(this.whitelist.size()), Unbox.box(this.restoredLinks.size()), Unbox.box(this.replica.getFailoverTime(TimeUnit.MILLISECONDS)));
+			openDevicePorts();
+			if(this.replicationConfiguration.getReplicationPort() > 0)
+				startReplicationSource();
+		}
+	}
+	
+	/**
+	 * Applies a change, that has been received from the primary, to the state of this server. Has to be executed by the main-thread.
+	 * @param change the change.
+	 */
+	private void applyChange(Change change) {
+		switch(change.getType()) {
+		case SNAPSHOT_BEGIN:
+			// the snapshot replaces everything, that has been replicated before
+			this.whitelist.clear();
+			this.observerWhitelist.clear();
+			this.groupWhitelist.clear();
+			this.carGroups.clear();
+			this.restoredLinks.clear();
+			this.restoredPhones.clear();
+			break;
+		case ALLOW_LINK:
+			allowLink(change.getId(), change.getValue(0));
+			break;
+		case TERMINATE_LINK:
+			terminateLink(change.getId());
+			forgetRestoredLink(change.getId());
+			break;
+		case ALLOW_OBSERVATION:
+			allowObservation(change.getId(), change.getValue(0));
+			break;
+		case TERMINATE_OBSERVATION:
+			terminateObservation(change.getId(), change.getValue(0));
+			break;
+		case DEFINE_GROUP:
+			List<Long> carIds = new ArrayList<>();
+			for(long carId : change.getValues())
+				carIds.add(carId);
+			defineCarGroup(change.getId(), carIds);
+			break;
+		case REMOVE_GROUP:
+			removeCarGroup(change.getId());
+			break;
+		case ALLOW_GROUP_COMMANDS:
+			allowGroupCommands(change.getId(), change.getText());
+			break;
+		case TERMINATE_GROUP_COMMANDS:
+			terminateGroupCommands(change.getId());
+			break;
+		case LINKED:
+			forgetRestoredLink(change.getId());
+			String previousPhone = this.restoredPhones.put(change.getValue(0), change.getId());
+			if(previousPhone != null)
+				this.restoredLinks.remove(previousPhone);
+			this.restoredLinks.put(change.getId(), change.getValue(0));
+			break;
+		case UNLINKED:
+			forgetRestoredLink(change.getId());
+			break;
+		case CAR_DISCONNECTED:
+			String phoneId = this.restoredPhones.remove(change.getValue(0));
+			if(phoneId != null)
+				this.restoredLinks.remove(phoneId);
+			break;
+		case CAR_INFO:
+			long capabilities = change.getValue(1);
+			CarInformation carInfo = new CarInformation(change.getValue(0), change.getText().isEmpty() ? null : change.getText(),
+					(capabilities & 1) != 0, (capabilities & 2) != 0, (capabilities & 4) != 0, (capabilities & 8) != 0,
+					(capabilities & 16) != 0, (capabilities & 32) != 0, (capabilities & 64) != 0);
+			this.carInformations.remove(carInfo);
+			this.carInformations.add(carInfo);
+			break;
+		case SNAPSHOT_END:
+		case HEARTBEAT:
+			break;
+		}
+	}
+	
+	/**
+	 * Removes the replicated link of a phone, if it has one.
+	 * @param phoneId the ID of the phone.
+	 */
+	private void forgetRestoredLink(String phoneId) {
+		Long carId = this.restoredLinks.remove(phoneId);
+		if(carId != null)
+			this.restoredPhones.remove(carId);
+	}
+	
+	/**
+	 * @param carInfo the information about a car.
+	 * @return the capabilities of the car as a bit-mask, in the order of the parameters of
+	 * {@link CarInformation#CarInformation(long, String, boolean, boolean, boolean, boolean, boolean, boolean, boolean)}.
+	 */
+	private static long capabilitiesOf(CarInformation carInfo) {
+		return (carInfo.hasCamera() ? 1 : 0) | (carInfo.hasLights() ? 2 : 0) | (carInfo.hasWinkers() ? 4 : 0) | (carInfo.hasFrontDistanceSensor() ? 8 : 0)
+				| (carInfo.hasLeftDistanceSensor() ? 16 : 0) | (carInfo.hasRightDistanceSensor() ? 32 : 0) | (carInfo.hasVelocitySensor() ? 64 : 0);
+	}
+	
+	/**
+	 * Starts to accept a standby on the replication-port.
+	 */
+	private void startReplicationSource() {
+		ReplicationSource source = new ReplicationSource(this.replicationConfiguration, this.operationQueue);
+		try {
+			source.start();
+			this.replicationSource = source;
+		} catch(IOException ioe) {
+			Server.logger.error("The replication-port {} could not be bound. The state of the server is not replicated.", Unbox.box(this.replicationConfiguration.getReplicationPort()), ioe);
+		}
 	}
 	
 	/**
 	 * Takes a {@link QueueElement} and processes its {@link Connection} based on the {@link at.ac.tuwien.ict.andropicar.server.helper.EOperationType}.
+	 * The processing is recorded as an {@link OperationEvent}, if Java Flight Recorder is recording it.
 	 * @param nextOperation the {@link QueueElement} to be processed.
 	 */
 	private void processQueueElement(QueueElement nextOperation) {
 		if(nextOperation == null)
 			return;
+		OperationEvent event = new OperationEvent();
+		long waitTime = event.isEnabled() ? System.nanoTime() - nextOperation.getCreationTime() : 0;
+		event.begin();
 		switch(nextOperation.getOperationType()) {
 		case SOCKET_ERROR:
 			Server.logger.fatal("Server could not be started due the inability to bind a ServerSocket to a port.\nExiting...\n");
-			System.exit(-1);
+			this.socketError = true;
+			drain();
+			break;
+		case SHUTDOWN:
+			drain();
+			break;
 		case CONNECT:
 			addUnidentifiedDevice(nextOperation.getConnection());
 			break;
@@ -311,13 +1368,190 @@ public class Server implements IConnectionControl {
 		case LINK:
 			linkDevices(nextOperation.getConnection());
 			break;
+		case OBSERVE:
+			observeCar(nextOperation.getConnection());
+			break;
 		case CLOSE:
 			removeDevice(nextOperation.getConnection());
 			break;
 		case UPDATE_INFO:
 			updateCarInformations(nextOperation.getConnection());
 			break;
+		case UNLINK:
+			if(nextOperation.getConnection() instanceof PhoneConnection)
+				this.publish(EChangeType.UNLINKED, ((PhoneConnection) nextOperation.getConnection()).getId(), null);
+			break;
+		case SNAPSHOT:
+			publishSnapshot();
+			break;
+		case REPLICATE:
+			if(this.replica != null)
+				replicate();
+			break;
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.setOperationType(nextOperation.getOperationType().name());
+			event.setWaitTime(waitTime);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Stops the server and waits until it has been drained (see {@link #drain()}).
+	 * @return the time in milliseconds that draining the connections took.
+	 */
+	public long shutdown()
+	{
+		if(this.terminated.getCount() == 0)
+			return this.drainTime;
+		try {
+			this.operationQueue.put(new QueueElement(EOperationType.SHUTDOWN, null));
+			if(!this.terminated.await(this.drainTimeout + 1000, TimeUnit.MILLISECONDS))
+				Server.logger.warn("The server did not finish draining in time.");
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
 		}
+		return this.drainTime;
+	}
+	
+	/**
+	 * Starts the relay of the frames of the cameras of the cars. The relay is asked by its own threads, if a car may send video and if a phone may receive it,
+	 * so the answers are taken from the concurrent map of the cars and the volatile links and observers of every car. A video-connection has to come
+	 * from the address of the control-connection of the car or phone, so it cannot be opened with nothing but the ID of a registered car.
+	 */
+	private void startVideoRelay()
+	{
+		final ConcurrentHashMap<Long, CarConnection> cars = this.cars;
+		this.videoRelay = new VideoRelay(this.videoConfiguration, new IVideoAuthorization() {
+			@Override
+			public boolean mayStream(long carId, InetAddress address) {
+				CarConnection car = cars.get(carId);
+				// a car of another node of the cluster has no information and no address on this server
+				CarInformation carInfo = car == null ? null : car.getCarInformation();
+				return carInfo != null && address.getHostAddress().equals(carInfo.getIp());
+			}
+			
+			@Override
+			public boolean mayView(String phoneId, long carId, InetAddress address) {
+				CarConnection car = cars.get(carId);
+				return car != null && car.isViewer(phoneId, address.getHostAddress());
+			}
+		});
+		try {
+			this.videoRelay.start();
+		} catch(IOException ioe) {
+			Server.logger.error("The video-port {} could not be bound. The server does not relay video.", Unbox.box(this.videoConfiguration.getVideoPort()), ioe);
+			this.videoRelay = null;
+		}
+	}
+	
+	/**
+	 * Drains and stops the server. Has to be executed by the main-thread.<br>
+	 * The acceptors are stopped first, so that no new connections are accepted. Every car that is linked to a phone is told to stop and all connections
+	 * are told to close, which makes each of them send its pending output and close itself in its own thread, so they are closed in parallel.
+	 * Connections that have not closed within the {@link #drainTimeout} are closed forcibly.
+	 */
+	private void drain()
+	{
+		long start = System.nanoTime();
+		Server.logger.info("Shutting down. Draining {} connections...", Unbox.box(this.identifiedDevices.size() + this.unidentifiedDevices.size()));
+		for(AcceptorGroup acceptorGroup : this.acceptorGroups)
+			acceptorGroup.finish();
+		
+		List<Connection> connections = new ArrayList<>(this.identifiedDevices);
+		connections.addAll(this.unidentifiedDevices);
+		for(Connection conn : connections) {
+			if(conn instanceof CarConnection && ((CarConnection) conn).getLinkedPhone() != null)
+				conn.addToOutputMessageMap(Keywords.stop, 1);
+			conn.finishConnection();
+		}
+		
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.drainTimeout);
+		int forced = 0;
+		for(Connection conn : connections) {
+			try {
+				if(!conn.awaitClosed(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+					conn.abortConnection();
+					forced++;
+				}
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				conn.abortConnection();
+				forced++;
+			}
+		}
+		
+		if(this.videoRelay != null)
+			this.videoRelay.stop();
+		if(this.cluster != null)
+			this.cluster.stop();
+		if(this.replica != null)
+			this.replica.stop();
+		if(this.replicationSource != null)
+			this.replicationSource.stop();
+		if(this.recorder != null)
+			this.recorder.close();
+		if(this.managementAgent != null)
+			this.managementAgent.stop();
+		this.timer.stop();
+		this.keepRunning = false;
+		this.drainTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Server.logger.info("Drained {} connections in {} ms ({} closed forcibly).", Unbox.box(connections.size()), Unbox.box(this.drainTime), Unbox.box(forced));
+		this.terminated.countDown();
+	}
+	
+	/**
+	 * Starts the acceptors of the cars and phones, the relay of the cluster and the video-relay, i.e. everything that devices or other nodes connect to.
+	 * A standby opens them only once it has taken over from its primary (see {@link #replicate()}).
+	 */
+	private void openDevicePorts()
+	{
+		Server.logger.info("Starting Connection-acceptors...");
+		AdmissionControl admissionControl = new AdmissionControl(this.rateLimitSettings, this.rateLimitStatistics, this.timer);
+		if(this.tlsConfiguration != null)
+			this.tlsConfiguration.applySessionSettings();
+		int acceptorsPerPort = this.acceptorConfiguration.getAcceptorsPerPort();
+		CarConnectionAcceptor[] carAcceptors = new CarConnectionAcceptor[acceptorsPerPort];
+		PhoneConnectionAcceptor[] phoneAcceptors = new PhoneConnectionAcceptor[acceptorsPerPort];
+		for(int i = 0; i < acceptorsPerPort; i++) {
+			carAcceptors[i] = new CarConnectionAcceptor(this.carAcceptorPort, this.operationQueue, this.acceptorConfiguration);
+			phoneAcceptors[i] = new PhoneConnectionAcceptor(this.phoneAcceptorPort, this.operationQueue, this.acceptorConfiguration);
+			carAcceptors[i].setAdmissionControl(admissionControl);
+			phoneAcceptors[i].setAdmissionControl(admissionControl);
+			carAcceptors[i].setSubscriptionIndex(this.subscriptionIndex);
+			phoneAcceptors[i].setSubscriptionIndex(this.subscriptionIndex);
+			carAcceptors[i].setRecorder(this.recorder);
+			phoneAcceptors[i].setRecorder(this.recorder);
+			carAcceptors[i].setSensorHistory(this.historyResolution, this.historyLength);
+			carAcceptors[i].setForwardLatency(this.carToPhoneLatency);
+			carAcceptors[i].setMetrics(this.metrics);
+			phoneAcceptors[i].setMetrics(this.metrics);
+			phoneAcceptors[i].setForwardLatency(this.phoneToCarLatency);
+			carAcceptors[i].setTraceSampler(this.traceSampler);
+			phoneAcceptors[i].setTraceSampler(this.traceSampler);
+			carAcceptors[i].setTls(this.tlsConfiguration, this.tlsStatistics);
+			phoneAcceptors[i].setTls(this.tlsConfiguration, this.tlsStatistics);
+		}
+		AcceptorGroup carAcceptorGroup = new AcceptorGroup("CarConnection Acceptor", carAcceptors);
+		AcceptorGroup phoneAcceptorGroup = new AcceptorGroup("PhoneConnection Acceptor", phoneAcceptors);
+		this.acceptorGroups.add(carAcceptorGroup);
+		this.acceptorGroups.add(phoneAcceptorGroup);
+		if(carAcceptorGroup.start())
+			Server.logger.info("Car-Connection-Acceptor successfully started, listening for new car-connections.");
+		if(phoneAcceptorGroup.start())
+			Server.logger.info("Phone-Connection-Acceptor successfully started, listening for new phone-connections.");
+		if(this.clusterConfiguration != null) {
+			this.cluster = new ClusterNode(this.clusterConfiguration, this.operationQueue);
+			try {
+				this.cluster.start();
+			} catch(IOException ioe) {
+				Server.logger.error("The relay-port {} could not be bound. The server does not relay links to other nodes.", Unbox.box(this.clusterConfiguration.getRelayPort()), ioe);
+				this.cluster = null;
+			}
+		}
+		if(this.videoConfiguration != null)
+			startVideoRelay();
 	}
 	
 	/**
@@ -325,14 +1559,28 @@ public class Server implements IConnectionControl {
 	 */
 	public void run()
 	{
-		Server.logger.info("Starting Connection-acceptors...");
-		(new Thread(new CarConnectionAcceptor(this.carAcceptorPort, this.operationQueue), "CarConnection Acceptor")).start();
-		Server.logger.info("Car-Connection-Acceptor successfully started, listening for new car-connections.");
-		(new Thread(new PhoneConnectionAcceptor(this.phoneAcceptorPort, this.operationQueue), "PhoneConnection Acceptor")).start();
-		Server.logger.info("Phone-Connection-Acceptor successfully started, listening for new phone-connections.");
+		(new Thread(this.timer, "Timer")).start();
+		this.heartbeatMonitor = new HeartbeatMonitor(this.timer, this.heartbeatInterval, this.heartbeatTimeout, TimeUnit.MILLISECONDS);
+		if(this.controlTimeout > 0)
+			this.controlWatchdog = new ControlWatchdog(this.timer, this.controlTimeout, TimeUnit.MILLISECONDS);
+		this.metrics.start(this.timer);
+		if(this.jmxEnabled) {
+			this.managementAgent = new ManagementAgent(this, this.metrics);
+			this.managementAgent.start();
+		}
+		if(this.replicationConfiguration != null && this.replicationConfiguration.getPrimaryAddress() != null) {
+			// a standby must not serve any device, while its primary may still be serving them
+			this.replica = new ReplicationReplica(this.replicationConfiguration, this.operationQueue);
+			this.replica.start();
+		}
+		else {
+			openDevicePorts();
+			if(this.replicationConfiguration != null && this.replicationConfiguration.getReplicationPort() > 0)
+				startReplicationSource();
+		}
 		QueueElement nextOperation = null;
 		
-		while(true) {
+		while(this.keepRunning) {
 			// wait for new queue-element and process it
 			try {
 				nextOperation = operationQueue.take();
@@ -344,17 +1592,26 @@ public class Server implements IConnectionControl {
 				continue;
 			
 			processQueueElement(nextOperation);
+			this.metrics.operationProcessed(nextOperation.getOperationType(), System.nanoTime() - nextOperation.getCreationTime());
 		}
 	}
 	
 	
 	/**
-	 * Starts the server.
+	 * Starts the server. The server is drained when the JVM is terminated.
 	 * @param args not used
 	 */
 	public static void main(String[] args) {
-		Server server = new Server();
+		final Server server = new Server();
+		Runtime.getRuntime().addShutdownHook(new Thread("Shutdown") {
+			@Override
+			public void run() {
+				server.shutdown();
+			}
+		});
 		server.run();
+		if(server.socketError)
+			System.exit(-1);
 	}
 
 }
@@ -0,0 +1,163 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * Holds the settings of TLS on the car- and phone-ports of a {@link Server}.<br>
+ * Every accepted {@link Socket} is wrapped into a server-side {@link SSLSocket} by {@link #wrap(Socket)}, after it has been admitted,
+ * so a rejected connection never costs a handshake. The handshake itself is done by the thread of the connection (see {@link #getHandshakeTimeout()}),
+ * so a slow device cannot hold up the acceptors.<br>
+ * Reconnecting devices resume their previous session instead of doing a full handshake: the sessions are kept in the session-cache of the {@link SSLContext}
+ * (see {@link #getSessionCacheSize()} and {@link #getSessionTimeout()}), and on Java 13 or newer TLS 1.3 sessions are resumed from stateless session tickets,
+ * which do not take up space in the cache at all.<br>
+ * The settings have to be changed before the server is started.
+ */
+public class TlsConfiguration {
+
+	/** The context that the sockets are created with, which holds the key and certificate of the server. */
+	private final SSLContext context;
+
+	/** The protocols that may be negotiated, or null to use the defaults of the JVM. */
+	private String[] protocols = {"TLSv1.3", "TLSv1.2"};
+
+	/** The maximum number of sessions that are kept for resumption. */
+	private int sessionCacheSize = 20000;
+
+	/** The time in seconds, that a session can be resumed for. */
+	private int sessionTimeout = 86400;
+
+	/** The maximum time in milliseconds, that a device may take to complete its handshake. */
+	private int handshakeTimeout = 5000;
+
+
+	/**
+	 * @param context the context that the sockets are created with, which has to be initialized with the key and certificate of the server.
+	 */
+	public TlsConfiguration(SSLContext context) {
+		if(context == null)
+			throw new IllegalArgumentException("context must not be null");
+		this.context = context;
+	}
+
+
+	/**
+	 * Creates a context with the key and certificate of the server, that are loaded from a key-store.
+	 * @param keyStorePath the path of the key-store. The type is derived from the extension (.jks for JKS, PKCS12 otherwise).
+	 * @param password the password of the key-store and the key.
+	 * @return the initialized context.
+	 * @throws IOException if the key-store could not be read.
+	 * @throws GeneralSecurityException if the key-store does not contain a usable key.
+	 */
+	public static SSLContext createContext(String keyStorePath, char[] password) throws IOException, GeneralSecurityException {
+		KeyStore keyStore = KeyStore.getInstance(keyStorePath.endsWith(".jks") ? "JKS" : "PKCS12");
+		try(InputStream input = new FileInputStream(keyStorePath)) {
+			keyStore.load(input, password);
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, password);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+
+	/**
+	 * @return the context that the sockets are created with.
+	 */
+	public SSLContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @return the protocols that may be negotiated, or null if the defaults of the JVM are used.
+	 */
+	public String[] getProtocols() {
+		return protocols;
+	}
+
+	/**
+	 * @param protocols the protocols that may be negotiated (e.g. "TLSv1.3"), or null to use the defaults of the JVM.
+	 */
+	public void setProtocols(String... protocols) {
+		this.protocols = protocols;
+	}
+
+	/**
+	 * @return the maximum number of sessions that are kept for resumption.
+	 */
+	public int getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	/**
+	 * @param sessionCacheSize the maximum number of sessions that are kept for resumption, or 0 for no limit.
+	 * Should be at least the number of devices, that may reconnect at once.
+	 */
+	public void setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+	}
+
+	/**
+	 * @return the time in seconds, that a session can be resumed for.
+	 */
+	public int getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	/**
+	 * @param sessionTimeout the time in seconds, that a session can be resumed for, or 0 for no limit.
+	 */
+	public void setSessionTimeout(int sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds, that a device may take to complete its handshake.
+	 */
+	public int getHandshakeTimeout() {
+		return handshakeTimeout;
+	}
+
+	/**
+	 * @param handshakeTimeout the maximum time in milliseconds, that a device may take to complete its handshake. Has to be greater than 0.
+	 */
+	public void setHandshakeTimeout(int handshakeTimeout) {
+		if(handshakeTimeout <= 0)
+			throw new IllegalArgumentException("handshakeTimeout must be greater than 0: " + handshakeTimeout);
+		this.handshakeTimeout = handshakeTimeout;
+	}
+
+	/**
+	 * Applies the settings of the session-cache to the context. Called once, when the server is started.
+	 */
+	public void applySessionSettings() {
+		SSLSessionContext sessions = this.context.getServerSessionContext();
+		sessions.setSessionCacheSize(this.sessionCacheSize);
+		sessions.setSessionTimeout(this.sessionTimeout);
+	}
+
+	/**
+	 * Wraps an accepted {@link Socket} into a server-side {@link SSLSocket}. The handshake is not started, so this does not block.
+	 * Closing the returned socket closes the passed one as well.
+	 * @param socket the accepted and configured {@link Socket}.
+	 * @return the wrapped socket.
+	 * @throws IOException if the socket could not be wrapped.
+	 */
+	public SSLSocket wrap(Socket socket) throws IOException {
+		SSLSocket sslSocket = (SSLSocket) this.context.getSocketFactory().createSocket(socket, null, true);
+		if(this.protocols != null)
+			sslSocket.setEnabledProtocols(this.protocols);
+		return sslSocket;
+	}
+
+}
@@ -0,0 +1,156 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Holds the settings of one node of the cluster: its own ID, the port that it accepts {@link RelayChannel}s on, and the addresses of all other nodes.<br>
+ * Every pair of nodes shares exactly one {@link RelayChannel}, which is opened by the node with the lower ID (in the order of {@link String#compareTo(String)})
+ * and reopened by it after the {@link #getReconnectInterval() reconnect-interval}, if it has been lost.<br>
+ * If the {@link #isPlacementEnabled() placement} is enabled, every car belongs to one node of a {@link HashRing} of all reachable nodes,
+ * and cars and phones that connect to another node are redirected to it. Only nodes, whose car- and phone-port are known, are put on the ring.<br>
+ * The settings have to be changed before the server is started.
+ */
+public class ClusterConfiguration {
+
+	/** The ID of this node, which has to be unique within the cluster. */
+	private final String nodeId;
+
+	/** The port that this node accepts the relay-channels of the other nodes on. */
+	private final int relayPort;
+
+	/** The addresses of all other nodes, by their ID. */
+	private final Map<String, ClusterPeer> peers = new LinkedHashMap<>();
+
+	/** The time in milliseconds between two attempts to open a lost relay-channel. */
+	private long reconnectInterval = 1000;
+
+	/** The maximum number of frames that wait to be sent on one relay-channel. */
+	private int sendQueueCapacity = 8192;
+
+	/** True, if cars and phones are redirected to the node that a car belongs to, otherwise false. */
+	private boolean placementEnabled = false;
+
+	/** The number of points of every node on the hash-ring. */
+	private int virtualNodes = 128;
+
+
+	/**
+	 * @param nodeId the ID of this node, which has to be unique within the cluster.
+	 * @param relayPort the port that this node accepts the relay-channels of the other nodes on.
+	 */
+	public ClusterConfiguration(String nodeId, int relayPort) {
+		if(nodeId == null || nodeId.isEmpty())
+			throw new IllegalArgumentException("The ID of a node must not be empty.");
+		this.nodeId = nodeId;
+		this.relayPort = relayPort;
+	}
+
+
+	/**
+	 * @return the ID of this node.
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return the port that this node accepts the relay-channels of the other nodes on.
+	 */
+	public int getRelayPort() {
+		return relayPort;
+	}
+
+	/**
+	 * Adds another node of the cluster. Adding this node itself has no effect.
+	 * @param nodeId the ID of the other node.
+	 * @param host the host of the other node.
+	 * @param relayPort the port that the other node accepts relay-channels on.
+	 */
+	public void addPeer(String nodeId, String host, int relayPort) {
+		addPeer(nodeId, host, relayPort, 0, 0);
+	}
+
+	/**
+	 * Adds another node of the cluster, that devices can be redirected to. Adding this node itself has no effect.
+	 * @param nodeId the ID of the other node.
+	 * @param host the host of the other node.
+	 * @param relayPort the port that the other node accepts relay-channels on.
+	 * @param carPort the port that the other node accepts cars on.
+	 * @param phonePort the port that the other node accepts phones on.
+	 */
+	public void addPeer(String nodeId, String host, int relayPort, int carPort, int phonePort) {
+		if(!this.nodeId.equals(nodeId))
+			this.peers.put(nodeId, new ClusterPeer(host, relayPort, carPort, phonePort));
+	}
+
+	/**
+	 * @return the addresses of all other nodes, by their ID.
+	 */
+	public Map<String, ClusterPeer> getPeers() {
+		return Collections.unmodifiableMap(peers);
+	}
+
+	/**
+	 * @return the time in milliseconds between two attempts to open a lost relay-channel.
+	 */
+	public long getReconnectInterval() {
+		return reconnectInterval;
+	}
+
+	/**
+	 * @param reconnectInterval the time in milliseconds between two attempts to open a lost relay-channel.
+	 */
+	public void setReconnectInterval(long reconnectInterval) {
+		this.reconnectInterval = reconnectInterval;
+	}
+
+	/**
+	 * @return the maximum number of frames that wait to be sent on one relay-channel.
+	 */
+	public int getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	/**
+	 * @param sendQueueCapacity the maximum number of frames that wait to be sent on one relay-channel. Has to be at least 1.
+	 */
+	public void setSendQueueCapacity(int sendQueueCapacity) {
+		if(sendQueueCapacity < 1)
+			throw new IllegalArgumentException("sendQueueCapacity must be at least 1: " + sendQueueCapacity);
+		this.sendQueueCapacity = sendQueueCapacity;
+	}
+
+	/**
+	 * @return true, if cars and phones are redirected to the node that a car belongs to, otherwise false.
+	 */
+	public boolean isPlacementEnabled() {
+		return placementEnabled;
+	}
+
+	/**
+	 * @param placementEnabled true, if cars and phones should be redirected to the node that a car belongs to, otherwise false.
+	 */
+	public void setPlacementEnabled(boolean placementEnabled) {
+		this.placementEnabled = placementEnabled;
+	}
+
+	/**
+	 * @return the number of points of every node on the hash-ring.
+	 */
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	/**
+	 * @param virtualNodes the number of points of every node on the hash-ring. Has to be at least 1, more points spread the cars more evenly.
+	 */
+	public void setVirtualNodes(int virtualNodes) {
+		if(virtualNodes < 1)
+			throw new IllegalArgumentException("virtualNodes must be at least 1: " + virtualNodes);
+		this.virtualNodes = virtualNodes;
+	}
+
+}
@@ -0,0 +1,319 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayCarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayPhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * A ClusterNode connects a {@link at.ac.tuwien.ict.andropicar.server.Server Server} with the other servers (nodes) of a cluster, so that a phone can be linked to a car
+ * that is connected to another node.<br>
+ * Every node keeps a directory of the cars of all other nodes. Whenever a car registers with a node or disconnects from it, the node tells all other nodes
+ * via its {@link RelayChannel}s, and a newly established channel starts with the announcement of all cars of the node. The directory is therefore always local,
+ * looking up the node of a car costs one map-access.<br>
+ * If a phone requests a link to a car, that is not connected to its own node, the link is relayed over the channel to the node of the car.
+ * The whitelist is only checked by the node of the phone, the nodes of a cluster trust each other.<br>
+ * If the placement is enabled (see {@link ClusterConfiguration#setPlacementEnabled(boolean)}), the node keeps a {@link HashRing} of itself and all nodes
+ * that it has an established channel to, so a node that joins or leaves the cluster takes over or hands over about 1/N of the cars.
+ * Cars that register with the wrong node and phones that request a link to a car of another node are redirected to the node that the car belongs to
+ * (see {@link #redirectOf(long)}), so that they are not relayed. Cars that are already connected are not moved, if the ring changes.<br>
+ * <br>
+ * The nodes can run on the same host, as long as every node has its own ports, e.g. to test a cluster on loopback.
+ */
+public class ClusterNode {
+
+	/** The settings of this node. */
+	private final ClusterConfiguration configuration;
+
+	/** The operation-queue of the server, that the requested links of other nodes are put on. */
+	private final LinkedBlockingQueue<QueueElement> operationQueue;
+
+	/** The established relay-channels, by the ID of the other node. */
+	private final ConcurrentHashMap<String, RelayChannel> channels = new ConcurrentHashMap<>();
+
+	/** The relay-channels of the nodes that own the cars of the other nodes, by the ID of the car. */
+	private final ConcurrentHashMap<Long, RelayChannel> directory = new ConcurrentHashMap<>();
+
+	/** The IDs of the cars that are connected to this node. */
+	private final Set<Long> localCars = ConcurrentHashMap.newKeySet();
+
+	/** The ring of this node and all nodes with an established channel, or null if the placement is disabled. Replaced whenever a channel is established or closed. */
+	private volatile HashRing ring = null;
+
+	/** The socket that the relay-channels of the other nodes are accepted on. */
+	private ServerSocket relaySocket = null;
+
+	/** The flag, that indicates, if the node should continue to accept and open relay-channels or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ClusterNode.class);
+
+
+	/**
+	 * @param configuration the settings of this node.
+	 * @param operationQueue the operation-queue of the server, that the requested links of other nodes are put on.
+	 */
+	public ClusterNode(ClusterConfiguration configuration, LinkedBlockingQueue<QueueElement> operationQueue) {
+		this.configuration = configuration;
+		this.operationQueue = operationQueue;
+		updateRing();
+	}
+
+
+	/**
+	 * @return the settings of this node.
+	 */
+	public ClusterConfiguration getConfiguration() { return this.configuration; }
+
+	/**
+	 * @return the ID of this node.
+	 */
+	public String getNodeId() { return this.configuration.getNodeId(); }
+
+	/**
+	 * @return the operation-queue of the server.
+	 */
+	public LinkedBlockingQueue<QueueElement> getOperationQueue() { return this.operationQueue; }
+
+	/**
+	 * @return the established relay-channels, by the ID of the other node.
+	 */
+	public Map<String, RelayChannel> getChannels() { return this.channels; }
+
+	/**
+	 * @return the number of cars that are connected to other nodes.
+	 */
+	public int getRemoteCarCount() { return this.directory.size(); }
+
+	/**
+	 * @param carId the ID of a car.
+	 * @return the node that the car belongs to, if that is another node, or null if it belongs to this node or the placement is disabled.
+	 */
+	public ClusterPeer redirectOf(long carId) {
+		HashRing ring = this.ring;
+		if(ring == null)
+			return null;
+		String owner = ring.ownerOf(carId);
+		return owner.equals(getNodeId()) ? null : this.configuration.getPeers().get(owner);
+	}
+
+	/**
+	 * @param carId the ID of a car.
+	 * @return the ID of the node that the car belongs to, or null if the placement is disabled.
+	 */
+	public String ownerOf(long carId) {
+		HashRing ring = this.ring;
+		return ring != null ? ring.ownerOf(carId) : null;
+	}
+
+	/**
+	 * Binds the relay-port and starts to accept and open the relay-channels.
+	 * @throws IOException if the relay-port could not be bound.
+	 */
+	public void start() throws IOException {
+		this.relaySocket = new ServerSocket();
+		this.relaySocket.setReuseAddress(true);
+		this.relaySocket.bind(new InetSocketAddress(this.configuration.getRelayPort()));
+		(new Thread(new Acceptor(), "Relay Acceptor")).start();
+		(new Thread(new Dialer(), "Relay Dialer")).start();
+		ClusterNode.logger.info("The node {} accepts relay-channels on port {}.", getNodeId(), Unbox.box(this.configuration.getRelayPort()));
+	}
+
+	/**
+	 * Stops accepting and opening relay-channels and closes all established ones, which terminates all relayed links.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+		if(this.relaySocket != null) {
+			try {
+				this.relaySocket.close();
+			} catch(IOException ioe) {}
+		}
+		for(RelayChannel channel : this.channels.values())
+			channel.close();
+	}
+
+	/**
+	 * Tells all other nodes, that a car has registered with this node. Has to be called by the main-thread of the server.
+	 * @param carId the ID of the car.
+	 */
+	public void carRegistered(long carId) {
+		this.localCars.add(carId);
+		for(RelayChannel channel : this.channels.values())
+			channel.announce(carId);
+	}
+
+	/**
+	 * Tells all other nodes, that a car has disconnected from this node. Has to be called by the main-thread of the server.
+	 * @param carId the ID of the car.
+	 */
+	public void carRemoved(long carId) {
+		if(!this.localCars.remove(carId))
+			return;
+		for(RelayChannel channel : this.channels.values())
+			channel.withdraw(carId);
+	}
+
+	/**
+	 * Requests a link between a phone of this node and a car of another node, and links the phone to the returned car (see {@link RelayChannel#link(PhoneConnection, long)}).
+	 * Has to be called by the main-thread of the server.
+	 * @param phone the phone that wants to be linked.
+	 * @param carId the ID of the car.
+	 * @return the car, that takes the place of the car of the other node on this node, or null if the car is not connected to any other node.
+	 */
+	public RelayCarConnection link(PhoneConnection phone, long carId) {
+		RelayChannel channel = this.directory.get(carId);
+		return channel != null ? channel.link(phone, carId) : null;
+	}
+
+	/**
+	 * Adds a newly established relay-channel, unless there already is one to the same node, and announces all cars of this node to the other node.
+	 * @param channel the relay-channel, whose other node has introduced itself.
+	 * @return true, if the channel has been added, otherwise false.
+	 */
+	boolean channelEstablished(RelayChannel channel) {
+		if(this.channels.putIfAbsent(channel.getPeerId(), channel) != null)
+			return false;
+		// the channel is added before the cars are announced, so that no car registering in the meantime is missed
+		for(long carId : this.localCars)
+			channel.announce(carId);
+		updateRing();
+		ClusterNode.logger.info("Established the relay-channel to the node {}.", channel.getPeerId());
+		return true;
+	}
+
+	/**
+	 * Removes a closed relay-channel and all cars of its node from the directory.
+	 * @param channel the closed relay-channel.
+	 */
+	void channelClosed(RelayChannel channel) {
+		String peerId = channel.getPeerId();
+		if(peerId == null || !this.channels.remove(peerId, channel))
+			return;
+		this.directory.values().removeAll(Collections.singleton(channel));
+		updateRing();
+		ClusterNode.logger.warn("Lost the relay-channel to the node {}.", peerId);
+	}
+
+	/**
+	 * @param carId the ID of a car, that is connected to the node of the channel.
+	 * @param channel the relay-channel that the car has been announced on.
+	 */
+	void carAnnounced(long carId, RelayChannel channel) {
+		this.directory.put(carId, channel);
+	}
+
+	/**
+	 * @param carId the ID of a car, that has disconnected from the node of the channel.
+	 * @param channel the relay-channel that the car has been withdrawn on.
+	 */
+	void carWithdrawn(long carId, RelayChannel channel) {
+		this.directory.remove(carId, channel);
+	}
+
+	/**
+	 * Puts the link-request of a phone of another node on the operation-queue, so that the main-thread links it to the car of this node.
+	 * @param phone the phone, that takes the place of the phone of the other node on this node.
+	 */
+	void requestLink(RelayPhoneConnection phone) {
+		try {
+			this.operationQueue.put(new QueueElement(EOperationType.LINK, phone));
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Rebuilds the ring from this node and all nodes with an established channel, that devices can be redirected to.
+	 */
+	private synchronized void updateRing() {
+		if(!this.configuration.isPlacementEnabled())
+			return;
+		List<String> members = new ArrayList<>();
+		members.add(getNodeId());
+		for(String peerId : this.channels.keySet()) {
+			ClusterPeer peer = this.configuration.getPeers().get(peerId);
+			if(peer != null && peer.acceptsRedirects())
+				members.add(peerId);
+		}
+		this.ring = new HashRing(members, this.configuration.getVirtualNodes());
+	}
+
+	/**
+	 * Configures and starts a relay-channel on a connected socket.
+	 */
+	private void open(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		(new RelayChannel(socket, this)).start();
+	}
+
+
+	/**
+	 * Accepts the relay-channels of the nodes with a lower ID.
+	 */
+	private class Acceptor implements Runnable {
+
+		@Override
+		public void run() {
+			while(ClusterNode.this.keepRunning) {
+				try {
+					open(ClusterNode.this.relaySocket.accept());
+				} catch(IOException ioe) {
+					if(ClusterNode.this.keepRunning)
+						ClusterNode.logger.warn("Could not accept a relay-channel: {}", ioe.getMessage());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Opens the relay-channels to the nodes with a higher ID and reopens them, if they have been lost.
+	 */
+	private class Dialer implements Runnable {
+
+		@Override
+		public void run() {
+			while(ClusterNode.this.keepRunning) {
+				for(Map.Entry<String, ClusterPeer> peer : ClusterNode.this.configuration.getPeers().entrySet()) {
+					if(getNodeId().compareTo(peer.getKey()) >= 0 || ClusterNode.this.channels.containsKey(peer.getKey()))
+						continue;
+					InetSocketAddress address = peer.getValue().getRelayAddress();
+					try {
+						Socket socket = new Socket();
+						socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), (int) ClusterNode.this.configuration.getReconnectInterval());
+						open(socket);
+					} catch(IOException ioe) {
+						ClusterNode.logger.debug("Could not open the relay-channel to the node {}: {}", peer.getKey(), ioe.getMessage());
+					}
+				}
+				try {
+					Thread.sleep(ClusterNode.this.configuration.getReconnectInterval());
+				} catch(InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import java.net.InetSocketAddress;
+
+
+/**
+ * The addresses of another node of the cluster: the relay-port, that the {@link RelayChannel} is opened to,
+ * and the ports that its cars and phones connect to, which are sent to devices that are redirected to the node.
+ */
+public class ClusterPeer {
+
+	/** The host of the node. */
+	private final String host;
+
+	/** The port that the node accepts relay-channels on. */
+	private final int relayPort;
+
+	/** The port that the node accepts cars on, or 0 if it is unknown. */
+	private final int carPort;
+
+	/** The port that the node accepts phones on, or 0 if it is unknown. */
+	private final int phonePort;
+
+
+	/**
+	 * @param host the host of the node.
+	 * @param relayPort the port that the node accepts relay-channels on.
+	 * @param carPort the port that the node accepts cars on, or 0 if it is unknown.
+	 * @param phonePort the port that the node accepts phones on, or 0 if it is unknown.
+	 */
+	public ClusterPeer(String host, int relayPort, int carPort, int phonePort) {
+		this.host = host;
+		this.relayPort = relayPort;
+		this.carPort = carPort;
+		this.phonePort = phonePort;
+	}
+
+
+	/**
+	 * @return the host of the node.
+	 */
+	public String getHost() { return this.host; }
+
+	/**
+	 * @return the port that the node accepts relay-channels on.
+	 */
+	public int getRelayPort() { return this.relayPort; }
+
+	/**
+	 * @return the port that the node accepts cars on, or 0 if it is unknown.
+	 */
+	public int getCarPort() { return this.carPort; }
+
+	/**
+	 * @return the port that the node accepts phones on, or 0 if it is unknown.
+	 */
+	public int getPhonePort() { return this.phonePort; }
+
+	/**
+	 * @return true, if devices can be redirected to the node, i.e. its car- and phone-port are known, otherwise false.
+	 */
+	public boolean acceptsRedirects() { return this.carPort > 0 && this.phonePort > 0; }
+
+	/**
+	 * @return the unresolved address of the relay-port of the node.
+	 */
+	public InetSocketAddress getRelayAddress() { return InetSocketAddress.createUnresolved(this.host, this.relayPort); }
+
+}
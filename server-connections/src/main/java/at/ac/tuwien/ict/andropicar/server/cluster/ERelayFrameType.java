@@ -0,0 +1,26 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+/**
+ * The type of a frame on a {@link RelayChannel} between two nodes of the cluster.<br>
+ * The requesting node is the node that the phone is connected to, the owning node is the node that the car is connected to.
+ */
+public enum ERelayFrameType {
+	/** Sent by both nodes right after connecting, the text is the ID of the sending node. */
+	HELLO,
+	/** The sending node owns the car with the ID of the key, i.e. the car is connected to it. */
+	OWN,
+	/** The sending node does no longer own the car with the ID of the key. */
+	DISOWN,
+	/** Sent by the requesting node: the phone (text) wants to be linked to the car (value), via the link with the ID of the key. */
+	LINK,
+	/** Sent by the owning node: the link with the ID of the key has been established. */
+	LINKED,
+	/** Sent by the owning node: the link with the ID of the key has been rejected or terminated by the car-side. */
+	UNLINKED,
+	/** Sent by the requesting node: the link with the ID of the key has been terminated by the phone-side. */
+	RELEASE,
+	/** Sent by the requesting node: the encoded message (text) is written to the car of the link with the ID of the key. */
+	CONTROL,
+	/** Sent by the owning node: the encoded message (text) is written to the phone of the link with the ID of the key. */
+	SENSOR;
+}
@@ -0,0 +1,101 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+ * A HashRing assigns every car to one node of the cluster by consistent hashing.<br>
+ * Every node is placed on the ring at a number of points (virtual nodes), which are derived from its ID. A car belongs to the node of the first point
+ * at or after the hash of its ID, wrapping around at the end of the ring. Since the points of a node do not depend on the other nodes,
+ * a node joining or leaving the cluster only takes over or hands over the cars between its own points, i.e. about 1/N of all cars,
+ * and the virtual nodes spread those cars evenly over the other nodes.<br>
+ * A ring is immutable and built once per change of the members, so it can be read by any thread without locking.
+ * Looking up the owner of a car is a binary search over a sorted array.
+ */
+public class HashRing {
+
+	/** The points of all virtual nodes on the ring, in ascending order. */
+	private final long[] points;
+
+	/** The ID of the node of every point, at the same index as in {@link #points}. */
+	private final String[] owners;
+
+
+	/**
+	 * @param nodeIds the IDs of the nodes on the ring. Must contain at least one ID.
+	 * @param virtualNodes the number of points of every node on the ring. Has to be at least 1.
+	 */
+	public HashRing(Collection<String> nodeIds, int virtualNodes) {
+		if(nodeIds.isEmpty())
+			throw new IllegalArgumentException("A ring needs at least one node.");
+		if(virtualNodes < 1)
+			throw new IllegalArgumentException("virtualNodes must be at least 1: " + virtualNodes);
+		// the nodes are added in order, so that every node builds the same ring from the same members, even if two points collide
+		TreeMap<Long, String> ring = new TreeMap<>();
+		for(String nodeId : new TreeSet<>(nodeIds)) {
+			long nodeHash = hash(nodeId);
+			for(int replica = 0; replica < virtualNodes; replica++)
+				ring.putIfAbsent(mix(nodeHash + replica), nodeId);
+		}
+		this.points = new long[ring.size()];
+		this.owners = new String[ring.size()];
+		int i = 0;
+		for(Map.Entry<Long, String> point : ring.entrySet()) {
+			this.points[i] = point.getKey();
+			this.owners[i++] = point.getValue();
+		}
+	}
+
+
+	/**
+	 * @param carId the ID of a car.
+	 * @return the ID of the node, that the car belongs to.
+	 */
+	public String ownerOf(long carId) {
+		int index = Arrays.binarySearch(this.points, mix(carId));
+		if(index < 0) {
+			index = -index - 1;
+			if(index == this.points.length)
+				index = 0;
+		}
+		return this.owners[index];
+	}
+
+	/**
+	 * @return the number of points on the ring.
+	 */
+	public int size() {
+		return this.points.length;
+	}
+
+	/**
+	 * @param nodeId the ID of a node.
+	 * @return the 64-bit FNV-1a hash of the ID, so that every node computes the same points for the same ID.
+	 */
+	private static long hash(String nodeId) {
+		long hash = 0xcbf29ce484222325L;
+		for(byte b : nodeId.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of the passed value over the whole range, so that consecutive car IDs and replicas land far apart on the ring.
+	 * @param value the value.
+	 * @return the finalizer of SplitMix64 applied to the value.
+	 */
+	private static long mix(long value) {
+		long z = value * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,394 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayCarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.RelayPhoneConnection;
+
+
+/**
+ * A RelayChannel is one persistent TCP-connection between two nodes of the cluster, which carries all links between the phones of one node and the cars of the other node.<br>
+ * Every link has an ID, that is chosen by the requesting node (the node of the phone) and sent along with every frame of the link, so any number of links share the channel.
+ * A link is represented by a {@link RelayCarConnection} on the requesting node and by a {@link RelayPhoneConnection} on the owning node (the node of the car),
+ * which take the place of the real devices, so that the phone and the car do not notice the relay.
+ * The messages are encoded once by the sending device and written to the receiving device as they are.<br>
+ * <br>
+ * Every frame consists of its {@link ERelayFrameType type}, a key (the ID of the link or car), a value and a text. The frames are sent by a writer-thread,
+ * which writes all queued frames at once and flushes them together, so that the channel does not need one system-call per frame under load.
+ * If the queue is full, the peer cannot keep up: forwarded messages are dropped then, while a lost frame of the link-handshake or a lost stop-command closes the channel.<br>
+ * The frames are received by the thread of this runnable. Once the channel has been closed, all of its links are terminated
+ * (which stops the cars of the owning node) and all cars of the peer are removed from the directory of the node.
+ */
+public class RelayChannel implements Runnable {
+
+	/** The TCP-connection to the other node. */
+	private final Socket socket;
+
+	/** The node that this channel belongs to. */
+	private final ClusterNode node;
+
+	/** The stream that the frames are received from. Only used by the thread of this runnable. */
+	private final DataInputStream input;
+
+	/** The stream that the frames are sent to. Only used by the writer-thread. */
+	private final DataOutputStream output;
+
+	/** The frames that wait to be sent by the writer-thread. */
+	private final ArrayBlockingQueue<Frame> sendQueue;
+
+	/** The links of the phones of this node to cars of the other node, by their ID. */
+	private final ConcurrentHashMap<Long, RelayCarConnection> outgoingLinks = new ConcurrentHashMap<>();
+
+	/** The links of the phones of the other node to cars of this node, by their ID. */
+	private final ConcurrentHashMap<Long, RelayPhoneConnection> incomingLinks = new ConcurrentHashMap<>();
+
+	/** The ID of the last link that has been requested by this node. */
+	private final AtomicLong lastLinkId = new AtomicLong();
+
+	/** The number of frames that have been sent. */
+	private final LongAdder sentFrames = new LongAdder();
+
+	/** The number of frames that have been received. */
+	private final LongAdder receivedFrames = new LongAdder();
+
+	/** The number of forwarded messages that have been dropped, because the send-queue was full. */
+	private final LongAdder droppedFrames = new LongAdder();
+
+	/** True, once the channel has been closed. */
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/** The ID of the other node, or null if it has not introduced itself yet. */
+	private volatile String peerId = null;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(RelayChannel.class);
+
+
+	/**
+	 * @param socket the connected socket to the other node.
+	 * @param node the node that this channel belongs to.
+	 * @throws IOException if the streams of the socket could not be opened.
+	 */
+	public RelayChannel(Socket socket, ClusterNode node) throws IOException {
+		this.socket = socket;
+		this.node = node;
+		this.sendQueue = new ArrayBlockingQueue<>(node.getConfiguration().getSendQueueCapacity());
+		this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+
+	/**
+	 * Starts the threads of this channel and introduces this node to the other node.
+	 */
+	public void start() {
+		send(new Frame(ERelayFrameType.HELLO, 0, 0, this.node.getNodeId()), false);
+		(new Thread(this, "RelayChannel " + this.socket.getRemoteSocketAddress())).start();
+		(new Thread(new Writer(), "RelayChannel Writer " + this.socket.getRemoteSocketAddress())).start();
+	}
+
+	/**
+	 * @return the ID of the other node, or null if it has not introduced itself yet.
+	 */
+	public String getPeerId() { return this.peerId; }
+
+	/**
+	 * @return true, if the channel has been closed, otherwise false.
+	 */
+	public boolean isClosed() { return this.closed.get(); }
+
+	/**
+	 * @return the number of links that are carried by this channel, in both directions.
+	 */
+	public int getLinkCount() { return this.outgoingLinks.size() + this.incomingLinks.size(); }
+
+	/**
+	 * @return the number of frames that have been sent.
+	 */
+	public long getSentFrames() { return this.sentFrames.sum(); }
+
+	/**
+	 * @return the number of frames that have been received.
+	 */
+	public long getReceivedFrames() { return this.receivedFrames.sum(); }
+
+	/**
+	 * @return the number of forwarded messages that have been dropped, because the other node could not keep up.
+	 */
+	public long getDroppedFrames() { return this.droppedFrames.sum(); }
+
+	/**
+	 * Tells the other node, that this node owns a car now.
+	 * @param carId the ID of the car.
+	 */
+	public void announce(long carId) {
+		send(new Frame(ERelayFrameType.OWN, carId, 0, ""), false);
+	}
+
+	/**
+	 * Tells the other node, that this node does no longer own a car.
+	 * @param carId the ID of the car.
+	 */
+	public void withdraw(long carId) {
+		send(new Frame(ERelayFrameType.DISOWN, carId, 0, ""), false);
+	}
+
+	/**
+	 * Requests a link between a phone of this node and a car of the other node. Has to be called by the main-thread of the server.<br>
+	 * The phone is linked to the returned car right away, so that the link is complete once the other node confirms it.
+	 * The phone is informed about the result, once the other node has answered.
+	 * @param phone the phone that wants to be linked.
+	 * @param carId the ID of the car.
+	 * @return the car, that takes the place of the car of the other node on this node, or null if this channel has been closed.
+	 */
+	public RelayCarConnection link(PhoneConnection phone, long carId) {
+		RelayCarConnection car = new RelayCarConnection(carId, this.lastLinkId.incrementAndGet(), this);
+		this.outgoingLinks.put(car.getLinkId(), car);
+		car.setLinkedPhone(phone);
+		phone.setLinkedCar(car);
+		if(!send(new Frame(ERelayFrameType.LINK, car.getLinkId(), carId, phone.getId()), false)) {
+			car.unlinked();
+			return null;
+		}
+		return car;
+	}
+
+	/**
+	 * Terminates a link from the phone-side, i.e. on the requesting node.
+	 * @param car the car of the link.
+	 */
+	public void release(RelayCarConnection car) {
+		if(this.outgoingLinks.remove(car.getLinkId(), car))
+			send(new Frame(ERelayFrameType.RELEASE, car.getLinkId(), 0, ""), false);
+	}
+
+	/**
+	 * Tells the requesting node, that a link has been established.
+	 * @param phone the phone of the link.
+	 */
+	public void confirm(RelayPhoneConnection phone) {
+		send(new Frame(ERelayFrameType.LINKED, phone.getLinkId(), 0, ""), false);
+	}
+
+	/**
+	 * Terminates a link from the car-side, i.e. on the owning node, or rejects it.
+	 * @param phone the phone of the link.
+	 */
+	public void unlink(RelayPhoneConnection phone) {
+		if(this.incomingLinks.remove(phone.getLinkId(), phone))
+			send(new Frame(ERelayFrameType.UNLINKED, phone.getLinkId(), 0, ""), false);
+	}
+
+	/**
+	 * Forwards an encoded message of a phone of this node to the car of a link.<br>
+	 * Control-data may be dropped, if the node of the car does not keep up, since newer control-data follows. A stop-command must never be dropped:
+	 * if it cannot be queued, the channel is closed instead, which terminates the link and thereby stops the car on its node.
+	 * @param linkId the ID of the link.
+	 * @param message the encoded message.
+	 * @param stop true, if the message contains a stop-command.
+	 * @return true, if the message has been queued, false if it has been dropped or the channel has been closed.
+	 */
+	public boolean forwardToCar(long linkId, String message, boolean stop) {
+		return send(new Frame(ERelayFrameType.CONTROL, linkId, 0, message), !stop);
+	}
+
+	/**
+	 * Forwards an encoded message of a car of this node to the phone of a link.
+	 * @param linkId the ID of the link.
+	 * @param message the encoded message.
+	 * @return true, if the message has been queued, false if it has been dropped.
+	 */
+	public boolean forwardToPhone(long linkId, String message) {
+		return send(new Frame(ERelayFrameType.SENSOR, linkId, 0, message), true);
+	}
+
+	/**
+	 * Queues a frame for the writer-thread.
+	 * @param frame the frame to be sent.
+	 * @param droppable true, if the frame may be dropped if the queue is full, false if the channel has to be closed instead.
+	 * @return true, if the frame has been queued, otherwise false.
+	 */
+	private boolean send(Frame frame, boolean droppable) {
+		if(this.closed.get())
+			return false;
+		if(this.sendQueue.offer(frame))
+			return true;
+		if(droppable) {
+			this.droppedFrames.increment();
+			return false;
+		}
+		RelayChannel.logger.warn("The node {} does not keep up with the relay-channel. Closing the channel.", this.peerId);
+		close();
+		return false;
+	}
+
+	/**
+	 * Closes the channel, terminates all of its links and tells the node about it. Can be called by any thread, any number of times.
+	 */
+	public void close() {
+		if(!this.closed.compareAndSet(false, true))
+			return;
+		try {
+			this.socket.close();
+		} catch(IOException ioe) {}
+		for(RelayCarConnection car : this.outgoingLinks.values())
+			car.unlinked();
+		this.outgoingLinks.clear();
+		for(RelayPhoneConnection phone : this.incomingLinks.values())
+			phone.released();
+		this.incomingLinks.clear();
+		this.node.channelClosed(this);
+	}
+
+	/**
+	 * Receives the frames of the other node and processes them, until the channel is closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			while(!this.closed.get()) {
+				ERelayFrameType type = ERelayFrameType.values()[this.input.readUnsignedByte()];
+				long key = this.input.readLong();
+				long value = this.input.readLong();
+				String text = this.input.readUTF();
+				this.receivedFrames.increment();
+				process(type, key, value, text);
+			}
+		} catch(EOFException eofe) {
+			RelayChannel.logger.info("The node {} has closed the relay-channel.", this.peerId);
+		} catch(IOException | ArrayIndexOutOfBoundsException e) {
+			if(!this.closed.get())
+				RelayChannel.logger.warn("The relay-channel to the node {} has been lost: {}", this.peerId, e.getMessage());
+		}
+		close();
+	}
+
+	/**
+	 * Processes one received frame.
+	 */
+	private void process(ERelayFrameType type, long key, long value, String text) {
+		switch(type) {
+		case HELLO:
+			this.peerId = text;
+			if(!this.node.channelEstablished(this)) {
+				RelayChannel.logger.info("There already is a relay-channel to the node {}. Closing the new one.", text);
+				close();
+			}
+			break;
+		case OWN:
+			this.node.carAnnounced(key, this);
+			break;
+		case DISOWN:
+			this.node.carWithdrawn(key, this);
+			break;
+		case LINK:
+			RelayPhoneConnection phone = new RelayPhoneConnection(text, value, key, this, this.node.getOperationQueue());
+			RelayPhoneConnection previousPhone = this.incomingLinks.put(key, phone);
+			if(previousPhone != null)
+				previousPhone.released();
+			this.node.requestLink(phone);
+			break;
+		case LINKED:
+			RelayCarConnection linkedCar = this.outgoingLinks.get(key);
+			if(linkedCar != null)
+				linkedCar.linked();
+			break;
+		case UNLINKED:
+			RelayCarConnection unlinkedCar = this.outgoingLinks.remove(key);
+			if(unlinkedCar != null)
+				unlinkedCar.unlinked();
+			break;
+		case RELEASE:
+			RelayPhoneConnection releasedPhone = this.incomingLinks.remove(key);
+			if(releasedPhone != null)
+				releasedPhone.released();
+			break;
+		case CONTROL:
+			RelayPhoneConnection controllingPhone = this.incomingLinks.get(key);
+			if(controllingPhone != null)
+				controllingPhone.deliver(text);
+			break;
+		case SENSOR:
+			RelayCarConnection sendingCar = this.outgoingLinks.get(key);
+			if(sendingCar != null)
+				sendingCar.deliver(text);
+			break;
+		}
+	}
+
+
+	/**
+	 * One frame of the channel.
+	 */
+	private static class Frame {
+
+		private final ERelayFrameType type;
+
+		private final long key;
+
+		private final long value;
+
+		private final String text;
+
+		private Frame(ERelayFrameType type, long key, long value, String text) {
+			this.type = type;
+			this.key = key;
+			this.value = value;
+			this.text = text;
+		}
+	}
+
+
+	/**
+	 * Writes the queued frames to the socket. All frames that are queued at once are flushed together.
+	 */
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				while(!RelayChannel.this.closed.get()) {
+					Frame frame = RelayChannel.this.sendQueue.poll(100, TimeUnit.MILLISECONDS);
+					if(frame == null)
+						continue;
+					do {
+						write(frame);
+					} while((frame = RelayChannel.this.sendQueue.poll()) != null);
+					RelayChannel.this.output.flush();
+				}
+			} catch(IOException ioe) {
+				if(!RelayChannel.this.closed.get())
+					RelayChannel.logger.warn("Could not write to the relay-channel of the node {}: {}", RelayChannel.this.peerId, ioe.getMessage());
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			close();
+		}
+
+		private void write(Frame frame) throws IOException {
+			DataOutputStream output = RelayChannel.this.output;
+			output.writeByte(frame.type.ordinal());
+			output.writeLong(frame.key);
+			output.writeLong(frame.value);
+			output.writeUTF(frame.text);
+			RelayChannel.this.sentFrames.increment();
+		}
+	}
+
+}
@@ -3,6 +3,8 @@ package at.ac.tuwien.ict.andropicar.server.connections;
 import java.net.Socket;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.logging.log4j.LogManager;
@@ -12,12 +14,20 @@ import at.ac.tuwien.ict.andropicar.server.helper.CarInformation;
 import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
 import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
 import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.SensorHistory;
+import at.ac.tuwien.ict.andropicar.server.management.DeviceRegisteredEvent;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
 
 
 /**
  * This class is used to communicate with a car via a TCP-connection (see {@link Connection} class for more information on the basic functionalities).<br>
  * It holds the reference to the {@link PhoneConnection} of a linked phone (if any) in order to be able to forward information such as sensor-data to it.<br>
- * This class provides the means for a linked phone to send data (e.g. control-data) to the car.
+ * This class provides the means for a linked phone to send data (e.g. control-data) to the car.<br>
+ * Any number of observing phones can receive the sensor-data of the car as well, without being able to control it.
+ * The sensor-data is encoded once per message into a {@link SharedFrame}, which is shared by all observers and sent by their own threads,
+ * so that the observers do not delay the linked phone.<br>
+ * Every phone limits the rate of the sensor-data it receives (see {@link SensorRateController}). While the linked phone is not due, the sensor-data is held back
+ * and newer values replace older ones, so the phone receives the freshest values as soon as it is due again, even if the car has not sent anything since.
  * 
  * @author Boeck
  */
@@ -32,6 +42,21 @@ public class CarConnection extends Connection
 	/** The phone that this car is linked to through the server. */
 	private volatile PhoneConnection linkedPhone = null;
 	
+	/** The phones that observe the sensor-data of this car. */
+	private CopyOnWriteArrayList<PhoneConnection> observers = new CopyOnWriteArrayList<>();
+	
+	/** Contains the sensor-data that is sent to the {@link #observers}. */
+	private HashMap<String, Object> observerMessageMap = new HashMap<>();
+	
+	/** The frames that have been sent to all observers and can be reused. */
+	private ArrayBlockingQueue<SharedFrame> framePool = new ArrayBlockingQueue<>(CarConnection.FRAME_POOL_SIZE);
+	
+	/** The maximum number of reusable frames. */
+	private static final int FRAME_POOL_SIZE = 32;
+	
+	/** The recent values of the cars sensors, or null if they are not kept. */
+	private SensorHistory sensorHistory = null;
+	
 	/** The logger that is used for logging messages. Part of the log4j2 library. */
 	private static final Logger logger = LogManager.getLogger(CarConnection.class);
 
@@ -46,12 +71,39 @@ public class CarConnection extends Connection
 	{
 		super(connection, operationQueue);
 	}
+	
+	/**
+	 * Used to initialize a car, that has already been identified and whose thread is never started (see {@link DetachedDevices}).
+	 * @param connection the {@link Socket} for this class.
+	 * @param id the cars ID.
+	 * @param operationQueue this {@link LinkedBlockingQueue} is used to communicate with the main-thread.
+	 */
+	CarConnection(Socket connection, long id, LinkedBlockingQueue<QueueElement> operationQueue)
+	{
+		super(connection, operationQueue);
+		this.id = id;
+		this.carInfo = new CarInformation(id, super.getIpAddress());
+	}
+	
+	/**
+	 * Used to initialize a car without a {@link Socket}, that is connected to another node of the cluster (see {@link RelayCarConnection}).
+	 * @param id the cars ID.
+	 * @param operationQueue this {@link LinkedBlockingQueue} is used to communicate with the main-thread.
+	 */
+	protected CarConnection(long id, LinkedBlockingQueue<QueueElement> operationQueue)
+	{
+		super(operationQueue);
+		this.id = id;
+	}
 
 
 	/**
 	 * @return the cars ID.
 	 */
 	public long getId() { return this.id; }
+	
+	@Override
+	public Object getDeviceId() { return this.id; }
 
 	/**
 	 * @return the linked Phone.
@@ -62,7 +114,58 @@ public class CarConnection extends Connection
 	 * @return the cars informations.
 	 */
 	public CarInformation getCarInformation() { return this.carInfo; }
+	
+	/**
+	 * @return the recent values of the cars sensors, or null if they are not kept.
+	 */
+	public SensorHistory getSensorHistory() { return this.sensorHistory; }
+	
+	/**
+	 * Sets the history that the values of the cars sensors are added to. Has to be called before the runnable is started.
+	 * @param sensorHistory the history, or null to not keep the values.
+	 */
+	public void setSensorHistory(SensorHistory sensorHistory) { this.sensorHistory = sensorHistory; }
 
+	/**
+	 * @return the number of phones that observe the sensor-data of this car.
+	 */
+	public int getObserverCount() { return this.observers.size(); }
+	
+	/**
+	 * Can be called by any thread.
+	 * @param phoneId the ID of a phone.
+	 * @param address the address, that the phone claims to connect from.
+	 * @return true, if the phone is linked to this car or observes it, and is connected to this server from the passed address, otherwise false.
+	 */
+	public boolean isViewer(String phoneId, String address) {
+		PhoneConnection linkedPhone = this.linkedPhone;
+		if(linkedPhone != null && phoneId.equals(linkedPhone.getId()))
+			return address.equals(linkedPhone.getIpAddress());
+		for(PhoneConnection observer : this.observers) {
+			if(phoneId.equals(observer.getId()))
+				return address.equals(observer.getIpAddress());
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds a phone to the observers of this car, which receive its sensor-data from now on.
+	 * @param observer the phone that wants to observe this car.
+	 * @return true, if the phone has been added, false if it already observes this car.
+	 */
+	public boolean addObserver(PhoneConnection observer) {
+		return this.observers.addIfAbsent(observer);
+	}
+	
+	/**
+	 * Removes a phone from the observers of this car.
+	 * @param observer the phone that does no longer observe this car.
+	 * @return true, if the phone has been removed, otherwise false.
+	 */
+	public boolean removeObserver(PhoneConnection observer) {
+		return this.observers.remove(observer);
+	}
+	
 	/**
 	 * Sets the linked Phone to the given parameter, therefore terminating any link that might already be established.<br>
 	 * If the {@link #linkedPhone}s state is currently not null, it is informed about the termination of the link.
@@ -76,8 +179,10 @@ public class CarConnection extends Connection
 		this.linkedPhone = linkedPhone;
 		if(this.linkedPhone == null)
 			this.addToOutputMessageMap(Keywords.stop, 1);
-		else
+		else {
+			super.startLinkLatency();
 			this.linkedPhone.addToOutputMessageMap(Keywords.state, 2);
+		}
 	}
 	
 	/**
@@ -90,12 +195,21 @@ public class CarConnection extends Connection
 			this.linkedPhone.setLinkedCar(null);
 			this.setLinkedPhone(null);
 		}
+		for(PhoneConnection observer : this.observers)
+			observer.setObservedCar(null);
+		this.observers.clear();
 		super.closeConnection();
 	}
 	
+	/**
+	 * {@inheritDoc}<br>
+	 * The phones ID is null, if the car is currently not linked to a phone. The sensor-data is also recorded, regardless of a link.
+	 */
 	protected void updateListeners(HashMap<String, Object> decodedDataset) {
-		for(IDataListener listener : this.getListeners())
-			listener.updateListener(this.id, this.linkedPhone.getId(), decodedDataset);
+		PhoneConnection phone = this.linkedPhone;
+		String phoneId = phone != null ? phone.getId() : null;
+		super.record(ETelemetrySource.CAR, this.id, phoneId, decodedDataset, Keywords.sensorKeywords);
+		super.informListeners(this.id, phoneId, decodedDataset);
 	}
 	
 	/**
@@ -118,6 +232,46 @@ public class CarConnection extends Connection
         }
 	}
 	
+	/**
+	 * Forwards the sensor-data, that has been held back for the linked phone, as soon as the phone is due (see {@link SensorRateController}).
+	 * The data is discarded, if the phone is not linked anymore.
+	 */
+	private void forwardSensorData() {
+		PhoneConnection phone = this.linkedPhone;
+		if(phone == null)
+			super.clearForwardMessage();
+		else if(super.hasForwardMessage() && phone.isForwardingDue())
+			forwardMessageToDevice(phone);
+	}
+	
+	/**
+	 * Encodes the sensor-data of a message into one {@link SharedFrame} and hands it to all {@link #observers}, which send it to their devices with their own threads.
+	 * @param decodedDataset the HashMap that contains the message that is to be searched for sensor-data.
+	 */
+	private void informObservers(HashMap<String, Object> decodedDataset) {
+		if(this.observers.isEmpty())
+			return;
+		Object cache;
+		int keys = 0;
+		for(int i = 0; i < Keywords.sensorKeywords.length; i++)
+			if((cache = decodedDataset.get(Keywords.sensorKeywords[i])) instanceof Long) {
+				this.observerMessageMap.put(Keywords.sensorKeywords[i], cache);
+				keys |= 1 << i;
+			}
+		if(this.observerMessageMap.isEmpty())
+			return;
+		SharedFrame frame = SharedFrame.encode(this.observerMessageMap, this.framePool);
+		// an observer that is not due, receives only the newest values of every sensor
+		frame.setKeys(keys);
+		this.observerMessageMap.clear();
+		for(PhoneConnection observer : this.observers) {
+			frame.retain();
+			observer.offerFrame(frame);
+		}
+		// the reference of this car
+		frame.release();
+	}
+	
 	/**
 	 * Searches through a list of Strings and updates {@link #carInfo}, if it contains certain keywords.
 	 * @param infos the list of String to be searched through.
@@ -146,14 +300,48 @@ public class CarConnection extends Connection
 	@Override
 	protected Long register() {
 		Object id = null;
-		while(!((id = super.register()) instanceof Long))
-			if(CarConnection.logger.isWarnEnabled())
-				CarConnection.logger.warn("Received id in a wrong format. Trying again.");
+		while(!((id = super.register()) instanceof Long)) {
+			if(id == null)
+				return null;
+			CarConnection.logger.warn("Received id in a wrong format. Trying again.");
+		}
 		return (long) id;
 	}
 	
-	
+	/**
+	 * Processes one message of the car: updates the {@link #carInfo} and the sensor-history, forwards the sensor-data to the linked phone,
+	 * informs the listeners and hands the sensor-data to all observers.
+	 * @param decodedDataset the decoded message.
+	 */
 	@SuppressWarnings("unchecked")
+	void processMessage(HashMap<String, Object> decodedDataset) {
+		Object cache;
+		if((cache = decodedDataset.get(Keywords.properties)) instanceof List) {
+			this.processCarInformation((List<String>) cache);
+			super.writeToOperationQueue(EOperationType.UPDATE_INFO);
+		}
+		
+		if(this.sensorHistory != null)
+			this.sensorHistory.update(decodedDataset);
+		
+		PhoneConnection phone = this.linkedPhone;
+		if(phone != null) {
+			// the values that are still held back for the phone are replaced by the newer ones
+			if(super.hasForwardMessage())
+				phone.getStatistics().messageConflated();
+			if((cache = decodedDataset.get(Keywords.phoneControl)) instanceof Long){
+				addToForwardMessageMap(Keywords.phoneControl, (Long) cache);
+			}
+			processSensorData(decodedDataset);
+		}
+		
+		updateListeners(decodedDataset);
+		forwardSensorData();
+		// the linked phone is served first, the observers afterwards
+		informObservers(decodedDataset);
+	}
+	
+	
 	@Override
 	/**
 	 * Registers the car with the server and then processes all incoming information.<br>
@@ -161,37 +349,40 @@ public class CarConnection extends Connection
 	 * It then continuously waits for data from the car and processes it as long as the closeConnection-flag is not set.
 	 * If the car sends information about the cars capabilities, {@link #carInformation} is updated and the main-thread informed.
 	 * If a phone is linked to this car, all data-sets destined for the phone (e.g. sensor-data) are forwarded to it.
+	 * Afterwards the sensor-data is handed to all observers.
+	 * Commands that have been sent to a {@link CarGroup} of this car are sent to the car as well.
 	 */
 	public void run() {
 		
-		this.id = register();
+		DeviceRegisteredEvent registeredEvent = new DeviceRegisteredEvent();
+		registeredEvent.begin();
+		Long id = register();
+		if(id == null) {
+			// the connection has been closed before the car identified itself
+			closeConnection();
+			return;
+		}
+		this.id = id;
+		registeredEvent.end();
+		if(registeredEvent.shouldCommit()) {
+			registeredEvent.setDeviceType("car");
+			registeredEvent.setDeviceId(id.toString());
+			registeredEvent.commit();
+		}
 		this.carInfo = new CarInformation(id, super.getIpAddress());
-		// registering was successful, informing the client
-		addToOutputMessageMap(Keywords.state, 1);
+		// the id and the information have been stored, the main-thread can now process the registration
+		super.writeToOperationQueue(EOperationType.REGISTER);
+		super.record(ETelemetrySource.CAR, id, null, Keywords.id, id);
+		// the car is told about the result of the registration by the main-thread, which may also reject or redirect it
 				
 		while(!super.getCloseConnection()) {
 			
-			HashMap<String, Object> decodedDataset = null;
-			decodedDataset = readFromStreamToHashMap();
-			if(decodedDataset != null) {
-				Object cache;
-				// process incoming message
-				
-				if((cache = decodedDataset.get(Keywords.properties)) instanceof List) {
-					this.processCarInformation((List<String>) cache);
-					super.writeToOperationQueue(EOperationType.UPDATE_INFO);
-				}
-				
-				if(this.linkedPhone != null) {
-					if((cache = decodedDataset.get(Keywords.phoneControl)) instanceof Long){
-						addToForwardMessageMap(Keywords.phoneControl, (Long) cache);
-					}
-					processSensorData(decodedDataset);
-				}
-				
-				updateListeners(decodedDataset);
-				forwardMessageToDevice(this.linkedPhone);
-			}
+			HashMap<String, Object> decodedDataset = readFromStreamToHashMap();
+			if(decodedDataset != null)
+				processMessage(decodedDataset);
+			else
+				forwardSensorData();
+			super.sendFrames();
 			super.sendOutputMessageMap();
 		}
 		
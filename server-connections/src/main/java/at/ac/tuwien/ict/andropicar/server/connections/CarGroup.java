@@ -0,0 +1,119 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * A named group of cars, that can be sent commands (e.g. stop) by an authorized phone at once.<br>
+ * The group consists of a fixed set of car-IDs. The connected cars with those IDs are its members, which are added and removed by the main-thread
+ * whenever such a car registers or disconnects.<br>
+ * A command is encoded once into a {@link SharedFrame}, which is queued at every member and sent by the members own thread.
+ * The phone that sends the command therefore does not wait for any car, and all members send the command in parallel.
+ */
+public class CarGroup {
+
+	/** The ID of this group. */
+	private final String id;
+
+	/** The IDs of the cars that belong to this group. */
+	private final Set<Long> carIds;
+
+	/** The connected cars that belong to this group. */
+	private final CopyOnWriteArrayList<CarConnection> members = new CopyOnWriteArrayList<>();
+
+	/** The frames that have been sent by all members and can be reused. */
+	private final ArrayBlockingQueue<SharedFrame> framePool = new ArrayBlockingQueue<>(CarGroup.FRAME_POOL_SIZE);
+
+	/** The maximum number of reusable frames. */
+	private static final int FRAME_POOL_SIZE = 8;
+
+
+	/**
+	 * Creates a new group without any members.
+	 * @param id the ID of the group.
+	 * @param carIds the IDs of the cars that belong to the group.
+	 */
+	public CarGroup(String id, Collection<Long> carIds) {
+		this.id = id;
+		this.carIds = Collections.unmodifiableSet(new HashSet<>(carIds));
+	}
+
+
+	/**
+	 * @return the ID of this group.
+	 */
+	public String getId() { return this.id; }
+
+	/**
+	 * @return the IDs of the cars that belong to this group.
+	 */
+	public Set<Long> getCarIds() { return this.carIds; }
+
+	/**
+	 * @return the number of connected cars that belong to this group.
+	 */
+	public int getMemberCount() { return this.members.size(); }
+
+	/**
+	 * @param carId the ID of a car.
+	 * @return true, if the car belongs to this group, otherwise false.
+	 */
+	public boolean contains(long carId) {
+		return this.carIds.contains(carId);
+	}
+
+	/**
+	 * Adds a connected car to the members of this group, if it belongs to the group.
+	 * @param car the car that has registered.
+	 * @return true, if the car has been added, otherwise false.
+	 */
+	public boolean addMember(CarConnection car) {
+		if(!this.contains(car.getId()))
+			return false;
+		return this.members.addIfAbsent(car);
+	}
+
+	/**
+	 * Removes a car from the members of this group.
+	 * @param car the car that has disconnected.
+	 * @return true, if the car has been removed, otherwise false.
+	 */
+	public boolean removeMember(CarConnection car) {
+		return this.members.remove(car);
+	}
+
+	/**
+	 * Encodes a command once and queues it at every member, which sends it to its car with its own thread.<br>
+	 * A command that contains a stop is handed to the members as an urgent frame (see {@link Connection#offerUrgentFrame(SharedFrame)}),
+	 * since the queue of a member drops its oldest frames when it is full.
+	 * @param commandMap the command to be sent to all members.
+	 * @return the number of members that the command has been queued at.
+	 */
+	public int broadcast(HashMap<String, Object> commandMap) {
+		if(this.members.isEmpty())
+			return 0;
+		boolean urgent = commandMap.containsKey(Keywords.stop);
+		SharedFrame frame = SharedFrame.encode(commandMap, this.framePool);
+		int receivers = 0;
+		for(CarConnection car : this.members) {
+			frame.retain();
+			if(urgent)
+				car.offerUrgentFrame(frame);
+			else
+				car.offerFrame(frame);
+			receivers++;
+		}
+		// the reference of the sender
+		frame.release();
+		return receivers;
+	}
+
+}
@@ -3,6 +3,7 @@ package at.ac.tuwien.ict.andropicar.server.connections;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
@@ -10,15 +11,32 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SSLSocket;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
 import at.ac.tuwien.ict.andropicar.server.Server;
 import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.EOverflowPolicy;
 import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
 import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+import at.ac.tuwien.ict.andropicar.server.helper.TlsStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.TraceSampler;
+import at.ac.tuwien.ict.andropicar.server.management.FrameForwardedEvent;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder;
 
 
 /**
@@ -28,8 +46,13 @@ import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
  * -) Write and read Strings to and from the TCP-Socket that connects the server to the device.<br>
  * -) Write and read JSON Strings to and from the TCP-Socket that can be generated by HashMaps.<br>
  * -) inform the main thread about certain events via the operationQueue.<br>
+ * -) Send {@link SharedFrame}s, that other connections have encoded once for several devices, through a bounded queue.<br>
  * <br>
- * The class also contains a list of listeners that can register themselves to get informed about data that is received via this classes TCP-connection.<br>
+ * The time between receiving a message (see {@link #getLastActivity()}) and writing its forwarded data to the linked device is recorded for every link and for the whole server
+ * (see {@link #getLinkLatency()} and {@link #setForwardLatency(LatencyHistogram)}).<br>
+ * The class also contains a list of listeners that can register themselves to get informed about data that is received via this classes TCP-connection.
+ * Listeners are informed asynchronously through a {@link ListenerDispatcher}, so that a slow listener does not slow down the connection.
+ * Listeners that are only interested in certain cars, phones or keywords subscribe via the {@link SubscriptionIndex} instead.<br>
  * <br>
  * <b>Following is a list of JSON-Keywords, that can be part of a message (value range not enforced by server):</b><br>
  * <table>
@@ -50,9 +73,14 @@ import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
  * 		<td>to connect a phone to a car in order to control it.<br>0 represents a request to disconnect.</td>
  * 	</tr>
  *  <tr>
+ * 		<td>observe</td>
+ * 		<td>-1...99999</td>
+ * 		<td>to observe the sensor-data of a car without controlling it.<br>-1 represents a request to stop observing.</td>
+ * 	</tr>
+ *  <tr>
  * 		<td>state</td>
- * 		<td>-1...2</td>
- * 		<td>to get informed about id and connect requests<br>(-1 not allowed, 0 not connected to a phone, 1 identified, 2 connected to a phone)</td>
+ * 		<td>-1...3</td>
+ * 		<td>to get informed about id, connect and observe requests<br>(-1 not allowed, 0 not connected to a phone, 1 identified, 2 connected to a phone, 3 observing a car)</td>
  * 	</tr>
  *  <tr>
  * 		<td>request</td>
@@ -139,6 +167,21 @@ import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
  * 		<td>0...255</td>
  * 		<td>the cars hall-sensor-data</td>
  * 	</tr>
+ *  <tr>
+ * 		<td>rate</td>
+ * 		<td>0...1000</td>
+ * 		<td>the maximum number of sensor-messages per second, that a phone wants to receive (e.g. the refresh-rate of its display).<br>0 represents no limit</td>
+ * 	</tr>
+ *  <tr>
+ * 		<td>ping</td>
+ * 		<td>long</td>
+ * 		<td>sent by the server to an idle device, which has to answer with any message (preferably pong) to not be considered dead</td>
+ * 	</tr>
+ *  <tr>
+ * 		<td>pong</td>
+ * 		<td>long</td>
+ * 		<td>the answer to a ping, echoing its value. It is consumed by the server, i.e. neither forwarded nor passed to listeners</td>
+ * 	</tr>
  * </table>
  * 
  * @author Boeck
@@ -158,20 +201,77 @@ public abstract class Connection implements Runnable{
 	/** Holds the output-stream to write to the connected device. */
 	private OutputStreamWriter outputStream;
 	
-	/** Contains the key-value-pairs for the JSON-String, to be sent to the connected device. */
+	/** Holds the underlying output-stream of the {@link #outputStream}, which {@link SharedFrame}s are written to directly, since they are already encoded. */
+	private OutputStream rawOutputStream;
+	
+	/** Contains the key-value-pairs for the JSON-String, to be sent to the connected device. Guarded by itself, since the main-thread and the timer-thread (e.g. a ping) add to it while this thread sends it. */
 	private volatile HashMap<String, Object> outputMessageMap = new HashMap<>();
 	
 	/** Contains the JSON-map that should be forwarded to the device that is linked to this device via the server. */
 	private volatile HashMap<String, Object> forwardMessageMap = new HashMap<>();
 	
 	/** True, if the runnable should close the connection and finish, otherwise false. */
-	private boolean closeConnection = false;
+	private volatile boolean closeConnection = false;
+	
+	/** Released, once the connection has been closed. */
+	private final CountDownLatch closed = new CountDownLatch(1);
+	
+	/** The point in time (see {@link System#nanoTime()}) when data has last been received from the connected device. */
+	private volatile long lastActivity = System.nanoTime();
 	
 	/** The operationQueue can be written to, to inform the main-thread about certain events and send information-relevant data. */
 	private volatile LinkedBlockingQueue<QueueElement> operationQueue;
 	
-	/** The set of DataListeners that want to be informed about new incoming data. */
-	private Collection<IDataListener> listeners = new ArrayList<>();
+	/** Limits the messages and bytes that the connected device may send per second, or null if unlimited. */
+	private ConnectionRateLimiter rateLimiter = null;
+	
+	/** The subscriptions of DataListeners to the data of all connections, or null. */
+	private SubscriptionIndex subscriptionIndex = null;
+	
+	/** Records the sensor- and control-data of the connected device, or null. */
+	private TelemetryRecorder recorder = null;
+	
+	/** Counts the messages and bytes that have been received from and sent to the connected device. */
+	private ConnectionStatistics statistics = new ConnectionStatistics(null);
+	
+	/** Counts the decoding and encoding of messages of the whole server, or null. */
+	private ServerMetrics metrics = null;
+	
+	/** Decides which received messages are traced, or null if nothing is traced. */
+	private TraceSampler traceSampler = null;
+	
+	/** The maximum time in milliseconds, that the device may take to complete its TLS-handshake. Only used, if the {@link Socket} is an {@link SSLSocket}. */
+	private int handshakeTimeout = 5000;
+	
+	/** Counts the TLS-handshakes, or null. */
+	private TlsStatistics tlsStatistics = null;
+	
+	/** The number of messages that have been received from the device. Only used by the runnable itself, for sampling. */
+	private long receivedMessages = 0;
+	
+	/** True, if the last received message is traced and its forwarding has not been traced yet, otherwise false. Only used by the runnable itself. */
+	private boolean traced = false;
+	
+	/** The server-wide histogram of the time between receiving data from this kind of device and writing it to the linked device, or null. */
+	private LatencyHistogram forwardLatency = null;
+	
+	/** The histogram of the time between receiving data from this device and writing it to the currently linked device, or null if it has not been linked yet. */
+	private volatile LatencyHistogram linkLatency = null;
+	
+	/** The frames that have been handed over by other connections (e.g. the sensor-data of an observed car) and not yet sent to the connected device. */
+	private ArrayBlockingQueue<SharedFrame> frameQueue = new ArrayBlockingQueue<>(Connection.FRAME_QUEUE_CAPACITY);
+	
+	/** A frame that is sent before all queued frames and is never dropped in favour of other frames (e.g. a stop-command of the {@link ControlWatchdog}), or null. */
+	private final AtomicReference<SharedFrame> urgentFrame = new AtomicReference<>();
+	
+	/** The maximum number of frames that are queued for a connection. */
+	private static final int FRAME_QUEUE_CAPACITY = 16;
+	
+	/** The frames that are taken from the {@link #frameQueue} to be sent. Only used by the thread of this connection. */
+	private ArrayList<SharedFrame> sendingFrames = new ArrayList<>(Connection.FRAME_QUEUE_CAPACITY);
+	
+	/** The dispatchers of the DataListeners that want to be informed about new incoming data. */
+	private List<ListenerDispatcher> listeners = new CopyOnWriteArrayList<>();
 	
 	/** The logger that is used for logging messages. Part of the log4j2 library. */
 	private static final Logger logger = LogManager.getLogger(Connection.class);
@@ -188,7 +288,8 @@ public abstract class Connection implements Runnable{
 		this.operationQueue = operationQueue;
 		try{
 			this.inputStream = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8);
-			this.outputStream = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+			this.rawOutputStream = connection.getOutputStream();
+			this.outputStream = new OutputStreamWriter(this.rawOutputStream, StandardCharsets.UTF_8);
 		} catch(IOException ioe){
 			Connection.logger.error("There has been an unexpected IO Exception during the initialization. This Connection cannot be used any longer.", ioe);
 			ioe.printStackTrace();
@@ -196,6 +297,16 @@ public abstract class Connection implements Runnable{
 		}
 	}
 	
+	/**
+	 * Used to initialize a connection without a {@link Socket}, whose device is connected to another node of the cluster
+	 * (see {@link RelayCarConnection} and {@link RelayPhoneConnection}). Such a connection has to override {@link #writeToStream(String)},
+	 * does not run in its own thread and does not inform the main-thread about its events.
+	 * @param operationQueue this {@link LinkedBlockingQueue} is used to inform the main-thread about certain events and send information-relevant data.
+	 */
+	protected Connection(LinkedBlockingQueue<QueueElement> operationQueue) {
+		this.operationQueue = operationQueue;
+	}
+	
 	
 	/**
 	 * This method informs all registered listeners about incoming data.
@@ -203,6 +314,11 @@ public abstract class Connection implements Runnable{
 	 */
 	protected abstract void updateListeners(HashMap<String, Object> decodedDataset);
 	
+	/**
+	 * @return the id of the connected device, i.e. a Long for cars and a String for phones. It is not set before the device has identified itself.
+	 */
+	public abstract Object getDeviceId();
+	
 	/**
 	 * @return the IP-address of the device, that this Connection is connected to.
 	 */
@@ -219,37 +335,194 @@ public abstract class Connection implements Runnable{
 	public void finishConnection() { this.closeConnection = true; }
 	
 	/**
-	 * Adds a new listener to the list of listeners, who get informed about newly received datasets.
+	 * @return the point in time (see {@link System#nanoTime()}) when data has last been received from the connected device.
+	 */
+	public long getLastActivity() { return this.lastActivity; }
+	
+	/**
+	 * Sets the flag, that indicates that the connection with the device should be closed, and closes the {@link Socket} right away.<br>
+	 * This is used for connections whose device does not respond anymore, since a blocking write to such a device might never return.
+	 * The runnable notices the closed {@link Socket} on its next read or write and cleans up as usual.
+	 */
+	public void abortConnection() {
+		this.closeConnection = true;
+		if(this.connection != null) {
+			try {
+				this.connection.close();
+			} catch(IOException ioe) {}
+		}
+	}
+	
+	/**
+	 * Waits until the connection has been closed by its runnable.
+	 * @param timeout the maximum time to wait.
+	 * @param unit the {@link TimeUnit} of timeout.
+	 * @return true, if the connection has been closed, false if the timeout elapsed before.
+	 * @throws InterruptedException if the calling thread has been interrupted while waiting.
+	 */
+	public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException { return this.closed.await(timeout, unit); }
+	
+	/**
+	 * Sets the limiter for the messages and bytes that the connected device may send per second. Has to be called before the runnable is started.
+	 * @param rateLimiter the limiter, or null to not limit the connected device.
+	 */
+	public void setRateLimiter(ConnectionRateLimiter rateLimiter) { this.rateLimiter = rateLimiter; }
+	
+	/**
+	 * Sets the index of the subscriptions that received data-sets are delivered to. Has to be called before the runnable is started.
+	 * @param subscriptionIndex the index of subscriptions, or null.
+	 */
+	public void setSubscriptionIndex(SubscriptionIndex subscriptionIndex) { this.subscriptionIndex = subscriptionIndex; }
+	
+	/**
+	 * Sets the recorder of the sensor- and control-data of the connected device. Has to be called before the runnable is started.
+	 * @param recorder the recorder, or null to not record anything.
+	 */
+	public void setRecorder(TelemetryRecorder recorder) { this.recorder = recorder; }
+	
+	/**
+	 * Sets the metrics of the whole server, that the messages of this connection and their decoding and encoding are counted in. Has to be called before the runnable is started.
+	 * @param metrics the metrics, or null.
+	 */
+	public void setMetrics(ServerMetrics metrics) {
+		this.metrics = metrics;
+		this.statistics = new ConnectionStatistics(metrics);
+	}
+	
+	/**
+	 * Sets the sampler, that decides which received messages are traced. Has to be called before the runnable is started.
+	 * @param traceSampler the sampler, or null to trace nothing.
+	 */
+	public void setTraceSampler(TraceSampler traceSampler) { this.traceSampler = traceSampler; }
+	
+	/**
+	 * Sets the settings of the TLS-handshake, which is done if the {@link Socket} is an {@link SSLSocket}. Has to be called before the runnable is started.
+	 * @param handshakeTimeout the maximum time in milliseconds, that the device may take to complete its handshake.
+	 * @param tlsStatistics counts the TLS-handshakes, or null.
+	 */
+	public void setTls(int handshakeTimeout, TlsStatistics tlsStatistics) {
+		this.handshakeTimeout = handshakeTimeout;
+		this.tlsStatistics = tlsStatistics;
+	}
+	
+	/**
+	 * @return the counters of the messages and bytes that have been received from and sent to the connected device.
+	 */
+	public ConnectionStatistics getStatistics() { return this.statistics; }
+	
+	/**
+	 * Sets the server-wide histogram, that the time between receiving data from this device and writing it to the linked device is recorded to,
+	 * in addition to the histogram of the current link. Has to be called before the runnable is started.
+	 * @param forwardLatency the histogram, or null.
+	 */
+	public void setForwardLatency(LatencyHistogram forwardLatency) { this.forwardLatency = forwardLatency; }
+	
+	/**
+	 * @return the histogram of the time between receiving data from this device and writing it to the currently linked device, or null if it has not been linked yet.
+	 */
+	public LatencyHistogram getLinkLatency() { return this.linkLatency; }
+	
+	/**
+	 * Starts a new histogram for the latency of the current link. Has to be called whenever this device is linked to another device.
+	 */
+	protected void startLinkLatency() { this.linkLatency = new LatencyHistogram(); }
+	
+	/**
+	 * Records the values of the passed keywords of a data-set, if a {@link #recorder} has been set.
+	 * @param source the kind of device that the data-set has been received from.
+	 * @param carId the cars ID the data-set is for or from, or 0.
+	 * @param phoneId the phones ID the data-set is for or from, or null.
+	 * @param decodedDataset the data-set.
+	 * @param keywords the keywords of the values to be recorded.
+	 */
+	protected void record(ETelemetrySource source, long carId, String phoneId, HashMap<String, Object> decodedDataset, String[] keywords) {
+		if(this.recorder != null)
+			this.recorder.record(source, carId, phoneId, decodedDataset, keywords);
+	}
+	
+	/**
+	 * Records a single value, if a {@link #recorder} has been set. Used for events like the registration of a device, so that they can be replayed.
+	 * @param source the kind of device that the value has been received from.
+	 * @param carId the cars ID the value is for or from, or 0.
+	 * @param phoneId the phones ID the value is for or from, or null.
+	 * @param keyword the keyword of the value.
+	 * @param value the value.
+	 */
+	protected void record(ETelemetrySource source, long carId, String phoneId, String keyword, long value) {
+		if(this.recorder != null)
+			this.recorder.record(System.currentTimeMillis(), source, carId, phoneId, Keywords.indexOf(keyword), value);
+	}
+	
+	/**
+	 * Adds a new listener to the list of listeners, who get informed about newly received datasets.<br>
+	 * If the listener is a {@link ListenerDispatcher}, it is used as it is. Otherwise the listener is informed through its shared {@link ListenerDispatcher}.
 	 * @param listener the listener to be added to the list of listeners.
 	 * @return true, if the listener was successfully added to the list of listeners, otherwise false.
 	 */
-	public boolean addListener(IDataListener listener) { return this.listeners.add(listener); }
+	public boolean addListener(IDataListener listener) {
+		if(listener == null)
+			return false;
+		if(listener instanceof ListenerDispatcher)
+			return this.listeners.add((ListenerDispatcher) listener);
+		return this.listeners.add(ListenerDispatcher.acquire(listener));
+	}
 	
 	/**
 	 * Removes a listener from the list of listeners, who get informed about newly received datasets.
 	 * @param listener the listener to be removed from the list of listeners.
 	 * @return true, if the listener was successfully removed from the list of listeners, otherwise false.
 	 */
-	public boolean removeListener(IDataListener listener) { return this.listeners.remove(listener); }
+	public boolean removeListener(IDataListener listener) {
+		for(ListenerDispatcher dispatcher : this.listeners) {
+			if(dispatcher == listener)
+				return this.listeners.remove(dispatcher);
+			if(dispatcher.getListener() == listener && this.listeners.remove(dispatcher)) {
+				ListenerDispatcher.release(listener);
+				return true;
+			}
+		}
+		return false;
+	}
 	
 	/**
 	 * Returns the list of listeners, that get informed about newly received datasets.
-	 * @return the list of listeners.
+	 * @return the list of the listeners dispatchers.
 	 */
-	protected Collection<IDataListener> getListeners() { return this.listeners; }
+	protected Collection<ListenerDispatcher> getListeners() { return this.listeners; }
+	
+	/**
+	 * Informs the listeners of this connection and all matching subscribers of the {@link #subscriptionIndex} about a data-set.
+	 * @param carId the cars ID the data-set is for or from.
+	 * @param phoneId the phones ID the data-set is for or from, or null.
+	 * @param decodedDataset the data-set.
+	 */
+	protected void informListeners(long carId, String phoneId, HashMap<String, Object> decodedDataset) {
+		for(ListenerDispatcher listener : this.listeners)
+			listener.updateListener(carId, phoneId, decodedDataset);
+		if(this.subscriptionIndex != null)
+			this.subscriptionIndex.dispatch(carId, phoneId, decodedDataset);
+	}
 	
 	/**
 	 * Adds a set of JSON-key-value-pairs to the outputMessageMap.
 	 * @param outputMessageMap the set of JSON-key-value-pairs to be added.
 	 */
-	public void addToOutputMessageMap(HashMap<String, Object> outputMessageMap) { this.outputMessageMap.putAll(outputMessageMap);}
+	public void addToOutputMessageMap(HashMap<String, Object> outputMessageMap) {
+		synchronized(this.outputMessageMap) {
+			this.outputMessageMap.putAll(outputMessageMap);
+		}
+	}
 	
 	/**
 	 * Adds one JSON-key-value-pair to the outputMessageMap.
 	 * @param key the key of the JSON-key-value-pair.
 	 * @param value the value of the JSON-key-value-pair.
 	 */
-	public void addToOutputMessageMap(String key, Object value) { this.outputMessageMap.put(key, value); }
+	public void addToOutputMessageMap(String key, Object value) {
+		synchronized(this.outputMessageMap) {
+			this.outputMessageMap.put(key, value);
+		}
+	}
 	
 	/**
 	 * Adds a set of JSON-key-value-pairs to the forwardMessageMap.
@@ -264,6 +537,32 @@ public abstract class Connection implements Runnable{
 	 */
 	public void addToForwardMessageMap(String key, Object value) { this.forwardMessageMap.put(key, value); }
 	
+	/**
+	 * @return true, if the forwardMessageMap holds data that has not been forwarded yet, otherwise false.
+	 */
+	protected boolean hasForwardMessage() { return !this.forwardMessageMap.isEmpty(); }
+	
+	/**
+	 * Discards the data of the forwardMessageMap, that has not been forwarded yet, e.g. because the linked device is gone.
+	 */
+	protected void clearForwardMessage() { this.forwardMessageMap.clear(); }
+	
+	/**
+	 * Tells, if data of another device that is limited in its rate (i.e. the sensor-data of a car) may be written to this device now.
+	 * If not, the data is held back and conflated with newer data. Connections that do not limit the rate are always due.
+	 * @return true, if the data may be written now, otherwise false.
+	 */
+	protected boolean isForwardingDue() { return true; }
+	
+	/**
+	 * Called after data of another device has been written to this device, so that the rate of the data can be adapted to the connection.
+	 * Does nothing, unless overridden.
+	 * @param length the number of bytes that have been written.
+	 * @param writeTime the time in nanoseconds that writing to the socket took, without waiting for other threads that write to this device,
+	 * which is long, if the send-buffer has been full.
+	 */
+	protected void forwardingWritten(int length, long writeTime) {}
+	
 	/**
 	 * Creates a new {@link QueueElement} with the passed operation-type and this class as parameters and puts it on the {@link #operationQueue}.
 	 * @param operationType the operationType for the new {@link QueueElement}
@@ -285,15 +584,28 @@ public abstract class Connection implements Runnable{
 	/**
 	 * Reads a maximum of 500 bytes from the {@link Socket}s InputStream, converts it into a String, and returns it.<br>
 	 * If an IOException occurs, this runnable will render invalid and therefore finish.
+	 * If the message exceeds the limits of the {@link #rateLimiter}, it is discarded or the connection is closed, depending on the limiters policy.
 	 * @return the String that was received or null, if nothing was received before an IOException occurred (including a simple Timeout). 
 	 */
 	protected String readFromStream() {
 		try {
 			char[] inputBuffer = new char[500];
-			if(inputStream.read(inputBuffer, 0, 500) != -1) {
+			int length;
+			if((length = inputStream.read(inputBuffer, 0, 500)) != -1) {
+				this.lastActivity = System.nanoTime();
+				this.statistics.messageReceived(length);
+				if(this.rateLimiter != null && !this.rateLimiter.admit(length)) {
+					if(this.rateLimiter.getPolicy() == EOverflowPolicy.DISCONNECT) {
+						Connection.logger.warn("The connected device exceeded its message-rate. Closing the connection.");
+						closeConnection();
+					}
+					return null;
+				}
 				String inputMessage = (new String(inputBuffer)).trim();
-				if(Connection.logger.isDebugEnabled())
-					Connection.logger.debug("Incoming message from a " + this.getClass() + ": " + inputMessage);
+				Connection.logger.debug("Incoming message from a {}: {}", this.getClass(), inputMessage);
+				this.traced = this.traceSampler != null && this.traceSampler.sample(++this.receivedMessages);
+				if(this.traced)
+					this.traceSampler.received(this, length, inputMessage);
 				return inputMessage;
 			}
 			else {
@@ -322,27 +634,169 @@ public abstract class Connection implements Runnable{
 	protected HashMap<String, Object> readFromStreamToHashMap(){
 		String inputMessage = this.readFromStream();
 		if(inputMessage != null)
-			return JSONDecoder.decode(inputMessage);
+			return decode(inputMessage);
 		return null;
 	}
 	
+	/**
+	 * Converts a JSON-String into a HashMap. The time that this takes is counted in the {@link #metrics}, if any.<br>
+	 * The answer to a ping is removed, since receiving anything already counts as an answer (see {@link #getLastActivity()})
+	 * and it must neither be forwarded nor passed to the listeners.
+	 * @param inputMessage the JSON-String.
+	 * @return the HashMap that was created.
+	 */
+	protected HashMap<String, Object> decode(String inputMessage) {
+		HashMap<String, Object> decodedDataset;
+		if(this.metrics == null) {
+			decodedDataset = JSONDecoder.decode(inputMessage);
+		}
+		else {
+			long start = System.nanoTime();
+			decodedDataset = JSONDecoder.decode(inputMessage);
+			this.metrics.messageDecoded(System.nanoTime() - start);
+		}
+		if(decodedDataset != null && decodedDataset.remove(Keywords.pong) != null)
+			Connection.logger.debug("The device {} answered a ping.", getDeviceId());
+		return decodedDataset;
+	}
+	
 	/**
 	 * Writes a String to the {@link Socket}s OutputStream for the connected device to receive it.
 	 * @param outputMessage the String that should be sent to the connected device.
-	 * @return true, if the write to the outputStream was successful, otherwise false.
+	 * @return the time in nanoseconds that writing to the socket took, without waiting for other threads that write to this connection,
+	 * or -1 if the write to the outputStream was not successful.
 	 */
-	protected boolean writeToStream(String outputMessage) {
-		if(Connection.logger.isDebugEnabled())
-			Connection.logger.debug("Sending - " + outputMessage + " - to client.");
+	protected long writeToStream(String outputMessage) {
+		Connection.logger.debug("Sending - {} - to client.", outputMessage);
 		try{
-			this.outputStream.write(outputMessage, 0, outputMessage.length());
-			this.outputStream.flush();
-			return true;
+			long writeTime;
+			// other connections (e.g. a linked car) may write to this connection as well
+			synchronized(this.outputStream) {
+				long start = System.nanoTime();
+				this.outputStream.write(outputMessage, 0, outputMessage.length());
+				this.outputStream.flush();
+				writeTime = System.nanoTime() - start;
+			}
+			this.statistics.messageSent(outputMessage.length());
+			return writeTime;
 		} catch (IOException ioe) {
 			Connection.logger.warn("The other end has closed the connection. This Connection cannot be used any longer.");
 			closeConnection();
 		}
-		return false;
+		return -1;
+	}
+	
+	/**
+	 * Writes an already encoded {@link SharedFrame} to the {@link Socket}s OutputStream for the connected device to receive it.
+	 * The frame is not released by this method.
+	 * @param frame the frame that should be sent to the connected device.
+	 * @return the time in nanoseconds that writing to the socket took, without waiting for other threads that write to this connection,
+	 * or -1 if the write to the outputStream was not successful.
+	 */
+	protected long writeFrame(SharedFrame frame) {
+		if(this.rawOutputStream == null)
+			return -1;
+		try{
+			long writeTime;
+			synchronized(this.outputStream) {
+				long start = System.nanoTime();
+				frame.writeTo(this.rawOutputStream);
+				this.rawOutputStream.flush();
+				writeTime = System.nanoTime() - start;
+			}
+			this.statistics.messageSent(frame.getLength());
+			return writeTime;
+		} catch (IOException ioe) {
+			Connection.logger.warn("The other end has closed the connection. This Connection cannot be used any longer.");
+			closeConnection();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Queues a frame, to be sent by the thread of this connection. If the queue is full, the oldest frames are dropped.<br>
+	 * The connection takes over the reference to the frame, that the caller has to retain beforehand.
+	 * @param frame the frame to be sent to the connected device.
+	 */
+	public void offerFrame(SharedFrame frame) {
+		if(this.closeConnection) {
+			frame.release();
+			return;
+		}
+		while(!this.frameQueue.offer(frame)) {
+			SharedFrame droppedFrame = this.frameQueue.poll();
+			if(droppedFrame != null)
+				droppedFrame.release();
+		}
+	}
+	
+	/**
+	 * Hands a frame to the thread of this connection, which sends it before all queued frames once it has finished its current read,
+	 * i.e. within one read-timeout, regardless of {@link #isForwardingDue()}. Never blocks, so it can be called by the thread of the timing wheel.<br>
+	 * Unlike {@link #offerFrame(SharedFrame)}, the frame is not dropped in favour of other frames, it is only replaced by a newer urgent frame.
+	 * The connection takes over the reference to the frame, that the caller has to retain beforehand.
+	 * @param frame the frame to be sent to the connected device.
+	 */
+	public void offerUrgentFrame(SharedFrame frame) {
+		SharedFrame replacedFrame = this.urgentFrame.getAndSet(frame);
+		if(replacedFrame != null)
+			replacedFrame.release();
+		if(this.closeConnection) {
+			// the connection may have discarded its frames already
+			SharedFrame discardedFrame = this.urgentFrame.getAndSet(null);
+			if(discardedFrame != null)
+				discardedFrame.release();
+		}
+	}
+	
+	/**
+	 * Sends the urgent frame (see {@link #offerUrgentFrame(SharedFrame)}) and then all queued frames to the connected device and releases them.
+	 * The queued frames are only sent, if the device is due (see {@link #isForwardingDue()}).
+	 * A frame whose values are all contained in newer frames (see {@link SharedFrame#getKeys()}) is conflated, i.e. released without being sent,
+	 * so the device receives the freshest values only.
+	 */
+	protected void sendFrames() {
+		SharedFrame frame = this.urgentFrame.getAndSet(null);
+		if(frame != null) {
+			writeFrame(frame);
+			frame.release();
+		}
+		if(this.frameQueue.isEmpty() || !isForwardingDue())
+			return;
+		while((frame = this.frameQueue.poll()) != null)
+			this.sendingFrames.add(frame);
+		int newerKeys = 0;
+		for(int i = this.sendingFrames.size() - 1; i >= 0; i--) {
+			frame = this.sendingFrames.get(i);
+			int keys = frame.getKeys();
+			if(keys != 0 && (keys & ~newerKeys) == 0) {
+				frame.release();
+				this.sendingFrames.set(i, null);
+				this.statistics.messageConflated();
+			}
+			newerKeys |= keys;
+		}
+		for(int i = 0; i < this.sendingFrames.size(); i++) {
+			frame = this.sendingFrames.get(i);
+			if(frame == null)
+				continue;
+			long writeTime = writeFrame(frame);
+			if(writeTime >= 0)
+				forwardingWritten(frame.getLength(), writeTime);
+			frame.release();
+		}
+		this.sendingFrames.clear();
+	}
+	
+	/**
+	 * Releases all queued frames without sending them.
+	 */
+	protected void discardFrames() {
+		SharedFrame frame = this.urgentFrame.getAndSet(null);
+		if(frame != null)
+			frame.release();
+		while((frame = this.frameQueue.poll()) != null)
+			frame.release();
 	}
 	
 	/**
@@ -351,75 +805,156 @@ public abstract class Connection implements Runnable{
 	 * @return true, if the write to the {@link #outputStream} was successful, otherwise false.
 	 */
 	protected boolean writeFromMapToStream(HashMap<String, Object> messageMap) {
+		String outputMessage = encodeMessage(messageMap);
+		return outputMessage != null && writeToStream(outputMessage) >= 0;
+	}
+	
+	/**
+	 * Converts the passed HashMap to a JSON-String, that is written to the connected device.
+	 * @param messageMap the HashMap that should be converted to a JSON-String.
+	 * @return the JSON-String, or null if the passed map is null.
+	 */
+	private String encodeMessage(HashMap<String, Object> messageMap) {
 		if(messageMap == null)
-			return false;
-		boolean success = false;
-		if((success = writeToStream(JSONDecoder.encodeFromMap(messageMap))) && Connection.logger.isDebugEnabled())
-			Connection.logger.debug("Sending data to the connected device.");
-		return success;
+			return null;
+		if(this.metrics == null)
+			return JSONDecoder.encodeFromMap(messageMap);
+		long start = System.nanoTime();
+		String outputMessage = JSONDecoder.encodeFromMap(messageMap);
+		this.metrics.messageEncoded(System.nanoTime() - start);
+		return outputMessage;
 	}
 	
 	/**
 	 * Converts this objects {@link #forwardMessageMap} to a JSON-String and writes that String to the {@link Socket}s {@link #outputStream} of the passed {@link Connection}.
+	 * If anything has been forwarded, the time since the last message has been received is recorded as its latency,
+	 * and a {@link FrameForwardedEvent} is emitted, if Java Flight Recorder is recording it.
 	 * @param conn the {@link Connection} that the {@link #forwardMessageMap} should be written to.
 	 * @return true, if the write to the Socket of the passed {@link Connection} was successful, otherwise false.
 	 */
 	protected boolean forwardMessageToDevice(Connection conn) {
 		if(conn == null)
 			return false;
-		if(Connection.logger.isDebugEnabled())
-			Connection.logger.debug("Forwarding the following data from a " + this.getClass() + " to its connected " + conn.getClass() + ":\n" + JSONDecoder.encodeFromMap(this.forwardMessageMap));
-		boolean success = conn.writeFromMapToStream(this.forwardMessageMap);
+		// the map is only converted to a String if debug-logging is enabled
+		Connection.logger.debug("Forwarding the following data from a {} to its connected {}: {}", this.getClass(), conn.getClass(), this.forwardMessageMap);
+		boolean measure = !this.forwardMessageMap.isEmpty();
+		FrameForwardedEvent event = new FrameForwardedEvent();
+		event.begin();
+		String outputMessage = conn.encodeMessage(this.forwardMessageMap);
+		// only the write itself tells, if the send-buffer of the device has been full, not the wait for other threads that write to the device
+		long writeTime = conn.writeToStream(outputMessage);
+		long end = System.nanoTime();
+		event.end();
+		boolean success = writeTime >= 0;
+		int length = outputMessage.length();
+		if(success)
+			conn.forwardingWritten(length, writeTime);
+		if(success && measure) {
+			long latency = end - this.lastActivity;
+			recordForwardLatency(latency);
+			if(this.traced) {
+				this.traced = false;
+				this.traceSampler.forwarded(this, conn, latency, this.forwardMessageMap);
+			}
+			if(event.shouldCommit()) {
+				event.setDeviceType(this instanceof CarConnection ? "car" : "phone");
+				event.setDeviceId(String.valueOf(this.getDeviceId()));
+				event.setSize(length);
+				event.setLatency(latency);
+				event.commit();
+			}
+		}
 		this.forwardMessageMap.clear();
 		return success;
 	}
 	
+	/**
+	 * Records the time between receiving a message from this device and writing its forwarded data to the linked device.
+	 * @param latency the time in nanoseconds.
+	 */
+	private void recordForwardLatency(long latency) {
+		LatencyHistogram linkLatency = this.linkLatency;
+		if(linkLatency != null)
+			linkLatency.record(latency);
+		if(this.forwardLatency != null)
+			this.forwardLatency.record(latency);
+	}
+	
 	/**
 	 * Converts this objects {@link #outputMessageMap} to a JSON-String and writes that String to the {@link Socket}s {@link #outputStream} for the connected device to receive it.
+	 * The map is taken at once, so a pair that is added while the message is written is sent with the next message instead of being lost.
 	 * @return true, if the write to the Sockets {@link #outputStream} was successful, otherwise false.
 	 */
 	public boolean sendOutputMessageMap() {
-		boolean success = false;
-		if(!this.outputMessageMap.isEmpty()) {
-			if(Connection.logger.isDebugEnabled())
-				Connection.logger.debug("Sending data to the car.");
-			if((success = this.writeFromMapToStream(this.outputMessageMap)))
-				this.outputMessageMap.clear();
+		HashMap<String, Object> messageMap;
+		synchronized(this.outputMessageMap) {
+			if(this.outputMessageMap.isEmpty())
+				return false;
+			messageMap = new HashMap<>(this.outputMessageMap);
+			this.outputMessageMap.clear();
 		}
-		return success;
+		return this.writeFromMapToStream(messageMap);
 	}
 	
 	/**
 	 * This method waits until the connected device has sent identification information. It also requests identification every 5 seconds that no identification information has been received.
-	 * While waiting for identification of the connected device, all other received information is discarded.<br>
-	 * If identification has been received, the main-thread is informed about the event.
-	 * In this case, the connected device must not yet be informed about the success of the operation.
+	 * While waiting for identification of the connected device, all other received information is discarded. An encrypted connection completes its TLS-handshake first.<br>
+	 * If identification has been received, the caller has to store the id and then inform the main-thread about the event ({@link EOperationType#REGISTER}),
+	 * since the main-thread reads the id. In this case, the connected device must not yet be informed about the success of the operation.
 	 * This is handled by the main-thread in order to be able to conform with the {@link Server}s whitelist.
-	 * @return the received id
+	 * @return the received id, or null if the connection has been closed before the device identified itself.
 	 */
 	protected Object register(){
+		if(!this.handshake())
+			return null;
 		long lastIdRequest = System.currentTimeMillis();
-		while(true){
+		while(!this.closeConnection){
 			String inputMessage = this.readFromStream();
 			if(inputMessage != null) {
-				HashMap<String, Object> decodedDataset = JSONDecoder.decode(inputMessage);
+				HashMap<String, Object> decodedDataset = decode(inputMessage);
 				if(decodedDataset == null)
 					continue;
 				Object cache;
-				// checks if the received message contains identification information. Informs the main-thread and returns the id, if so.
-				if((cache = decodedDataset.get(Keywords.id)) != null) {
-					writeToOperationQueue(EOperationType.REGISTER);
+				// checks if the received message contains identification information and returns the id, if so.
+				if((cache = decodedDataset.get(Keywords.id)) != null)
 					return cache;
-				}
 			}
 			if(System.currentTimeMillis() - lastIdRequest > 5000){
-				this.outputMessageMap.put(Keywords.request, "id");
-				if(Connection.logger.isInfoEnabled())
-					Connection.logger.info("Requesting id from the phone.");
-				this.writeFromMapToStream(this.outputMessageMap);
-				this.outputMessageMap.clear();
+				this.addToOutputMessageMap(Keywords.request, "id");
+				Connection.logger.info("Requesting id from the {}.", this instanceof CarConnection ? "car" : "phone");
+				this.sendOutputMessageMap();
+				lastIdRequest = System.currentTimeMillis();
 			}
 		}
+		return null;
+	}
+	
+	/**
+	 * Completes the TLS-handshake, if the {@link Socket} is an {@link SSLSocket}. Since the read-timeout of the connection is far too short for a handshake,
+	 * it is raised to the {@link #handshakeTimeout} for the duration of the handshake.<br>
+	 * A resumed session keeps the point in time, when it has been established first, which tells resumed from full handshakes.
+	 * @return true, if the connection is not encrypted or the handshake has been completed, otherwise false.
+	 */
+	private boolean handshake() {
+		if(!(this.connection instanceof SSLSocket))
+			return true;
+		SSLSocket socket = (SSLSocket) this.connection;
+		long start = System.nanoTime();
+		long startMillis = System.currentTimeMillis();
+		try {
+			int soTimeout = socket.getSoTimeout();
+			socket.setSoTimeout(this.handshakeTimeout);
+			socket.startHandshake();
+			socket.setSoTimeout(soTimeout);
+		} catch(IOException ioe) {
+			Connection.logger.warn("The TLS-handshake with {} failed: {}", this.getIpAddress(), ioe.getMessage());
+			if(this.tlsStatistics != null)
+				this.tlsStatistics.handshakeFailed();
+			return false;
+		}
+		if(this.tlsStatistics != null)
+			this.tlsStatistics.handshakeCompleted(socket.getSession().getCreationTime() < startMillis, System.nanoTime() - start);
+		return true;
 	}
 	
 	/**
@@ -427,7 +962,7 @@ public abstract class Connection implements Runnable{
 	 */
 	protected void closeConnection() {
 		this.closeConnection = true;
-		Connection.logger.info("Closing Channel!");
+		Connection.logger.info("Closing the connection of the {} {}.", this instanceof CarConnection ? "car" : "phone", this.getDeviceId());
 		if(this.outputStream!= null) {
 			try {
 				this.outputStream.close();
@@ -443,15 +978,23 @@ public abstract class Connection implements Runnable{
 				this.connection.close();
 			} catch(IOException ioe) {}
 		}
+		// the connection does not receive any more data, release the shared dispatchers of its listeners
+		for(ListenerDispatcher dispatcher : this.listeners) {
+			if(this.listeners.remove(dispatcher) && dispatcher.isShared())
+				ListenerDispatcher.release(dispatcher.getListener());
+		}
+		discardFrames();
 		// the connection has been closed, inform the main-thread about this event
 		writeToOperationQueue(EOperationType.CLOSE);
+		this.closed.countDown();
 	}
 
 	public boolean equals(Object obj) {
 		if(this == obj)
 			return true;
 		if(obj instanceof Connection) {
-			return ((Connection) obj).connection.equals(this.connection);
+			// connections without a socket are only equal to themselves
+			return this.connection != null && this.connection.equals(((Connection) obj).connection);
 		}
 		return false;
 	}
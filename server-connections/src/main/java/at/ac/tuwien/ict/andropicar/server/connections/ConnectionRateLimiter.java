@@ -0,0 +1,106 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.concurrent.TimeUnit;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOverflowPolicy;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitStatistics;
+import at.ac.tuwien.ict.andropicar.server.helper.TokenBucket;
+
+
+/**
+ * Limits the number of messages and bytes that one {@link Connection} may send to the server per second.<br>
+ * It is consulted in the read path, right after a message has been received and before it is decoded,
+ * so that a flooding device only costs the server the read itself.
+ */
+public class ConnectionRateLimiter {
+
+	/** Limits the number of messages, or null if unlimited. */
+	private final TokenBucket messageBucket;
+
+	/** Limits the number of bytes, or null if unlimited. */
+	private final TokenBucket byteBucket;
+
+	/** What to do with a message that exceeds the limits. */
+	private final EOverflowPolicy policy;
+
+	/** The maximum time in nanoseconds that a message is delayed with {@link EOverflowPolicy#DELAY}, before it is dropped. */
+	private final long maxDelay;
+
+	/** The counters that the decisions of this limiter are added to. */
+	private final RateLimitStatistics statistics;
+
+
+	/**
+	 * @param settings the limits and the overflow-policy.
+	 * @param statistics the counters that the decisions of this limiter are added to.
+	 */
+	public ConnectionRateLimiter(RateLimitSettings settings, RateLimitStatistics statistics) {
+		this.messageBucket = settings.getMessagesPerSecond() > 0 ? new TokenBucket(Math.max(settings.getMessageBurst(), 1), settings.getMessagesPerSecond()) : null;
+		this.byteBucket = settings.getBytesPerSecond() > 0 ? new TokenBucket(Math.max(settings.getByteBurst(), 1), settings.getBytesPerSecond()) : null;
+		this.policy = settings.getMessagePolicy();
+		this.maxDelay = TimeUnit.MILLISECONDS.toNanos(settings.getMaxDelay());
+		this.statistics = statistics;
+	}
+
+
+	/**
+	 * @return what happens to a message that exceeds the limits.
+	 */
+	public EOverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Decides, if a received message of the given size may be processed.
+	 * With {@link EOverflowPolicy#DELAY}, this method blocks the calling thread until the message is within the limits.
+	 * @param bytes the size of the received message.
+	 * @return true, if the message may be processed, otherwise false (the message has to be dropped or the connection closed, depending on {@link #getPolicy()}).
+	 */
+	public boolean admit(int bytes) {
+		if(this.policy == EOverflowPolicy.DELAY)
+			return admitDelayed(bytes);
+		if(this.messageBucket == null || this.messageBucket.tryConsume(1)) {
+			if(this.byteBucket == null || this.byteBucket.tryConsume(bytes))
+				return true;
+			// the message is not processed, so it does not count against the limit of messages
+			if(this.messageBucket != null)
+				this.messageBucket.refund(1);
+		}
+		if(this.policy == EOverflowPolicy.DISCONNECT)
+			this.statistics.connectionDisconnected();
+		else
+			this.statistics.messageDropped();
+		return false;
+	}
+
+	/**
+	 * Reserves the tokens for the message and waits until they are available. If the bytes cannot be reserved, the reserved message is returned,
+	 * so that a dropped message does not use up the budget of the messages that follow.
+	 * @param bytes the size of the received message.
+	 * @return true, if the message may be processed, false if it would have to wait longer than the maximum delay.
+	 */
+	private boolean admitDelayed(int bytes) {
+		long wait = this.messageBucket != null ? this.messageBucket.reserve(1, this.maxDelay) : 0;
+		if(wait >= 0 && this.byteBucket != null) {
+			long byteWait = this.byteBucket.reserve(bytes, this.maxDelay);
+			if(byteWait < 0 && this.messageBucket != null)
+				this.messageBucket.refund(1);
+			wait = byteWait < 0 ? -1 : Math.max(wait, byteWait);
+		}
+		if(wait < 0) {
+			this.statistics.messageDropped();
+			return false;
+		}
+		if(wait > 0) {
+			this.statistics.messageDelayed();
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return true;
+	}
+
+}
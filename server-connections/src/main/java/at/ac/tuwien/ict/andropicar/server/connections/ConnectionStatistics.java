@@ -0,0 +1,98 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+
+
+/**
+ * Counts the messages and bytes that a {@link Connection} has received from and sent to its device.<br>
+ * Messages are sent to a device by several threads (e.g. by the thread of a linked device), so the counters are striped ({@link LongAdder}).
+ * Every message is also counted in the {@link ServerMetrics} of the server, if any.
+ */
+public class ConnectionStatistics {
+
+	/** The number of messages that have been received from the device. */
+	private final LongAdder messagesIn = new LongAdder();
+
+	/** The number of bytes that have been received from the device. */
+	private final LongAdder bytesIn = new LongAdder();
+
+	/** The number of messages that have been sent to the device. */
+	private final LongAdder messagesOut = new LongAdder();
+
+	/** The number of bytes that have been sent to the device. */
+	private final LongAdder bytesOut = new LongAdder();
+
+	/** The number of messages that have not been sent to the device, because newer messages with the same values have replaced them. */
+	private final LongAdder messagesConflated = new LongAdder();
+
+	/** The metrics of the whole server, or null. */
+	private final ServerMetrics serverMetrics;
+
+
+	/**
+	 * @param serverMetrics the metrics of the whole server, that every message is counted in as well, or null.
+	 */
+	public ConnectionStatistics(ServerMetrics serverMetrics) {
+		this.serverMetrics = serverMetrics;
+	}
+
+
+	/**
+	 * Counts a message that has been received from the device.
+	 * @param bytes the size of the message.
+	 */
+	public void messageReceived(int bytes) {
+		this.messagesIn.increment();
+		this.bytesIn.add(bytes);
+		if(this.serverMetrics != null)
+			this.serverMetrics.messageReceived(bytes);
+	}
+
+	/**
+	 * Counts a message that has been sent to the device.
+	 * @param bytes the size of the message.
+	 */
+	public void messageSent(int bytes) {
+		this.messagesOut.increment();
+		this.bytesOut.add(bytes);
+		if(this.serverMetrics != null)
+			this.serverMetrics.messageSent(bytes);
+	}
+
+	/**
+	 * Counts a message, that has not been sent to the device, because a newer message with the same values has replaced it.
+	 */
+	public void messageConflated() {
+		this.messagesConflated.increment();
+		if(this.serverMetrics != null)
+			this.serverMetrics.messageConflated();
+	}
+
+	/**
+	 * @return the number of messages that have been received from the device.
+	 */
+	public long getMessagesIn() { return this.messagesIn.sum(); }
+
+	/**
+	 * @return the number of bytes that have been received from the device.
+	 */
+	public long getBytesIn() { return this.bytesIn.sum(); }
+
+	/**
+	 * @return the number of messages that have been sent to the device.
+	 */
+	public long getMessagesOut() { return this.messagesOut.sum(); }
+
+	/**
+	 * @return the number of bytes that have been sent to the device.
+	 */
+	public long getBytesOut() { return this.bytesOut.sum(); }
+
+	/**
+	 * @return the number of messages that have not been sent to the device, because newer messages with the same values have replaced them.
+	 */
+	public long getMessagesConflated() { return this.messagesConflated.sum(); }
+
+}
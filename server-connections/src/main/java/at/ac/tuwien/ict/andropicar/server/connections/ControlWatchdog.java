@@ -0,0 +1,179 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.ITimerTask;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * The ControlWatchdog stops cars, whose linked phone has stopped sending control-data without closing its connection (e.g. a frozen app).<br>
+ * Every watched link has exactly one pending deadline on a shared {@link HashedTimingWheel}, just like the {@link HeartbeatMonitor}.
+ * Receiving control-data does not touch the wheel, it only updates {@link PhoneConnection#getLastControl()}. Once the deadline is reached,
+ * the watchdog either moves the deadline, or hands a stop-command to the car (see {@link Connection#offerUrgentFrame(SharedFrame)}).
+ * The wheels thread never writes to a socket itself, so a car that does not read its socket cannot delay the deadlines of all other links.
+ * The thread of the car sends the stop-command ahead of all queued frames, once its current read has timed out, i.e. within one read-timeout.
+ * A car is therefore stopped at most one tick of the wheel and one read-timeout after its deadline.
+ * The car is stopped only once per loss of control, the link itself is kept, so the phone can simply resume sending control-data.<br>
+ * The delays between the deadlines and handing over the stop-commands are measured (see {@link #getMaxStopDelay(TimeUnit)} and {@link #getAverageStopDelay(TimeUnit)}).
+ */
+public class ControlWatchdog {
+
+	/** The timing wheel that manages the deadlines of all watched links. */
+	private final HashedTimingWheel timer;
+
+	/** The time in nanoseconds without control-data, after which the car is stopped. */
+	private final long controlTimeout;
+
+	/** The stop-command, which is encoded only once and sent to every car that has lost control. */
+	private final SharedFrame stopFrame;
+
+	/** The currently watched links, by their phone. */
+	private final ConcurrentHashMap<PhoneConnection, WatchdogTask> tasks = new ConcurrentHashMap<>();
+
+	/** The number of cars that have been stopped. */
+	private final AtomicLong stopCount = new AtomicLong();
+
+	/** The sum of all delays between the deadlines and the stop-commands in nanoseconds. */
+	private final AtomicLong stopDelaySum = new AtomicLong();
+
+	/** The longest delay between a deadline and its stop-command in nanoseconds. */
+	private final AtomicLong maxStopDelay = new AtomicLong();
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ControlWatchdog.class);
+
+
+	/**
+	 * @param timer the timing wheel that manages the deadlines of all watched links.
+	 * @param controlTimeout the time without control-data, after which the car is stopped.
+	 * @param unit the {@link TimeUnit} of controlTimeout.
+	 */
+	public ControlWatchdog(HashedTimingWheel timer, long controlTimeout, TimeUnit unit) {
+		this.timer = timer;
+		this.controlTimeout = unit.toNanos(controlTimeout);
+		HashMap<String, Object> stopMessage = new HashMap<>();
+		stopMessage.put(Keywords.stop, 1L);
+		this.stopFrame = SharedFrame.encode(stopMessage, null);
+	}
+
+
+	/**
+	 * Starts to watch the link between the passed devices, replacing any link of the phone that is currently watched.
+	 * The link is watched until it is terminated or one of the devices is closed.
+	 * @param phone the {@link PhoneConnection} that controls the car.
+	 * @param car the linked {@link CarConnection}.
+	 */
+	public void watch(PhoneConnection phone, CarConnection car) {
+		if(phone == null || car == null)
+			return;
+		WatchdogTask task = new WatchdogTask(phone, car);
+		WatchdogTask previousTask = this.tasks.put(phone, task);
+		if(previousTask != null)
+			previousTask.cancelled = true;
+		this.timer.schedule(task, this.controlTimeout, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of links that are currently watched.
+	 */
+	public int getWatchedLinks() { return this.tasks.size(); }
+
+	/**
+	 * @return the number of cars that have been stopped, because their phone did not send control-data in time.
+	 */
+	public long getStopCount() { return this.stopCount.get(); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the longest delay between a deadline and handing the stop-command to the car.
+	 */
+	public long getMaxStopDelay(TimeUnit unit) { return unit.convert(this.maxStopDelay.get(), TimeUnit.NANOSECONDS); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the average delay between a deadline and handing the stop-command to the car, or 0 if no car has been stopped yet.
+	 */
+	public long getAverageStopDelay(TimeUnit unit) {
+		long count = this.stopCount.get();
+		return count == 0 ? 0 : unit.convert(this.stopDelaySum.get() / count, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Adds the delay of a stop-command to the statistics.
+	 * @param delay the delay between the deadline and handing over the stop-command in nanoseconds.
+	 */
+	private void recordStop(long delay) {
+		this.stopCount.incrementAndGet();
+		this.stopDelaySum.addAndGet(delay);
+		long max;
+		while(delay > (max = this.maxStopDelay.get()) && !this.maxStopDelay.compareAndSet(max, delay));
+	}
+
+
+	/**
+	 * The deadline of one watched link. It reschedules itself, until the link is terminated or replaced.
+	 */
+	private class WatchdogTask implements ITimerTask {
+
+		/** The phone that controls the car. */
+		private final PhoneConnection phone;
+
+		/** The controlled car. */
+		private final CarConnection car;
+
+		/** The value of {@link PhoneConnection#getLastControl()} when the car has been stopped, or 0 if the phone is in control. */
+		private long stoppedAt = 0;
+
+		/** True, if the link is watched by a newer task. */
+		private volatile boolean cancelled = false;
+
+
+		private WatchdogTask(PhoneConnection phone, CarConnection car) {
+			this.phone = phone;
+			this.car = car;
+		}
+
+
+		@Override
+		public void run(HashedTimingWheel.Timeout timeout) {
+			if(this.cancelled)
+				return;
+			if(this.phone.getLinkedCar() != this.car || this.car.getLinkedPhone() != this.phone || this.car.getCloseConnection()) {
+				// the link has been terminated
+				ControlWatchdog.this.tasks.remove(this.phone, this);
+				return;
+			}
+			long now = System.nanoTime();
+			long lastControl = this.phone.getLastControl();
+			long deadline = lastControl + ControlWatchdog.this.controlTimeout;
+
+			if(deadline - now > 0 || (this.stoppedAt != 0 && lastControl == this.stoppedAt)) {
+				// there has been control-data since the deadline has been set, or the car has already been stopped
+				if(deadline - now <= 0)
+					deadline = now + ControlWatchdog.this.controlTimeout;
+				else
+					this.stoppedAt = 0;
+				ControlWatchdog.this.timer.schedule(this, deadline - now, TimeUnit.NANOSECONDS);
+				return;
+			}
+
+			ControlWatchdog.this.stopFrame.retain();
+			this.car.offerUrgentFrame(ControlWatchdog.this.stopFrame);
+			ControlWatchdog.this.recordStop(System.nanoTime() - deadline);
+			this.stoppedAt = lastControl;
+			ControlWatchdog.logger.warn("The phone {} did not send control-data for {} ms. Stopped the car {}.", this.phone.getId(),
+					Unbox.box(TimeUnit.NANOSECONDS.toMillis(ControlWatchdog.this.controlTimeout)), Unbox.box(this.car.getId()));
+			ControlWatchdog.this.timer.schedule(this, ControlWatchdog.this.controlTimeout, TimeUnit.NANOSECONDS);
+		}
+	}
+
+}
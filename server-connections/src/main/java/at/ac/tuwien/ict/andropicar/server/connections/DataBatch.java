@@ -0,0 +1,155 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * A batch of data-sets that is delivered to an {@link IBatchDataListener}.<br>
+ * The data-sets can be read one by one (row-wise), or as one {@link DataColumn} per keyword, which holds all numeric values of that keyword in primitive arrays.
+ * The columns are only built, if they are requested. A batch is reused by its {@link ListenerDispatcher}, so no memory is allocated per batch.
+ */
+public class DataBatch {
+
+	/** The points in time (milliseconds since the epoch) when the data-sets have been received. */
+	private final long[] times;
+
+	/** The IDs of the cars the data-sets are for or from. */
+	private final long[] carIds;
+
+	/** The IDs of the phones the data-sets are for or from. */
+	private final String[] phoneIds;
+
+	/** The data-sets. */
+	private final Object[] datasets;
+
+	/** The columns, by keyword index. */
+	private final DataColumn[] columns;
+
+	/** The number of data-sets. */
+	private int size = 0;
+
+	/** True, if the columns reflect the current data-sets, otherwise false. */
+	private boolean columnsBuilt = false;
+
+
+	/**
+	 * @param capacity the maximum number of data-sets.
+	 */
+	DataBatch(int capacity) {
+		this.times = new long[capacity];
+		this.carIds = new long[capacity];
+		this.phoneIds = new String[capacity];
+		this.datasets = new Object[capacity];
+		this.columns = new DataColumn[Keywords.getKeywordCount()];
+	}
+
+
+	/**
+	 * @return the number of data-sets in this batch.
+	 */
+	public int size() { return this.size; }
+
+	/**
+	 * @return the maximum number of data-sets in this batch.
+	 */
+	public int capacity() { return this.times.length; }
+
+	/**
+	 * @param index the index of the data-set.
+	 * @return the point in time (milliseconds since the epoch) when the data-set has been received.
+	 */
+	public long getTime(int index) { return this.times[index]; }
+
+	/**
+	 * @param index the index of the data-set.
+	 * @return the cars ID the data-set is for or from.
+	 */
+	public long getCarId(int index) { return this.carIds[index]; }
+
+	/**
+	 * @param index the index of the data-set.
+	 * @return the phones ID the data-set is for or from, or null.
+	 */
+	public String getPhoneId(int index) { return this.phoneIds[index]; }
+
+	/**
+	 * @param index the index of the data-set.
+	 * @return the data-set.
+	 */
+	@SuppressWarnings("unchecked")
+	public HashMap<String, Object> getDataset(int index) { return (HashMap<String, Object>) this.datasets[index]; }
+
+	/**
+	 * @param keyword the keyword.
+	 * @return all numeric values of the keyword in this batch, or null if the keyword is unknown. The column is empty, if no data-set contains the keyword.
+	 */
+	public DataColumn getColumn(String keyword) {
+		int index = Keywords.indexOf(keyword);
+		if(index < 0)
+			return null;
+		if(!this.columnsBuilt)
+			buildColumns();
+		return column(index);
+	}
+
+	/**
+	 * Appends a data-set to this batch.
+	 * @param event the data-set.
+	 * @return true, if the batch is full now, otherwise false.
+	 */
+	boolean add(DataEvent event) {
+		this.times[this.size] = event.getTime();
+		this.carIds[this.size] = event.getCarId();
+		this.phoneIds[this.size] = event.getPhoneId();
+		this.datasets[this.size] = event.getDataset();
+		this.size++;
+		this.columnsBuilt = false;
+		return this.size == this.times.length;
+	}
+
+	/**
+	 * Removes all data-sets from this batch.
+	 */
+	void clear() {
+		for(int i = 0; i < this.size; i++) {
+			this.phoneIds[i] = null;
+			this.datasets[i] = null;
+		}
+		this.size = 0;
+		this.columnsBuilt = false;
+	}
+
+	/**
+	 * Fills the columns with the numeric values of all data-sets.
+	 */
+	private void buildColumns() {
+		for(DataColumn column : this.columns) {
+			if(column != null)
+				column.clear();
+		}
+		for(int i = 0; i < this.size; i++) {
+			for(Map.Entry<String, Object> entry : getDataset(i).entrySet()) {
+				if(!(entry.getValue() instanceof Long))
+					continue;
+				int index = Keywords.indexOf(entry.getKey());
+				if(index >= 0)
+					column(index).add(this.times[i], this.carIds[i], (Long) entry.getValue());
+			}
+		}
+		this.columnsBuilt = true;
+	}
+
+	/**
+	 * @param index the index of a keyword.
+	 * @return the column of the keyword, which is created if necessary.
+	 */
+	private DataColumn column(int index) {
+		if(this.columns[index] == null)
+			this.columns[index] = new DataColumn(Keywords.keywordAt(index), this.times.length);
+		return this.columns[index];
+	}
+
+}
@@ -0,0 +1,74 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+
+/**
+ * All numeric values of one keyword within a {@link DataBatch}, stored as primitive arrays.
+ * The arrays are reused and may be longer than {@link #size()}.
+ */
+public class DataColumn {
+
+	/** The keyword of the values. */
+	private final String keyword;
+
+	/** The points in time (milliseconds since the epoch) when the values have been received. */
+	private final long[] times;
+
+	/** The IDs of the cars the values are for or from. */
+	private final long[] carIds;
+
+	/** The values. */
+	private final long[] values;
+
+	/** The number of values. */
+	private int size = 0;
+
+
+	/**
+	 * @param keyword the keyword of the values.
+	 * @param capacity the maximum number of values.
+	 */
+	DataColumn(String keyword, int capacity) {
+		this.keyword = keyword;
+		this.times = new long[capacity];
+		this.carIds = new long[capacity];
+		this.values = new long[capacity];
+	}
+
+
+	/**
+	 * @return the keyword of the values.
+	 */
+	public String getKeyword() { return this.keyword; }
+
+	/**
+	 * @return the number of values.
+	 */
+	public int size() { return this.size; }
+
+	/**
+	 * @return the points in time (milliseconds since the epoch) when the values have been received. Only the first {@link #size()} elements are valid.
+	 */
+	public long[] getTimes() { return this.times; }
+
+	/**
+	 * @return the IDs of the cars the values are for or from. Only the first {@link #size()} elements are valid.
+	 */
+	public long[] getCarIds() { return this.carIds; }
+
+	/**
+	 * @return the values. Only the first {@link #size()} elements are valid.
+	 */
+	public long[] getValues() { return this.values; }
+
+	void add(long time, long carId, long value) {
+		this.times[this.size] = time;
+		this.carIds[this.size] = carId;
+		this.values[this.size] = value;
+		this.size++;
+	}
+
+	void clear() {
+		this.size = 0;
+	}
+
+}
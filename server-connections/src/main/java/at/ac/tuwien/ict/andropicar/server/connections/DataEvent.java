@@ -0,0 +1,78 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.HashMap;
+
+
+/**
+ * A data-set that has been received by a {@link Connection} and is waiting to be delivered to an {@link IDataListener}.
+ */
+public class DataEvent {
+
+	/** The cars ID the data-set is for or from. */
+	private final long carId;
+
+	/** The phones ID the data-set is for or from, or null. */
+	private final String phoneId;
+
+	/** The data-set itself. */
+	private final HashMap<String, Object> dataset;
+
+	/** The point in time (milliseconds since the epoch) when the data-set has been handed to the dispatcher. */
+	private final long time;
+
+	/** The point in time (see {@link System#nanoTime()}) when the data-set has been handed to the dispatcher. */
+	private final long timestamp;
+
+
+	/**
+	 * @param carId the cars ID the data-set is for or from.
+	 * @param phoneId the phones ID the data-set is for or from, or null.
+	 * @param dataset the data-set itself.
+	 * @param timestamp the point in time (see {@link System#nanoTime()}) when the data-set has been handed to the dispatcher.
+	 */
+	public DataEvent(long carId, String phoneId, HashMap<String, Object> dataset, long timestamp) {
+		this(carId, phoneId, dataset, System.currentTimeMillis(), timestamp);
+	}
+
+	/**
+	 * @param carId the cars ID the data-set is for or from.
+	 * @param phoneId the phones ID the data-set is for or from, or null.
+	 * @param dataset the data-set itself.
+	 * @param time the point in time (milliseconds since the epoch) when the data-set has been handed to the dispatcher.
+	 * @param timestamp the point in time (see {@link System#nanoTime()}) when the data-set has been handed to the dispatcher.
+	 */
+	public DataEvent(long carId, String phoneId, HashMap<String, Object> dataset, long time, long timestamp) {
+		this.carId = carId;
+		this.phoneId = phoneId;
+		this.dataset = dataset;
+		this.time = time;
+		this.timestamp = timestamp;
+	}
+
+
+	/**
+	 * @return the cars ID the data-set is for or from.
+	 */
+	public long getCarId() { return this.carId; }
+
+	/**
+	 * @return the phones ID the data-set is for or from, or null.
+	 */
+	public String getPhoneId() { return this.phoneId; }
+
+	/**
+	 * @return the data-set itself.
+	 */
+	public HashMap<String, Object> getDataset() { return this.dataset; }
+
+	/**
+	 * @return the point in time (milliseconds since the epoch) when the data-set has been handed to the dispatcher.
+	 */
+	public long getTime() { return this.time; }
+
+	/**
+	 * @return the point in time (see {@link System#nanoTime()}) when the data-set has been handed to the dispatcher.
+	 */
+	public long getTimestamp() { return this.timestamp; }
+
+}
@@ -0,0 +1,32 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+
+/**
+ * Adapts an {@link IDataListener} to the {@link IBatchDataListener}-interface, by informing it about every data-set of a batch one after another.
+ */
+public class DataListenerAdapter implements IBatchDataListener {
+
+	/** The adapted listener. */
+	private final IDataListener listener;
+
+
+	/**
+	 * @param listener the listener to be adapted.
+	 */
+	public DataListenerAdapter(IDataListener listener) {
+		this.listener = listener;
+	}
+
+
+	/**
+	 * @return the adapted listener.
+	 */
+	public IDataListener getListener() { return this.listener; }
+
+	@Override
+	public void updateListener(DataBatch batch) {
+		for(int i = 0; i < batch.size(); i++)
+			this.listener.updateListener(batch.getCarId(i), batch.getPhoneId(i), batch.getDataset(i));
+	}
+
+}
@@ -0,0 +1,77 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * Describes which data-sets an {@link IDataListener} is interested in (see {@link SubscriptionIndex}).<br>
+ * A data-set matches, if it is from or for one of the {@link #getCarIds()}, from or for the {@link #getPhoneId()} and contains at least one of the keywords of the {@link #getKeywordMask()}.
+ * Every part of the filter that is not set matches all data-sets.
+ */
+public class DataSubscription {
+
+	/** The sorted IDs of the cars whose data-sets match, or null if data-sets of all cars match. */
+	private final long[] carIds;
+
+	/** The ID of the phone whose data-sets match, or null if data-sets of all phones match. */
+	private final String phoneId;
+
+	/** The bit-mask of the keywords (see {@link Keywords#maskOf(String...)}) of which at least one has to be contained in a data-set, or 0 if all data-sets match. */
+	private final long keywordMask;
+
+
+	/**
+	 * @param carIds the IDs of the cars whose data-sets match, or null if data-sets of all cars should match.
+	 * @param phoneId the ID of the phone whose data-sets match, or null if data-sets of all phones should match.
+	 * @param keywords the keywords of which at least one has to be contained in a data-set. If none are passed, data-sets with any keywords match.
+	 * @throws IllegalArgumentException if one of the keywords is not a known keyword (see {@link Keywords}), since the subscription would match all data-sets otherwise.
+	 */
+	public DataSubscription(Collection<Long> carIds, String phoneId, String... keywords) {
+		if(carIds != null) {
+			this.carIds = new long[carIds.size()];
+			int i = 0;
+			for(Long carId : carIds)
+				this.carIds[i++] = carId;
+			Arrays.sort(this.carIds);
+		}
+		else {
+			this.carIds = null;
+		}
+		this.phoneId = phoneId;
+		this.keywordMask = Keywords.maskOf(keywords);
+	}
+
+
+	/**
+	 * @return the sorted IDs of the cars whose data-sets match, or null if data-sets of all cars match.
+	 */
+	public long[] getCarIds() { return this.carIds != null ? this.carIds.clone() : null; }
+
+	/**
+	 * @return the ID of the phone whose data-sets match, or null if data-sets of all phones match.
+	 */
+	public String getPhoneId() { return this.phoneId; }
+
+	/**
+	 * @return the bit-mask of the keywords of which at least one has to be contained in a data-set, or 0 if all data-sets match.
+	 */
+	public long getKeywordMask() { return this.keywordMask; }
+
+	/**
+	 * @param carId the cars ID of the data-set.
+	 * @param phoneId the phones ID of the data-set, or null.
+	 * @param messageMask the bit-mask of the keywords that are contained in the data-set.
+	 * @return true, if the data-set matches this subscription, otherwise false.
+	 */
+	public boolean matches(long carId, String phoneId, long messageMask) {
+		if(this.keywordMask != 0 && (this.keywordMask & messageMask) == 0)
+			return false;
+		if(this.phoneId != null && !this.phoneId.equals(phoneId))
+			return false;
+		return this.carIds == null || Arrays.binarySearch(this.carIds, carId) >= 0;
+	}
+
+}
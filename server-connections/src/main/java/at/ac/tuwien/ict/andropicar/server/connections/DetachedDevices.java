@@ -0,0 +1,79 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Creates and drives cars and phones, whose threads are never started, e.g. for benchmarks that measure the processing of messages in isolation,
+ * or that need more devices than threads can be started.<br>
+ * Devices are usually identified by their own thread. The devices of this class are identified right away instead,
+ * and can be registered at a {@link Server} that has not been started via {@link Server#registerIdentifiedDevice(Connection)}.
+ * The server itself does not use this class.
+ */
+public final class DetachedDevices {
+
+	private DetachedDevices() {}
+
+
+	/**
+	 * @param id the id of the car.
+	 * @param connection the {@link Socket} that the car reads from and writes to.
+	 * @param operationQueue the operation-queue of the car.
+	 * @return a new, identified car whose thread is not started.
+	 */
+	public static CarConnection createCar(long id, Socket connection, LinkedBlockingQueue<QueueElement> operationQueue) {
+		return new CarConnection(connection, id, operationQueue);
+	}
+
+	/**
+	 * @param id the id of the phone.
+	 * @param connection the {@link Socket} that the phone reads from and writes to.
+	 * @param operationQueue the operation-queue of the phone.
+	 * @return a new, identified phone whose thread is not started.
+	 */
+	public static PhoneConnection createPhone(String id, Socket connection, LinkedBlockingQueue<QueueElement> operationQueue) {
+		return new PhoneConnection(connection, id, operationQueue);
+	}
+
+	/**
+	 * Reads the next message of the device, just like its thread does (see {@link Connection#readFromStream()}).
+	 * @param device the car or phone.
+	 * @return the received message, or null if nothing has been received.
+	 */
+	public static String read(Connection device) {
+		return device.readFromStream();
+	}
+
+	/**
+	 * Reads and decodes the next message of the device, just like its thread does (see {@link Connection#readFromStreamToHashMap()}).
+	 * @param device the car or phone.
+	 * @return the decoded message, or null if nothing has been received.
+	 */
+	public static HashMap<String, Object> readDecoded(Connection device) {
+		return device.readFromStreamToHashMap();
+	}
+
+	/**
+	 * Processes a decoded message of the car, just like its thread does, e.g. forwards the sensor-data to the linked phone.
+	 * @param car the car.
+	 * @param decodedDataset the decoded message.
+	 */
+	public static void process(CarConnection car, HashMap<String, Object> decodedDataset) {
+		car.processMessage(decodedDataset);
+	}
+
+	/**
+	 * Processes a decoded message of the phone, just like its thread does, e.g. forwards the control-data to the linked car.
+	 * @param phone the phone.
+	 * @param decodedDataset the decoded message.
+	 */
+	public static void process(PhoneConnection phone, HashMap<String, Object> decodedDataset) {
+		phone.processMessage(decodedDataset);
+	}
+
+}
@@ -0,0 +1,110 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.ITimerTask;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * The HeartbeatMonitor detects dead devices, whose connection has not been closed properly (e.g. half-open TCP-connections).<br>
+ * Every watched {@link Connection} has exactly one pending deadline on a shared {@link HashedTimingWheel}.
+ * Receiving data does not touch the wheel at all, it only updates {@link Connection#getLastActivity()}. Once the deadline is reached,
+ * the monitor checks the last activity and either moves the deadline, or sends a ping to the device.
+ * If the device does not send anything within the ping-timeout after that, its {@link Connection} is aborted,
+ * which releases any link it holds and removes it from the list of connected devices.
+ */
+public class HeartbeatMonitor {
+
+	/** The timing wheel that manages the deadlines of all watched connections. */
+	private final HashedTimingWheel timer;
+
+	/** The time in nanoseconds without incoming data, after which a device is pinged. */
+	private final long pingInterval;
+
+	/** The time in nanoseconds that a pinged device has to answer within. */
+	private final long pingTimeout;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(HeartbeatMonitor.class);
+
+
+	/**
+	 * @param timer the timing wheel that manages the deadlines of all watched connections.
+	 * @param pingInterval the time without incoming data, after which a device is pinged.
+	 * @param pingTimeout the time that a pinged device has to answer within, before its connection is aborted.
+	 * @param unit the {@link TimeUnit} of pingInterval and pingTimeout.
+	 */
+	public HeartbeatMonitor(HashedTimingWheel timer, long pingInterval, long pingTimeout, TimeUnit unit) {
+		this.timer = timer;
+		this.pingInterval = unit.toNanos(pingInterval);
+		this.pingTimeout = unit.toNanos(pingTimeout);
+	}
+
+
+	/**
+	 * Starts to watch the passed {@link Connection}. The connection is watched until it is closed.
+	 * @param connection the {@link Connection} to be watched.
+	 */
+	public void watch(Connection connection) {
+		if(connection == null)
+			return;
+		this.timer.schedule(new HeartbeatTask(connection), this.pingInterval, TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * The deadline of one watched {@link Connection}. It reschedules itself, until the connection is closed or aborted.
+	 */
+	private class HeartbeatTask implements ITimerTask {
+
+		/** The watched connection. */
+		private final Connection connection;
+
+		/** The point in time when the last ping has been sent, or 0 if the device has not been pinged since its last activity. */
+		private long pingSent = 0;
+
+		/** The value of the last ping that has been sent. */
+		private long pingCounter = 0;
+
+
+		private HeartbeatTask(Connection connection) {
+			this.connection = connection;
+		}
+
+
+		@Override
+		public void run(HashedTimingWheel.Timeout timeout) {
+			if(this.connection.getCloseConnection())
+				return;
+			long now = System.nanoTime();
+			long lastActivity = this.connection.getLastActivity();
+
+			if(this.pingSent != 0 && lastActivity - this.pingSent < 0) {
+				// the device has not answered the ping in time
+				HeartbeatMonitor.logger.warn("The device {} did not answer a ping within {} ms. Aborting its connection.", this.connection.getDeviceId(),
+						Unbox.box(TimeUnit.NANOSECONDS.toMillis(HeartbeatMonitor.this.pingTimeout)));
+				this.connection.abortConnection();
+				return;
+			}
+			this.pingSent = 0;
+
+			long idle = now - lastActivity;
+			if(idle < HeartbeatMonitor.this.pingInterval) {
+				// there has been activity since the deadline has been set, move it
+				HeartbeatMonitor.this.timer.schedule(this, HeartbeatMonitor.this.pingInterval - idle, TimeUnit.NANOSECONDS);
+				return;
+			}
+
+			this.pingSent = now;
+			this.connection.addToOutputMessageMap(Keywords.ping, ++this.pingCounter);
+			HeartbeatMonitor.this.timer.schedule(this, HeartbeatMonitor.this.pingTimeout, TimeUnit.NANOSECONDS);
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+
+/**
+ * A listener that is informed about new data in batches instead of one data-set at a time (see {@link IDataListener}).<br>
+ * Batches are bounded in size and age by the {@link ListenerDispatcher} that delivers them.
+ * They provide the values of every keyword as primitive arrays (see {@link DataBatch#getColumn(String)}), which suits sinks that write with group commit.
+ */
+public interface IBatchDataListener {
+
+	/**
+	 * Informs the listener about a batch of new data.<br>
+	 * The batch is reused by the dispatcher after this method returns, so it must not be kept.
+	 * @param batch the batch of data-sets, in the order they have been received.
+	 */
+	public void updateListener(DataBatch batch);
+
+}
@@ -0,0 +1,403 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EDispatchPolicy;
+import at.ac.tuwien.ict.andropicar.server.management.ListenerDispatchEvent;
+
+
+/**
+ * A ListenerDispatcher decouples an {@link IDataListener} from the I/O-threads of the {@link Connection}s it listens to.<br>
+ * It is an {@link IDataListener} itself: every data-set that it is informed about is put into a bounded ring buffer and returns immediately
+ * (unless the {@link EDispatchPolicy} is {@link EDispatchPolicy#BLOCK} and the buffer is full).
+ * The dispatchers own thread takes the data-sets out of the buffer in batches and delivers them to the actual listener,
+ * so that a slow listener only delays itself and never the control loop of a connection.<br>
+ * <br>
+ * A dispatcher can also deliver to an {@link IBatchDataListener}. Its batches are bounded in size and in age:
+ * a batch is delivered once it is full, or once its oldest data-set has waited for the maximum batch-delay, whichever happens first.
+ * An {@link IDataListener} is delivered to through a {@link DataListenerAdapter} with a batch-delay of 0, i.e. as soon as data-sets are available.<br>
+ * <br>
+ * {@link Connection#addListener(IDataListener)} wraps every listener into a shared dispatcher with the default settings (see {@link #acquire(IDataListener)}),
+ * so a listener that listens to many connections still has exactly one buffer and one thread.
+ * A dispatcher with other settings can be created with the constructor and passed to {@link Connection#addListener(IDataListener)} directly.
+ */
+public class ListenerDispatcher implements IDataListener, Runnable {
+
+	/** The default number of data-sets that fit into the buffer. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** The default maximum number of data-sets that are taken out of the buffer at once. */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/** The shared dispatchers of all listeners that have been added via {@link Connection#addListener(IDataListener)}. */
+	private static final IdentityHashMap<IDataListener, ListenerDispatcher> sharedDispatchers = new IdentityHashMap<>();
+
+	/** The listener that the data-sets are delivered to, or null if they are delivered to an {@link IBatchDataListener}. */
+	private final IDataListener listener;
+
+	/** The listener that the batches are delivered to. */
+	private final IBatchDataListener batchListener;
+
+	/** The ring buffer. */
+	private final DataEvent[] buffer;
+
+	/** The maximum number of data-sets that are taken out of the buffer at once. */
+	private final int batchSize;
+
+	/** The maximum time in nanoseconds that a data-set waits for its batch to fill up. */
+	private final long maxBatchDelay;
+
+	/** The point in time (see {@link System#nanoTime()}) when the current batch has to be delivered. Only accessed by the dispatchers thread. */
+	private long batchDeadline = 0;
+
+	/** What to do with new data-sets, if the buffer is full. */
+	private final EDispatchPolicy policy;
+
+	/** With {@link EDispatchPolicy#SAMPLE}, every n-th data-set is kept while the buffer is more than half full. */
+	private final int sampleRate;
+
+	/** Guards {@link #buffer}, {@link #head} and {@link #size}. */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signalled, when a data-set has been put into the buffer. */
+	private final Condition notEmpty = lock.newCondition();
+
+	/** Signalled, when data-sets have been taken out of the buffer. */
+	private final Condition notFull = lock.newCondition();
+
+	/** The index of the oldest data-set in the buffer. */
+	private int head = 0;
+
+	/** The number of data-sets in the buffer. */
+	private int size = 0;
+
+	/** Counts the data-sets that arrived while the buffer was more than half full (used for sampling). */
+	private long overloadCounter = 0;
+
+	/** The number of connections, that use this dispatcher as shared dispatcher. */
+	private int references = 0;
+
+	/** The flag, that indicates, if this runnable should continue to be executed or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The number of data-sets that have been put into the buffer. */
+	private final AtomicLong published = new AtomicLong();
+
+	/** The number of data-sets that have been delivered to the listener. */
+	private final AtomicLong delivered = new AtomicLong();
+
+	/** The number of data-sets that have been discarded due to the {@link #policy}. */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** The time in nanoseconds that the last delivered data-set spent in the buffer. */
+	private volatile long lastLatency = 0;
+
+	/** The maximum time in nanoseconds that a data-set spent in the buffer. */
+	private volatile long maxLatency = 0;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ListenerDispatcher.class);
+
+
+	/**
+	 * Creates a dispatcher with the default settings ({@link #DEFAULT_CAPACITY}, {@link #DEFAULT_BATCH_SIZE}, {@link EDispatchPolicy#DROP_OLDEST}).
+	 * @param listener the listener that the data-sets should be delivered to.
+	 */
+	public ListenerDispatcher(IDataListener listener) {
+		this(listener, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, EDispatchPolicy.DROP_OLDEST, 4);
+	}
+
+	/**
+	 * Creates a dispatcher and starts its thread.
+	 * @param listener the listener that the data-sets should be delivered to.
+	 * @param capacity the number of data-sets that fit into the buffer.
+	 * @param batchSize the maximum number of data-sets that are taken out of the buffer at once.
+	 * @param policy what to do with new data-sets, if the buffer is full.
+	 * @param sampleRate with {@link EDispatchPolicy#SAMPLE}, every n-th data-set is kept while the buffer is more than half full.
+	 */
+	public ListenerDispatcher(IDataListener listener, int capacity, int batchSize, EDispatchPolicy policy, int sampleRate) {
+		this(listener, new DataListenerAdapter(listener), capacity, batchSize, 0, policy, sampleRate);
+	}
+
+	/**
+	 * Creates a dispatcher for an {@link IBatchDataListener} and starts its thread.
+	 * @param listener the listener that the batches should be delivered to.
+	 * @param capacity the number of data-sets that fit into the buffer.
+	 * @param batchSize the maximum number of data-sets per batch.
+	 * @param maxBatchDelay the maximum time that a data-set waits for its batch to fill up.
+	 * @param unit the {@link TimeUnit} of maxBatchDelay.
+	 * @param policy what to do with new data-sets, if the buffer is full.
+	 * @param sampleRate with {@link EDispatchPolicy#SAMPLE}, every n-th data-set is kept while the buffer is more than half full.
+	 */
+	public ListenerDispatcher(IBatchDataListener listener, int capacity, int batchSize, long maxBatchDelay, TimeUnit unit, EDispatchPolicy policy, int sampleRate) {
+		this(null, listener, capacity, batchSize, unit.toNanos(maxBatchDelay), policy, sampleRate);
+	}
+
+	private ListenerDispatcher(IDataListener listener, IBatchDataListener batchListener, int capacity, int batchSize, long maxBatchDelay, EDispatchPolicy policy, int sampleRate) {
+		if(batchListener == null || (batchListener instanceof DataListenerAdapter && listener == null))
+			throw new NullPointerException("listener");
+		if(capacity < 1 || batchSize < 1 || sampleRate < 1)
+			throw new IllegalArgumentException("capacity, batchSize and sampleRate must be at least 1.");
+		if(maxBatchDelay < 0)
+			throw new IllegalArgumentException("maxBatchDelay must not be negative: " + maxBatchDelay);
+		this.listener = listener;
+		this.batchListener = batchListener;
+		this.buffer = new DataEvent[capacity];
+		this.batchSize = batchSize;
+		this.maxBatchDelay = maxBatchDelay;
+		this.policy = policy;
+		this.sampleRate = sampleRate;
+		Thread thread = new Thread(this, "ListenerDispatcher " + (listener != null ? listener : batchListener).getClass().getSimpleName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Returns the shared dispatcher of the passed listener, creating it if necessary, and increments its reference count.
+	 * @param listener the listener.
+	 * @return the shared dispatcher of the listener.
+	 */
+	static ListenerDispatcher acquire(IDataListener listener) {
+		synchronized(sharedDispatchers) {
+			ListenerDispatcher dispatcher = sharedDispatchers.get(listener);
+			if(dispatcher == null) {
+				dispatcher = new ListenerDispatcher(listener);
+				sharedDispatchers.put(listener, dispatcher);
+			}
+			dispatcher.references++;
+			return dispatcher;
+		}
+	}
+
+	/**
+	 * Decrements the reference count of the shared dispatcher of the passed listener and stops it, once it is no longer used by any connection.
+	 * @param listener the listener.
+	 * @return true, if the listener had a shared dispatcher, otherwise false.
+	 */
+	static boolean release(IDataListener listener) {
+		synchronized(sharedDispatchers) {
+			ListenerDispatcher dispatcher = sharedDispatchers.get(listener);
+			if(dispatcher == null)
+				return false;
+			if(--dispatcher.references <= 0) {
+				sharedDispatchers.remove(listener);
+				dispatcher.stop();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return a snapshot of all shared dispatchers, e.g. to read their lag.
+	 */
+	public static Collection<ListenerDispatcher> getSharedDispatchers() {
+		synchronized(sharedDispatchers) {
+			return Collections.unmodifiableCollection(new ArrayList<>(sharedDispatchers.values()));
+		}
+	}
+
+	/**
+	 * @return true, if this is the shared dispatcher of its listener (see {@link #acquire(IDataListener)}), otherwise false.
+	 */
+	boolean isShared() {
+		synchronized(sharedDispatchers) {
+			return this.references > 0;
+		}
+	}
+
+	/**
+	 * @return the listener that the data-sets are delivered to, or null if they are delivered to an {@link IBatchDataListener}.
+	 */
+	public IDataListener getListener() { return this.listener; }
+
+	/**
+	 * @return the listener that the batches are delivered to. For an {@link IDataListener} this is its {@link DataListenerAdapter}.
+	 */
+	public IBatchDataListener getBatchListener() { return this.batchListener; }
+
+	/**
+	 * @return what is done with new data-sets, if the buffer is full.
+	 */
+	public EDispatchPolicy getPolicy() { return this.policy; }
+
+	/**
+	 * @return the number of data-sets that have been put into the buffer.
+	 */
+	public long getPublished() { return this.published.get(); }
+
+	/**
+	 * @return the number of data-sets that have been delivered to the listener.
+	 */
+	public long getDelivered() { return this.delivered.get(); }
+
+	/**
+	 * @return the number of data-sets that have been discarded, because the listener could not keep up.
+	 */
+	public long getDropped() { return this.dropped.get(); }
+
+	/**
+	 * @return the number of data-sets that are waiting in the buffer.
+	 */
+	public int getLag() {
+		this.lock.lock();
+		try {
+			return this.size;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the time in nanoseconds that the last delivered data-set spent in the buffer.
+	 */
+	public long getLastLatency() { return this.lastLatency; }
+
+	/**
+	 * @return the maximum time in nanoseconds that a data-set spent in the buffer.
+	 */
+	public long getMaxLatency() { return this.maxLatency; }
+
+	/**
+	 * Stops the thread of this dispatcher. Data-sets that are still in the buffer are discarded.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+		this.lock.lock();
+		try {
+			this.notEmpty.signalAll();
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Puts the data-set into the buffer, applying the {@link #policy} if the buffer is full.
+	 */
+	@Override
+	public void updateListener(long carId, String phoneId, HashMap<String, Object> dataset) {
+		DataEvent event = new DataEvent(carId, phoneId, dataset, System.currentTimeMillis(), System.nanoTime());
+		this.lock.lock();
+		try {
+			if(this.policy == EDispatchPolicy.SAMPLE && this.size > this.buffer.length / 2 && (this.overloadCounter++ % this.sampleRate) != 0) {
+				this.dropped.incrementAndGet();
+				return;
+			}
+			while(this.size == this.buffer.length) {
+				if(this.policy == EDispatchPolicy.DROP_OLDEST) {
+					this.buffer[this.head] = null;
+					this.head = (this.head + 1) % this.buffer.length;
+					this.size--;
+					this.dropped.incrementAndGet();
+				}
+				else if(this.policy == EDispatchPolicy.BLOCK && this.keepRunning) {
+					this.notFull.awaitUninterruptibly();
+				}
+				else {
+					this.dropped.incrementAndGet();
+					return;
+				}
+			}
+			this.buffer[(this.head + this.size) % this.buffer.length] = event;
+			this.size++;
+			this.published.incrementAndGet();
+			this.notEmpty.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the data-sets out of the buffer in batches and delivers them to the listener, until {@link #stop()} is called.
+	 */
+	@Override
+	public void run() {
+		DataBatch batch = new DataBatch(this.batchSize);
+		while(this.keepRunning) {
+			fillBatch(batch);
+			if(batch.size() == 0)
+				continue;
+			if(batch.size() < batch.capacity() && System.nanoTime() - this.batchDeadline < 0)
+				continue;
+			deliver(batch);
+			this.delivered.addAndGet(batch.size());
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Delivers one batch to the listener. Exceptions of the listener are logged, so that they do not stop the dispatcher.
+	 * The delivery is recorded as a {@link ListenerDispatchEvent}, if Java Flight Recorder is recording it.
+	 * @param batch the batch to be delivered.
+	 */
+	protected void deliver(DataBatch batch) {
+		ListenerDispatchEvent event = new ListenerDispatchEvent();
+		event.begin();
+		try {
+			this.batchListener.updateListener(batch);
+		} catch(RuntimeException re) {
+			ListenerDispatcher.logger.warn("A listener threw an exception while being informed about new data.", re);
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.setListener((this.listener != null ? this.listener : this.batchListener).getClass());
+			event.setBatchSize(batch.size());
+			event.commit();
+		}
+	}
+
+	/**
+	 * Waits for data-sets and moves as many of them from the buffer into the passed batch as fit.
+	 * If the batch already contains data-sets, the wait ends at the batches deadline at the latest.
+	 * @param batch the batch that the data-sets are moved to.
+	 */
+	private void fillBatch(DataBatch batch) {
+		this.lock.lock();
+		try {
+			while(this.size == 0) {
+				if(!this.keepRunning)
+					return;
+				long wait = batch.size() == 0 ? TimeUnit.MILLISECONDS.toNanos(100) : this.batchDeadline - System.nanoTime();
+				if(wait <= 0)
+					return;
+				try {
+					this.notEmpty.awaitNanos(wait);
+				} catch(InterruptedException ie) {
+					return;
+				}
+				if(this.size == 0)
+					return;
+			}
+			long now = System.nanoTime();
+			while(this.size > 0 && batch.size() < batch.capacity()) {
+				DataEvent event = this.buffer[this.head];
+				this.buffer[this.head] = null;
+				this.head = (this.head + 1) % this.buffer.length;
+				this.size--;
+				if(batch.size() == 0)
+					this.batchDeadline = event.getTimestamp() + this.maxBatchDelay;
+				long latency = now - event.getTimestamp();
+				this.lastLatency = latency;
+				if(latency > this.maxLatency)
+					this.maxLatency = latency;
+				batch.add(event);
+			}
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+}
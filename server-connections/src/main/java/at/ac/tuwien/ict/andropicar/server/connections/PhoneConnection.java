@@ -6,18 +6,27 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
 
 import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
 import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
 import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
-import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
+import at.ac.tuwien.ict.andropicar.server.management.DeviceRegisteredEvent;
+import at.ac.tuwien.ict.andropicar.server.management.LinkEvent;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
 
 
 /**
  * This class is used to communicate with a phone via a TCP-connection (see {@link Connection} class for more information on the basic functionalities).<br>
  * It holds the reference to the {@link CarConnection} of a linked car (if any) in order to be able to forward information such as control-data to it.
  * It is also able to request the establishment of a link between this phone and a car.<br>
- * This class provides the means for a linked car to send data (e.g. sensor-data) to the phone.
+ * This class provides the means for a linked car to send data (e.g. sensor-data) to the phone.<br>
+ * A phone can also observe a car, which means that it receives the cars sensor-data without being able to control the car.
+ * The sensor-data is handed over as {@link SharedFrame}s, which are queued and sent by the thread of this phone.
+ * If the phone cannot keep up with the car, the oldest queued frames are dropped.<br>
+ * The rate of the sensor-data, that the phone receives from its linked or observed car, is limited to the rate that the phone has requested
+ * (see {@link Keywords#rate}) and adapted to the rate that its connection drains (see {@link SensorRateController}).<br>
+ * A phone that is allowed to command a {@link CarGroup} can send certain commands (see {@link Keywords#groupCommandKeywords}) to all cars of the group at once.
  * 
  * @author Boeck
  */
@@ -32,6 +41,27 @@ public class PhoneConnection extends Connection implements Runnable {
 	/** Contains the cars ID that this phone wants to be linked to, or 0. */
 	private volatile long linkRequestId = 0;
 	
+	/** The point in time (see {@link System#nanoTime()}) when the phone has last requested to be linked to a car. */
+	private volatile long linkRequestTime = 0;
+	
+	/** The point in time (see {@link System#nanoTime()}) when control-data has last been forwarded to the linked car, or the link has been established. */
+	private volatile long lastControl = System.nanoTime();
+	
+	/** The car that is observed by this phone, or null. */
+	private volatile CarConnection observedCar = null;
+	
+	/** Contains the cars ID that this phone wants to observe, or 0. */
+	private volatile long observeRequestId = 0;
+	
+	/** The group of cars that this phone is allowed to send commands to, or null. */
+	private volatile CarGroup carGroup = null;
+	
+	/** Limits the rate of the sensor-data, that is written to this phone. */
+	private final SensorRateController sensorRate = new SensorRateController();
+	
+	/** Contains the commands that are sent to the {@link #carGroup}. */
+	private HashMap<String, Object> groupCommandMap = new HashMap<>();
+	
 	/** The logger that is used for logging messages. Part of the log4j2 library. */
 	private static final Logger logger = LogManager.getLogger(PhoneConnection.class);
 	
@@ -45,6 +75,27 @@ public class PhoneConnection extends Connection implements Runnable {
 	public PhoneConnection(Socket connection, LinkedBlockingQueue<QueueElement> operationQueue) {
 		super(connection, operationQueue);
 	}
+	
+	/**
+	 * Used to initialize a phone, that has already been identified and whose thread is never started (see {@link DetachedDevices}).
+	 * @param connection the {@link Socket} for this class.
+	 * @param id the phones ID.
+	 * @param operationQueue this {@link LinkedBlockingQueue} is used to communicate with the main-thread.
+	 */
+	PhoneConnection(Socket connection, String id, LinkedBlockingQueue<QueueElement> operationQueue) {
+		super(connection, operationQueue);
+		this.id = id;
+	}
+	
+	/**
+	 * Used to initialize a phone without a {@link Socket}, that is connected to another node of the cluster (see {@link RelayPhoneConnection}).
+	 * @param id the phones ID.
+	 * @param operationQueue this {@link LinkedBlockingQueue} is used to communicate with the main-thread.
+	 */
+	protected PhoneConnection(String id, LinkedBlockingQueue<QueueElement> operationQueue) {
+		super(operationQueue);
+		this.id = id;
+	}
 
 	
 	/**
@@ -52,11 +103,61 @@ public class PhoneConnection extends Connection implements Runnable {
 	 */
 	public String getId() { return this.id; }
 	
+	@Override
+	public Object getDeviceId() { return this.id; }
+	
 	/**
 	 * @return Returns the cars ID that this phone wants to connect to, or 0 if there has not been any request yet.
 	 */
 	public long getLinkRequestId() { return linkRequestId; }
 	
+	/**
+	 * Sets the car that this phone wants to connect to, without a request of the phone itself, e.g. to restore its link after a failover.
+	 * Has to be called by the main-thread, which links the devices afterwards.
+	 * @param carId the cars ID.
+	 */
+	public void setLinkRequest(long carId) {
+		this.linkRequestId = carId;
+		this.linkRequestTime = System.nanoTime();
+	}
+	
+	/**
+	 * @return Returns the point in time (see {@link System#nanoTime()}) when control-data has last been forwarded to the linked car, or the link has been established.
+	 */
+	public long getLastControl() { return lastControl; }
+	
+	/**
+	 * @return Returns the cars ID that this phone wants to observe, or 0 if there has not been any request yet.
+	 */
+	public long getObserveRequestId() { return observeRequestId; }
+	
+	/**
+	 * @return Returns the {@link CarConnection} that this phone observes, or null.
+	 */
+	public CarConnection getObservedCar() { return observedCar; }
+	
+	/**
+	 * @return the controller, that limits the rate of the sensor-data, that is written to this phone.
+	 */
+	public SensorRateController getSensorRate() { return this.sensorRate; }
+	
+	@Override
+	protected boolean isForwardingDue() { return this.sensorRate.isDue(System.nanoTime()); }
+	
+	@Override
+	protected void forwardingWritten(int length, long writeTime) { this.sensorRate.written(length, writeTime, System.nanoTime()); }
+	
+	/**
+	 * @return Returns the group of cars that this phone is allowed to send commands to, or null.
+	 */
+	public CarGroup getCarGroup() { return carGroup; }
+	
+	/**
+	 * Sets the group of cars that this phone is allowed to send commands to.
+	 * @param carGroup the {@link CarGroup}, or null to revoke the permission.
+	 */
+	public void setCarGroup(CarGroup carGroup) { this.carGroup = carGroup; }
+	
 	/**
 	 * @return Returns the {@link CarConnection} that this phone is linked to, or null.
 	 */
@@ -68,16 +169,58 @@ public class PhoneConnection extends Connection implements Runnable {
 	 */
 	public void setLinkedCar(CarConnection linkedCar) {
 		if(linkedCar == null && this.linkedCar != null) {
-			this.linkedCar.setLinkedPhone(null);
+			CarConnection previousCar = this.linkedCar;
+			// the link is terminated, nothing must be forwarded to the car anymore
+			this.linkedCar = null;
+			previousCar.setLinkedPhone(null);
 			this.addToOutputMessageMap(Keywords.state, 0);
+			this.emitLinkEvent(0, 0);
 			return;
 		}
+		if(linkedCar != null) {
+			this.lastControl = System.nanoTime();
+			super.startLinkLatency();
+			this.emitLinkEvent(linkedCar.getId(), this.lastControl - this.linkRequestTime);
+		}
 		this.linkedCar = linkedCar;
 	}
 	
+	/**
+	 * Emits a {@link LinkEvent}, if Java Flight Recorder is recording it.
+	 * @param carId the id of the linked car, or 0 if the link has been terminated.
+	 * @param setupTime the time in nanoseconds between the link-request and establishing the link, or 0 if the link has been terminated.
+	 */
+	private void emitLinkEvent(long carId, long setupTime) {
+		LinkEvent event = new LinkEvent();
+		if(event.isEnabled()) {
+			event.setPhoneId(this.id);
+			event.setCarId(carId);
+			event.setSetupTime(setupTime);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Sets the car that this phone observes, therefore ending the observation of any other car.<br>
+	 * The car itself has to be told about the new observer via {@link CarConnection#addObserver(PhoneConnection)}.
+	 * If the observation is ended, the phone is informed about it and all queued frames are discarded.
+	 * @param observedCar the {@link CarConnection} to observe, or null to end the observation.
+	 */
+	public void setObservedCar(CarConnection observedCar) {
+		CarConnection previousCar = this.observedCar;
+		this.observedCar = observedCar;
+		if(previousCar != null && previousCar != observedCar)
+			previousCar.removeObserver(this);
+		if(observedCar == null && previousCar != null) {
+			super.discardFrames();
+			this.addToOutputMessageMap(Keywords.state, 0);
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}<br>
-	 * Also, the linked car (if any) is informed about the termination of the link, by setting its linked phone to null.
+	 * Also, the linked car (if any) is informed about the termination of the link, by setting its linked phone to null,
+	 * and the observation of a car (if any) is ended.
 	 */
 	protected void closeConnection() {
 		if(this.linkedCar != null)
@@ -85,13 +228,24 @@ public class PhoneConnection extends Connection implements Runnable {
 			this.linkedCar.setLinkedPhone(null);
 			this.linkedCar = null;
 		}
+		CarConnection car = this.observedCar;
+		if(car != null) {
+			this.observedCar = null;
+			car.removeObserver(this);
+		}
 		super.closeConnection();
 	}
 	
+	/**
+	 * {@inheritDoc}<br>
+	 * The cars ID is 0, if the phone is currently not linked to a car. The control-data is also recorded, regardless of a link.
+	 */
 	protected void updateListeners(HashMap<String, Object> decodedDataset) {
 		//inform listeners about incoming message
-		for(IDataListener listener : super.getListeners())
-			listener.updateListener(this.linkedCar.getId(), this.id, decodedDataset);
+		CarConnection car = this.linkedCar;
+		long carId = car != null ? car.getId() : 0;
+		super.record(ETelemetrySource.PHONE, carId, this.id, decodedDataset, Keywords.controlKeywords);
+		super.informListeners(carId, this.id, decodedDataset);
 	}
 	
 	/**
@@ -104,16 +258,69 @@ public class PhoneConnection extends Connection implements Runnable {
 		try {
 			id = ((Long)carId).intValue();
 		} catch(ClassCastException cce) { return; }
+		super.record(ETelemetrySource.PHONE, 0, this.id, Keywords.connect, id);
 		
 		if(id > 0) {
 			// phone wants to be linked to a car
 			this.linkRequestId = id;
+			this.linkRequestTime = System.nanoTime();
 			super.writeToOperationQueue(EOperationType.LINK);
 		}
 		else if(id == -1 && this.linkedCar != null) {
 			// phone wants to terminate a link to the car
 			this.linkedCar.setLinkedPhone(null);
 			this.linkedCar = null;
+			this.emitLinkEvent(0, 0);
+			super.writeToOperationQueue(EOperationType.UNLINK);
+		}
+	}
+	
+	/**
+	 * If the passed argument is a long greater than 0, {@link #observeRequestId} is set accordingly and the main-thread is informed about the request.
+	 * If it is -1, the current observation, if any, is ended.
+	 * @param carId the cars ID to be observed, or -1 to end an existing observation.
+	 */
+	private void processObserveRequest(Object carId) {
+		if(!(carId instanceof Long))
+			return;
+		long id = (Long) carId;
+		if(id > 0) {
+			this.observeRequestId = id;
+			super.writeToOperationQueue(EOperationType.OBSERVE);
+		}
+		else if(id == -1)
+			setObservedCar(null);
+	}
+	
+	/**
+	 * Sets the rate, that the phone wants to receive sensor-data at.
+	 * @param rate the maximum number of sensor-messages per second, or 0 to remove the limit.
+	 */
+	private void processRateRequest(long rate) {
+		int requestedRate = (int) Math.max(0, Math.min(rate, SensorRateController.MAX_REQUESTED_RATE));
+		this.sensorRate.setRequestedRate(requestedRate);
+		PhoneConnection.logger.debug("The phone {} receives at most {} sensor-messages per second.", this.id, Unbox.box(requestedRate));
+	}
+	
+	/**
+	 * Sends the group-commands of a message to all cars of the {@link #carGroup}, if the message is addressed to it.
+	 * @param groupId the ID of the group that the message is addressed to.
+	 * @param decodedDataset the HashMap that contains the message.
+	 */
+	private void processGroupCommand(Object groupId, HashMap<String, Object> decodedDataset) {
+		CarGroup group = this.carGroup;
+		if(group == null || !group.getId().equals(groupId)) {
+			PhoneConnection.logger.warn("The phone {} is not allowed to send commands to the group {}.", this.id, groupId);
+			return;
+		}
+		Object cache;
+		for(String keyword : Keywords.groupCommandKeywords)
+			if((cache = decodedDataset.get(keyword)) instanceof Long)
+				this.groupCommandMap.put(keyword, cache);
+		if(!this.groupCommandMap.isEmpty()) {
+			int receivers = group.broadcast(this.groupCommandMap);
+			PhoneConnection.logger.debug("Sent a command to {} cars of the group {}.", Unbox.box(receivers), groupId);
+			this.groupCommandMap.clear();
 		}
 	}
 	
@@ -125,21 +332,64 @@ public class PhoneConnection extends Connection implements Runnable {
 		if(linkedCar == null)
 			return;
 		Object cache;
+		boolean control = false;
 		// look for key-value-pairs in the decodedDataset, that should be forwarded and put them in the forwardMessageMap
 		for(String keyword : Keywords.forwardKeywords)
-			if((cache = decodedDataset.get(keyword)) instanceof Long)
+			if((cache = decodedDataset.get(keyword)) instanceof Long) {
 				this.addToForwardMessageMap(keyword, (long) cache);
+				control = true;
+			}
+		if(control)
+			this.lastControl = System.nanoTime();
 	}
 	
 	@Override
 	protected String register() {
 		Object id = null;
-		while(!((id = super.register()) instanceof String))
-			if(PhoneConnection.logger.isWarnEnabled())
-				PhoneConnection.logger.warn("Received id in a wrong format. Trying again.");
+		while(!((id = super.register()) instanceof String)) {
+			if(id == null)
+				return null;
+			PhoneConnection.logger.warn("Received id in a wrong format. Trying again.");
+		}
 		return (String) id;
 	}
 	
+	/**
+	 * Processes one message of the phone: link-, observation- and rate-requests are handled, group commands are sent to the group,
+	 * and the control-data is forwarded to the linked car. Afterwards the listeners are informed.
+	 * @param decodedDataset the decoded message.
+	 */
+	void processMessage(HashMap<String, Object> decodedDataset) {
+		Object cache;
+
+		// this is the connect request data
+		if((cache = decodedDataset.get(Keywords.connect)) instanceof Long) {
+			processConnectRequest(cache);
+		}
+		// this is the observe request data
+		else if((cache = decodedDataset.get(Keywords.observe)) instanceof Long) {
+			processObserveRequest(cache);
+		}
+		// this is to request certain information
+		else if((cache = decodedDataset.get(Keywords.request)) instanceof String) {
+			// not needed yet
+		}
+
+		if((cache = decodedDataset.get(Keywords.rate)) instanceof Long) {
+			processRateRequest((Long) cache);
+		}
+
+		// a group command is only sent to the group, not to the linked car
+		if((cache = decodedDataset.get(Keywords.group)) != null) {
+			processGroupCommand(cache, decodedDataset);
+		}
+		else if(this.linkedCar != null) {
+			processRemainingData(decodedDataset);
+			forwardMessageToDevice(this.linkedCar);
+		}
+		updateListeners(decodedDataset);
+	}
+	
 	
 	@Override
 	/**
@@ -148,36 +398,38 @@ public class PhoneConnection extends Connection implements Runnable {
 	 * It then continuously waits for data from the car and processes it as long as the closeConnection-flag is not set.
 	 * If the car sends a request to be linked to a car, the main-thread is informed to process the request.
 	 * If a car is linked to this phone, all data-sets destined for the car (e.g. control-data) are forwarded to it.
+	 * If the phone observes a car, the queued frames of the car are sent to the phone.
+	 * Commands that are addressed to a group of cars are sent to all cars of the group instead of the linked car.
 	 */
 	public void run() {
 		
+		DeviceRegisteredEvent registeredEvent = new DeviceRegisteredEvent();
+		registeredEvent.begin();
 		this.id = register();
+		if(this.id == null) {
+			// the connection has been closed before the phone identified itself
+			closeConnection();
+			return;
+		}
+		registeredEvent.end();
+		if(registeredEvent.shouldCommit()) {
+			registeredEvent.setDeviceType("phone");
+			registeredEvent.setDeviceId(this.id);
+			registeredEvent.commit();
+		}
+		// the id has been stored, the main-thread can now process the registration
+		super.writeToOperationQueue(EOperationType.REGISTER);
+		super.record(ETelemetrySource.PHONE, 0, this.id, Keywords.id, 0);
 		
 		while(!super.getCloseConnection()) {
 			
 			String inputMessage = this.readFromStream();
 			if(inputMessage != null) {
-				if(PhoneConnection.logger.isDebugEnabled())
-					PhoneConnection.logger.debug("Incoming message from a phone: " + inputMessage);
+				PhoneConnection.logger.debug("Incoming message from the phone {}: {}", this.id, inputMessage);
 				//forwardMessageMap = new HashMap<String, Object>();
-				HashMap<String, Object> decodedDataset = JSONDecoder.decode(inputMessage);
-				Object cache;
-
-				// this is the connect request data
-				if((cache = decodedDataset.get(Keywords.connect)) instanceof Long) {
-					processConnectRequest(cache);
-				}
-				// this is to request certain information
-				else if((cache = decodedDataset.get(Keywords.request)) instanceof String) {
-					// not needed yet
-				}
-
-				if(this.linkedCar != null) {
-					processRemainingData(decodedDataset);
-					forwardMessageToDevice(this.linkedCar);
-				}
-				updateListeners(decodedDataset);
+				processMessage(super.decode(inputMessage));
 			}
+			super.sendFrames();
 			super.sendOutputMessageMap();
 		}
 		
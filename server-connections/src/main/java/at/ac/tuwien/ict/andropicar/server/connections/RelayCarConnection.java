@@ -0,0 +1,134 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import at.ac.tuwien.ict.andropicar.server.cluster.RelayChannel;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * A RelayCarConnection takes the place of a car, that is connected to another node of the cluster, on the node of the phone that is linked to it.<br>
+ * It has no socket and no thread of its own: the messages that the phone forwards to it are sent over the {@link RelayChannel} to the node of the car,
+ * and the messages of the car are written to the phone by the thread of the channel.
+ * The phone is linked to this car right away, but it is only told that the link has been established, once the node of the car has confirmed it.
+ */
+public class RelayCarConnection extends CarConnection {
+
+	/** The ID of the link on the {@link #channel}. */
+	private final long linkId;
+
+	/** The relay-channel to the node of the car. */
+	private final RelayChannel channel;
+
+	/** The phone that is linked to the car, or null. */
+	private volatile PhoneConnection phone = null;
+
+	/** True, once the link has been terminated by either side. */
+	private volatile boolean released = false;
+
+	/** The encoded key of a stop-command, which tells the messages that must not be dropped. */
+	private static final String STOP_KEY = "\"" + Keywords.stop + "\"";
+
+
+	/**
+	 * @param carId the ID of the car.
+	 * @param linkId the ID of the link on the channel.
+	 * @param channel the relay-channel to the node of the car.
+	 */
+	public RelayCarConnection(long carId, long linkId, RelayChannel channel) {
+		super(carId, null);
+		this.linkId = linkId;
+		this.channel = channel;
+	}
+
+
+	/**
+	 * @return the ID of the link on the relay-channel.
+	 */
+	public long getLinkId() { return this.linkId; }
+
+	@Override
+	public PhoneConnection getLinkedPhone() { return this.phone; }
+
+	@Override
+	public String getIpAddress() { return null; }
+
+	/**
+	 * Sets the linked phone. If the link is terminated by the phone-side, the node of the car is told about it, which stops the car.
+	 * @param linkedPhone the {@link PhoneConnection} to link to, or null to terminate the link.
+	 */
+	@Override
+	public void setLinkedPhone(PhoneConnection linkedPhone) {
+		this.phone = linkedPhone;
+		if(linkedPhone == null && !this.released) {
+			this.released = true;
+			this.channel.release(this);
+		}
+	}
+
+	/**
+	 * Sends the message to the car over the relay-channel. A message that contains a stop-command (e.g. of the {@link ControlWatchdog}) is never dropped.
+	 * The message is only queued, so the write takes no time.
+	 */
+	@Override
+	protected long writeToStream(String outputMessage) {
+		return !this.released && this.channel.forwardToCar(this.linkId, outputMessage, outputMessage.contains(RelayCarConnection.STOP_KEY)) ? 0 : -1;
+	}
+
+	/**
+	 * Sends the frame to the car over the relay-channel.
+	 */
+	@Override
+	protected long writeFrame(SharedFrame frame) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(frame.getLength());
+		try {
+			frame.writeTo(buffer);
+		} catch(IOException ioe) {
+			return -1;
+		}
+		return writeToStream(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sends the frame (e.g. a stop-command of the {@link ControlWatchdog}) to the car over the relay-channel right away, since this car has no thread of its own.
+	 * This does not block, since the frame is only queued for the writer-thread of the channel.
+	 */
+	@Override
+	public void offerUrgentFrame(SharedFrame frame) {
+		writeFrame(frame);
+		frame.release();
+	}
+
+	/**
+	 * Tells the phone, that the node of the car has established the link.
+	 */
+	public void linked() {
+		PhoneConnection phone = this.phone;
+		if(phone != null && phone.getLinkedCar() == this)
+			phone.addToOutputMessageMap(Keywords.state, 2);
+	}
+
+	/**
+	 * Terminates the link, because the node of the car has rejected or terminated it, or the relay-channel has been lost. The phone is told about it.
+	 */
+	public void unlinked() {
+		this.released = true;
+		PhoneConnection phone = this.phone;
+		this.phone = null;
+		if(phone != null && phone.getLinkedCar() == this)
+			phone.setLinkedCar(null);
+	}
+
+	/**
+	 * Writes a message of the car to the linked phone.
+	 * @param message the encoded message.
+	 */
+	public void deliver(String message) {
+		PhoneConnection phone = this.phone;
+		if(phone != null)
+			phone.writeToStream(message);
+	}
+
+}
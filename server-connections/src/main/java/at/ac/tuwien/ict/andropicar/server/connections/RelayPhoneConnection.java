@@ -0,0 +1,120 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import at.ac.tuwien.ict.andropicar.server.cluster.RelayChannel;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * A RelayPhoneConnection takes the place of a phone, that is connected to another node of the cluster, on the node of the car that it wants to be linked to.<br>
+ * It has no socket and no thread of its own: it is linked to the car by the main-thread like any other phone, the messages that the car forwards to it
+ * are sent over the {@link RelayChannel} to the node of the phone, and the messages of the phone are written to the car by the thread of the channel.
+ * The state of the link is not sent to the phone as a message, but told to the node of the phone (see {@link RelayChannel#confirm(RelayPhoneConnection)}
+ * and {@link RelayChannel#unlink(RelayPhoneConnection)}).
+ */
+public class RelayPhoneConnection extends PhoneConnection {
+
+	/** The ID of the car that the phone wants to be linked to. */
+	private final long carId;
+
+	/** The ID of the link on the {@link #channel}. */
+	private final long linkId;
+
+	/** The relay-channel to the node of the phone. */
+	private final RelayChannel channel;
+
+	/** True, once the node of the phone has been told that the link has been established. */
+	private volatile boolean confirmed = false;
+
+	/** True, once the link has been terminated by either side. */
+	private volatile boolean released = false;
+
+
+	/**
+	 * @param phoneId the ID of the phone.
+	 * @param carId the ID of the car that the phone wants to be linked to.
+	 * @param linkId the ID of the link on the channel.
+	 * @param channel the relay-channel to the node of the phone.
+	 * @param operationQueue the operation-queue of the server.
+	 */
+	public RelayPhoneConnection(String phoneId, long carId, long linkId, RelayChannel channel, LinkedBlockingQueue<QueueElement> operationQueue) {
+		super(phoneId, operationQueue);
+		this.carId = carId;
+		this.linkId = linkId;
+		this.channel = channel;
+	}
+
+
+	/**
+	 * @return the ID of the link on the relay-channel.
+	 */
+	public long getLinkId() { return this.linkId; }
+
+	/**
+	 * @return true, once the link has been terminated by either side.
+	 */
+	public boolean isReleased() { return this.released; }
+
+	@Override
+	public long getLinkRequestId() { return this.carId; }
+
+	@Override
+	public String getIpAddress() { return null; }
+
+	/**
+	 * Only the state of the link is passed on, as a confirmation or termination of the link, all other output is meant for the node of this phone only.
+	 */
+	@Override
+	public void addToOutputMessageMap(String key, Object value) {
+		if(!Keywords.state.equals(key) || !(value instanceof Number) || this.released)
+			return;
+		int state = ((Number) value).intValue();
+		if(state == 2 && !this.confirmed) {
+			this.confirmed = true;
+			this.channel.confirm(this);
+		}
+		else if(state <= 0) {
+			this.released = true;
+			this.channel.unlink(this);
+		}
+	}
+
+	@Override
+	public void addToOutputMessageMap(HashMap<String, Object> outputMessageMap) {
+		Object state = outputMessageMap.get(Keywords.state);
+		if(state != null)
+			addToOutputMessageMap(Keywords.state, state);
+	}
+
+	/**
+	 * Sends the message to the phone over the relay-channel. The message is only queued, so the write takes no time.
+	 */
+	@Override
+	protected long writeToStream(String outputMessage) {
+		return !this.released && this.channel.forwardToPhone(this.linkId, outputMessage) ? 0 : -1;
+	}
+
+	/**
+	 * Terminates the link, because the phone-side has terminated it or the relay-channel has been lost. The car is stopped.
+	 */
+	public void released() {
+		this.released = true;
+		CarConnection car = getLinkedCar();
+		if(car != null && car.getLinkedPhone() == this)
+			setLinkedCar(null);
+	}
+
+	/**
+	 * Writes a message of the phone to the linked car.
+	 * @param message the encoded message.
+	 */
+	public void deliver(String message) {
+		CarConnection car = getLinkedCar();
+		if(car != null && car.getLinkedPhone() == this)
+			car.writeToStream(message);
+	}
+
+}
@@ -0,0 +1,177 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Limits the rate, at which the sensor-data of a car is written to a phone, so a phone on a weak link or with a slow display receives fewer,
+ * but fresher messages, instead of every message of the car with a growing delay.<br>
+ * The rate is limited by the rate that the phone has requested (see {@link #setRequestedRate(int)}) and by the rate that its connection drains.
+ * The sockets of the server are blocking, so a write that blocks means that the send-buffer is full, i.e. the phone has fallen behind.
+ * Only the write to the socket itself is taken into account, not the wait for other threads that write to the phone at the same time.
+ * Between two blocked writes, the send-buffer has drained exactly the bytes that have been written in between, which is a sample of the drain-rate
+ * of the connection. On a blocked write, the rate is at least halved and decreased to a share of the drain-rate (at most once per {@link #DECREASE_INTERVAL}).
+ * While writes do not block, the rate is increased step by step, until it is not limited anymore.<br>
+ * While a phone is not due, the sensor-data is held back and conflated, i.e. a newer value of a sensor replaces an older one,
+ * so the phone always receives the freshest values. The controller is used by the thread of the car and the thread of the phone, so it is synchronized.
+ */
+public class SensorRateController {
+
+	/** The highest rate in messages per second, that a phone may request. */
+	public static final int MAX_REQUESTED_RATE = 1000;
+
+	/** The lowest rate in messages per second, that the rate is decreased to. */
+	private static final double MIN_RATE = 1;
+
+	/** The rate in messages per second, above which the rate is not limited anymore, unless the phone has requested a rate. */
+	private static final double MAX_ADAPTIVE_RATE = 1000;
+
+	/** The duration in nanoseconds, from which on a write is considered blocked by a full send-buffer. */
+	private static final long BLOCKED_WRITE = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** The minimum time in nanoseconds between two decreases of the rate, so the writes that are blocked by the same backlog decrease it only once. */
+	private static final long DECREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** The time in nanoseconds without blocked writes, after which the rate is increased. */
+	private static final long INCREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/** The share of the drain-rate, that the rate is decreased to, which leaves room for the backlog to drain. */
+	private static final double HEADROOM = 0.8;
+
+	/** The factor, that the rate is increased by. */
+	private static final double INCREASE = 1.25;
+
+	/** The maximum time in nanoseconds between two blocked writes, that the drain-rate is sampled from. */
+	private static final long DRAIN_SAMPLE_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+	/** The weight of a new sample in the moving averages. */
+	private static final double WEIGHT = 0.2;
+
+	/** The rate in messages per second, that the phone has requested, or 0 if it has not requested a rate. */
+	private int requestedRate = 0;
+
+	/** The rate in messages per second, that the connection drains, or infinity if no write has been blocked recently. */
+	private double adaptiveRate = Double.POSITIVE_INFINITY;
+
+	/** The moving average of the drain-rate of the connection in bytes per second, or 0 if no write has been blocked yet. */
+	private double drainRate = 0;
+
+	/** The moving average of the size of a message in bytes. */
+	private double messageSize = 0;
+
+	/** The moving average of the time in nanoseconds between two writes, or 0 if nothing has been written yet. */
+	private double writeInterval = 0;
+
+	/** The point in time (see {@link System#nanoTime()}) of the last write. */
+	private long lastWrite = 0;
+
+	/** The point in time (see {@link System#nanoTime()}) of the last blocked write, or 0 if no write has been blocked yet. */
+	private long lastBlocked = 0;
+
+	/** The number of bytes, that have been written since the last blocked write. */
+	private long bytesSinceBlocked = 0;
+
+	/** The point in time (see {@link System#nanoTime()}), from which on sensor-data may be written again. */
+	private long nextWrite = System.nanoTime();
+
+	/** The point in time (see {@link System#nanoTime()}) of the last change of the {@link #adaptiveRate}. */
+	private long lastChange = System.nanoTime();
+
+
+	/**
+	 * @return the rate in messages per second, that the phone has requested, or 0 if it has not requested a rate.
+	 */
+	public synchronized int getRequestedRate() { return this.requestedRate; }
+
+	/**
+	 * Sets the rate, that the phone wants to receive the sensor-data at, e.g. the refresh-rate of its display.
+	 * @param requestedRate the rate in messages per second, or 0 to receive the sensor-data as fast as the connection allows.
+	 * Is limited to {@link #MAX_REQUESTED_RATE}.
+	 */
+	public synchronized void setRequestedRate(int requestedRate) {
+		this.requestedRate = Math.max(0, Math.min(requestedRate, MAX_REQUESTED_RATE));
+		this.nextWrite = Math.min(this.nextWrite, System.nanoTime() + interval());
+	}
+
+	/**
+	 * @return the rate in messages per second, that the sensor-data is currently limited to, or 0 if it is not limited.
+	 */
+	public synchronized double getRate() {
+		double rate = rate();
+		return Double.isInfinite(rate) ? 0 : rate;
+	}
+
+	/**
+	 * @return the moving average of the drain-rate of the connection in bytes per second, or 0 if no write has been blocked yet.
+	 */
+	public synchronized double getDrainRate() { return this.drainRate; }
+
+	/**
+	 * @param now the current point in time (see {@link System#nanoTime()}).
+	 * @return true, if sensor-data may be written to the phone, otherwise false.
+	 */
+	public synchronized boolean isDue(long now) {
+		return now - this.nextWrite >= 0;
+	}
+
+	/**
+	 * Adapts the rate to a write of sensor-data to the phone and determines, when the next sensor-data may be written.
+	 * @param length the number of bytes that have been written.
+	 * @param writeTime the time in nanoseconds that writing to the socket took, without waiting for other threads that write to the phone.
+	 * @param now the current point in time (see {@link System#nanoTime()}).
+	 */
+	public synchronized void written(int length, long writeTime, long now) {
+		this.messageSize = this.messageSize == 0 ? length : (1 - WEIGHT) * this.messageSize + WEIGHT * length;
+		if(this.lastWrite != 0)
+			this.writeInterval = this.writeInterval == 0 ? now - this.lastWrite : (1 - WEIGHT) * this.writeInterval + WEIGHT * (now - this.lastWrite);
+		this.lastWrite = now;
+		this.bytesSinceBlocked += length;
+		if(writeTime >= BLOCKED_WRITE) {
+			if(this.lastBlocked != 0 && now - this.lastBlocked <= DRAIN_SAMPLE_WINDOW) {
+				double drainRate = this.bytesSinceBlocked * (double) TimeUnit.SECONDS.toNanos(1) / (now - this.lastBlocked);
+				this.drainRate = this.drainRate == 0 ? drainRate : (1 - WEIGHT) * this.drainRate + WEIGHT * drainRate;
+			}
+			this.lastBlocked = now;
+			this.bytesSinceBlocked = 0;
+			if(now - this.lastChange >= DECREASE_INTERVAL || Double.isInfinite(this.adaptiveRate))
+				decrease(now);
+		}
+		else if(!Double.isInfinite(this.adaptiveRate) && now - this.lastChange >= INCREASE_INTERVAL) {
+			this.adaptiveRate *= INCREASE;
+			if(this.adaptiveRate >= MAX_ADAPTIVE_RATE)
+				this.adaptiveRate = Double.POSITIVE_INFINITY;
+			this.lastChange = now;
+		}
+		this.nextWrite = now + interval();
+	}
+
+	/**
+	 * Decreases the rate to at most half of the rate, that the sensor-data has been written at, and to a share of the drain-rate, if it is known.
+	 */
+	private void decrease(long now) {
+		double rate = rate();
+		if(this.writeInterval > 0)
+			rate = Math.min(rate, TimeUnit.SECONDS.toNanos(1) / this.writeInterval);
+		rate /= 2;
+		if(this.drainRate > 0)
+			rate = Math.min(rate, HEADROOM * this.drainRate / this.messageSize);
+		this.adaptiveRate = Double.isInfinite(rate) ? MAX_ADAPTIVE_RATE / 2 : Math.max(MIN_RATE, rate);
+		this.lastChange = now;
+	}
+
+	/**
+	 * @return the rate in messages per second, that the sensor-data is currently limited to, or infinity if it is not limited.
+	 */
+	private double rate() {
+		return this.requestedRate > 0 ? Math.min(this.requestedRate, this.adaptiveRate) : this.adaptiveRate;
+	}
+
+	/**
+	 * @return the minimum time in nanoseconds between two writes of sensor-data.
+	 */
+	private long interval() {
+		double rate = rate();
+		return Double.isInfinite(rate) ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+	}
+
+}
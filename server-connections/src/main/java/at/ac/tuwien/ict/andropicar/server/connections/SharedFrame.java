@@ -0,0 +1,137 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
+
+
+/**
+ * An encoded message, that is sent to several devices (e.g. the sensor-data of a car to all of its observers).<br>
+ * The message is encoded to JSON and UTF-8 only once and the resulting bytes are shared by all receivers, instead of encoding the message once per receiver.
+ * Every receiver holds a reference to the frame, which it releases once the frame has been written to its device or dropped.
+ * When the last reference has been released, the frame is returned to the pool that it was taken from, so that its buffer can be reused for the next message.<br>
+ * The content of a frame must not be changed while it is referenced.
+ */
+public class SharedFrame {
+
+	/** The initial size of the buffer in bytes, which is enough for a message with all sensor-values. */
+	private static final int INITIAL_CAPACITY = 128;
+
+	/** The encoded message. */
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+
+	/** The number of valid bytes in the {@link #buffer}. */
+	private int length = 0;
+
+	/** The number of receivers that have not yet released this frame. */
+	private final AtomicInteger references = new AtomicInteger();
+
+	/** The pool that this frame is returned to, once it has been released by all receivers, or null. */
+	private final Queue<SharedFrame> pool;
+
+	/** The keys of the values of the message as a bit-mask, or 0 if they are unknown (see {@link #getKeys()}). */
+	private int keys = 0;
+
+
+	/**
+	 * Creates an empty frame.
+	 * @param pool the pool that this frame is returned to, once it has been released by all receivers, or null if it should not be reused.
+	 */
+	SharedFrame(Queue<SharedFrame> pool) {
+		this.pool = pool;
+	}
+
+
+	/**
+	 * Encodes a message into a frame, that is taken from the passed pool or newly created, if the pool is empty.
+	 * @param messageMap the message to be encoded.
+	 * @param pool the pool of frames that have been released by all of their receivers, or null.
+	 * @return the frame, which holds one reference that has to be released by the caller.
+	 */
+	public static SharedFrame encode(HashMap<String, Object> messageMap, Queue<SharedFrame> pool) {
+		SharedFrame frame = pool != null ? pool.poll() : null;
+		if(frame == null)
+			frame = new SharedFrame(pool);
+		frame.set(JSONDecoder.encodeFromMap(messageMap));
+		frame.keys = 0;
+		frame.references.set(1);
+		return frame;
+	}
+
+	/**
+	 * @return the number of bytes of the encoded message.
+	 */
+	public int getLength() { return this.length; }
+
+	/**
+	 * @return the keys of the values of the message as a bit-mask, in which every bit stands for a keyword that is chosen by the creator of the frame
+	 * (e.g. the index of a sensor in {@link at.ac.tuwien.ict.andropicar.server.helper.Keywords#sensorKeywords}), or 0 if the keys are unknown.
+	 * A frame, whose keys are all contained in newer frames for the same receiver, may be conflated, i.e. dropped without being sent.
+	 */
+	public int getKeys() { return this.keys; }
+
+	/**
+	 * @param keys the keys of the values of the message as a bit-mask (see {@link #getKeys()}), or 0 if the frame must never be conflated.
+	 */
+	public void setKeys(int keys) { this.keys = keys; }
+
+	/**
+	 * @return the number of receivers that have not yet released this frame.
+	 */
+	public int getReferenceCount() { return this.references.get(); }
+
+	/**
+	 * Adds a reference to this frame. Has to be called for every receiver, before the frame is handed over to it.
+	 */
+	public void retain() {
+		this.references.incrementAndGet();
+	}
+
+	/**
+	 * Releases a reference to this frame. Once all references have been released, the frame is returned to its pool.
+	 */
+	public void release() {
+		if(this.references.decrementAndGet() == 0 && this.pool != null)
+			this.pool.offer(this);
+	}
+
+	/**
+	 * Writes the encoded message to the passed stream, without flushing it.
+	 * @param outputStream the stream to write to.
+	 * @throws IOException if the message could not be written.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(this.buffer, 0, this.length);
+	}
+
+	/**
+	 * Stores the UTF-8 representation of the passed message in the {@link #buffer}, growing it if necessary.
+	 * Messages that only contain ASCII characters (which is the case for all numerical values) are copied without allocating memory.
+	 * @param message the encoded message.
+	 */
+	private void set(String message) {
+		int length = message.length();
+		if(length > this.buffer.length)
+			this.buffer = new byte[Math.max(length, this.buffer.length * 2)];
+		for(int i = 0; i < length; i++) {
+			char c = message.charAt(i);
+			if(c >= 0x80) {
+				// not an ASCII message, let the charset handle it
+				byte[] encoded = message.getBytes(StandardCharsets.UTF_8);
+				if(encoded.length > this.buffer.length)
+					this.buffer = new byte[encoded.length];
+				System.arraycopy(encoded, 0, this.buffer, 0, encoded.length);
+				this.length = encoded.length;
+				return;
+			}
+			this.buffer[i] = (byte) c;
+		}
+		this.length = length;
+	}
+
+}
@@ -0,0 +1,204 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * The SubscriptionIndex delivers the data-sets of all {@link Connection}s to the {@link IDataListener}s that subscribed to them with a {@link DataSubscription}.<br>
+ * Subscriptions are indexed by car ID and by keyword, so that delivering a data-set only visits the subscriptions that are interested in that car and in
+ * at least one keyword of the data-set. The cost of a data-set that nobody is interested in is one lookup by car ID and the computation of its keyword-mask.
+ * Data-sets are never copied.<br>
+ * <br>
+ * The index is copy-on-write: subscribing and unsubscribing rebuild it, {@link #dispatch(long, String, HashMap)} only reads an immutable snapshot and does not lock.
+ * Every subscriber is informed through its own {@link ListenerDispatcher}.
+ */
+public class SubscriptionIndex {
+
+	/** The current snapshot of the index. */
+	private volatile Snapshot snapshot = new Snapshot(Collections.<Entry>emptyList());
+
+	/** All subscriptions, in the order they have been made. Guarded by this. */
+	private final List<Entry> entries = new ArrayList<>();
+
+
+	/**
+	 * Subscribes the passed listener to all data-sets that match the passed subscription.
+	 * A listener can only have one subscription, an existing one is replaced.
+	 * @param listener the listener to be informed. If it is a {@link ListenerDispatcher}, it is used as it is, otherwise it gets a dispatcher of its own.
+	 * @param subscription the filter of the data-sets.
+	 */
+	public synchronized void subscribe(IDataListener listener, DataSubscription subscription) {
+		removeEntry(listener);
+		ListenerDispatcher dispatcher = listener instanceof ListenerDispatcher ? (ListenerDispatcher) listener : new ListenerDispatcher(listener);
+		this.entries.add(new Entry(listener, dispatcher, subscription));
+		this.snapshot = new Snapshot(this.entries);
+	}
+
+	/**
+	 * Removes the subscription of the passed listener.
+	 * @param listener the listener that should no longer be informed.
+	 * @return true, if the listener had a subscription, otherwise false.
+	 */
+	public synchronized boolean unsubscribe(IDataListener listener) {
+		if(!removeEntry(listener))
+			return false;
+		this.snapshot = new Snapshot(this.entries);
+		return true;
+	}
+
+	/**
+	 * Delivers the data-set to all subscribers, whose subscription it matches.
+	 * @param carId the cars ID the data-set is for or from.
+	 * @param phoneId the phones ID the data-set is for or from, or null.
+	 * @param dataset the data-set.
+	 */
+	public void dispatch(long carId, String phoneId, HashMap<String, Object> dataset) {
+		Snapshot current = this.snapshot;
+		if(current.isEmpty())
+			return;
+		Bucket carBucket = current.byCar.get(carId);
+		if(carBucket == null && current.anyCar.isEmpty())
+			return;
+		long messageMask = Keywords.maskOf(dataset);
+		if(carBucket != null)
+			carBucket.dispatch(carId, phoneId, dataset, messageMask);
+		current.anyCar.dispatch(carId, phoneId, dataset, messageMask);
+	}
+
+	/**
+	 * Removes the entry of the passed listener and stops its dispatcher, if it has been created by this index.
+	 * @param listener the listener.
+	 * @return true, if there was an entry, otherwise false.
+	 */
+	private boolean removeEntry(IDataListener listener) {
+		for(int i = 0; i < this.entries.size(); i++) {
+			Entry entry = this.entries.get(i);
+			if(entry.listener == listener) {
+				this.entries.remove(i);
+				if(entry.dispatcher != listener)
+					entry.dispatcher.stop();
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * One subscription.
+	 */
+	private static final class Entry {
+		private final IDataListener listener;
+		private final ListenerDispatcher dispatcher;
+		private final DataSubscription subscription;
+
+		private Entry(IDataListener listener, ListenerDispatcher dispatcher, DataSubscription subscription) {
+			this.listener = listener;
+			this.dispatcher = dispatcher;
+			this.subscription = subscription;
+		}
+	}
+
+	/**
+	 * The subscriptions for one car ID (or for all cars), grouped by keyword.
+	 */
+	private static final class Bucket {
+
+		/** For every keyword index, the subscriptions that are interested in that keyword. */
+		private final Entry[][] byKeyword = new Entry[64][];
+
+		/** The subscriptions that are interested in all keywords. */
+		private Entry[] anyKeyword = new Entry[0];
+
+		/** True, if this bucket does not contain any subscription. */
+		private boolean empty = true;
+
+		private void add(Entry entry) {
+			this.empty = false;
+			long mask = entry.subscription.getKeywordMask();
+			if(mask == 0) {
+				this.anyKeyword = append(this.anyKeyword, entry);
+				return;
+			}
+			for(int bit = 0; bit < 64; bit++) {
+				if((mask & (1L << bit)) != 0)
+					this.byKeyword[bit] = append(this.byKeyword[bit], entry);
+			}
+		}
+
+		private boolean isEmpty() {
+			return this.empty;
+		}
+
+		private void dispatch(long carId, String phoneId, HashMap<String, Object> dataset, long messageMask) {
+			for(Entry entry : this.anyKeyword) {
+				if(entry.subscription.matches(carId, phoneId, messageMask))
+					entry.dispatcher.updateListener(carId, phoneId, dataset);
+			}
+			long remaining = messageMask;
+			while(remaining != 0) {
+				int bit = Long.numberOfTrailingZeros(remaining);
+				remaining &= remaining - 1;
+				Entry[] interested = this.byKeyword[bit];
+				if(interested == null)
+					continue;
+				long lowerBits = messageMask & ((1L << bit) - 1);
+				for(Entry entry : interested) {
+					// a subscription that shares a lower keyword with the message has already been informed
+					if((entry.subscription.getKeywordMask() & lowerBits) != 0)
+						continue;
+					if(entry.subscription.matches(carId, phoneId, messageMask))
+						entry.dispatcher.updateListener(carId, phoneId, dataset);
+				}
+			}
+		}
+
+		private static Entry[] append(Entry[] entries, Entry entry) {
+			if(entries == null)
+				return new Entry[] {entry};
+			Entry[] result = new Entry[entries.length + 1];
+			System.arraycopy(entries, 0, result, 0, entries.length);
+			result[entries.length] = entry;
+			return result;
+		}
+	}
+
+	/**
+	 * An immutable view of all subscriptions.
+	 */
+	private static final class Snapshot {
+
+		/** The subscriptions that are limited to certain cars, by car ID. */
+		private final Map<Long, Bucket> byCar = new HashMap<>();
+
+		/** The subscriptions for all cars. */
+		private final Bucket anyCar = new Bucket();
+
+		private Snapshot(List<Entry> entries) {
+			for(Entry entry : entries) {
+				long[] carIds = entry.subscription.getCarIds();
+				if(carIds == null) {
+					this.anyCar.add(entry);
+					continue;
+				}
+				for(long carId : carIds) {
+					Bucket bucket = this.byCar.get(carId);
+					if(bucket == null)
+						this.byCar.put(carId, bucket = new Bucket());
+					bucket.add(entry);
+				}
+			}
+		}
+
+		private boolean isEmpty() {
+			return this.byCar.isEmpty() && this.anyCar.isEmpty();
+		}
+	}
+
+}
@@ -0,0 +1,14 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * What a {@link at.ac.tuwien.ict.andropicar.server.connections.ListenerDispatcher} does with new data, if its listener cannot keep up.
+ */
+public enum EDispatchPolicy {
+	/** If the buffer is full, the oldest pending data-set is discarded to make room for the new one. */
+	DROP_OLDEST,
+	/** If the buffer is full, the connection that delivers the new data-set waits until there is room. */
+	BLOCK,
+	/** If the buffer is more than half full, only every n-th new data-set is kept. If it is full, new data-sets are discarded. */
+	SAMPLE;
+}
@@ -0,0 +1,12 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * The direction of the data, whose latency through the server is measured (see {@link LatencyHistogram}).
+ */
+public enum ELatencyDirection {
+	/** Data that is received from a car (e.g. sensor-data) and forwarded to its linked phone. */
+	CAR_TO_PHONE,
+	/** Data that is received from a phone (e.g. control-data) and forwarded to its linked car. */
+	PHONE_TO_CAR;
+}
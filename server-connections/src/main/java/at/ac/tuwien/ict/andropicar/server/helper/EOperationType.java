@@ -8,5 +8,5 @@ import at.ac.tuwien.ict.andropicar.server.connections.Connection;
  *
  */
 public enum EOperationType {
-	SOCKET_ERROR, CONNECT, REGISTER, LINK, CLOSE, UPDATE_INFO;
+	SOCKET_ERROR, CONNECT, REGISTER, LINK, OBSERVE, CLOSE, UPDATE_INFO, SHUTDOWN, UNLINK, SNAPSHOT, REPLICATE;
 }
@@ -0,0 +1,14 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * What to do with a connection-attempt or message that exceeds its rate limit (see {@link TokenBucket}).
+ */
+public enum EOverflowPolicy {
+	/** The connection-attempt or message is discarded. */
+	DROP,
+	/** The connection-attempt or message is processed as soon as the rate limit allows it, or discarded if that takes longer than the maximum delay. */
+	DELAY,
+	/** The connection is closed. */
+	DISCONNECT;
+}
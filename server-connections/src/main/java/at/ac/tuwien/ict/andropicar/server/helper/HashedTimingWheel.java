@@ -0,0 +1,317 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * A hashed timing wheel that manages a large number of deadlines with a single thread.<br>
+ * The wheel consists of a fixed number of buckets, each covering one tick. A {@link Timeout} is put into the bucket of the tick its deadline falls into,
+ * together with the number of full rotations that have to pass before it expires. Scheduling and cancelling a {@link Timeout} therefore costs O(1),
+ * regardless of the number of pending deadlines.<br>
+ * <br>
+ * Timeouts can be scheduled and cancelled from any thread. They are handed over to the wheels thread via lock-free queues,
+ * which means that only the wheels thread ever touches the buckets. Deadlines are accurate to one tick.<br>
+ * This runnable is supposed to be started in its own thread and runs until {@link #stop()} is called.
+ */
+public class HashedTimingWheel implements Runnable {
+
+	/** The duration of one tick in nanoseconds. */
+	private final long tickDuration;
+
+	/** The buckets of the wheel. Each bucket is a doubly linked list of {@link Timeout}s. */
+	private final Timeout[] wheel;
+
+	/** The mask that is used to map a tick onto its bucket (the number of buckets is always a power of two). */
+	private final int mask;
+
+	/** The point in time (see {@link System#nanoTime()}) that all deadlines are relative to. */
+	private final long startTime;
+
+	/** Timeouts that have been scheduled, but not yet put into their bucket. */
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+	/** Timeouts that have been cancelled, but not yet removed from their bucket. */
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+	/** The number of ticks that have passed since {@link #startTime}. Only accessed by the wheels thread. */
+	private long tick = 0;
+
+	/** The flag, that indicates, if this runnable should continue to be executed or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(HashedTimingWheel.class);
+
+
+	/**
+	 * @param tickDuration the duration of one tick. This is the resolution of all deadlines.
+	 * @param unit the {@link TimeUnit} of tickDuration.
+	 * @param ticksPerWheel the number of buckets of the wheel. Rounded up to the next power of two.
+	 */
+	public HashedTimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if(tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+		int size = 1;
+		while(size < ticksPerWheel)
+			size <<= 1;
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		this.tickDuration = unit.toNanos(tickDuration);
+		this.startTime = System.nanoTime();
+	}
+
+
+	/**
+	 * @return the duration of one tick in nanoseconds.
+	 */
+	public long getTickDuration() {
+		return this.tickDuration;
+	}
+
+	/**
+	 * Schedules the passed task to be executed once after the given delay.
+	 * @param task the task to be executed.
+	 * @param delay the delay after which the task should be executed.
+	 * @param unit the {@link TimeUnit} of delay.
+	 * @return the handle that can be used to cancel the task.
+	 */
+	public Timeout schedule(ITimerTask task, long delay, TimeUnit unit) {
+		if(task == null)
+			throw new NullPointerException("task");
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - this.startTime;
+		Timeout timeout = new Timeout(this, task, deadline);
+		this.pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Sets the keepRunning-flag to false, so that the wheel stops after the current tick. Pending timeouts are discarded.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+	}
+
+	/**
+	 * Advances the wheel tick by tick and executes all timeouts that expire within the current tick.
+	 */
+	@Override
+	public void run() {
+		while(this.keepRunning) {
+			long deadline = waitForNextTick();
+			if(deadline < 0)
+				continue;
+			removeCancelledTimeouts();
+			transferPendingTimeouts();
+			expireTimeouts((int) (this.tick & this.mask), deadline);
+			this.tick++;
+		}
+	}
+
+	/**
+	 * Sleeps until the current tick has passed.
+	 * @return the deadline of the current tick, relative to {@link #startTime}, or -1 if the sleep has been interrupted.
+	 */
+	private long waitForNextTick() {
+		long deadline = this.tickDuration * (this.tick + 1);
+		while(true) {
+			long currentTime = System.nanoTime() - this.startTime;
+			long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+			if(sleepTimeMs <= 0)
+				return currentTime;
+			try {
+				Thread.sleep(sleepTimeMs);
+			} catch(InterruptedException ie) {
+				if(!this.keepRunning)
+					return -1;
+			}
+		}
+	}
+
+	/**
+	 * Puts all timeouts that have been scheduled since the last tick into their buckets.
+	 * The number is limited, so that a burst of new timeouts cannot stall the wheel.
+	 */
+	private void transferPendingTimeouts() {
+		for(int i = 0; i < 100000; i++) {
+			Timeout timeout = this.pendingTimeouts.poll();
+			if(timeout == null)
+				return;
+			if(timeout.state.get() == Timeout.ST_CANCELLED)
+				continue;
+			long calculated = timeout.deadline / this.tickDuration;
+			timeout.remainingRounds = (calculated - this.tick) / this.wheel.length;
+			// deadlines in the past are put into the current bucket
+			long ticks = Math.max(calculated, this.tick);
+			add((int) (ticks & this.mask), timeout);
+		}
+	}
+
+	/**
+	 * Removes all timeouts from their buckets that have been cancelled since the last tick.
+	 */
+	private void removeCancelledTimeouts() {
+		Timeout timeout;
+		while((timeout = this.cancelledTimeouts.poll()) != null) {
+			if(timeout.bucket >= 0)
+				remove(timeout);
+		}
+	}
+
+	/**
+	 * Executes all timeouts in the given bucket, whose deadline has been reached, and decrements the remaining rounds of all others.
+	 * @param index the index of the bucket.
+	 * @param deadline the deadline of the current tick.
+	 */
+	private void expireTimeouts(int index, long deadline) {
+		Timeout timeout = this.wheel[index];
+		while(timeout != null) {
+			Timeout next = timeout.next;
+			if(timeout.remainingRounds <= 0) {
+				remove(timeout);
+				if(timeout.deadline <= deadline)
+					timeout.expire();
+				else
+					// should never happen, since the timeout has been put into the bucket based on its deadline
+					HashedTimingWheel.logger.error("A timeout has been put into the wrong bucket of the timing wheel.");
+			}
+			else if(timeout.state.get() == Timeout.ST_CANCELLED) {
+				remove(timeout);
+			}
+			else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Appends the passed timeout to the given bucket.
+	 * @param index the index of the bucket.
+	 * @param timeout the timeout to be added.
+	 */
+	private void add(int index, Timeout timeout) {
+		timeout.bucket = index;
+		timeout.prev = null;
+		timeout.next = this.wheel[index];
+		if(this.wheel[index] != null)
+			this.wheel[index].prev = timeout;
+		this.wheel[index] = timeout;
+	}
+
+	/**
+	 * Unlinks the passed timeout from its bucket.
+	 * @param timeout the timeout to be removed.
+	 */
+	private void remove(Timeout timeout) {
+		if(timeout.prev != null)
+			timeout.prev.next = timeout.next;
+		else
+			this.wheel[timeout.bucket] = timeout.next;
+		if(timeout.next != null)
+			timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+
+
+	/**
+	 * The handle of a task that has been scheduled on a {@link HashedTimingWheel}.
+	 */
+	public static final class Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		/** The wheel that this timeout has been scheduled on. */
+		private final HashedTimingWheel timer;
+
+		/** The task to be executed. */
+		private final ITimerTask task;
+
+		/** The deadline of this timeout, relative to the wheels start time. */
+		private final long deadline;
+
+		/** The state of this timeout (one of ST_INIT, ST_CANCELLED or ST_EXPIRED). */
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		/** The number of rotations of the wheel that have to pass before this timeout expires. Only accessed by the wheels thread. */
+		private long remainingRounds;
+
+		/** The index of the bucket that contains this timeout, or -1. Only accessed by the wheels thread. */
+		private int bucket = -1;
+
+		/** The neighbours of this timeout in its bucket. Only accessed by the wheels thread. */
+		private Timeout prev, next;
+
+
+		private Timeout(HashedTimingWheel timer, ITimerTask task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+
+		/**
+		 * @return the {@link HashedTimingWheel} that this timeout has been scheduled on.
+		 */
+		public HashedTimingWheel getTimer() {
+			return this.timer;
+		}
+
+		/**
+		 * @return the task that is executed once this timeout expires.
+		 */
+		public ITimerTask getTask() {
+			return this.task;
+		}
+
+		/**
+		 * @return true, if this timeout has been cancelled, otherwise false.
+		 */
+		public boolean isCancelled() {
+			return this.state.get() == ST_CANCELLED;
+		}
+
+		/**
+		 * @return true, if this timeout has expired and its task has been executed, otherwise false.
+		 */
+		public boolean isExpired() {
+			return this.state.get() == ST_EXPIRED;
+		}
+
+		/**
+		 * Cancels this timeout, so that its task will not be executed.
+		 * @return true, if this timeout has been cancelled, false if it has already expired or been cancelled before.
+		 */
+		public boolean cancel() {
+			if(!this.state.compareAndSet(ST_INIT, ST_CANCELLED))
+				return false;
+			this.timer.cancelledTimeouts.add(this);
+			return true;
+		}
+
+		/**
+		 * Executes the task of this timeout, if it has not been cancelled.
+		 */
+		private void expire() {
+			if(!this.state.compareAndSet(ST_INIT, ST_EXPIRED))
+				return;
+			try {
+				this.task.run(this);
+			} catch(RuntimeException re) {
+				HashedTimingWheel.logger.warn("A task of the timing wheel threw an exception.", re);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * A task that can be scheduled on a {@link HashedTimingWheel}.<br>
+ * Tasks are executed on the timing wheels own thread and should therefore return quickly.
+ */
+public interface ITimerTask {
+
+	/**
+	 * Called by the {@link HashedTimingWheel} once the deadline of the passed {@link HashedTimingWheel.Timeout} has been reached.
+	 * @param timeout the handle that this task has been scheduled with.
+	 */
+	void run(HashedTimingWheel.Timeout timeout);
+
+}
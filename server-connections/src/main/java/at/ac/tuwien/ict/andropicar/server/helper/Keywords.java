@@ -1,15 +1,20 @@
 package at.ac.tuwien.ict.andropicar.server.helper;
 
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class holds all the keywords that are to be used to communicate with other devices (via JSON-strings).<br>
- * The keywords should be accessed in a static manner (without instantiation of this class), which is why the constructor has been set private.
+ * The keywords should be accessed in a static manner (without instantiation of this class), which is why the constructor has been set private.<br>
+ * Every keyword has a fixed index, which is used to represent a set of keywords as a bit-mask (see {@link #maskOf(String...)}).
  * @author Boeck
  */
 public class Keywords{
 	
 	public static final String id = "id";
 	public static final String connect = "connect";
+	public static final String observe = "observe";
+	public static final String group = "group";
 	public static final String state = "state";
 	public static final String request = "request";
 	public static final String properties = "props";
@@ -28,8 +33,84 @@ public class Keywords{
 	public static final String leftInfraredSensor = "lISen";
 	public static final String rightInfraredSensor = "rISen";
 	public static final String hallSensor = "hSen";
+	public static final String ping = "ping";
+	public static final String pong = "pong";
+	public static final String host = "host";
+	public static final String port = "port";
+	public static final String rate = "rate";
 	public static final String[] forwardKeywords = {"phnCtrl", "steer", "acc", "stop",
 			"yaw", "ptch", "fLts", "bLts", "lWnkr", "rWnkr", "uSSen", "lISen", "rISen", "hSen"};
+	public static final String[] sensorKeywords = {ultrasonicSensor, leftInfraredSensor, rightInfraredSensor, hallSensor};
+	public static final String[] groupCommandKeywords = {stop, frontLights, backLights, leftWinker, rightWinker};
+	public static final String[] controlKeywords = {phoneControl, steering, acceleration, stop, cameraYaw, cameraPitch, frontLights, backLights, leftWinker, rightWinker};
+	
+	/** All keywords, in the order of their index. New keywords have to be appended, since the indices are also used in recordings. At most 64 keywords are supported. */
+	private static final String[] indexedKeywords = {id, connect, state, request, properties, phoneControl, steering, acceleration, stop,
+			cameraYaw, cameraPitch, frontLights, backLights, dynamicLights, leftWinker, rightWinker,
+			ultrasonicSensor, leftInfraredSensor, rightInfraredSensor, hallSensor, ping, pong, observe, group, host, port, rate};
+	
+	/** Maps every keyword to its index. */
+	private static final Map<String, Integer> keywordIndices = new HashMap<>();
+	
+	static {
+		for(int i = 0; i < indexedKeywords.length; i++)
+			keywordIndices.put(indexedKeywords[i], i);
+	}
+	
+	
+	/**
+	 * @param keyword the keyword.
+	 * @return the index of the keyword, or -1 if it is not a known keyword.
+	 */
+	public static int indexOf(String keyword) {
+		Integer index = keywordIndices.get(keyword);
+		return index != null ? index : -1;
+	}
+	
+	/**
+	 * @param index the index of a keyword.
+	 * @return the keyword with the passed index, or null if there is none.
+	 */
+	public static String keywordAt(int index) {
+		return index >= 0 && index < indexedKeywords.length ? indexedKeywords[index] : null;
+	}
+	
+	/**
+	 * @return the number of indexed keywords.
+	 */
+	public static int getKeywordCount() {
+		return indexedKeywords.length;
+	}
+	
+	/**
+	 * @param keywords the keywords.
+	 * @return the bit-mask that has the bits of all passed keywords set.
+	 * @throws IllegalArgumentException if one of the keywords is not a known keyword.
+	 */
+	public static long maskOf(String... keywords) {
+		long mask = 0;
+		for(String keyword : keywords) {
+			int index = indexOf(keyword);
+			if(index < 0)
+				throw new IllegalArgumentException("Unknown keyword: " + keyword);
+			mask |= 1L << index;
+		}
+		return mask;
+	}
+	
+	/**
+	 * @param dataset a decoded message.
+	 * @return the bit-mask that has the bits of all keywords set, that are contained in the message.
+	 */
+	public static long maskOf(Map<String, ?> dataset) {
+		long mask = 0;
+		for(String keyword : dataset.keySet()) {
+			int index = indexOf(keyword);
+			if(index >= 0)
+				mask |= 1L << index;
+		}
+		return mask;
+	}
 	
 	
 	private Keywords(){
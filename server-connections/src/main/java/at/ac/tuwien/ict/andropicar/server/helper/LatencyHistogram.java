@@ -0,0 +1,138 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A histogram of latencies in nanoseconds, that can be recorded to by any number of threads without locking.<br>
+ * Like a HDR-histogram, the buckets are log-linear: every power of two is split into {@link #SUB_BUCKETS} buckets of equal width,
+ * so every recorded latency is represented with a relative error of at most about 3 percent, from nanoseconds up to more than an hour.
+ * Larger latencies are recorded as the largest latency of the last bucket.<br>
+ * Recording a latency takes a few atomic operations and does not allocate memory. Percentiles are calculated from a {@link #getSnapshot() snapshot}.
+ */
+public class LatencyHistogram {
+
+	/** The number of bits that are used to split every power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** The number of buckets per power of two. */
+	private static final int SUB_BUCKETS = 1 << LatencyHistogram.SUB_BUCKET_BITS;
+
+	/** The index of the highest bit of the largest latency that is represented exactly (2^42 nanoseconds are about 73 minutes). */
+	private static final int MAX_MAGNITUDE = 42;
+
+	/** The number of buckets. */
+	private static final int BUCKET_COUNT = (LatencyHistogram.MAX_MAGNITUDE - LatencyHistogram.SUB_BUCKET_BITS + 2) * LatencyHistogram.SUB_BUCKETS;
+
+	/** The largest latency in nanoseconds that can be recorded. Larger latencies are recorded as this value. */
+	private static final long MAX_LATENCY = (1L << (LatencyHistogram.MAX_MAGNITUDE + 1)) - 1;
+
+	/** The number of recorded latencies per bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+	/** The number of recorded latencies. */
+	private final AtomicLong count = new AtomicLong();
+
+	/** The sum of all recorded latencies in nanoseconds. */
+	private final AtomicLong sum = new AtomicLong();
+
+	/** The largest recorded latency in nanoseconds. */
+	private final AtomicLong maximum = new AtomicLong();
+
+
+	/**
+	 * Records a latency.
+	 * @param latency the latency in nanoseconds. Negative values are recorded as 0.
+	 */
+	public void record(long latency) {
+		if(latency < 0)
+			latency = 0;
+		else if(latency > LatencyHistogram.MAX_LATENCY)
+			latency = LatencyHistogram.MAX_LATENCY;
+		this.counts.incrementAndGet(LatencyHistogram.indexOf(latency));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(latency);
+		long max;
+		while(latency > (max = this.maximum.get()) && !this.maximum.compareAndSet(max, latency));
+	}
+
+	/**
+	 * Records a latency.
+	 * @param latency the latency.
+	 * @param unit the {@link TimeUnit} of latency.
+	 */
+	public void record(long latency, TimeUnit unit) {
+		this.record(unit.toNanos(latency));
+	}
+
+	/**
+	 * @return the number of recorded latencies.
+	 */
+	public long getCount() { return this.count.get(); }
+
+	/**
+	 * Calculates the percentiles of all latencies that have been recorded so far. Latencies that are recorded concurrently may or may not be included.
+	 * @return the snapshot of this histogram.
+	 */
+	public LatencySnapshot getSnapshot() {
+		long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+		long total = 0;
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = this.counts.get(i);
+			total += counts[i];
+		}
+		long maximum = this.maximum.get();
+		long mean = total > 0 ? this.sum.get() / total : 0;
+		return new LatencySnapshot(total, mean, LatencyHistogram.percentile(counts, total, 0.5, maximum),
+				LatencyHistogram.percentile(counts, total, 0.99, maximum), LatencyHistogram.percentile(counts, total, 0.999, maximum), maximum);
+	}
+
+	/**
+	 * @param counts the counts of all buckets.
+	 * @param total the sum of the counts.
+	 * @param percentile the percentile between 0 and 1.
+	 * @param maximum the largest recorded latency, which limits the result.
+	 * @return the highest latency of the bucket that contains the percentile, or 0 if nothing has been recorded.
+	 */
+	private static long percentile(long[] counts, long total, double percentile, long maximum) {
+		if(total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(LatencyHistogram.highestValueOf(i), maximum);
+		}
+		return maximum;
+	}
+
+	/**
+	 * @param latency a latency in nanoseconds, between 0 and {@link #MAX_LATENCY}.
+	 * @return the index of the bucket that the latency is counted in.
+	 */
+	private static int indexOf(long latency) {
+		if(latency < LatencyHistogram.SUB_BUCKETS)
+			return (int) latency;
+		int magnitude = 63 - Long.numberOfLeadingZeros(latency);
+		int shift = magnitude - LatencyHistogram.SUB_BUCKET_BITS;
+		// the sub-bucket is between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+		int subBucket = (int) (latency >>> shift);
+		return (shift + 1) * LatencyHistogram.SUB_BUCKETS + subBucket - LatencyHistogram.SUB_BUCKETS;
+	}
+
+	/**
+	 * @param index the index of a bucket.
+	 * @return the highest latency in nanoseconds that is counted in the bucket.
+	 */
+	private static long highestValueOf(int index) {
+		if(index < LatencyHistogram.SUB_BUCKETS)
+			return index;
+		int shift = index / LatencyHistogram.SUB_BUCKETS - 1;
+		long subBucket = index % LatencyHistogram.SUB_BUCKETS + LatencyHistogram.SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,90 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The percentiles of the latencies that have been recorded in a {@link LatencyHistogram} up to a certain point in time.<br>
+ * The percentiles are the highest latencies of their buckets, so they are never lower than the actual latencies.
+ */
+public class LatencySnapshot {
+
+	/** The number of recorded latencies. */
+	private final long count;
+
+	/** The average latency in nanoseconds. */
+	private final long mean;
+
+	/** The median latency in nanoseconds. */
+	private final long p50;
+
+	/** The 99th percentile in nanoseconds. */
+	private final long p99;
+
+	/** The 99.9th percentile in nanoseconds. */
+	private final long p999;
+
+	/** The largest latency in nanoseconds. */
+	private final long maximum;
+
+
+	/**
+	 * @param count the number of recorded latencies.
+	 * @param mean the average latency in nanoseconds.
+	 * @param p50 the median latency in nanoseconds.
+	 * @param p99 the 99th percentile in nanoseconds.
+	 * @param p999 the 99.9th percentile in nanoseconds.
+	 * @param maximum the largest latency in nanoseconds.
+	 */
+	public LatencySnapshot(long count, long mean, long p50, long p99, long p999, long maximum) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.maximum = maximum;
+	}
+
+
+	/**
+	 * @return the number of recorded latencies.
+	 */
+	public long getCount() { return this.count; }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the average latency.
+	 */
+	public long getMean(TimeUnit unit) { return unit.convert(this.mean, TimeUnit.NANOSECONDS); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the median latency.
+	 */
+	public long getP50(TimeUnit unit) { return unit.convert(this.p50, TimeUnit.NANOSECONDS); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the 99th percentile.
+	 */
+	public long getP99(TimeUnit unit) { return unit.convert(this.p99, TimeUnit.NANOSECONDS); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the 99.9th percentile.
+	 */
+	public long getP999(TimeUnit unit) { return unit.convert(this.p999, TimeUnit.NANOSECONDS); }
+
+	/**
+	 * @param unit the {@link TimeUnit} of the result.
+	 * @return the largest latency.
+	 */
+	public long getMaximum(TimeUnit unit) { return unit.convert(this.maximum, TimeUnit.NANOSECONDS); }
+
+	@Override
+	public String toString() {
+		return "LatencySnapshot [count=" + this.count + ", mean=" + this.mean / 1000 + "us, p50=" + this.p50 / 1000 + "us, p99=" + this.p99 / 1000
+				+ "us, p99.9=" + this.p999 / 1000 + "us, max=" + this.maximum / 1000 + "us]";
+	}
+
+}
@@ -16,6 +16,9 @@ public class QueueElement {
 	/** The device that wants to inform the main-thread about something. */
 	private Connection connection;
 	
+	/** The point in time (see {@link System#nanoTime()}) when this element has been created, which is right before it is put on the operation-queue. */
+	private long creationTime = System.nanoTime();
+	
 	/**
 	 * Instantiates a new object of this class, with the set parameters.
 	 * @param operationType a value that represents the receiving end what to do with the connection
@@ -39,5 +42,12 @@ public class QueueElement {
 	public Connection getConnection() {
 		return connection;
 	}
+	
+	/**
+	 * @return the point in time (see {@link System#nanoTime()}) when this element has been created, which is right before it is put on the operation-queue.
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
 
 }
@@ -0,0 +1,181 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * Holds the rate limits of a {@link at.ac.tuwien.ict.andropicar.server.Server}, both for new connections per source-IP and for the messages and bytes per connection.<br>
+ * A rate of 0 disables the corresponding limit. The settings have to be changed before the server is started.
+ */
+public class RateLimitSettings {
+
+	/** The number of new connections per second that are accepted from one IP-address. */
+	private long connectionsPerSecond = 5;
+
+	/** The number of new connections that are accepted from one IP-address in a burst. */
+	private long connectionBurst = 20;
+
+	/** What to do with a new connection that exceeds the limit of its IP-address. */
+	private EOverflowPolicy admissionPolicy = EOverflowPolicy.DROP;
+
+	/** The number of messages per second that are processed per connection. */
+	private long messagesPerSecond = 200;
+
+	/** The number of messages that are processed per connection in a burst. */
+	private long messageBurst = 400;
+
+	/** The number of bytes per second that are processed per connection. */
+	private long bytesPerSecond = 64 * 1024;
+
+	/** The number of bytes that are processed per connection in a burst. */
+	private long byteBurst = 128 * 1024;
+
+	/** What to do with a message that exceeds the limits of its connection. */
+	private EOverflowPolicy messagePolicy = EOverflowPolicy.DROP;
+
+	/** The maximum time in milliseconds that a connection-attempt or message is delayed with {@link EOverflowPolicy#DELAY}, before it is dropped. */
+	private long maxDelay = 1000;
+
+	/** The maximum number of IP-addresses whose connection-rate is tracked at the same time. */
+	private int maxTrackedAddresses = 100000;
+
+
+	/**
+	 * @return the number of new connections per second that are accepted from one IP-address, or 0 if unlimited.
+	 */
+	public long getConnectionsPerSecond() {
+		return connectionsPerSecond;
+	}
+
+	/**
+	 * @param connectionsPerSecond the number of new connections per second that are accepted from one IP-address, or 0 for no limit.
+	 */
+	public void setConnectionsPerSecond(long connectionsPerSecond) {
+		this.connectionsPerSecond = connectionsPerSecond;
+	}
+
+	/**
+	 * @return the number of new connections that are accepted from one IP-address in a burst.
+	 */
+	public long getConnectionBurst() {
+		return connectionBurst;
+	}
+
+	/**
+	 * @param connectionBurst the number of new connections that are accepted from one IP-address in a burst.
+	 */
+	public void setConnectionBurst(long connectionBurst) {
+		this.connectionBurst = connectionBurst;
+	}
+
+	/**
+	 * @return what to do with a new connection that exceeds the limit of its IP-address.
+	 */
+	public EOverflowPolicy getAdmissionPolicy() {
+		return admissionPolicy;
+	}
+
+	/**
+	 * @param admissionPolicy what to do with a new connection that exceeds the limit of its IP-address.
+	 */
+	public void setAdmissionPolicy(EOverflowPolicy admissionPolicy) {
+		this.admissionPolicy = admissionPolicy;
+	}
+
+	/**
+	 * @return the number of messages per second that are processed per connection, or 0 if unlimited.
+	 */
+	public long getMessagesPerSecond() {
+		return messagesPerSecond;
+	}
+
+	/**
+	 * @param messagesPerSecond the number of messages per second that are processed per connection, or 0 for no limit.
+	 */
+	public void setMessagesPerSecond(long messagesPerSecond) {
+		this.messagesPerSecond = messagesPerSecond;
+	}
+
+	/**
+	 * @return the number of messages that are processed per connection in a burst.
+	 */
+	public long getMessageBurst() {
+		return messageBurst;
+	}
+
+	/**
+	 * @param messageBurst the number of messages that are processed per connection in a burst.
+	 */
+	public void setMessageBurst(long messageBurst) {
+		this.messageBurst = messageBurst;
+	}
+
+	/**
+	 * @return the number of bytes per second that are processed per connection, or 0 if unlimited.
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @param bytesPerSecond the number of bytes per second that are processed per connection, or 0 for no limit.
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * @return the number of bytes that are processed per connection in a burst.
+	 */
+	public long getByteBurst() {
+		return byteBurst;
+	}
+
+	/**
+	 * @param byteBurst the number of bytes that are processed per connection in a burst.
+	 */
+	public void setByteBurst(long byteBurst) {
+		this.byteBurst = byteBurst;
+	}
+
+	/**
+	 * @return what to do with a message that exceeds the limits of its connection.
+	 */
+	public EOverflowPolicy getMessagePolicy() {
+		return messagePolicy;
+	}
+
+	/**
+	 * @param messagePolicy what to do with a message that exceeds the limits of its connection.
+	 */
+	public void setMessagePolicy(EOverflowPolicy messagePolicy) {
+		this.messagePolicy = messagePolicy;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds that a connection-attempt or message is delayed, before it is dropped.
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param maxDelay the maximum time in milliseconds that a connection-attempt or message is delayed, before it is dropped.
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @return the maximum number of IP-addresses whose connection-rate is tracked at the same time.
+	 */
+	public int getMaxTrackedAddresses() {
+		return maxTrackedAddresses;
+	}
+
+	/**
+	 * @param maxTrackedAddresses the maximum number of IP-addresses whose connection-rate is tracked at the same time.
+	 */
+	public void setMaxTrackedAddresses(int maxTrackedAddresses) {
+		this.maxTrackedAddresses = maxTrackedAddresses;
+	}
+
+}
@@ -0,0 +1,73 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the decisions of the rate limits of a {@link at.ac.tuwien.ict.andropicar.server.Server}.
+ * The counters can be updated by any number of threads concurrently.
+ */
+public class RateLimitStatistics {
+
+	/** The number of connections that have been admitted. */
+	private final LongAdder admittedConnections = new LongAdder();
+
+	/** The number of connections that have been admitted after a delay. */
+	private final LongAdder delayedConnections = new LongAdder();
+
+	/** The number of connections that have been rejected, because their IP-address exceeded its limit. */
+	private final LongAdder rejectedConnections = new LongAdder();
+
+	/** The number of messages that have been dropped, because their connection exceeded its limits. */
+	private final LongAdder droppedMessages = new LongAdder();
+
+	/** The number of messages that have been processed after a delay. */
+	private final LongAdder delayedMessages = new LongAdder();
+
+	/** The number of connections that have been closed, because they exceeded their limits. */
+	private final LongAdder disconnectedConnections = new LongAdder();
+
+
+	public void connectionAdmitted() { this.admittedConnections.increment(); }
+
+	public void connectionDelayed() { this.delayedConnections.increment(); }
+
+	public void connectionRejected() { this.rejectedConnections.increment(); }
+
+	public void messageDropped() { this.droppedMessages.increment(); }
+
+	public void messageDelayed() { this.delayedMessages.increment(); }
+
+	public void connectionDisconnected() { this.disconnectedConnections.increment(); }
+
+	/**
+	 * @return the number of connections that have been admitted.
+	 */
+	public long getAdmittedConnections() { return this.admittedConnections.sum(); }
+
+	/**
+	 * @return the number of connections that have been admitted after a delay.
+	 */
+	public long getDelayedConnections() { return this.delayedConnections.sum(); }
+
+	/**
+	 * @return the number of connections that have been rejected, because their IP-address exceeded its limit.
+	 */
+	public long getRejectedConnections() { return this.rejectedConnections.sum(); }
+
+	/**
+	 * @return the number of messages that have been dropped, because their connection exceeded its limits.
+	 */
+	public long getDroppedMessages() { return this.droppedMessages.sum(); }
+
+	/**
+	 * @return the number of messages that have been processed after a delay.
+	 */
+	public long getDelayedMessages() { return this.delayedMessages.sum(); }
+
+	/**
+	 * @return the number of connections that have been closed, because they exceeded their limits.
+	 */
+	public long getDisconnectedConnections() { return this.disconnectedConnections.sum(); }
+
+}
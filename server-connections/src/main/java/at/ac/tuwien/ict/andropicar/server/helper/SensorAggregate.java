@@ -0,0 +1,60 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * The aggregate of the values of one sensor within a time window (see {@link SensorHistory#aggregate(String, long, java.util.concurrent.TimeUnit, SensorAggregate)}).<br>
+ * Instances are meant to be reused by the caller, so that querying does not allocate memory.
+ */
+public class SensorAggregate {
+
+	/** The number of values. */
+	private long count = 0;
+
+	/** The sum of the values. */
+	private long sum = 0;
+
+	/** The smallest value. */
+	private long minimum = 0;
+
+	/** The largest value. */
+	private long maximum = 0;
+
+
+	/**
+	 * @return the number of values.
+	 */
+	public long getCount() { return this.count; }
+
+	/**
+	 * @return the sum of the values.
+	 */
+	public long getSum() { return this.sum; }
+
+	/**
+	 * @return the smallest value.
+	 */
+	public long getMinimum() { return this.minimum; }
+
+	/**
+	 * @return the largest value.
+	 */
+	public long getMaximum() { return this.maximum; }
+
+	/**
+	 * @return the average of the values, or NaN if there are none.
+	 */
+	public double getAverage() { return this.count > 0 ? this.sum / (double) this.count : Double.NaN; }
+
+	void set(long count, long sum, long minimum, long maximum) {
+		this.count = count;
+		this.sum = sum;
+		this.minimum = minimum;
+		this.maximum = maximum;
+	}
+
+	@Override
+	public String toString() {
+		return "SensorAggregate [count=" + count + ", minimum=" + minimum + ", maximum=" + maximum + ", average=" + getAverage() + "]";
+	}
+
+}
@@ -0,0 +1,298 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * The recent values of the sensors of one car, kept at a fixed resolution (e.g. the last 10 minutes in slots of 100 ms).<br>
+ * <br>
+ * Every slot holds the smallest and the largest value that has been received within it, as well as the running sum and count of all values up to and
+ * including that slot. The slots form a ring buffer of primitive arrays. Every group of {@link #BLOCK_SIZE} slots additionally holds the smallest and largest value of the group.
+ * This way, the average over a window is the difference of two running sums, and its minimum and maximum need at most one look per block and per border slot.<br>
+ * The arrays of a sensor are allocated when its first value is received, a sensor that the car does not have costs nothing.
+ * With the default settings every sensor takes about 170 kB.<br>
+ * <br>
+ * There is a single writer (the thread of the car). Readers never block the writer and never allocate memory:
+ * they read optimistically and retry, if the writer has changed the history in the meantime (see {@link StampedLock#tryOptimisticRead()}).
+ */
+public class SensorHistory {
+
+	/** The number of slots per block. */
+	public static final int BLOCK_SIZE = 10;
+
+	/** The keywords of the sensors. */
+	private final String[] sensors;
+
+	/** The duration of a slot in nanoseconds. */
+	private final long resolution;
+
+	/** The number of slots that can be queried. */
+	private final int capacity;
+
+	/** The number of slots in the ring buffer. One more than the capacity, so that the running sum before the oldest queryable slot is kept. */
+	private final int ringSize;
+
+	/** The number of blocks in the ring buffer. */
+	private final int blockRingSize;
+
+	/** The point in time (see {@link System#nanoTime()}) that the slots are counted from. */
+	private final long origin = System.nanoTime();
+
+	/** Detects concurrent writes while reading. */
+	private final StampedLock lock = new StampedLock();
+
+	/** The number of the slot that every element of the ring buffer holds, or -1. */
+	private long[] slotIds = null;
+
+	/** The number of the block that every element of the block ring buffer holds, or -1. */
+	private long[] blockIds = null;
+
+	/** The running sums and counts of every sensor, per slot. */
+	private final long[][] sums, counts;
+
+	/** The smallest and largest values of every sensor, per slot. */
+	private final long[][] minimums, maximums;
+
+	/** The smallest and largest values of every sensor, per block. */
+	private final long[][] blockMinimums, blockMaximums;
+
+	/** The sum and count of all values of every sensor so far. */
+	private final long[] totalSums, totalCounts;
+
+	/** The number of the latest slot that has been written to, or -1. */
+	private long lastSlot = -1;
+
+
+	/**
+	 * @param sensors the keywords of the sensors.
+	 * @param resolution the duration of a slot.
+	 * @param length the time that is covered by the history. Rounded up to whole slots.
+	 * @param unit the {@link TimeUnit} of resolution and length.
+	 */
+	public SensorHistory(String[] sensors, long resolution, long length, TimeUnit unit) {
+		if(resolution <= 0 || length < resolution)
+			throw new IllegalArgumentException("resolution must be greater than 0 and not greater than length: " + resolution + ", " + length);
+		long slots = (length + resolution - 1) / resolution;
+		if(slots > Integer.MAX_VALUE - 1)
+			throw new IllegalArgumentException("The history must not have more than " + (Integer.MAX_VALUE - 1) + " slots: " + slots);
+		this.sensors = sensors.clone();
+		this.resolution = unit.toNanos(resolution);
+		this.capacity = (int) slots;
+		this.ringSize = this.capacity + 1;
+		this.blockRingSize = this.ringSize / BLOCK_SIZE + 2;
+		this.sums = new long[sensors.length][];
+		this.counts = new long[sensors.length][];
+		this.minimums = new long[sensors.length][];
+		this.maximums = new long[sensors.length][];
+		this.blockMinimums = new long[sensors.length][];
+		this.blockMaximums = new long[sensors.length][];
+		this.totalSums = new long[sensors.length];
+		this.totalCounts = new long[sensors.length];
+	}
+
+
+	/**
+	 * @return the duration of a slot in nanoseconds.
+	 */
+	public long getResolution() { return this.resolution; }
+
+	/**
+	 * @return the time in nanoseconds that is covered by the history.
+	 */
+	public long getLength() { return this.capacity * this.resolution; }
+
+	/**
+	 * Adds the values of all sensors that the passed data-set contains. Must only be called by one thread.
+	 * @param dataset the data-set.
+	 */
+	public void update(Map<String, Object> dataset) {
+		update(dataset, System.nanoTime());
+	}
+
+	/**
+	 * Adds the values of all sensors that the passed data-set contains, as if they had been received at the passed point in time.
+	 * @param dataset the data-set.
+	 * @param now the point in time (see {@link System#nanoTime()}), which must not be before the construction of this history.
+	 */
+	void update(Map<String, Object> dataset, long now) {
+		long stamp = 0;
+		long slot = (now - this.origin) / this.resolution;
+		for(int i = 0; i < this.sensors.length; i++) {
+			Object value = dataset.get(this.sensors[i]);
+			if(!(value instanceof Long))
+				continue;
+			if(stamp == 0) {
+				stamp = this.lock.writeLock();
+				advance(slot);
+			}
+			add(i, slot, (Long) value);
+		}
+		if(stamp != 0)
+			this.lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Aggregates the values of a sensor within the passed window, which ends now.
+	 * @param sensor the keyword of the sensor.
+	 * @param window the duration of the window. It is rounded up to whole slots and limited to the length of the history.
+	 * @param unit the {@link TimeUnit} of window.
+	 * @param result the object that the aggregate is written to.
+	 * @return true, if there are values of the sensor within the window, otherwise false (the result is not changed in this case).
+	 */
+	public boolean aggregate(String sensor, long window, TimeUnit unit, SensorAggregate result) {
+		return aggregate(sensor, window, unit, result, System.nanoTime());
+	}
+
+	/**
+	 * Aggregates the values of a sensor within the passed window, which ends at the passed point in time.
+	 * @param now the point in time (see {@link System#nanoTime()}), which must not be before the construction of this history.
+	 * @see #aggregate(String, long, TimeUnit, SensorAggregate)
+	 */
+	boolean aggregate(String sensor, long window, TimeUnit unit, SensorAggregate result, long now) {
+		int index = -1;
+		for(int i = 0; i < this.sensors.length; i++) {
+			if(this.sensors[i].equals(sensor))
+				index = i;
+		}
+		if(index < 0)
+			return false;
+		long end = (now - this.origin) / this.resolution;
+		long slots = Math.max(1, Math.min(this.capacity, (unit.toNanos(window) + this.resolution - 1) / this.resolution));
+		while(true) {
+			long stamp = this.lock.tryOptimisticRead();
+			if(stamp == 0)
+				continue;
+			boolean found = read(index, end - slots + 1, end, result, stamp);
+			if(this.lock.validate(stamp))
+				return found;
+		}
+	}
+
+	/**
+	 * Reads the aggregate of a sensor. The result is only written, if the read has been consistent.
+	 * @return true, if there are values within the slots, otherwise false.
+	 */
+	private boolean read(int sensor, long start, long end, SensorAggregate result, long stamp) {
+		long[] slotIds = this.slotIds, blockIds = this.blockIds;
+		long[] sums = this.sums[sensor], counts = this.counts[sensor], minimums = this.minimums[sensor], maximums = this.maximums[sensor];
+		long[] blockMinimums = this.blockMinimums[sensor], blockMaximums = this.blockMaximums[sensor];
+		long last = this.lastSlot;
+		if(slotIds == null || blockIds == null || sums == null || counts == null || minimums == null || maximums == null || blockMinimums == null || blockMaximums == null)
+			return false;
+		end = Math.min(end, last);
+		start = Math.max(Math.max(start, last - this.capacity + 1), 0);
+		if(end < start)
+			return false;
+
+		int endIndex = (int) (end % this.ringSize);
+		int baseIndex = (int) ((start - 1 + this.ringSize) % this.ringSize);
+		if(slotIds[endIndex] != end)
+			return false;
+		// slots before the first one that has been written to have a running sum of 0
+		boolean hasBase = start > 0 && slotIds[baseIndex] == start - 1;
+		long count = counts[endIndex] - (hasBase ? counts[baseIndex] : 0);
+		if(count <= 0)
+			return false;
+		long sum = sums[endIndex] - (hasBase ? sums[baseIndex] : 0);
+
+		long minimum = Long.MAX_VALUE, maximum = Long.MIN_VALUE;
+		long slot = start;
+		while(slot <= end) {
+			long block = slot / BLOCK_SIZE;
+			int blockIndex = (int) (block % this.blockRingSize);
+			if(slot % BLOCK_SIZE == 0 && slot + BLOCK_SIZE - 1 <= end && blockIds[blockIndex] == block) {
+				minimum = Math.min(minimum, blockMinimums[blockIndex]);
+				maximum = Math.max(maximum, blockMaximums[blockIndex]);
+				slot += BLOCK_SIZE;
+				continue;
+			}
+			int index = (int) (slot % this.ringSize);
+			if(slotIds[index] == slot) {
+				minimum = Math.min(minimum, minimums[index]);
+				maximum = Math.max(maximum, maximums[index]);
+			}
+			slot++;
+		}
+		if(!this.lock.validate(stamp))
+			return false;
+		result.set(count, sum, minimum, maximum);
+		return true;
+	}
+
+	/**
+	 * Moves the history forward to the passed slot, resetting all slots and blocks in between.
+	 */
+	private void advance(long slot) {
+		if(this.slotIds == null) {
+			this.slotIds = new long[this.ringSize];
+			this.blockIds = new long[this.blockRingSize];
+			Arrays.fill(this.slotIds, -1);
+			Arrays.fill(this.blockIds, -1);
+		}
+		if(slot <= this.lastSlot)
+			return;
+		long from = Math.max(this.lastSlot + 1, slot - this.ringSize + 1);
+		for(long s = from; s <= slot; s++) {
+			int index = (int) (s % this.ringSize);
+			this.slotIds[index] = s;
+			for(int i = 0; i < this.sensors.length; i++) {
+				if(this.sums[i] != null)
+					resetSlot(i, index);
+			}
+			long block = s / BLOCK_SIZE;
+			int blockIndex = (int) (block % this.blockRingSize);
+			if(this.blockIds[blockIndex] != block) {
+				this.blockIds[blockIndex] = block;
+				for(int i = 0; i < this.sensors.length; i++) {
+					if(this.sums[i] != null) {
+						this.blockMinimums[i][blockIndex] = Long.MAX_VALUE;
+						this.blockMaximums[i][blockIndex] = Long.MIN_VALUE;
+					}
+				}
+			}
+		}
+		this.lastSlot = slot;
+	}
+
+	/**
+	 * Adds a value of a sensor to the current slot, allocating the arrays of the sensor if necessary.
+	 */
+	private void add(int sensor, long slot, long value) {
+		if(this.sums[sensor] == null) {
+			this.sums[sensor] = new long[this.ringSize];
+			this.counts[sensor] = new long[this.ringSize];
+			this.minimums[sensor] = new long[this.ringSize];
+			this.maximums[sensor] = new long[this.ringSize];
+			this.blockMinimums[sensor] = new long[this.blockRingSize];
+			this.blockMaximums[sensor] = new long[this.blockRingSize];
+			for(int i = 0; i < this.ringSize; i++)
+				resetSlot(sensor, i);
+			Arrays.fill(this.blockMinimums[sensor], Long.MAX_VALUE);
+			Arrays.fill(this.blockMaximums[sensor], Long.MIN_VALUE);
+		}
+		int index = (int) (slot % this.ringSize);
+		int blockIndex = (int) ((slot / BLOCK_SIZE) % this.blockRingSize);
+		this.totalSums[sensor] += value;
+		this.totalCounts[sensor]++;
+		this.sums[sensor][index] = this.totalSums[sensor];
+		this.counts[sensor][index] = this.totalCounts[sensor];
+		this.minimums[sensor][index] = Math.min(this.minimums[sensor][index], value);
+		this.maximums[sensor][index] = Math.max(this.maximums[sensor][index], value);
+		this.blockMinimums[sensor][blockIndex] = Math.min(this.blockMinimums[sensor][blockIndex], value);
+		this.blockMaximums[sensor][blockIndex] = Math.max(this.blockMaximums[sensor][blockIndex], value);
+	}
+
+	/**
+	 * Resets a slot of a sensor: no values, and the running sum and count of all values so far.
+	 */
+	private void resetSlot(int sensor, int index) {
+		this.sums[sensor][index] = this.totalSums[sensor];
+		this.counts[sensor][index] = this.totalCounts[sensor];
+		this.minimums[sensor][index] = Long.MAX_VALUE;
+		this.maximums[sensor][index] = Long.MIN_VALUE;
+	}
+
+}
@@ -0,0 +1,204 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the traffic and the work of a {@link at.ac.tuwien.ict.andropicar.server.Server} (messages, bytes, decoding, encoding, accepted connections and operations of the main-thread).<br>
+ * The counters are striped ({@link LongAdder}), so they can be updated by any number of threads concurrently without contending with each other.
+ * The latencies of the operations are recorded in lock-free {@link LatencyHistogram}s.
+ */
+public class ServerMetrics {
+
+	/** The number of messages that have been received from all devices. */
+	private final LongAdder messagesIn = new LongAdder();
+
+	/** The number of bytes that have been received from all devices. */
+	private final LongAdder bytesIn = new LongAdder();
+
+	/** The number of messages that have been sent to all devices. */
+	private final LongAdder messagesOut = new LongAdder();
+
+	/** The number of bytes that have been sent to all devices. */
+	private final LongAdder bytesOut = new LongAdder();
+
+	/** The number of sensor-messages that have not been sent to a phone, because newer messages with the same values have replaced them. */
+	private final LongAdder messagesConflated = new LongAdder();
+
+	/** The number of messages that have been decoded. */
+	private final LongAdder decodeCount = new LongAdder();
+
+	/** The time in nanoseconds that decoding messages took. */
+	private final LongAdder decodeTime = new LongAdder();
+
+	/** The number of messages that have been encoded. */
+	private final LongAdder encodeCount = new LongAdder();
+
+	/** The time in nanoseconds that encoding messages took. */
+	private final LongAdder encodeTime = new LongAdder();
+
+	/** The number of connections that have been accepted. */
+	private final LongAdder acceptedConnections = new LongAdder();
+
+	/** The time between putting an operation on the operation-queue and finishing its processing, per type of operation. Is not modified after the construction. */
+	private final EnumMap<EOperationType, LatencyHistogram> operationLatencies = new EnumMap<>(EOperationType.class);
+
+	/** The number of connections that have been accepted per second, within the last second. */
+	private volatile double acceptRate = 0;
+
+
+	public ServerMetrics() {
+		for(EOperationType operationType : EOperationType.values())
+			this.operationLatencies.put(operationType, new LatencyHistogram());
+	}
+
+
+	/**
+	 * Starts to calculate the {@link #getAcceptRate() accept-rate} every second.
+	 * @param timer the timing wheel that the calculation is scheduled on.
+	 */
+	public void start(HashedTimingWheel timer) {
+		timer.schedule(new RateSampler(timer), 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Counts a message that has been received from a device.
+	 * @param bytes the size of the message.
+	 */
+	public void messageReceived(int bytes) {
+		this.messagesIn.increment();
+		this.bytesIn.add(bytes);
+	}
+
+	/**
+	 * Counts a message that has been sent to a device.
+	 * @param bytes the size of the message.
+	 */
+	public void messageSent(int bytes) {
+		this.messagesOut.increment();
+		this.bytesOut.add(bytes);
+	}
+
+	public void messageConflated() { this.messagesConflated.increment(); }
+
+	/**
+	 * Counts a decoded message.
+	 * @param time the time in nanoseconds that decoding took.
+	 */
+	public void messageDecoded(long time) {
+		this.decodeCount.increment();
+		this.decodeTime.add(time);
+	}
+
+	/**
+	 * Counts an encoded message.
+	 * @param time the time in nanoseconds that encoding took.
+	 */
+	public void messageEncoded(long time) {
+		this.encodeCount.increment();
+		this.encodeTime.add(time);
+	}
+
+	public void connectionAccepted() { this.acceptedConnections.increment(); }
+
+	/**
+	 * Records the latency of an operation of the main-thread.
+	 * @param operationType the type of the operation.
+	 * @param latency the time in nanoseconds between putting the operation on the operation-queue and finishing its processing.
+	 */
+	public void operationProcessed(EOperationType operationType, long latency) {
+		this.operationLatencies.get(operationType).record(latency);
+	}
+
+	/**
+	 * @return the number of messages that have been received from all devices.
+	 */
+	public long getMessagesIn() { return this.messagesIn.sum(); }
+
+	/**
+	 * @return the number of bytes that have been received from all devices.
+	 */
+	public long getBytesIn() { return this.bytesIn.sum(); }
+
+	/**
+	 * @return the number of messages that have been sent to all devices.
+	 */
+	public long getMessagesOut() { return this.messagesOut.sum(); }
+
+	/**
+	 * @return the number of bytes that have been sent to all devices.
+	 */
+	public long getBytesOut() { return this.bytesOut.sum(); }
+
+	/**
+	 * @return the number of sensor-messages that have not been sent to a phone, because newer messages with the same values have replaced them.
+	 */
+	public long getMessagesConflated() { return this.messagesConflated.sum(); }
+
+	/**
+	 * @return the average time in nanoseconds that decoding a message took, or 0 if no message has been decoded yet.
+	 */
+	public long getAverageDecodeTime() {
+		long count = this.decodeCount.sum();
+		return count == 0 ? 0 : this.decodeTime.sum() / count;
+	}
+
+	/**
+	 * @return the average time in nanoseconds that encoding a message took, or 0 if no message has been encoded yet.
+	 */
+	public long getAverageEncodeTime() {
+		long count = this.encodeCount.sum();
+		return count == 0 ? 0 : this.encodeTime.sum() / count;
+	}
+
+	/**
+	 * @return the number of connections that have been accepted.
+	 */
+	public long getAcceptedConnections() { return this.acceptedConnections.sum(); }
+
+	/**
+	 * @return the number of connections that have been accepted per second, within the last second.
+	 */
+	public double getAcceptRate() { return this.acceptRate; }
+
+	/**
+	 * @param operationType the type of an operation.
+	 * @return the histogram of the time between putting operations of the type on the operation-queue and finishing their processing.
+	 */
+	public LatencyHistogram getOperationLatency(EOperationType operationType) { return this.operationLatencies.get(operationType); }
+
+
+	/**
+	 * Calculates the {@link ServerMetrics#acceptRate} every second. It reschedules itself, until the timing wheel is stopped.
+	 */
+	private class RateSampler implements ITimerTask {
+
+		/** The timing wheel that this sampler is scheduled on. */
+		private final HashedTimingWheel timer;
+
+		/** The number of accepted connections at the last calculation. */
+		private long lastAccepted = 0;
+
+		/** The point in time (see {@link System#nanoTime()}) of the last calculation. */
+		private long lastSample = System.nanoTime();
+
+
+		private RateSampler(HashedTimingWheel timer) {
+			this.timer = timer;
+		}
+
+
+		@Override
+		public void run(HashedTimingWheel.Timeout timeout) {
+			long now = System.nanoTime();
+			long accepted = ServerMetrics.this.acceptedConnections.sum();
+			ServerMetrics.this.acceptRate = (accepted - this.lastAccepted) * 1e9 / Math.max(now - this.lastSample, 1);
+			this.lastAccepted = accepted;
+			this.lastSample = now;
+			this.timer.schedule(this, 1, TimeUnit.SECONDS);
+		}
+	}
+
+}
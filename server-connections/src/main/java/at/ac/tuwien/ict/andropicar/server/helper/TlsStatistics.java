@@ -0,0 +1,72 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the TLS-handshakes of a {@link at.ac.tuwien.ict.andropicar.server.Server} and records how long they took.<br>
+ * A handshake that resumed an earlier session skips the certificate of the server and its signature, so the share of resumed handshakes
+ * tells how much a reconnecting fleet costs. The counters can be updated by any number of threads concurrently.
+ */
+public class TlsStatistics {
+
+	/** The number of full handshakes. */
+	private final LongAdder fullHandshakes = new LongAdder();
+
+	/** The number of handshakes that resumed an earlier session. */
+	private final LongAdder resumedHandshakes = new LongAdder();
+
+	/** The number of handshakes that failed or timed out. */
+	private final LongAdder failedHandshakes = new LongAdder();
+
+	/** The time in nanoseconds that the full handshakes took. */
+	private final LatencyHistogram fullHandshakeTime = new LatencyHistogram();
+
+	/** The time in nanoseconds that the resumed handshakes took. */
+	private final LatencyHistogram resumedHandshakeTime = new LatencyHistogram();
+
+
+	/**
+	 * Counts a completed handshake.
+	 * @param resumed true, if an earlier session has been resumed, otherwise false.
+	 * @param time the time in nanoseconds that the handshake took.
+	 */
+	public void handshakeCompleted(boolean resumed, long time) {
+		if(resumed) {
+			this.resumedHandshakes.increment();
+			this.resumedHandshakeTime.record(time);
+		}
+		else {
+			this.fullHandshakes.increment();
+			this.fullHandshakeTime.record(time);
+		}
+	}
+
+	public void handshakeFailed() { this.failedHandshakes.increment(); }
+
+	/**
+	 * @return the number of full handshakes.
+	 */
+	public long getFullHandshakes() { return this.fullHandshakes.sum(); }
+
+	/**
+	 * @return the number of handshakes that resumed an earlier session.
+	 */
+	public long getResumedHandshakes() { return this.resumedHandshakes.sum(); }
+
+	/**
+	 * @return the number of handshakes that failed or timed out.
+	 */
+	public long getFailedHandshakes() { return this.failedHandshakes.sum(); }
+
+	/**
+	 * @return the time that the full handshakes took.
+	 */
+	public LatencySnapshot getFullHandshakeTime() { return this.fullHandshakeTime.getSnapshot(); }
+
+	/**
+	 * @return the time that the resumed handshakes took.
+	 */
+	public LatencySnapshot getResumedHandshakeTime() { return this.resumedHandshakeTime.getSnapshot(); }
+
+}
@@ -0,0 +1,116 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+
+/**
+ * A token bucket, which is used to limit the rate of events (e.g. messages, bytes or connection-attempts).<br>
+ * The bucket holds at most {@link #getCapacity()} tokens and is refilled continuously with {@link #getRefillRate()} tokens per second.
+ * An event of a certain cost may pass, if the bucket holds at least that many tokens, which allows short bursts up to the capacity.
+ */
+public class TokenBucket {
+
+	/** The maximum number of tokens in this bucket. */
+	private final double capacity;
+
+	/** The number of tokens that are added per nanosecond. */
+	private final double refillPerNano;
+
+	/** The number of tokens in this bucket at {@link #lastRefill}. Can be negative, if tokens have been reserved. */
+	private double tokens;
+
+	/** The point in time (see {@link System#nanoTime()}) when {@link #tokens} has last been updated. */
+	private long lastRefill;
+
+
+	/**
+	 * Creates a full bucket.
+	 * @param capacity the maximum number of tokens in this bucket, which is the maximum burst.
+	 * @param refillRate the number of tokens that are added per second.
+	 */
+	public TokenBucket(long capacity, long refillRate) {
+		if(capacity <= 0 || refillRate <= 0)
+			throw new IllegalArgumentException("capacity and refillRate must be greater than 0.");
+		this.capacity = capacity;
+		this.refillPerNano = refillRate / 1e9;
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+
+	/**
+	 * @return the maximum number of tokens in this bucket.
+	 */
+	public long getCapacity() {
+		return (long) this.capacity;
+	}
+
+	/**
+	 * @return the number of tokens that are added per second.
+	 */
+	public long getRefillRate() {
+		return Math.round(this.refillPerNano * 1e9);
+	}
+
+	/**
+	 * Takes the given number of tokens, if the bucket holds enough of them.
+	 * @param cost the number of tokens to be taken.
+	 * @return true, if the tokens have been taken, otherwise false.
+	 */
+	public synchronized boolean tryConsume(long cost) {
+		refill(System.nanoTime());
+		if(this.tokens < cost)
+			return false;
+		this.tokens -= cost;
+		return true;
+	}
+
+	/**
+	 * Takes the given number of tokens, if they are available within the passed maximum wait time, even if the bucket does not hold enough of them right now.
+	 * The caller then has to wait for the returned time before it may proceed.
+	 * @param cost the number of tokens to be taken.
+	 * @param maxWait the maximum time in nanoseconds that the caller is willing to wait.
+	 * @return the time in nanoseconds that the caller has to wait, or -1 if the tokens have not been taken, because that would take longer than maxWait.
+	 */
+	public synchronized long reserve(long cost, long maxWait) {
+		refill(System.nanoTime());
+		if(this.tokens >= cost) {
+			this.tokens -= cost;
+			return 0;
+		}
+		long wait = (long) Math.ceil((cost - this.tokens) / this.refillPerNano);
+		if(wait > maxWait)
+			return -1;
+		this.tokens -= cost;
+		return wait;
+	}
+
+	/**
+	 * Returns tokens that have been taken by {@link #tryConsume(long)} or {@link #reserve(long, long)}, but have not been used after all.
+	 * The bucket is not filled beyond its capacity.
+	 * @param cost the number of tokens to be returned.
+	 */
+	public synchronized void refund(long cost) {
+		refill(System.nanoTime());
+		this.tokens = Math.min(this.capacity, this.tokens + cost);
+	}
+
+	/**
+	 * @return true, if this bucket is full, which means that it has not been used for a while.
+	 */
+	public synchronized boolean isFull() {
+		refill(System.nanoTime());
+		return this.tokens >= this.capacity;
+	}
+
+	/**
+	 * Adds the tokens that have accumulated since the last refill.
+	 * @param now the current point in time (see {@link System#nanoTime()}).
+	 */
+	private void refill(long now) {
+		long elapsed = now - this.lastRefill;
+		if(elapsed <= 0)
+			return;
+		this.tokens = Math.min(this.capacity, this.tokens + elapsed * this.refillPerNano);
+		this.lastRefill = now;
+	}
+
+}
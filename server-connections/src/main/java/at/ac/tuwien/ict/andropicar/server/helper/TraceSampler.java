@@ -0,0 +1,84 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+
+
+/**
+ * Emits trace-events for a sample of the messages that the devices send, i.e. one out of every {@link #getInterval() interval} messages per connection.<br>
+ * The events are logged on the dedicated logger {@link #LOGGER_NAME} at level TRACE, as key-value-pairs with parameterized messages.
+ * Nothing is sampled, unless that logger is enabled (see src/dist/conf/log4j2.xml), so a disabled sampler costs one counter and one level-check per message.
+ * A sampled message is traced when it is received and again when its data is forwarded to the linked device, together with the forwarding latency.
+ */
+public class TraceSampler {
+
+	/** The name of the logger that the trace-events are logged on. */
+	public static final String LOGGER_NAME = "at.ac.tuwien.ict.andropicar.server.trace";
+
+	/** The number of messages per connection, out of which one is traced, or 0 if nothing is traced. */
+	private volatile int interval;
+
+	/** The logger that the trace-events are logged on. */
+	private static final Logger logger = LogManager.getLogger(TraceSampler.LOGGER_NAME);
+
+
+	/**
+	 * @param interval the number of messages per connection, out of which one is traced, or 0 to trace nothing.
+	 */
+	public TraceSampler(int interval) {
+		this.setInterval(interval);
+	}
+
+
+	/**
+	 * @return the number of messages per connection, out of which one is traced, or 0 if nothing is traced.
+	 */
+	public int getInterval() { return this.interval; }
+
+	/**
+	 * @param interval the number of messages per connection, out of which one is traced, or 0 to trace nothing.
+	 */
+	public void setInterval(int interval) { this.interval = Math.max(interval, 0); }
+
+	/**
+	 * @param sequence the number of messages that the connection has received, including the current one.
+	 * @return true, if the current message should be traced, otherwise false.
+	 */
+	public boolean sample(long sequence) {
+		int interval = this.interval;
+		return interval > 0 && sequence % interval == 0 && TraceSampler.logger.isTraceEnabled();
+	}
+
+	/**
+	 * Traces a received message.
+	 * @param connection the connection that has received the message.
+	 * @param length the number of characters that have been received.
+	 * @param message the received message.
+	 */
+	public void received(Connection connection, int length, String message) {
+		TraceSampler.logger.trace("event=received device={} id={} chars={} message={}", TraceSampler.typeOf(connection), connection.getDeviceId(), Unbox.box(length), message);
+	}
+
+	/**
+	 * Traces the forwarding of the data of a received message.
+	 * @param connection the connection that has received the message.
+	 * @param receiver the connection that the data has been forwarded to.
+	 * @param latency the time in nanoseconds between receiving the message and writing the data to the receiver.
+	 * @param message the forwarded data.
+	 */
+	public void forwarded(Connection connection, Connection receiver, long latency, Map<String, Object> message) {
+		TraceSampler.logger.trace("event=forwarded device={} id={} receiver={} latencyNanos={} message={}", TraceSampler.typeOf(connection), connection.getDeviceId(),
+				receiver.getDeviceId(), Unbox.box(latency), message);
+	}
+
+	private static String typeOf(Connection connection) {
+		return connection instanceof CarConnection ? "car" : "phone";
+	}
+
+}
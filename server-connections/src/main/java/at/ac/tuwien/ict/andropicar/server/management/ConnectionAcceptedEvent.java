@@ -0,0 +1,34 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted for every connection that has been accepted and admitted by a {@link at.ac.tuwien.ict.andropicar.server.ConnectionAcceptor}.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.ConnectionAccepted")
+@Label("Connection Accepted")
+@Category({"AndroPiCar", "Connections"})
+@Description("A connection of a device has been accepted and set up")
+@StackTrace(false)
+public class ConnectionAcceptedEvent extends Event {
+
+	/** The type of the device, i.e. "car" or "phone". */
+	@Label("Device Type")
+	private String deviceType;
+
+	/** The IP-address of the device. */
+	@Label("Address")
+	private String address;
+
+
+	public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+
+	public void setAddress(String address) { this.address = address; }
+
+}
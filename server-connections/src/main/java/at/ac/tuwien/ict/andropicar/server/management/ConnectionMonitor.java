@@ -0,0 +1,73 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.connections.ConnectionStatistics;
+import at.ac.tuwien.ict.andropicar.server.connections.PhoneConnection;
+
+
+/**
+ * Exposes the {@link ConnectionStatistics} of a registered {@link Connection} via JMX.
+ */
+public class ConnectionMonitor implements IConnectionMXBean {
+
+	/** The monitored connection. */
+	private final Connection connection;
+
+
+	/**
+	 * @param connection the connection to be monitored. Its device has to be registered already.
+	 */
+	public ConnectionMonitor(Connection connection) {
+		this.connection = connection;
+	}
+
+
+	@Override
+	public String getDeviceType() {
+		return this.connection instanceof CarConnection ? "Car" : "Phone";
+	}
+
+	@Override
+	public String getDeviceId() {
+		if(this.connection instanceof CarConnection)
+			return String.valueOf(((CarConnection) this.connection).getId());
+		return ((PhoneConnection) this.connection).getId();
+	}
+
+	@Override
+	public String getIpAddress() { return this.connection.getIpAddress(); }
+
+	@Override
+	public String getLinkedDeviceId() {
+		if(this.connection instanceof CarConnection) {
+			PhoneConnection phone = ((CarConnection) this.connection).getLinkedPhone();
+			return phone != null ? phone.getId() : null;
+		}
+		CarConnection car = ((PhoneConnection) this.connection).getLinkedCar();
+		return car != null ? String.valueOf(car.getId()) : null;
+	}
+
+	@Override
+	public long getMessagesIn() { return this.connection.getStatistics().getMessagesIn(); }
+
+	@Override
+	public long getBytesIn() { return this.connection.getStatistics().getBytesIn(); }
+
+	@Override
+	public long getMessagesOut() { return this.connection.getStatistics().getMessagesOut(); }
+
+	@Override
+	public long getBytesOut() { return this.connection.getStatistics().getBytesOut(); }
+
+	@Override
+	public long getMessagesConflated() { return this.connection.getStatistics().getMessagesConflated(); }
+
+	@Override
+	public double getSensorRate() {
+		if(this.connection instanceof PhoneConnection)
+			return ((PhoneConnection) this.connection).getSensorRate().getRate();
+		return 0;
+	}
+
+}
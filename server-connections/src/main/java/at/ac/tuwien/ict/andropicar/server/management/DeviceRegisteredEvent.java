@@ -0,0 +1,34 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted once a device has identified itself. Its duration is the time between starting the connections runnable and receiving the id.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.DeviceRegistered")
+@Label("Device Registered")
+@Category({"AndroPiCar", "Connections"})
+@Description("A device has identified itself")
+@StackTrace(false)
+public class DeviceRegisteredEvent extends Event {
+
+	/** The type of the device, i.e. "car" or "phone". */
+	@Label("Device Type")
+	private String deviceType;
+
+	/** The id of the device. */
+	@Label("Device Id")
+	private String deviceId;
+
+
+	public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+
+	public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+}
@@ -0,0 +1,51 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted whenever the data of a device has been forwarded to its linked device.<br>
+ * Its duration is the time that encoding and writing the data took, its latency the time since the data has been received.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.FrameForwarded")
+@Label("Frame Forwarded")
+@Category({"AndroPiCar", "Forwarding"})
+@Description("The data of a device has been forwarded to its linked device")
+@StackTrace(false)
+public class FrameForwardedEvent extends Event {
+
+	/** The type of the sending device, i.e. "car" or "phone". */
+	@Label("Device Type")
+	private String deviceType;
+
+	/** The id of the sending device. */
+	@Label("Device Id")
+	private String deviceId;
+
+	/** The number of characters that have been written to the linked device. */
+	@Label("Size")
+	@DataAmount(DataAmount.BYTES)
+	private int size;
+
+	/** The time between receiving the data and writing it to the linked device. */
+	@Label("Latency")
+	@Timespan(Timespan.NANOSECONDS)
+	private long latency;
+
+
+	public void setDeviceType(String deviceType) { this.deviceType = deviceType; }
+
+	public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+	public void setSize(int size) { this.size = size; }
+
+	public void setLatency(long latency) { this.latency = latency; }
+
+}
@@ -0,0 +1,59 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+
+/**
+ * The metrics of a single registered device, as they are exposed via JMX.
+ */
+public interface IConnectionMXBean {
+
+	/**
+	 * @return the kind of device (Car or Phone).
+	 */
+	String getDeviceType();
+
+	/**
+	 * @return the ID that the device has registered with.
+	 */
+	String getDeviceId();
+
+	/**
+	 * @return the IP-address of the device.
+	 */
+	String getIpAddress();
+
+	/**
+	 * @return the ID of the device that this device is linked to, or null.
+	 */
+	String getLinkedDeviceId();
+
+	/**
+	 * @return the number of messages that have been received from the device.
+	 */
+	long getMessagesIn();
+
+	/**
+	 * @return the number of bytes that have been received from the device.
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return the number of messages that have been sent to the device.
+	 */
+	long getMessagesOut();
+
+	/**
+	 * @return the number of bytes that have been sent to the device.
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return the number of messages that have not been sent to the device, because newer messages with the same values have replaced them.
+	 */
+	long getMessagesConflated();
+
+	/**
+	 * @return the rate in messages per second, that the sensor-data sent to a phone is currently limited to, or 0 if it is not limited or the device is a car.
+	 */
+	double getSensorRate();
+
+}
@@ -0,0 +1,97 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import java.util.Map;
+
+
+/**
+ * The operational metrics of a {@link at.ac.tuwien.ict.andropicar.server.Server}, as they are exposed via JMX.<br>
+ * All counters are totals since the server has been started. Latencies are in microseconds.
+ */
+public interface IServerMXBean {
+
+	/**
+	 * @return the number of operations that wait on the operation-queue to be processed by the main-thread.
+	 */
+	int getOperationQueueSize();
+
+	/**
+	 * @return the number of operations that have been processed by the main-thread, per type of operation.
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**
+	 * @return the median time between putting an operation on the operation-queue and finishing its processing, per type of operation.
+	 */
+	Map<String, Long> getOperationLatencyP50();
+
+	/**
+	 * @return the 99th percentile of the time between putting an operation on the operation-queue and finishing its processing, per type of operation.
+	 */
+	Map<String, Long> getOperationLatencyP99();
+
+	/**
+	 * @return the number of cars that have registered and are still connected.
+	 */
+	int getRegisteredCars();
+
+	/**
+	 * @return the number of phones that have registered and are still connected.
+	 */
+	int getRegisteredPhones();
+
+	/**
+	 * @return the number of connections whose device has not identified itself yet.
+	 */
+	int getUnidentifiedConnections();
+
+	/**
+	 * @return the number of links between phones and cars.
+	 */
+	int getActiveLinks();
+
+	/**
+	 * @return the number of messages that have been received from all devices.
+	 */
+	long getMessagesIn();
+
+	/**
+	 * @return the number of bytes that have been received from all devices.
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return the number of messages that have been sent to all devices.
+	 */
+	long getMessagesOut();
+
+	/**
+	 * @return the number of bytes that have been sent to all devices.
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return the number of sensor-messages that have not been sent to a phone, because newer messages with the same values have replaced them.
+	 */
+	long getMessagesConflated();
+
+	/**
+	 * @return the average time in nanoseconds that decoding a message took.
+	 */
+	long getAverageDecodeTime();
+
+	/**
+	 * @return the average time in nanoseconds that encoding a message took.
+	 */
+	long getAverageEncodeTime();
+
+	/**
+	 * @return the number of connections that have been accepted.
+	 */
+	long getAcceptedConnections();
+
+	/**
+	 * @return the number of connections that have been accepted per second, within the last second.
+	 */
+	double getAcceptRate();
+
+}
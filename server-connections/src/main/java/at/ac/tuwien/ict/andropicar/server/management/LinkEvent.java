@@ -0,0 +1,42 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted whenever a phone is linked to a car or its link is terminated.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.Link")
+@Label("Link")
+@Category({"AndroPiCar", "Connections"})
+@Description("A phone has been linked to a car, or its link has been terminated")
+@StackTrace(false)
+public class LinkEvent extends Event {
+
+	/** The id of the phone. */
+	@Label("Phone Id")
+	private String phoneId;
+
+	/** The id of the car, or 0 if the link has been terminated. */
+	@Label("Car Id")
+	private long carId;
+
+	/** The time between the link-request of the phone and establishing the link, or 0 if the link has been terminated. */
+	@Label("Setup Time")
+	@Timespan(Timespan.NANOSECONDS)
+	private long setupTime;
+
+
+	public void setPhoneId(String phoneId) { this.phoneId = phoneId; }
+
+	public void setCarId(long carId) { this.carId = carId; }
+
+	public void setSetupTime(long setupTime) { this.setupTime = setupTime; }
+
+}
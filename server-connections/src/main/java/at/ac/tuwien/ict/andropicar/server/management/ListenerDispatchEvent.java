@@ -0,0 +1,34 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted whenever a batch of data-sets has been delivered to a listener. Its duration is the time that the listener took.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.ListenerDispatch")
+@Label("Listener Dispatch")
+@Category({"AndroPiCar", "Listeners"})
+@Description("A batch of data-sets has been delivered to a listener")
+@StackTrace(false)
+public class ListenerDispatchEvent extends Event {
+
+	/** The class of the listener. */
+	@Label("Listener")
+	private Class<?> listener;
+
+	/** The number of data-sets in the batch. */
+	@Label("Batch Size")
+	private int batchSize;
+
+
+	public void setListener(Class<?> listener) { this.listener = listener; }
+
+	public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+}
@@ -0,0 +1,123 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+
+
+/**
+ * Registers the MBeans of a {@link Server} and of its registered connections at the platform MBeanServer, so that they can be monitored via JMX (e.g. with jconsole).<br>
+ * The server is registered as {@value #DOMAIN}:type=Server, every registered device as {@value #DOMAIN}:type=Connection,device=Car|Phone,id=...
+ * The MBeans only read counters that are updated anyway, so monitoring does not slow down the server.<br>
+ * The connection-MBeans are registered and unregistered by the main-thread only.
+ */
+public class ManagementAgent {
+
+	/** The domain of all MBeans of the server. */
+	public static final String DOMAIN = "at.ac.tuwien.ict.andropicar.server";
+
+	/** The MBeanServer that the MBeans are registered at. */
+	private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+	/** The monitor of the server. */
+	private final ServerMonitor serverMonitor;
+
+	/** The name of the server-MBean, or null if it is not registered. */
+	private ObjectName serverName = null;
+
+	/** The names of the MBeans of all registered connections. */
+	private final HashMap<Connection, ObjectName> connectionNames = new HashMap<>();
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ManagementAgent.class);
+
+
+	/**
+	 * @param server the server to be monitored.
+	 * @param metrics the metrics of the server.
+	 */
+	public ManagementAgent(Server server, ServerMetrics metrics) {
+		this.serverMonitor = new ServerMonitor(server, metrics);
+	}
+
+
+	/**
+	 * Registers the MBean of the server.
+	 * @return true, if the MBean has been registered, otherwise false.
+	 */
+	public boolean start() {
+		try {
+			ObjectName name = new ObjectName(ManagementAgent.DOMAIN + ":type=Server");
+			this.mBeanServer.registerMBean(this.serverMonitor, name);
+			this.serverName = name;
+			return true;
+		} catch(JMException jme) {
+			ManagementAgent.logger.warn("Unable to register the server at the MBeanServer. The server cannot be monitored via JMX.", jme);
+		}
+		return false;
+	}
+
+	/**
+	 * Registers the MBean of a connection, whose device has registered itself.
+	 * @param connection the {@link Connection} to be registered.
+	 */
+	public void register(Connection connection) {
+		if(this.serverName == null || this.connectionNames.containsKey(connection))
+			return;
+		ConnectionMonitor monitor = new ConnectionMonitor(connection);
+		try {
+			ObjectName name = new ObjectName(ManagementAgent.DOMAIN + ":type=Connection,device=" + monitor.getDeviceType() + ",id=" + ObjectName.quote(monitor.getDeviceId()));
+			this.mBeanServer.registerMBean(monitor, name);
+			this.connectionNames.put(connection, name);
+		} catch(JMException jme) {
+			ManagementAgent.logger.warn("Unable to register a " + (connection instanceof CarConnection ? "car" : "phone") + " at the MBeanServer.", jme);
+		}
+	}
+
+	/**
+	 * Unregisters the MBean of a connection, that has been closed.
+	 * @param connection the {@link Connection} to be unregistered.
+	 */
+	public void unregister(Connection connection) {
+		ObjectName name = this.connectionNames.remove(connection);
+		if(name != null)
+			unregister(name);
+	}
+
+	/**
+	 * Unregisters the MBeans of the server and of all connections.
+	 */
+	public void stop() {
+		for(ObjectName name : this.connectionNames.values())
+			unregister(name);
+		this.connectionNames.clear();
+		if(this.serverName != null)
+			unregister(this.serverName);
+		this.serverName = null;
+	}
+
+	/**
+	 * Unregisters an MBean, ignoring MBeans that are not registered anymore.
+	 * @param name the name of the MBean.
+	 */
+	private void unregister(ObjectName name) {
+		try {
+			if(this.mBeanServer.isRegistered(name))
+				this.mBeanServer.unregisterMBean(name);
+		} catch(JMException jme) {
+			ManagementAgent.logger.warn("Unable to unregister " + name + " from the MBeanServer.", jme);
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A Java Flight Recorder event, that is emitted for every operation that the main-thread of the server has processed.<br>
+ * Its duration is the time that processing the operation took, its wait time the time that the operation spent on the operation-queue.
+ */
+@Name("at.ac.tuwien.ict.andropicar.server.Operation")
+@Label("Operation")
+@Category({"AndroPiCar", "Main Thread"})
+@Description("The main-thread has processed an operation of the operation-queue")
+@StackTrace(false)
+public class OperationEvent extends Event {
+
+	/** The type of the operation (see {@link at.ac.tuwien.ict.andropicar.server.helper.EOperationType}). */
+	@Label("Operation Type")
+	private String operationType;
+
+	/** The time between putting the operation on the operation-queue and starting to process it. */
+	@Label("Wait Time")
+	@Timespan(Timespan.NANOSECONDS)
+	private long waitTime;
+
+
+	public void setOperationType(String operationType) { this.operationType = operationType; }
+
+	public void setWaitTime(long waitTime) { this.waitTime = waitTime; }
+
+}
@@ -0,0 +1,105 @@
+package at.ac.tuwien.ict.andropicar.server.management;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.ServerMetrics;
+
+
+/**
+ * Exposes the state of a {@link Server} and its {@link ServerMetrics} via JMX. The values are read when they are requested.
+ */
+public class ServerMonitor implements IServerMXBean {
+
+	/** The monitored server. */
+	private final Server server;
+
+	/** The metrics of the monitored server. */
+	private final ServerMetrics metrics;
+
+
+	/**
+	 * @param server the server to be monitored.
+	 * @param metrics the metrics of the server.
+	 */
+	public ServerMonitor(Server server, ServerMetrics metrics) {
+		this.server = server;
+		this.metrics = metrics;
+	}
+
+
+	@Override
+	public int getOperationQueueSize() { return this.server.getOperationQueueSize(); }
+
+	@Override
+	public Map<String, Long> getOperationCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for(EOperationType operationType : EOperationType.values())
+			counts.put(operationType.name(), this.metrics.getOperationLatency(operationType).getCount());
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getOperationLatencyP50() {
+		Map<String, Long> latencies = new LinkedHashMap<>();
+		for(EOperationType operationType : EOperationType.values()) {
+			LatencyHistogram histogram = this.metrics.getOperationLatency(operationType);
+			latencies.put(operationType.name(), histogram.getSnapshot().getP50(TimeUnit.MICROSECONDS));
+		}
+		return latencies;
+	}
+
+	@Override
+	public Map<String, Long> getOperationLatencyP99() {
+		Map<String, Long> latencies = new LinkedHashMap<>();
+		for(EOperationType operationType : EOperationType.values()) {
+			LatencyHistogram histogram = this.metrics.getOperationLatency(operationType);
+			latencies.put(operationType.name(), histogram.getSnapshot().getP99(TimeUnit.MICROSECONDS));
+		}
+		return latencies;
+	}
+
+	@Override
+	public int getRegisteredCars() { return this.server.getRegisteredCarCount(); }
+
+	@Override
+	public int getRegisteredPhones() { return this.server.getRegisteredPhoneCount(); }
+
+	@Override
+	public int getUnidentifiedConnections() { return this.server.getUnidentifiedDeviceCount(); }
+
+	@Override
+	public int getActiveLinks() { return this.server.getActiveLinkCount(); }
+
+	@Override
+	public long getMessagesIn() { return this.metrics.getMessagesIn(); }
+
+	@Override
+	public long getBytesIn() { return this.metrics.getBytesIn(); }
+
+	@Override
+	public long getMessagesOut() { return this.metrics.getMessagesOut(); }
+
+	@Override
+	public long getBytesOut() { return this.metrics.getBytesOut(); }
+
+	@Override
+	public long getMessagesConflated() { return this.metrics.getMessagesConflated(); }
+
+	@Override
+	public long getAverageDecodeTime() { return this.metrics.getAverageDecodeTime(); }
+
+	@Override
+	public long getAverageEncodeTime() { return this.metrics.getAverageEncodeTime(); }
+
+	@Override
+	public long getAcceptedConnections() { return this.metrics.getAcceptedConnections(); }
+
+	@Override
+	public double getAcceptRate() { return this.metrics.getAcceptRate(); }
+
+}
@@ -0,0 +1,9 @@
+package at.ac.tuwien.ict.andropicar.server.recorder;
+
+
+/**
+ * The kind of device that a recorded value has been received from. The ordinal is stored in every record, so new values have to be appended.
+ */
+public enum ETelemetrySource {
+	CAR, PHONE
+}
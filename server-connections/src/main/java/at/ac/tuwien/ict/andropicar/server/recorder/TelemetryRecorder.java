@@ -0,0 +1,504 @@
+package at.ac.tuwien.ict.andropicar.server.recorder;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * The TelemetryRecorder appends the values that devices send (e.g. the sensor-data of cars and the control-data of phones) to binary segment files,
+ * so that incidents can be analysed afterwards.<br>
+ * <br>
+ * Every segment file is memory-mapped with a fixed size and consists of a header of {@link #HEADER_SIZE} bytes, followed by records of {@link #RECORD_SIZE} bytes each:
+ * <table border="1" summary="Layout of a record">
+ * <tr><th>Offset</th><th>Type</th><th>Content</th></tr>
+ * <tr><td>0</td><td>long</td><td>the point in time (milliseconds since the epoch) when the value has been received</td></tr>
+ * <tr><td>8</td><td>long</td><td>the cars ID, or 0 if a phone was not linked to a car</td></tr>
+ * <tr><td>16</td><td>int</td><td>the index of the phones ID in the phone-dictionary ({@link #PHONE_DICTIONARY}), or -1</td></tr>
+ * <tr><td>20</td><td>short</td><td>the index of the keyword (see {@link Keywords#indexOf(String)})</td></tr>
+ * <tr><td>22</td><td>short</td><td>the ordinal of the {@link ETelemetrySource}</td></tr>
+ * <tr><td>24</td><td>long</td><td>the value</td></tr>
+ * </table>
+ * The header holds a magic number, the format version, the record size, the start time of the segment and the number of records, which is updated with every record.
+ * A new segment is started, once the current one is full or older than the maximum segment duration. The phone-dictionary is shared by all segments of a directory
+ * and only written to when a phone is recorded for the first time.<br>
+ * <br>
+ * Recording a value only writes to the mapped memory of the current segment, so it is cheap enough to be done by the threads of the connections.
+ * All file-operations are done by the thread of the recorder: it opens the next segment in advance and touches its pages, so that rolling a segment only swaps
+ * the mapped buffers, writes full segments to the disk and closes them, and appends new phone-IDs to the phone-dictionary. If the next segment is not ready yet,
+ * the current one is written to until it is full, and the values that do not fit are dropped (see {@link #getDroppedRecords()}).
+ * Recording is disabled, if a segment cannot be created. Segments can be read with the {@link TelemetrySegmentReader}.
+ */
+public class TelemetryRecorder implements Closeable {
+
+	/** The magic number at the beginning of every segment ("TLM1"). */
+	public static final int MAGIC = 0x544C4D31;
+
+	/** The version of the format of the segments. */
+	public static final short VERSION = 1;
+
+	/** The size of the header of every segment in bytes. */
+	public static final int HEADER_SIZE = 32;
+
+	/** The size of every record in bytes. */
+	public static final int RECORD_SIZE = 32;
+
+	/** The offset of the start time within the header. */
+	static final int START_TIME_OFFSET = 8;
+
+	/** The offset of the number of records within the header. */
+	static final int RECORD_COUNT_OFFSET = 16;
+
+	/** The file-extension of the segments. */
+	public static final String SEGMENT_SUFFIX = ".tlm";
+
+	/** The name of the phone-dictionary, which holds one phone-ID per line. The line number (starting at 0) is the index used in the records. */
+	public static final String PHONE_DICTIONARY = "phones.dict";
+
+	/** The distance in bytes, at which the pages of a new segment are touched before it is used. */
+	private static final int PAGE_SIZE = 4096;
+
+	/** The maximum time in milliseconds, that the thread of the recorder waits for work, before it checks if it should stop. */
+	private static final long POLL_INTERVAL = 100;
+
+	/** The directory that the segments are written to. */
+	private final File directory;
+
+	/** The size of every segment in bytes. */
+	private final long segmentSize;
+
+	/** The maximum time in milliseconds that a segment is written to. */
+	private final long segmentDuration;
+
+	/** The indices of all phone-IDs in the phone-dictionary. Guarded by this. */
+	private final Map<String, Integer> phoneIndices = new HashMap<>();
+
+	/** Appends new phone-IDs to the phone-dictionary. Only used by the thread of the recorder. */
+	private final Writer dictionaryWriter;
+
+	/** The work of the thread of the recorder: full {@link Segment}s to be closed and new phone-IDs (Strings) to be appended to the phone-dictionary. */
+	private final LinkedBlockingQueue<Object> pendingWrites = new LinkedBlockingQueue<>();
+
+	/** The thread of the recorder. */
+	private final Thread thread;
+
+	/** The segment that is written to, or null if recording is disabled. Guarded by this. */
+	private Segment segment = null;
+
+	/** The segment that has been opened in advance, or null if it is not ready yet. Guarded by this. */
+	private Segment nextSegment = null;
+
+	/** True, if the next segment could not be created, which disables recording once the current segment is full. Guarded by this. */
+	private boolean failed = false;
+
+	/** The point in time (milliseconds since the epoch) when the current segment has to be rolled. Guarded by this. */
+	private long segmentEnd = 0;
+
+	/** The number of records in the current segment. Guarded by this. */
+	private long segmentRecords = 0;
+
+	/** The sequence number of the next segment. Only used by the thread of the recorder, once it has been started. */
+	private int segmentSequence = 0;
+
+	/** The total number of records. Guarded by this. */
+	private long recordCount = 0;
+
+	/** The number of values that have been dropped, because the next segment has not been ready in time. Guarded by this. */
+	private long droppedRecords = 0;
+
+	/** The flag, that indicates, if the thread of the recorder should continue to be executed or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(TelemetryRecorder.class);
+
+
+	/**
+	 * Creates a recorder and its first segment and starts the thread of the recorder.
+	 * @param directory the directory that the segments are written to. It is created, if it does not exist. An existing phone-dictionary is continued.
+	 * @param segmentSize the size of every segment in bytes.
+	 * @param segmentDuration the maximum time that a segment is written to.
+	 * @param unit the {@link TimeUnit} of segmentDuration.
+	 * @throws IOException if the directory, the phone-dictionary or the first segment could not be created.
+	 */
+	public TelemetryRecorder(File directory, long segmentSize, long segmentDuration, TimeUnit unit) throws IOException {
+		if(segmentSize < HEADER_SIZE + RECORD_SIZE || segmentSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("segmentSize must be between " + (HEADER_SIZE + RECORD_SIZE) + " and " + Integer.MAX_VALUE + ": " + segmentSize);
+		if(segmentDuration <= 0)
+			throw new IllegalArgumentException("segmentDuration must be greater than 0: " + segmentDuration);
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the directory " + directory + ".");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segmentDuration = unit.toMillis(segmentDuration);
+		List<String> phoneIds = TelemetrySegmentReader.readPhoneDictionary(directory);
+		for(int i = 0; i < phoneIds.size(); i++)
+			this.phoneIndices.put(phoneIds.get(i), i);
+		this.dictionaryWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, PHONE_DICTIONARY), true), StandardCharsets.UTF_8));
+		long now = System.currentTimeMillis();
+		try {
+			Segment first = openSegment(now);
+			first.touch();
+			activate(first, now);
+		} catch(IOException ioe) {
+			this.dictionaryWriter.close();
+			throw ioe;
+		}
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processPendingWrites();
+			}
+		}, "Telemetry recorder");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+
+	/**
+	 * @return the directory that the segments are written to.
+	 */
+	public File getDirectory() { return this.directory; }
+
+	/**
+	 * @return the total number of records.
+	 */
+	public synchronized long getRecordCount() { return this.recordCount; }
+
+	/**
+	 * @return the number of values that have been dropped, because the next segment has not been ready in time.
+	 */
+	public synchronized long getDroppedRecords() { return this.droppedRecords; }
+
+	/**
+	 * @return true, if values are recorded, false if recording has been disabled due to an error or the recorder has been closed.
+	 */
+	public synchronized boolean isRecording() { return this.segment != null; }
+
+	/**
+	 * Records one value.
+	 * @param time the point in time (milliseconds since the epoch) when the value has been received.
+	 * @param source the kind of device that the value has been received from.
+	 * @param carId the cars ID, or 0.
+	 * @param phoneId the phones ID, or null.
+	 * @param fieldId the index of the keyword (see {@link Keywords#indexOf(String)}).
+	 * @param value the value.
+	 * @return true, if the value has been recorded, false if it has been dropped or recording is disabled.
+	 */
+	public synchronized boolean record(long time, ETelemetrySource source, long carId, String phoneId, int fieldId, long value) {
+		if(this.segment == null)
+			return false;
+		return append(time, source, carId, phoneIndex(phoneId), fieldId, value);
+	}
+
+	/**
+	 * Records all values of the passed data-set, whose keyword is one of the passed keywords and that are numbers.
+	 * @param source the kind of device that the data-set has been received from.
+	 * @param carId the cars ID, or 0.
+	 * @param phoneId the phones ID, or null.
+	 * @param dataset the data-set.
+	 * @param keywords the keywords of the values to be recorded.
+	 * @return the number of values that have been recorded.
+	 */
+	public synchronized int record(ETelemetrySource source, long carId, String phoneId, Map<String, Object> dataset, String[] keywords) {
+		if(this.segment == null)
+			return 0;
+		long time = System.currentTimeMillis();
+		int phoneIndex = -2;
+		int count = 0;
+		for(String keyword : keywords) {
+			Object value = dataset.get(keyword);
+			if(!(value instanceof Long))
+				continue;
+			if(phoneIndex == -2)
+				phoneIndex = phoneIndex(phoneId);
+			if(!append(time, source, carId, phoneIndex, Keywords.indexOf(keyword), (Long) value))
+				break;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the current segment to the disk. Does not hold up recording.
+	 */
+	public void flush() {
+		Segment current;
+		synchronized(this) {
+			current = this.segment;
+		}
+		if(current != null)
+			current.buffer.force();
+	}
+
+	/**
+	 * Stops recording, waits until the thread of the recorder has written all segments to the disk and closes the phone-dictionary.
+	 * Values that are recorded afterwards are discarded.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(this.segment != null)
+				this.pendingWrites.add(this.segment);
+			if(this.nextSegment != null)
+				this.nextSegment.discard();
+			this.segment = null;
+			this.nextSegment = null;
+		}
+		this.keepRunning = false;
+		try {
+			this.thread.join();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Called by the thread of the recorder. Opens the next segment in advance, closes full segments and appends new phone-IDs to the phone-dictionary,
+	 * until the recorder is closed.
+	 */
+	private void processPendingWrites() {
+		while(this.keepRunning || !this.pendingWrites.isEmpty()) {
+			prepareNextSegment();
+			Object pendingWrite;
+			try {
+				pendingWrite = this.pendingWrites.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException ie) {
+				break;
+			}
+			if(pendingWrite instanceof Segment)
+				((Segment) pendingWrite).close();
+			else if(pendingWrite instanceof String)
+				writePhoneId((String) pendingWrite);
+		}
+		try {
+			this.dictionaryWriter.close();
+		} catch(IOException ioe) {
+			TelemetryRecorder.logger.warn("Could not close the phone-dictionary.", ioe);
+		}
+		synchronized(this) {
+			// the recorder may have been closed while the next segment was opened
+			if(this.nextSegment != null)
+				this.nextSegment.discard();
+			this.nextSegment = null;
+		}
+	}
+
+	/**
+	 * Appends one record to the current segment, rolling it if necessary.
+	 * @return true, if the record has been appended, false if it has been dropped or recording has been disabled.
+	 */
+	private boolean append(long time, ETelemetrySource source, long carId, int phoneIndex, int fieldId, long value) {
+		if((this.segment.buffer.remaining() < RECORD_SIZE || time - this.segmentEnd >= 0) && !roll(time))
+			return false;
+		MappedByteBuffer buffer = this.segment.buffer;
+		buffer.putLong(time);
+		buffer.putLong(carId);
+		buffer.putInt(phoneIndex);
+		buffer.putShort((short) fieldId);
+		buffer.putShort((short) source.ordinal());
+		buffer.putLong(value);
+		buffer.putLong(RECORD_COUNT_OFFSET, ++this.segmentRecords);
+		this.recordCount++;
+		return true;
+	}
+
+	/**
+	 * Replaces the current segment with the one that has been opened in advance, and hands the current one to the thread of the recorder to be closed.
+	 * If the next segment is not ready yet, the current one is kept, as long as it is not full.
+	 * @param time the point in time (milliseconds since the epoch) of the record that is about to be appended.
+	 * @return true, if the record can be appended to the (new) current segment, otherwise false.
+	 */
+	private boolean roll(long time) {
+		if(this.nextSegment == null) {
+			if(this.segment.buffer.remaining() >= RECORD_SIZE)
+				return true;
+			if(this.failed) {
+				TelemetryRecorder.logger.error("The segment is full and no new segment could be created. Recording is disabled.");
+				this.pendingWrites.add(this.segment);
+				this.segment = null;
+			}
+			else {
+				this.droppedRecords++;
+			}
+			return false;
+		}
+		this.pendingWrites.add(this.segment);
+		activate(this.nextSegment, time);
+		this.nextSegment = null;
+		return true;
+	}
+
+	/**
+	 * Makes the passed segment the current one.
+	 * @param next the segment that has been opened.
+	 * @param startTime the point in time (milliseconds since the epoch) when the segment is started.
+	 */
+	private synchronized void activate(Segment next, long startTime) {
+		next.buffer.putLong(START_TIME_OFFSET, startTime);
+		this.segment = next;
+		this.segmentEnd = startTime + this.segmentDuration;
+		this.segmentRecords = 0;
+	}
+
+	/**
+	 * @param phoneId the phones ID, or null.
+	 * @return the index of the phones ID in the phone-dictionary, or -1 if the phones ID is null.
+	 * Unknown phone-IDs are handed to the thread of the recorder, which appends them to the dictionary.
+	 */
+	private int phoneIndex(String phoneId) {
+		if(phoneId == null)
+			return -1;
+		Integer index = this.phoneIndices.get(phoneId);
+		if(index != null)
+			return index;
+		index = this.phoneIndices.size();
+		this.phoneIndices.put(phoneId, index);
+		this.pendingWrites.add(phoneId);
+		return index;
+	}
+
+	/**
+	 * Appends a phone-ID to the phone-dictionary. The dictionary is flushed, once there are no more pending writes.
+	 * @param phoneId the phones ID.
+	 */
+	private void writePhoneId(String phoneId) {
+		try {
+			this.dictionaryWriter.write(phoneId);
+			this.dictionaryWriter.write('\n');
+			if(this.pendingWrites.isEmpty())
+				this.dictionaryWriter.flush();
+		} catch(IOException ioe) {
+			TelemetryRecorder.logger.error("Could not write the phone-ID " + phoneId + " to the phone-dictionary.", ioe);
+		}
+	}
+
+	/**
+	 * Opens the next segment in advance, unless it is ready already, the recorder is closed or a segment could not be created before.
+	 */
+	private void prepareNextSegment() {
+		synchronized(this) {
+			if(this.nextSegment != null || this.segment == null || this.failed)
+				return;
+		}
+		Segment next;
+		try {
+			next = openSegment(System.currentTimeMillis());
+		} catch(IOException ioe) {
+			TelemetryRecorder.logger.error("Could not create a new segment in " + this.directory + ". Recording is disabled, once the current segment is full.", ioe);
+			synchronized(this) {
+				this.failed = true;
+			}
+			return;
+		}
+		next.touch();
+		synchronized(this) {
+			if(this.segment != null)
+				this.nextSegment = next;
+			else
+				next.discard();
+		}
+	}
+
+	/**
+	 * Creates and maps a new segment and writes its header. The start time is written, once the segment is used.
+	 * @param creationTime the point in time (milliseconds since the epoch) when the segment is created, which is part of its name.
+	 * @return the new segment.
+	 * @throws IOException if the segment could not be created.
+	 */
+	private Segment openSegment(long creationTime) throws IOException {
+		File file = new File(this.directory, String.format("segment-%013d-%06d%s", creationTime, this.segmentSequence++, SEGMENT_SUFFIX));
+		Segment segment = new Segment(file, this.segmentSize);
+		segment.buffer.putInt(MAGIC);
+		segment.buffer.putShort(VERSION);
+		segment.buffer.putShort((short) RECORD_SIZE);
+		segment.buffer.putLong(creationTime);
+		segment.buffer.putLong(0);
+		segment.buffer.position(HEADER_SIZE);
+		TelemetryRecorder.logger.debug("Created the segment " + file + ".");
+		return segment;
+	}
+
+
+	/**
+	 * A segment file and its mapped content.
+	 */
+	private static class Segment {
+
+		/** The file of the segment. */
+		private final File file;
+
+		/** The opened file of the segment. */
+		private final RandomAccessFile segmentFile;
+
+		/** The mapped content of the segment. */
+		private final MappedByteBuffer buffer;
+
+
+		/**
+		 * Creates the file of the segment and maps it.
+		 * @throws IOException if the file could not be created or mapped.
+		 */
+		private Segment(File file, long size) throws IOException {
+			this.file = file;
+			this.segmentFile = new RandomAccessFile(file, "rw");
+			try {
+				this.buffer = this.segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch(IOException ioe) {
+				this.segmentFile.close();
+				throw ioe;
+			}
+		}
+
+
+		/**
+		 * Writes to every page of the segment after its header, so that appending records does not cause page-faults.
+		 */
+		private void touch() {
+			for(int i = HEADER_SIZE; i < this.buffer.capacity(); i += PAGE_SIZE)
+				this.buffer.put(i, (byte) 0);
+		}
+
+		/**
+		 * Writes the segment to the disk and closes its file. The mapping is released, once the buffer has been garbage-collected.
+		 */
+		private void close() {
+			this.buffer.force();
+			try {
+				this.segmentFile.close();
+			} catch(IOException ioe) {
+				TelemetryRecorder.logger.warn("Could not close the segment " + this.file + ".", ioe);
+			}
+		}
+
+		/**
+		 * Closes and deletes a segment that has never been used.
+		 */
+		private void discard() {
+			try {
+				this.segmentFile.close();
+			} catch(IOException ioe) {}
+			if(!this.file.delete())
+				TelemetryRecorder.logger.warn("Could not delete the unused segment " + this.file + ".");
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package at.ac.tuwien.ict.andropicar.server.recorder;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * Reads the records of one segment that has been written by a {@link TelemetryRecorder}, one after another:
+ * <pre>
+ * List&lt;String&gt; phoneIds = TelemetrySegmentReader.readPhoneDictionary(directory);
+ * for(File file : TelemetrySegmentReader.listSegments(directory)) {
+ *     try(TelemetrySegmentReader reader = new TelemetrySegmentReader(file, phoneIds)) {
+ *         while(reader.next())
+ *             ... reader.getTime(), reader.getCarId(), reader.getKeyword(), reader.getValue() ...
+ *     }
+ * }
+ * </pre>
+ */
+public class TelemetrySegmentReader implements Closeable {
+
+	/** The file of the segment. */
+	private final RandomAccessFile segmentFile;
+
+	/** The mapped content of the segment. */
+	private final MappedByteBuffer segment;
+
+	/** The phone-IDs, by their index. */
+	private final List<String> phoneIds;
+
+	/** The point in time (milliseconds since the epoch) when the segment has been started. */
+	private final long startTime;
+
+	/** The number of records in the segment. */
+	private final long recordCount;
+
+	/** The number of records that have been read. */
+	private long position = 0;
+
+	/** The fields of the current record. */
+	private long time, carId, value;
+	private int phoneIndex;
+	private short fieldId, source;
+
+
+	/**
+	 * Opens a segment and reads its header.
+	 * @param file the file of the segment.
+	 * @param phoneIds the phone-IDs, by their index (see {@link #readPhoneDictionary(File)}).
+	 * @throws IOException if the file could not be read or is not a segment.
+	 */
+	public TelemetrySegmentReader(File file, List<String> phoneIds) throws IOException {
+		this.phoneIds = phoneIds;
+		this.segmentFile = new RandomAccessFile(file, "r");
+		try {
+			this.segment = this.segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.segmentFile.length());
+			if(this.segment.capacity() < TelemetryRecorder.HEADER_SIZE || this.segment.getInt() != TelemetryRecorder.MAGIC)
+				throw new IOException(file + " is not a segment.");
+			short version = this.segment.getShort();
+			short recordSize = this.segment.getShort();
+			if(version != TelemetryRecorder.VERSION || recordSize != TelemetryRecorder.RECORD_SIZE)
+				throw new IOException(file + " has an unsupported version (" + version + ").");
+			this.startTime = this.segment.getLong();
+			long maxRecords = (this.segment.capacity() - TelemetryRecorder.HEADER_SIZE) / TelemetryRecorder.RECORD_SIZE;
+			this.recordCount = Math.min(this.segment.getLong(), maxRecords);
+			this.segment.position(TelemetryRecorder.HEADER_SIZE);
+		} catch(IOException ioe) {
+			this.segmentFile.close();
+			throw ioe;
+		}
+	}
+
+
+	/**
+	 * @param directory the directory of a {@link TelemetryRecorder}.
+	 * @return all segments in the directory, in the order they have been written.
+	 */
+	public static File[] listSegments(File directory) {
+		File[] segments = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(TelemetryRecorder.SEGMENT_SUFFIX);
+			}
+		});
+		if(segments == null)
+			return new File[0];
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @param directory the directory of a {@link TelemetryRecorder}.
+	 * @return the phone-IDs, by their index, or an empty list if the directory has no phone-dictionary.
+	 * @throws IOException if the phone-dictionary could not be read.
+	 */
+	public static List<String> readPhoneDictionary(File directory) throws IOException {
+		List<String> phoneIds = new ArrayList<>();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(directory, TelemetryRecorder.PHONE_DICTIONARY)), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = reader.readLine()) != null)
+				phoneIds.add(line);
+		} catch(FileNotFoundException fnfe) {
+			return Collections.emptyList();
+		}
+		return phoneIds;
+	}
+
+	/**
+	 * @return the point in time (milliseconds since the epoch) when the segment has been started.
+	 */
+	public long getStartTime() { return this.startTime; }
+
+	/**
+	 * @return the number of records in the segment.
+	 */
+	public long getRecordCount() { return this.recordCount; }
+
+	/**
+	 * Moves to the next record.
+	 * @return true, if there was another record, otherwise false.
+	 */
+	public boolean next() {
+		if(this.position >= this.recordCount)
+			return false;
+		this.time = this.segment.getLong();
+		this.carId = this.segment.getLong();
+		this.phoneIndex = this.segment.getInt();
+		this.fieldId = this.segment.getShort();
+		this.source = this.segment.getShort();
+		this.value = this.segment.getLong();
+		this.position++;
+		return true;
+	}
+
+	/**
+	 * @return the point in time (milliseconds since the epoch) when the value of the current record has been received.
+	 */
+	public long getTime() { return this.time; }
+
+	/**
+	 * @return the cars ID of the current record, or 0.
+	 */
+	public long getCarId() { return this.carId; }
+
+	/**
+	 * @return the phones ID of the current record, or null.
+	 */
+	public String getPhoneId() {
+		return this.phoneIndex >= 0 && this.phoneIndex < this.phoneIds.size() ? this.phoneIds.get(this.phoneIndex) : null;
+	}
+
+	/**
+	 * @return the index of the keyword of the current record (see {@link Keywords#indexOf(String)}).
+	 */
+	public int getFieldId() { return this.fieldId; }
+
+	/**
+	 * @return the keyword of the current record.
+	 */
+	public String getKeyword() { return Keywords.keywordAt(this.fieldId); }
+
+	/**
+	 * @return the kind of device that the value of the current record has been received from.
+	 */
+	public ETelemetrySource getSource() {
+		return this.source >= 0 && this.source < ETelemetrySource.values().length ? ETelemetrySource.values()[this.source] : null;
+	}
+
+	/**
+	 * @return the value of the current record.
+	 */
+	public long getValue() { return this.value; }
+
+	@Override
+	public void close() throws IOException {
+		this.segmentFile.close();
+	}
+
+}
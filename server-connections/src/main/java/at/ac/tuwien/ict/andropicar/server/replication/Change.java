@@ -0,0 +1,118 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+
+/**
+ * One change of the state of the primary server, as it is sent to the standby server.<br>
+ * Every change carries the sequence-number that the primary has assigned to it and the point in time when it has been published,
+ * so that the standby can tell how far it lags behind. The meaning of the ID, the text and the values depends on the {@link EChangeType type}.
+ */
+public class Change {
+
+	/** The type of the change. */
+	private final EChangeType type;
+
+	/** The sequence-number, that the primary has assigned to the change. Consecutive changes have consecutive numbers. */
+	private final long sequence;
+
+	/** The point in time when the change has been published, in microseconds since the epoch. */
+	private final long timestamp;
+
+	/** The ID of the phone or group, that the change refers to, or an empty string. */
+	private final String id;
+
+	/** A second string, e.g. the ID of a group or an IP-address, or an empty string. */
+	private final String text;
+
+	/** The numbers of the change, e.g. the ID of a car. */
+	private final long[] values;
+
+
+	/**
+	 * @param type the type of the change.
+	 * @param sequence the sequence-number of the change.
+	 * @param timestamp the point in time when the change has been published, in microseconds since the epoch.
+	 * @param id the ID of the phone or group, or null.
+	 * @param text a second string, or null.
+	 * @param values the numbers of the change.
+	 */
+	public Change(EChangeType type, long sequence, long timestamp, String id, String text, long[] values) {
+		this.type = type;
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.id = id != null ? id : "";
+		this.text = text != null ? text : "";
+		this.values = values;
+	}
+
+
+	public EChangeType getType() { return this.type; }
+
+	public long getSequence() { return this.sequence; }
+
+	public long getTimestamp() { return this.timestamp; }
+
+	public String getId() { return this.id; }
+
+	public String getText() { return this.text; }
+
+	public long[] getValues() { return this.values; }
+
+	/**
+	 * @param index the index of a value.
+	 * @return the value at the passed index, or 0 if the change has fewer values.
+	 */
+	public long getValue(int index) {
+		return index < this.values.length ? this.values[index] : 0;
+	}
+
+	/**
+	 * Writes the change to a stream. The stream is not flushed.
+	 * @param output the stream.
+	 * @throws IOException if the change could not be written.
+	 */
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeByte(this.type.ordinal());
+		output.writeLong(this.sequence);
+		output.writeLong(this.timestamp);
+		output.writeUTF(this.id);
+		output.writeUTF(this.text);
+		output.writeShort(this.values.length);
+		for(long value : this.values)
+			output.writeLong(value);
+	}
+
+	/**
+	 * Reads a change, that has been written by {@link #writeTo(DataOutputStream)}.
+	 * @param input the stream.
+	 * @return the change.
+	 * @throws IOException if the change could not be read or has an unknown type.
+	 */
+	public static Change readFrom(DataInputStream input) throws IOException {
+		int ordinal = input.readUnsignedByte();
+		EChangeType[] types = EChangeType.values();
+		if(ordinal >= types.length)
+			throw new IOException("Unknown type of change: " + ordinal);
+		long sequence = input.readLong();
+		long timestamp = input.readLong();
+		String id = input.readUTF();
+		String text = input.readUTF();
+		long[] values = new long[input.readUnsignedShort()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = input.readLong();
+		return new Change(types[ordinal], sequence, timestamp, id, text, values);
+	}
+
+	/**
+	 * @return the current point in time in microseconds since the epoch, which can be compared between processes on the same host.
+	 */
+	public static long currentMicros() {
+		Instant now = Instant.now();
+		return now.getEpochSecond() * 1000000L + now.getNano() / 1000;
+	}
+
+}
@@ -0,0 +1,41 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+
+/**
+ * The type of a {@link Change} of the state of the primary server, that is replicated to the standby server.<br>
+ * The ordinal of every type is sent over the replication-connection, so new types have to be appended.
+ */
+public enum EChangeType {
+
+	/** The primary starts to send its whole state. The standby discards its replicated state. */
+	SNAPSHOT_BEGIN,
+	/** The primary has sent its whole state. The standby is synchronized from now on. */
+	SNAPSHOT_END,
+	/** Sent by the primary, if it has not sent anything else for a while, so the standby can tell a silent primary from a dead one. */
+	HEARTBEAT,
+	/** A phone (id) has been allowed to be linked to a car (the first value). */
+	ALLOW_LINK,
+	/** The permission of a phone (id) to be linked to a car has been removed. */
+	TERMINATE_LINK,
+	/** A phone (id) has been allowed to observe a car (the first value). */
+	ALLOW_OBSERVATION,
+	/** The permission of a phone (id) to observe a car (the first value) has been removed. */
+	TERMINATE_OBSERVATION,
+	/** A group (id) of cars (the values) has been defined. */
+	DEFINE_GROUP,
+	/** A group (id) has been removed. */
+	REMOVE_GROUP,
+	/** A phone (id) has been allowed to send commands to a group (text). */
+	ALLOW_GROUP_COMMANDS,
+	/** The permission of a phone (id) to send commands to a group has been removed. */
+	TERMINATE_GROUP_COMMANDS,
+	/** A phone (id) has been linked to a car (the first value). */
+	LINKED,
+	/** The link of a phone (id) has been terminated, or the phone has disconnected. */
+	UNLINKED,
+	/** A car (the first value) has disconnected, which terminated its link. */
+	CAR_DISCONNECTED,
+	/** The information about a car (the first value) has changed. The second value holds its capabilities and the text its IP-address. */
+	CAR_INFO;
+
+}
@@ -0,0 +1,128 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+import java.net.InetSocketAddress;
+
+
+/**
+ * Holds the settings of the replication between a primary server and its standby server.<br>
+ * A server without the address of a primary is a primary itself: it accepts a standby on the {@link #getReplicationPort() replication-port}
+ * and sends it every change of its state. A server with the address of a primary is a standby: it follows the primary, until the primary is lost,
+ * and takes over then. After taking over, it accepts a standby of its own on the replication-port, if one has been set.<br>
+ * The settings have to be changed before the server is started.
+ */
+public class ReplicationConfiguration {
+
+	/** The port that a standby is accepted on, or 0 if no standby is accepted. */
+	private int replicationPort = 0;
+
+	/** The address of the replication-port of the primary, or null if this server is a primary. */
+	private InetSocketAddress primaryAddress = null;
+
+	/** The time in milliseconds without changes, after which the primary sends a heartbeat. */
+	private long heartbeatInterval = 100;
+
+	/** The time in milliseconds without anything received from the primary, after which the standby takes over, if it cannot reach the primary either. */
+	private long failoverTimeout = 1000;
+
+	/** The number of consecutive attempts to reach the primary that have to fail, before the standby takes over. */
+	private int failoverAttempts = 3;
+
+	/** The maximum number of changes that wait to be sent to the standby. */
+	private int queueCapacity = 65536;
+
+
+	/**
+	 * @return the port that a standby is accepted on, or 0 if no standby is accepted.
+	 */
+	public int getReplicationPort() {
+		return replicationPort;
+	}
+
+	/**
+	 * @param replicationPort the port that a standby is accepted on, or 0 if no standby should be accepted.
+	 */
+	public void setReplicationPort(int replicationPort) {
+		this.replicationPort = replicationPort;
+	}
+
+	/**
+	 * @return the address of the replication-port of the primary, or null if this server is a primary.
+	 */
+	public InetSocketAddress getPrimaryAddress() {
+		return primaryAddress;
+	}
+
+	/**
+	 * Makes this server the standby of another server.
+	 * @param host the host of the primary.
+	 * @param port the replication-port of the primary.
+	 */
+	public void setPrimary(String host, int port) {
+		this.primaryAddress = InetSocketAddress.createUnresolved(host, port);
+	}
+
+	/**
+	 * @return the time in milliseconds without changes, after which the primary sends a heartbeat.
+	 */
+	public long getHeartbeatInterval() {
+		return heartbeatInterval;
+	}
+
+	/**
+	 * @param heartbeatInterval the time in milliseconds without changes, after which the primary sends a heartbeat. Has to be less than the failover-timeout.
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval) {
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * @return the time in milliseconds without anything received from the primary, after which the standby takes over, if it cannot reach the primary either.
+	 */
+	public long getFailoverTimeout() {
+		return failoverTimeout;
+	}
+
+	/**
+	 * @param failoverTimeout the time in milliseconds without anything received from the primary, after which the standby takes over,
+	 * if it cannot reach the primary either (see {@link #setFailoverAttempts(int)}).
+	 */
+	public void setFailoverTimeout(long failoverTimeout) {
+		this.failoverTimeout = failoverTimeout;
+	}
+
+	/**
+	 * @return the number of consecutive attempts to reach the primary that have to fail, before the standby takes over.
+	 */
+	public int getFailoverAttempts() {
+		return failoverAttempts;
+	}
+
+	/**
+	 * @param failoverAttempts the number of consecutive attempts to reach the primary that have to fail, before the standby takes over. Has to be at least 1.
+	 * Every attempt waits for the failover-timeout at most, and the attempts are made every heartbeat-interval, so that a lost connection alone
+	 * (e.g. after a short interruption of the network) does not let the standby take over from a primary, that still serves its devices.
+	 */
+	public void setFailoverAttempts(int failoverAttempts) {
+		if(failoverAttempts < 1)
+			throw new IllegalArgumentException("failoverAttempts must be at least 1: " + failoverAttempts);
+		this.failoverAttempts = failoverAttempts;
+	}
+
+	/**
+	 * @return the maximum number of changes that wait to be sent to the standby.
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @param queueCapacity the maximum number of changes that wait to be sent to the standby. Has to be at least 1.
+	 * A standby that falls further behind is disconnected and synchronized again, once it reconnects.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if(queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+		this.queueCapacity = queueCapacity;
+	}
+
+}
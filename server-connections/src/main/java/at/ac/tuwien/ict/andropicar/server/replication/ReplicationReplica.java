@@ -0,0 +1,245 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * A ReplicationReplica keeps the state of a standby server in sync with its primary server, so the standby can take over with its state already warm.<br>
+ * The thread of this runnable connects to the primary and receives its changes (see {@link ReplicationSource}). The changes are applied by the main-thread
+ * of the standby, which owns its state: the received changes are queued and the main-thread is asked to apply them (see {@link EOperationType#REPLICATE}),
+ * once for every batch. The time between publishing a change on the primary and applying it on the standby is recorded as the replication-lag,
+ * which is meaningful as long as both servers run on the same host or on hosts with synchronized clocks.<br>
+ * Once the standby has received the whole state of the primary, it takes over, as soon as the primary is confirmed to be gone: nothing (not even a heartbeat)
+ * has been received for the failover-timeout, and the standby has failed to reach the primary several times in a row (see {@link ReplicationConfiguration#getFailoverAttempts()}).
+ * A closed connection alone is not enough, since the primary may still serve its devices. Until then, it keeps trying to connect to the primary.
+ * The server opens its device-ports only once the standby has taken over (see {@link #isPromoted()}), so the devices never talk to both servers.
+ */
+public class ReplicationReplica implements Runnable {
+
+	/** The settings of the replication. */
+	private final ReplicationConfiguration configuration;
+
+	/** The operation-queue of the server, that the requests to apply the received changes are put on. */
+	private final LinkedBlockingQueue<QueueElement> operationQueue;
+
+	/** The changes that have been received, but not applied yet. */
+	private final ConcurrentLinkedQueue<Change> received = new ConcurrentLinkedQueue<>();
+
+	/** True, if the main-thread has been asked to apply the received changes, but has not started yet. */
+	private final AtomicBoolean applyRequested = new AtomicBoolean();
+
+	/** The time between publishing a change on the primary and applying it on the standby. */
+	private final LatencyHistogram lag = new LatencyHistogram();
+
+	/** The number of changes that have been applied. */
+	private final LongAdder appliedChanges = new LongAdder();
+
+	/** The sequence-number of the last applied change. */
+	private volatile long sequence = 0;
+
+	/** True, once the whole state of the primary has been applied. */
+	private volatile boolean synchronizedWithPrimary = false;
+
+	/** True, once the standby has taken over. */
+	private volatile boolean promoted = false;
+
+	/** The time in nanoseconds between the last change received from the primary and taking over, or -1 if the standby has not taken over. */
+	private volatile long failoverTime = -1;
+
+	/** The current connection to the primary, or null. */
+	private volatile Socket socket = null;
+
+	/** The flag, that indicates, if the standby should keep following the primary or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ReplicationReplica.class);
+
+
+	/**
+	 * @param configuration the settings of the replication, including the address of the primary.
+	 * @param operationQueue the operation-queue of the server, that the requests to apply the received changes are put on.
+	 */
+	public ReplicationReplica(ReplicationConfiguration configuration, LinkedBlockingQueue<QueueElement> operationQueue) {
+		this.configuration = configuration;
+		this.operationQueue = operationQueue;
+	}
+
+
+	/**
+	 * Starts the thread that follows the primary.
+	 */
+	public void start() {
+		(new Thread(this, "Replication Replica")).start();
+	}
+
+	/**
+	 * Stops following the primary, without taking over.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+		Socket socket = this.socket;
+		if(socket != null) {
+			try {
+				socket.close();
+			} catch(IOException ioe) {}
+		}
+	}
+
+	/**
+	 * @return true, once the whole state of the primary has been applied.
+	 */
+	public boolean isSynchronized() { return this.synchronizedWithPrimary; }
+
+	/**
+	 * @return true, once the standby has taken over.
+	 */
+	public boolean isPromoted() { return this.promoted; }
+
+	/**
+	 * @param unit the unit of the returned time.
+	 * @return the time between the last change received from the primary and taking over, or -1 if the standby has not taken over.
+	 */
+	public long getFailoverTime(TimeUnit unit) {
+		long failoverTime = this.failoverTime;
+		return failoverTime < 0 ? -1 : unit.convert(failoverTime, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the time between publishing a change on the primary and applying it on the standby, for all applied changes.
+	 */
+	public LatencySnapshot getLagSnapshot() { return this.lag.getSnapshot(); }
+
+	/**
+	 * @return the number of changes that have been applied.
+	 */
+	public long getAppliedChanges() { return this.appliedChanges.sum(); }
+
+	/**
+	 * @return the sequence-number of the last applied change.
+	 */
+	public long getSequence() { return this.sequence; }
+
+	/**
+	 * Takes the next received change. Has to be called by the main-thread, which applies the change and calls {@link #applied(Change)} afterwards.
+	 * @return the next received change, or null if all received changes have been taken.
+	 */
+	public Change poll() {
+		// changes that arrive from now on need another request
+		this.applyRequested.set(false);
+		return this.received.poll();
+	}
+
+	/**
+	 * Records a change, that has been applied by the main-thread.
+	 * @param change the applied change.
+	 */
+	public void applied(Change change) {
+		this.lag.record(Math.max(Change.currentMicros() - change.getTimestamp(), 0), TimeUnit.MICROSECONDS);
+		this.appliedChanges.increment();
+		this.sequence = change.getSequence();
+		if(change.getType() == EChangeType.SNAPSHOT_BEGIN)
+			this.synchronizedWithPrimary = false;
+		else if(change.getType() == EChangeType.SNAPSHOT_END) {
+			this.synchronizedWithPrimary = true;
+			ReplicationReplica.logger.info("Synchronized with the primary at the change {}.", Unbox.box(change.getSequence()));
+		}
+	}
+
+	@Override
+	public void run() {
+		InetSocketAddress primary = this.configuration.getPrimaryAddress();
+		long lastReceived = System.nanoTime();
+		// the number of consecutive attempts to reach the primary, that have not received anything
+		int failedAttempts = 0;
+		while(this.keepRunning) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(primary.getHostString(), primary.getPort()), (int) this.configuration.getFailoverTimeout());
+				socket.setSoTimeout((int) this.configuration.getFailoverTimeout());
+				this.socket = socket;
+				ReplicationReplica.logger.info("Following the primary {}.", primary);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				while(this.keepRunning) {
+					this.received.add(Change.readFrom(input));
+					lastReceived = System.nanoTime();
+					failedAttempts = 0;
+					// one request for every batch, i.e. whenever everything that has arrived so far has been read
+					if(input.available() == 0)
+						requestApply();
+				}
+			} catch(IOException ioe) {
+				if(!this.keepRunning)
+					return;
+				failedAttempts++;
+				if(this.synchronizedWithPrimary && isPrimaryGone(lastReceived, failedAttempts)) {
+					this.failoverTime = System.nanoTime() - lastReceived;
+					ReplicationReplica.logger.warn("Lost the primary ({}) after {} attempts to reach it. Taking over {} ms after the last change.", ioe.getMessage(),
+							Unbox.box(failedAttempts), Unbox.box(TimeUnit.NANOSECONDS.toMillis(this.failoverTime)));
+					this.promoted = true;
+					requestApply();
+					return;
+				}
+				if(this.synchronizedWithPrimary)
+					ReplicationReplica.logger.warn("Could not reach the primary {} ({}). Trying again before taking over.", primary, ioe.getMessage());
+				else
+					ReplicationReplica.logger.debug("Could not follow the primary {}: {}", primary, ioe.getMessage());
+			} finally {
+				try {
+					socket.close();
+				} catch(IOException ioe) {}
+				this.socket = null;
+			}
+			try {
+				Thread.sleep(this.configuration.getHeartbeatInterval());
+			} catch(InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Tells, if the primary is confirmed to be gone. A single failed connection (e.g. a connection that has been reset) is not enough,
+	 * since the primary may still serve its devices: nothing must have been received from the primary for the failover-timeout,
+	 * and the standby must have failed to reach it in {@link ReplicationConfiguration#getFailoverAttempts()} consecutive attempts.
+	 * @param lastReceived the point in time (see {@link System#nanoTime()}), when anything has last been received from the primary.
+	 * @param failedAttempts the number of consecutive attempts to reach the primary, that have not received anything.
+	 * @return true, if the standby may take over.
+	 */
+	private boolean isPrimaryGone(long lastReceived, int failedAttempts) {
+		return failedAttempts >= this.configuration.getFailoverAttempts()
+				&& System.nanoTime() - lastReceived >= TimeUnit.MILLISECONDS.toNanos(this.configuration.getFailoverTimeout());
+	}
+
+	/**
+	 * Asks the main-thread to apply the received changes, unless it has already been asked.
+	 */
+	private void requestApply() {
+		if(this.applyRequested.compareAndSet(false, true)) {
+			try {
+				this.operationQueue.put(new QueueElement(EOperationType.REPLICATE, null));
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * A ReplicationSource sends every change of the state of the primary server to its standby server.<br>
+ * The changes are published by any thread (see {@link #publish(EChangeType, String, String, long...)}) and put on a queue, without waiting for the standby.
+ * A writer-thread takes all queued changes at once and writes them as one batch, with one flush, so the standby does not cost the primary
+ * one system-call per change under load. If nothing has been published for the heartbeat-interval, a heartbeat is sent instead.<br>
+ * Once a standby connects, the main-thread of the server is asked to publish its whole state (see {@link EOperationType#SNAPSHOT}),
+ * so the standby starts with a snapshot and follows the changes from then on. Only one standby is served at a time.
+ * A standby that cannot keep up, i.e. whose queue is full, is disconnected and synchronized again, once it reconnects.
+ */
+public class ReplicationSource {
+
+	/** The settings of the replication. */
+	private final ReplicationConfiguration configuration;
+
+	/** The operation-queue of the server, that the requests for a snapshot are put on. */
+	private final LinkedBlockingQueue<QueueElement> operationQueue;
+
+	/** The connection to the current standby, or null. Guarded by this. */
+	private Session session = null;
+
+	/** The sequence-number of the last published change. Guarded by this. */
+	private long sequence = 0;
+
+	/** The number of changes that have been sent. */
+	private final LongAdder sentChanges = new LongAdder();
+
+	/** The number of batches that have been sent. */
+	private final LongAdder sentBatches = new LongAdder();
+
+	/** The socket that the standby is accepted on. */
+	private ServerSocket socket = null;
+
+	/** The flag, that indicates, if a standby should be accepted or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ReplicationSource.class);
+
+
+	/**
+	 * @param configuration the settings of the replication.
+	 * @param operationQueue the operation-queue of the server, that the requests for a snapshot are put on.
+	 */
+	public ReplicationSource(ReplicationConfiguration configuration, LinkedBlockingQueue<QueueElement> operationQueue) {
+		this.configuration = configuration;
+		this.operationQueue = operationQueue;
+	}
+
+
+	/**
+	 * Binds the replication-port and starts to accept a standby.
+	 * @throws IOException if the replication-port could not be bound.
+	 */
+	public void start() throws IOException {
+		this.socket = new ServerSocket();
+		this.socket.setReuseAddress(true);
+		this.socket.bind(new InetSocketAddress(this.configuration.getReplicationPort()));
+		(new Thread(new Acceptor(), "Replication Acceptor")).start();
+		ReplicationSource.logger.info("Accepting a standby on port {}.", Unbox.box(this.configuration.getReplicationPort()));
+	}
+
+	/**
+	 * Stops accepting a standby and closes the connection to the current one.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+		if(this.socket != null) {
+			try {
+				this.socket.close();
+			} catch(IOException ioe) {}
+		}
+		Session session;
+		synchronized(this) {
+			session = this.session;
+			this.session = null;
+		}
+		if(session != null)
+			session.close();
+	}
+
+	/**
+	 * @return true, if a standby is connected, otherwise false.
+	 */
+	public synchronized boolean isStandbyConnected() {
+		return this.session != null;
+	}
+
+	/**
+	 * @return the sequence-number of the last published change.
+	 */
+	public synchronized long getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * @return the number of changes that have been sent.
+	 */
+	public long getSentChanges() { return this.sentChanges.sum(); }
+
+	/**
+	 * @return the number of batches that the changes have been sent in.
+	 */
+	public long getSentBatches() { return this.sentBatches.sum(); }
+
+	/**
+	 * Publishes a change of the state of the server. If no standby is connected, the change is discarded, since the standby starts with a snapshot.
+	 * @param type the type of the change.
+	 * @param id the ID of the phone or group, or null.
+	 * @param text a second string, or null.
+	 * @param values the numbers of the change.
+	 */
+	public synchronized void publish(EChangeType type, String id, String text, long... values) {
+		if(this.session == null)
+			return;
+		Change change = new Change(type, ++this.sequence, Change.currentMicros(), id, text, values);
+		if(!this.session.queue.offer(change)) {
+			ReplicationSource.logger.warn("The standby could not keep up with {} queued changes. It is synchronized again, once it reconnects.", Unbox.box(this.session.queue.size()));
+			this.session.close();
+			this.session = null;
+		}
+	}
+
+	/**
+	 * Removes the passed session, if it is still the current one.
+	 */
+	private synchronized void sessionClosed(Session session) {
+		if(this.session == session)
+			this.session = null;
+	}
+
+
+	/**
+	 * Accepts the standby. A newly connected standby replaces the current one.
+	 */
+	private class Acceptor implements Runnable {
+
+		@Override
+		public void run() {
+			while(ReplicationSource.this.keepRunning) {
+				Socket socket;
+				Session session;
+				try {
+					socket = ReplicationSource.this.socket.accept();
+					socket.setTcpNoDelay(true);
+					session = new Session(socket);
+				} catch(IOException ioe) {
+					if(ReplicationSource.this.keepRunning)
+						ReplicationSource.logger.warn("Could not accept a standby: {}", ioe.getMessage());
+					continue;
+				}
+				Session previous;
+				synchronized(ReplicationSource.this) {
+					previous = ReplicationSource.this.session;
+					ReplicationSource.this.session = session;
+				}
+				if(previous != null)
+					previous.close();
+				(new Thread(session, "Replication Writer " + socket.getRemoteSocketAddress())).start();
+				// the snapshot is published by the main-thread, which owns the state of the server
+				try {
+					ReplicationSource.this.operationQueue.put(new QueueElement(EOperationType.SNAPSHOT, null));
+				} catch(InterruptedException ie) {
+					return;
+				}
+				ReplicationSource.logger.info("The standby {} has connected.", socket.getRemoteSocketAddress());
+			}
+		}
+	}
+
+
+	/**
+	 * The connection to one standby, whose writer-thread sends the queued changes in batches.
+	 */
+	private class Session implements Runnable {
+
+		/** The connection to the standby. */
+		private final Socket socket;
+
+		/** The stream that the changes are written to. Only used by the writer-thread. */
+		private final DataOutputStream output;
+
+		/** The changes that wait to be sent. */
+		private final ArrayBlockingQueue<Change> queue;
+
+		/** True, once the connection has been closed. */
+		private volatile boolean closed = false;
+
+		private Session(Socket socket) throws IOException {
+			this.socket = socket;
+			this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.queue = new ArrayBlockingQueue<>(ReplicationSource.this.configuration.getQueueCapacity());
+		}
+
+		@Override
+		public void run() {
+			List<Change> batch = new ArrayList<>();
+			long heartbeatInterval = ReplicationSource.this.configuration.getHeartbeatInterval();
+			try {
+				while(!this.closed) {
+					Change change = this.queue.poll(heartbeatInterval, TimeUnit.MILLISECONDS);
+					if(change == null) {
+						ReplicationSource.this.publish(EChangeType.HEARTBEAT, null, null);
+						continue;
+					}
+					batch.add(change);
+					this.queue.drainTo(batch);
+					for(Change queued : batch)
+						queued.writeTo(this.output);
+					this.output.flush();
+					ReplicationSource.this.sentChanges.add(batch.size());
+					ReplicationSource.this.sentBatches.increment();
+					batch.clear();
+				}
+			} catch(IOException ioe) {
+				if(!this.closed)
+					ReplicationSource.logger.warn("Lost the standby {}: {}", this.socket.getRemoteSocketAddress(), ioe.getMessage());
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			close();
+		}
+
+		private void close() {
+			this.closed = true;
+			try {
+				this.socket.close();
+			} catch(IOException ioe) {}
+			ReplicationSource.this.sessionClosed(this);
+		}
+	}
+
+}
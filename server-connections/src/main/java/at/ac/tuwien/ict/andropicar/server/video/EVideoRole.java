@@ -0,0 +1,32 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+
+/**
+ * The role of a connection to the video-port of a {@link VideoRelay}, which is the first byte of its hello.<br>
+ * The ordinal of every role plus one is sent over the connection, so new roles have to be appended.
+ */
+public enum EVideoRole {
+
+	/** A car, that sends the frames of its camera. The hello holds the ID of the car. */
+	CAR,
+	/** A phone, that receives the frames of a car. The hello holds the ID of the car and the ID of the phone. */
+	PHONE;
+
+
+	/**
+	 * @param code the first byte of a hello.
+	 * @return the role with the passed code, or null if there is none.
+	 */
+	public static EVideoRole fromCode(int code) {
+		EVideoRole[] roles = EVideoRole.values();
+		return code < 1 || code > roles.length ? null : roles[code - 1];
+	}
+
+	/**
+	 * @return the code of this role, that is sent as the first byte of a hello.
+	 */
+	public int getCode() {
+		return this.ordinal() + 1;
+	}
+
+}
@@ -0,0 +1,30 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.net.InetAddress;
+
+
+/**
+ * IVideoAuthorization decides, which connections to the video-port of a {@link VideoRelay} are allowed.<br>
+ * It is asked when a connection has sent its hello and periodically afterwards, so a car that disconnects from the server or a phone
+ * that loses its link loses its video as well. The IDs of a hello are not a proof of anything, so a connection has to come from the address
+ * of the registered control-connection of the device, whose ID it claims. The methods are called by the threads of the relay,
+ * so they have to be thread-safe and must not block.
+ */
+public interface IVideoAuthorization {
+
+	/**
+	 * @param carId the ID of a car.
+	 * @param address the remote address of the video-connection.
+	 * @return true, if the car may send the frames of its camera from the passed address, otherwise false.
+	 */
+	boolean mayStream(long carId, InetAddress address);
+
+	/**
+	 * @param phoneId the ID of a phone.
+	 * @param carId the ID of a car.
+	 * @param address the remote address of the video-connection.
+	 * @return true, if the phone may receive the frames of the car at the passed address, otherwise false.
+	 */
+	boolean mayView(String phoneId, long carId, InetAddress address);
+
+}
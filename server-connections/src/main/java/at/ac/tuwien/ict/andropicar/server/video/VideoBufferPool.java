@@ -0,0 +1,67 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Keeps the direct buffers of released frames for later frames, because allocating a direct buffer is expensive and its memory is only freed by the garbage-collector.<br>
+ * The buffers are allocated in sizes of powers of two, starting at 4 KiB, so a buffer fits every frame of the same size-class.
+ * A pool is only used by the thread of its {@link VideoLoop}, so it does not synchronize.
+ */
+final class VideoBufferPool {
+
+	/** The binary logarithm of the size of the smallest buffer. */
+	private static final int MIN_SHIFT = 12;
+
+	/** The unused buffers of every size-class, starting with the smallest. */
+	private final List<ArrayDeque<ByteBuffer>> pooled = new ArrayList<>();
+
+	/** The maximum number of unused buffers of every size-class. */
+	private final int maxPooled;
+
+
+	/**
+	 * @param maxSize the size of the largest buffer, that may be acquired.
+	 * @param maxPooled the maximum number of unused buffers of every size-class.
+	 */
+	VideoBufferPool(int maxSize, int maxPooled) {
+		this.maxPooled = maxPooled;
+		for(int i = 0; i <= sizeClass(maxSize); i++)
+			this.pooled.add(new ArrayDeque<ByteBuffer>());
+	}
+
+
+	/**
+	 * @param size the size of the buffer.
+	 * @return a direct buffer with a position of 0 and a limit of the passed size.
+	 */
+	ByteBuffer acquire(int size) {
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = this.pooled.get(sizeClass).poll();
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT));
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer, that has been acquired from this pool and is not used anymore.
+	 */
+	void release(ByteBuffer buffer) {
+		ArrayDeque<ByteBuffer> buffers = this.pooled.get(sizeClass(buffer.capacity()));
+		if(buffers.size() < this.maxPooled)
+			buffers.push(buffer);
+	}
+
+	/**
+	 * @return the index of the smallest size-class, that fits the passed size.
+	 */
+	private static int sizeClass(int size) {
+		return Math.max(0, 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT);
+	}
+
+}
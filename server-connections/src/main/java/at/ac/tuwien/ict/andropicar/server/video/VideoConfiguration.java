@@ -0,0 +1,155 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+
+/**
+ * Holds the settings of the video-relay of a server (see {@link VideoRelay}).<br>
+ * The settings have to be changed before the server is started.
+ */
+public class VideoConfiguration {
+
+	/** The port that cars and phones connect to for video. */
+	private final int videoPort;
+
+	/** The number of threads, that relay the frames. */
+	private int loops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/** The maximum size of a frame in bytes, without its header. */
+	private int maxFrameSize = 1 << 20;
+
+	/** The maximum time in milliseconds, that a connection may take to send its hello. */
+	private int helloTimeout = 5000;
+
+	/** The time in milliseconds between two checks, if the cars and phones are still allowed to send and receive video. */
+	private int authorizationInterval = 1000;
+
+	/** The time in milliseconds without anything received from the camera of a car, after which another connection of the car may replace it. */
+	private int sourceTimeout = 3000;
+
+	/** The size of the send-buffer of the sockets in bytes, or 0 to use the default of the operating system. */
+	private int sendBufferSize = 65536;
+
+	/** The maximum number of unused buffers of every size, that every thread keeps for later frames. */
+	private int pooledBuffers = 64;
+
+
+	/**
+	 * @param videoPort the port that cars and phones connect to for video.
+	 */
+	public VideoConfiguration(int videoPort) {
+		this.videoPort = videoPort;
+	}
+
+
+	/**
+	 * @return the port that cars and phones connect to for video.
+	 */
+	public int getVideoPort() {
+		return videoPort;
+	}
+
+	/**
+	 * @return the number of threads, that relay the frames.
+	 */
+	public int getLoops() {
+		return loops;
+	}
+
+	/**
+	 * @param loops the number of threads, that relay the frames. Has to be greater than 0.
+	 */
+	public void setLoops(int loops) {
+		if(loops <= 0)
+			throw new IllegalArgumentException("loops must be greater than 0: " + loops);
+		this.loops = loops;
+	}
+
+	/**
+	 * @return the maximum size of a frame in bytes, without its header.
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/**
+	 * @param maxFrameSize the maximum size of a frame in bytes, without its header. A car that sends a larger frame is disconnected.
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		if(maxFrameSize <= 0)
+			throw new IllegalArgumentException("maxFrameSize must be greater than 0: " + maxFrameSize);
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds, that a connection may take to send its hello.
+	 */
+	public int getHelloTimeout() {
+		return helloTimeout;
+	}
+
+	/**
+	 * @param helloTimeout the maximum time in milliseconds, that a connection may take to send its hello.
+	 */
+	public void setHelloTimeout(int helloTimeout) {
+		this.helloTimeout = helloTimeout;
+	}
+
+	/**
+	 * @return the time in milliseconds between two checks, if the cars and phones are still allowed to send and receive video.
+	 */
+	public int getAuthorizationInterval() {
+		return authorizationInterval;
+	}
+
+	/**
+	 * @param authorizationInterval the time in milliseconds between two checks, if the cars and phones are still allowed to send and receive video.
+	 */
+	public void setAuthorizationInterval(int authorizationInterval) {
+		this.authorizationInterval = authorizationInterval;
+	}
+
+	/**
+	 * @return the time in milliseconds without anything received from the camera of a car, after which another connection of the car may replace it.
+	 */
+	public int getSourceTimeout() {
+		return sourceTimeout;
+	}
+
+	/**
+	 * @param sourceTimeout the time in milliseconds without anything received from the camera of a car, after which another connection of the car may replace it.
+	 * Until then, another connection of the car is closed right away, so the camera of a car, that still sends its frames or keep-alives, cannot be taken over.
+	 */
+	public void setSourceTimeout(int sourceTimeout) {
+		this.sourceTimeout = sourceTimeout;
+	}
+
+	/**
+	 * @return the size of the send-buffer of the sockets in bytes, or 0 if the default of the operating system is used.
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * @param sendBufferSize the size of the send-buffer of the sockets in bytes, or 0 to use the default of the operating system.
+	 * A smaller buffer drops the frames of a slow phone earlier, instead of delaying them. The default of 64 KiB holds a few frames of a few Mbit/s
+	 * and is enough for about 100 ms of round-trip-time, whereas the buffers that the operating system tunes by itself may grow to seconds of video.
+	 */
+	public void setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * @return the maximum number of unused buffers of every size, that every thread keeps for later frames.
+	 */
+	public int getPooledBuffers() {
+		return pooledBuffers;
+	}
+
+	/**
+	 * @param pooledBuffers the maximum number of unused buffers of every size, that every thread keeps for later frames.
+	 */
+	public void setPooledBuffers(int pooledBuffers) {
+		this.pooledBuffers = pooledBuffers;
+	}
+
+}
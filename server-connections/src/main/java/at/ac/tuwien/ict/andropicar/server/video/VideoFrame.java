@@ -0,0 +1,54 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A frame of the camera of a car, held in a direct buffer, that is shared by all phones, that receive the frame.<br>
+ * The buffer holds the frame as it has been received, i.e. its header and its content, so every phone is sent the frame with a single write
+ * from a view of the buffer, without copying it. The frame counts its references and returns its buffer to the pool, once the last reference has been released.
+ * A frame is only used by the thread of its {@link VideoLoop}, so it does not synchronize.
+ */
+final class VideoFrame {
+
+	/** The buffer that holds the header and the content of the frame, from position 0 to its limit. */
+	private final ByteBuffer buffer;
+
+	/** The pool that the buffer is returned to. */
+	private final VideoBufferPool pool;
+
+	/** The number of references to this frame. */
+	private int references = 1;
+
+
+	/**
+	 * @param buffer the buffer that holds the header and the content of the frame, from position 0 to its limit.
+	 * @param pool the pool that the buffer is returned to.
+	 */
+	VideoFrame(ByteBuffer buffer, VideoBufferPool pool) {
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+
+
+	/**
+	 * @return the size of the frame, including its header.
+	 */
+	int size() { return this.buffer.limit(); }
+
+	/**
+	 * @return a new view of the frame, that can be written to a channel independently of the other views.
+	 */
+	ByteBuffer view() { return this.buffer.duplicate(); }
+
+	void retain() { this.references++; }
+
+	/**
+	 * Releases a reference to this frame and returns its buffer to the pool, once the last reference has been released.
+	 */
+	void release() {
+		if(--this.references == 0)
+			this.pool.release(this.buffer);
+	}
+
+}
@@ -0,0 +1,108 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * The hello of a connection to the video-port, which is read by the acceptor of the {@link VideoRelay} without blocking.<br>
+ * A hello consists of the code of the {@link EVideoRole} (one byte) and the ID of the car (eight bytes). The hello of a phone continues with
+ * the length (two bytes) and the UTF-8 encoded ID of the phone. All numbers are big-endian. The hello is read exactly, so the first frame of a car,
+ * that does not wait for the reply of the relay, is not consumed by it.
+ */
+final class VideoHello {
+
+	/** The size of the hello of a car, which is also the beginning of the hello of a phone. */
+	private static final int CAR_HELLO_SIZE = 9;
+
+	/** The size of the hello of a phone without its ID. */
+	private static final int PHONE_HELLO_SIZE = 11;
+
+	/** The maximum length of the ID of a phone in bytes. */
+	private static final int MAX_PHONE_ID_LENGTH = 255;
+
+	/** The connection that sends the hello. */
+	private final SocketChannel channel;
+
+	/** The time (see {@link System#nanoTime()}) until which the hello has to be complete. */
+	private final long deadline;
+
+	/** The remote address of the connection. */
+	private final InetAddress address;
+
+	/** The bytes of the hello that have been read so far. The limit is the size of the part of the hello that is read next. */
+	private final ByteBuffer buffer = ByteBuffer.allocate(PHONE_HELLO_SIZE + MAX_PHONE_ID_LENGTH);
+
+	/** The role of the connection, once the hello is complete. */
+	private EVideoRole role;
+
+	/** The ID of the car, once the hello is complete. */
+	private long carId;
+
+	/** The ID of the phone, once the hello of a phone is complete, otherwise null. */
+	private String phoneId;
+
+
+	/**
+	 * @param channel the connection that sends the hello.
+	 * @param deadline the time (see {@link System#nanoTime()}) until which the hello has to be complete.
+	 */
+	VideoHello(SocketChannel channel, long deadline) {
+		this.channel = channel;
+		this.deadline = deadline;
+		this.address = channel.socket().getInetAddress();
+		this.buffer.limit(CAR_HELLO_SIZE);
+	}
+
+
+	/**
+	 * Reads as much of the hello as is available.
+	 * @return true, if the hello is complete, otherwise false.
+	 * @throws IOException if the connection has been closed or the hello is invalid.
+	 */
+	boolean read() throws IOException {
+		while(true) {
+			if(this.channel.read(this.buffer) < 0)
+				throw new EOFException("The connection has been closed before its hello was complete.");
+			if(this.buffer.hasRemaining())
+				return false;
+			switch(this.buffer.limit()) {
+				case CAR_HELLO_SIZE:
+					this.role = EVideoRole.fromCode(this.buffer.get(0));
+					if(this.role == null)
+						throw new IOException("Unknown role " + this.buffer.get(0));
+					this.carId = this.buffer.getLong(1);
+					if(this.role == EVideoRole.CAR)
+						return true;
+					this.buffer.limit(PHONE_HELLO_SIZE);
+					break;
+				case PHONE_HELLO_SIZE:
+					int length = this.buffer.getShort(CAR_HELLO_SIZE) & 0xffff;
+					if(length == 0 || length > MAX_PHONE_ID_LENGTH)
+						throw new IOException("Invalid length of the ID of the phone " + length);
+					this.buffer.limit(PHONE_HELLO_SIZE + length);
+					break;
+				default:
+					this.phoneId = new String(this.buffer.array(), PHONE_HELLO_SIZE, this.buffer.limit() - PHONE_HELLO_SIZE, StandardCharsets.UTF_8);
+					return true;
+			}
+		}
+	}
+
+	SocketChannel getChannel() { return this.channel; }
+
+	long getDeadline() { return this.deadline; }
+
+	InetAddress getAddress() { return this.address; }
+
+	EVideoRole getRole() { return this.role; }
+
+	long getCarId() { return this.carId; }
+
+	String getPhoneId() { return this.phoneId; }
+
+}
@@ -0,0 +1,495 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+
+/**
+ * A VideoLoop relays the frames of a share of the cars of a {@link VideoRelay} to their phones, with a selector of its own.<br>
+ * All connections of a car are handed over to the same loop, so the streams, the frames and the pool of buffers are only used by the thread of the loop
+ * and need no synchronization. Every car has a {@link Stream} with at most one {@link Source} and any number of {@link Viewer}s.
+ * A viewer holds the frame that is currently written to it and at most one pending frame. A newer frame replaces the pending one,
+ * so the memory of a slow phone is bounded by two frames. The loop checks periodically, if the cars and phones are still allowed to send and receive video.
+ */
+class VideoLoop implements Runnable {
+
+	/** The size of the header of a frame, i.e. its length. */
+	private static final int HEADER_SIZE = 4;
+
+	/** The maximum number of frames, that are read from a car at once, before the other connections are served. */
+	private static final int MAX_FRAMES_PER_READ = 4;
+
+	/** The relay that this loop belongs to. */
+	private final VideoRelay relay;
+
+	/** The index of this loop. */
+	private final int index;
+
+	/** The counters of the relay. */
+	private final VideoStatistics statistics;
+
+	/** The selector of this loop. */
+	private final Selector selector;
+
+	/** The connections that have been handed over by the acceptor, but not been registered yet. */
+	private final ConcurrentLinkedQueue<VideoHello> handOvers = new ConcurrentLinkedQueue<>();
+
+	/** The streams of the cars of this loop, with the ID of the car as key. */
+	private final HashMap<Long, Stream> streams = new HashMap<>();
+
+	/** The buffers of the frames. */
+	private final VideoBufferPool pool;
+
+	/** The buffer that anything, which a phone sends, is read into and discarded. */
+	private final ByteBuffer discarded = ByteBuffer.allocateDirect(256);
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(VideoLoop.class);
+
+
+	/**
+	 * @param relay the relay that this loop belongs to.
+	 * @param index the index of this loop.
+	 * @throws IOException if the selector could not be opened.
+	 */
+	VideoLoop(VideoRelay relay, int index) throws IOException {
+		this.relay = relay;
+		this.index = index;
+		this.statistics = relay.getStatistics();
+		this.selector = Selector.open();
+		this.pool = new VideoBufferPool(HEADER_SIZE + relay.getConfiguration().getMaxFrameSize(), relay.getConfiguration().getPooledBuffers());
+	}
+
+
+	/**
+	 * Starts the thread of this loop.
+	 */
+	void start() {
+		(new Thread(this, "Video Loop " + this.index)).start();
+	}
+
+	/**
+	 * Hands a connection with a complete and allowed hello over to this loop. Can be called by any thread.
+	 */
+	void handOver(VideoHello hello) {
+		this.handOvers.add(hello);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Wakes the thread of this loop up, e.g. to notice that the relay has been stopped. Can be called by any thread.
+	 */
+	void wakeup() {
+		this.selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		long authorizationInterval = TimeUnit.MILLISECONDS.toNanos(this.relay.getConfiguration().getAuthorizationInterval());
+		long nextAuthorization = System.nanoTime() + authorizationInterval;
+		try {
+			while(this.relay.isRunning()) {
+				this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextAuthorization - System.nanoTime())));
+				VideoHello hello;
+				while((hello = this.handOvers.poll()) != null)
+					add(hello);
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+						continue;
+					if(key.attachment() instanceof Source)
+						((Source) key.attachment()).read();
+					else {
+						Viewer viewer = (Viewer) key.attachment();
+						if(key.isReadable())
+							viewer.discard();
+						if(key.isValid() && key.isWritable())
+							viewer.flush();
+					}
+				}
+				long now = System.nanoTime();
+				if(now - nextAuthorization >= 0) {
+					authorize();
+					nextAuthorization = now + authorizationInterval;
+				}
+			}
+		} catch(IOException ioe) {
+			VideoLoop.logger.error("The video-loop {} failed.", Unbox.box(this.index), ioe);
+		} finally {
+			for(Stream stream : new ArrayList<>(this.streams.values())) {
+				if(stream.source != null)
+					remove(stream.source);
+				for(int i = stream.viewers.size() - 1; i >= 0; i--)
+					remove(stream.viewers.get(i));
+			}
+			VideoHello hello;
+			while((hello = this.handOvers.poll()) != null)
+				VideoRelay.close(hello.getChannel());
+			try {
+				this.selector.close();
+			} catch(IOException ioe) {}
+		}
+	}
+
+	/**
+	 * Registers a connection, that has been handed over by the acceptor.
+	 */
+	private void add(VideoHello hello) {
+		long carId = hello.getCarId();
+		Stream stream = this.streams.get(carId);
+		if(hello.getRole() == EVideoRole.CAR && stream != null && stream.source != null) {
+			// a camera, that still sends its frames or keep-alives, is never replaced by another connection
+			long idle = System.nanoTime() - stream.source.lastReceived;
+			if(idle < TimeUnit.MILLISECONDS.toNanos(this.relay.getConfiguration().getSourceTimeout())) {
+				VideoLoop.logger.debug("Rejected another camera of the car {}, whose camera is still sending.", Unbox.box(carId));
+				this.statistics.connectionRejected();
+				VideoRelay.close(hello.getChannel());
+				return;
+			}
+			VideoLoop.logger.debug("The car {} has reconnected its camera.", Unbox.box(carId));
+			remove(stream.source);
+			stream = this.streams.get(carId);
+		}
+		if(stream == null) {
+			stream = new Stream(carId);
+			this.streams.put(carId, stream);
+		}
+		try {
+			if(hello.getRole() == EVideoRole.CAR) {
+				Source source = new Source(hello.getChannel(), hello.getAddress(), stream);
+				source.key = hello.getChannel().register(this.selector, SelectionKey.OP_READ, source);
+				stream.source = source;
+				this.statistics.sourceAdded();
+			}
+			else {
+				Viewer viewer = new Viewer(hello.getChannel(), hello.getAddress(), stream, hello.getPhoneId());
+				viewer.key = hello.getChannel().register(this.selector, SelectionKey.OP_READ, viewer);
+				stream.viewers.add(viewer);
+				this.statistics.viewerAdded();
+			}
+		} catch(ClosedChannelException cce) {
+			VideoRelay.close(hello.getChannel());
+			removeIfUnused(stream);
+		}
+	}
+
+	/**
+	 * Closes the sources and viewers, that are not allowed to send or receive video anymore.
+	 */
+	private void authorize() {
+		IVideoAuthorization authorization = this.relay.getAuthorization();
+		for(Stream stream : new ArrayList<>(this.streams.values())) {
+			if(stream.source != null && !authorization.mayStream(stream.carId, stream.source.address)) {
+				VideoLoop.logger.debug("The car {} may not send video anymore.", Unbox.box(stream.carId));
+				remove(stream.source);
+			}
+			for(int i = stream.viewers.size() - 1; i >= 0; i--) {
+				Viewer viewer = stream.viewers.get(i);
+				if(!authorization.mayView(viewer.phoneId, stream.carId, viewer.address)) {
+					VideoLoop.logger.debug("The phone {} may not receive the video of the car {} anymore.", viewer.phoneId, Unbox.box(stream.carId));
+					remove(viewer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes a frame, that has been received from the source of a stream, to all of its viewers.
+	 */
+	private void publish(Stream stream, VideoFrame frame) {
+		this.statistics.frameReceived(frame.size());
+		// backwards, because a viewer removes itself, if its connection fails
+		for(int i = stream.viewers.size() - 1; i >= 0; i--)
+			stream.viewers.get(i).offer(frame);
+		frame.release();
+	}
+
+	private void remove(Source source) {
+		if(source.close()) {
+			if(source.stream.source == source)
+				source.stream.source = null;
+			this.statistics.sourceRemoved();
+			removeIfUnused(source.stream);
+		}
+	}
+
+	private void remove(Viewer viewer) {
+		if(viewer.close()) {
+			viewer.stream.viewers.remove(viewer);
+			this.statistics.viewerRemoved();
+			removeIfUnused(viewer.stream);
+		}
+	}
+
+	private void removeIfUnused(Stream stream) {
+		if(stream.source == null && stream.viewers.isEmpty())
+			this.streams.remove(stream.carId, stream);
+	}
+
+
+	/**
+	 * The video of a car, with the connection of the car and the connections of its phones.
+	 */
+	private static final class Stream {
+
+		/** The ID of the car. */
+		private final long carId;
+
+		/** The connection of the car, or null if the car is not connected. */
+		private Source source = null;
+
+		/** The connections of the phones. */
+		private final ArrayList<Viewer> viewers = new ArrayList<>();
+
+
+		private Stream(long carId) {
+			this.carId = carId;
+		}
+
+	}
+
+
+	/**
+	 * The connection of a car, that the frames are read from.
+	 */
+	private final class Source {
+
+		/** The connection of the car. */
+		private final SocketChannel channel;
+
+		/** The remote address of the connection. */
+		private final InetAddress address;
+
+		/** The stream of the car. */
+		private final Stream stream;
+
+		/** The time (see {@link System#nanoTime()}), when anything has last been received from the car. */
+		private long lastReceived = System.nanoTime();
+
+		/** The key of the connection. */
+		private SelectionKey key;
+
+		/** The header of the frame, that is read next. */
+		private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+
+		/** The frame that is currently read, or null if the header is read. */
+		private ByteBuffer frame = null;
+
+		/** True, once the connection has been closed. */
+		private boolean closed = false;
+
+
+		private Source(SocketChannel channel, InetAddress address, Stream stream) {
+			this.channel = channel;
+			this.address = address;
+			this.stream = stream;
+		}
+
+
+		/**
+		 * Reads the available frames and passes every complete frame to the viewers. Closes the connection if it has failed.
+		 */
+		private void read() {
+			int maxFrameSize = VideoLoop.this.relay.getConfiguration().getMaxFrameSize();
+			this.lastReceived = System.nanoTime();
+			try {
+				for(int frames = 0; frames < MAX_FRAMES_PER_READ; frames++) {
+					if(this.frame == null) {
+						if(this.channel.read(this.header) < 0)
+							throw new EOFException("The connection has been closed.");
+						if(this.header.hasRemaining())
+							return;
+						int length = this.header.getInt(0);
+						this.header.clear();
+						if(length == 0)
+							continue;
+						if(length < 0 || length > maxFrameSize)
+							throw new IOException("Invalid size of a frame " + length);
+						this.frame = VideoLoop.this.pool.acquire(HEADER_SIZE + length);
+						this.frame.putInt(length);
+					}
+					if(this.channel.read(this.frame) < 0)
+						throw new EOFException("The connection has been closed.");
+					if(this.frame.hasRemaining())
+						return;
+					this.frame.flip();
+					VideoFrame videoFrame = new VideoFrame(this.frame, VideoLoop.this.pool);
+					this.frame = null;
+					publish(this.stream, videoFrame);
+				}
+			} catch(IOException ioe) {
+				VideoLoop.logger.debug("Lost the camera of the car {}: {}", Unbox.box(this.stream.carId), ioe.getMessage());
+				remove(this);
+			}
+		}
+
+		/**
+		 * @return true, if the connection has been closed by this call, false if it has been closed before.
+		 */
+		private boolean close() {
+			if(this.closed)
+				return false;
+			this.closed = true;
+			this.key.cancel();
+			VideoRelay.close(this.channel);
+			if(this.frame != null) {
+				VideoLoop.this.pool.release(this.frame);
+				this.frame = null;
+			}
+			return true;
+		}
+
+	}
+
+
+	/**
+	 * The connection of a phone, that the frames are written to.
+	 */
+	private final class Viewer {
+
+		/** The connection of the phone. */
+		private final SocketChannel channel;
+
+		/** The remote address of the connection. */
+		private final InetAddress address;
+
+		/** The stream of the car, that the phone receives. */
+		private final Stream stream;
+
+		/** The ID of the phone. */
+		private final String phoneId;
+
+		/** The key of the connection. */
+		private SelectionKey key;
+
+		/** The frame that is currently written, or null if the phone has received every frame. */
+		private VideoFrame current = null;
+
+		/** The part of the current frame, that has not been written yet. */
+		private ByteBuffer view = null;
+
+		/** The newest frame, that waits for the current frame to be written, or null. */
+		private VideoFrame pending = null;
+
+		/** True, once the connection has been closed. */
+		private boolean closed = false;
+
+
+		private Viewer(SocketChannel channel, InetAddress address, Stream stream, String phoneId) {
+			this.channel = channel;
+			this.address = address;
+			this.stream = stream;
+			this.phoneId = phoneId;
+		}
+
+
+		/**
+		 * Writes a frame to the phone right away, or keeps it until the current frame has been written. Replaces and drops a frame, that is kept already.
+		 */
+		private void offer(VideoFrame frame) {
+			frame.retain();
+			if(this.current == null) {
+				this.current = frame;
+				this.view = frame.view();
+				flush();
+			}
+			else {
+				if(this.pending != null) {
+					this.pending.release();
+					VideoLoop.this.statistics.frameDropped();
+				}
+				this.pending = frame;
+			}
+		}
+
+		/**
+		 * Writes as much of the current and the pending frame as the connection accepts, and waits for the connection to become writable otherwise.
+		 * Closes the connection if it has failed.
+		 */
+		private void flush() {
+			try {
+				while(this.current != null) {
+					this.channel.write(this.view);
+					if(this.view.hasRemaining()) {
+						interest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+					VideoLoop.this.statistics.frameSent(this.current.size());
+					this.current.release();
+					this.current = this.pending;
+					this.view = this.current == null ? null : this.current.view();
+					this.pending = null;
+				}
+				interest(SelectionKey.OP_READ);
+			} catch(IOException ioe) {
+				VideoLoop.logger.debug("Lost the video-connection of the phone {}: {}", this.phoneId, ioe.getMessage());
+				remove(this);
+			}
+		}
+
+		/**
+		 * Changes the operations, that the selector waits for, unless they are set already.
+		 */
+		private void interest(int operations) {
+			if(this.key.interestOps() != operations)
+				this.key.interestOps(operations);
+		}
+
+		/**
+		 * Reads and discards anything, that the phone has sent, e.g. keep-alives. Closes the connection if the phone has closed it.
+		 */
+		private void discard() {
+			try {
+				ByteBuffer discarded = VideoLoop.this.discarded;
+				int read;
+				do {
+					discarded.clear();
+					read = this.channel.read(discarded);
+				} while(read > 0);
+				if(read < 0)
+					throw new EOFException("The connection has been closed.");
+			} catch(IOException ioe) {
+				VideoLoop.logger.debug("Lost the video-connection of the phone {}: {}", this.phoneId, ioe.getMessage());
+				remove(this);
+			}
+		}
+
+		/**
+		 * @return true, if the connection has been closed by this call, false if it has been closed before.
+		 */
+		private boolean close() {
+			if(this.closed)
+				return false;
+			this.closed = true;
+			this.key.cancel();
+			VideoRelay.close(this.channel);
+			if(this.current != null)
+				this.current.release();
+			if(this.pending != null)
+				this.pending.release();
+			this.current = null;
+			this.pending = null;
+			this.view = null;
+			return true;
+		}
+
+	}
+
+}
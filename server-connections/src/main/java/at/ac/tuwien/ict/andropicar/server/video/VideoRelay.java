@@ -0,0 +1,233 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+
+/**
+ * A VideoRelay relays the frames of the cameras of cars to the phones, that are linked to or observe the cars, over a port of its own.<br>
+ * Video does not go through the JSON-messages of the car- and phone-connections: every car and every phone opens a separate connection to the video-port
+ * and sends a {@link VideoHello hello}. The relay replies with a single byte, which is 1 if the connection has been accepted (see {@link IVideoAuthorization}),
+ * or 0 before closing the connection. From then on, the car sends its frames, each of which consists of its length (four bytes, big-endian) and its content.
+ * A frame with a length of 0 is a keep-alive and is not relayed. The phones receive the frames exactly as they have been sent by the car.
+ * A connection is only accepted from the address of the registered control-connection of the car or phone, whose ID is claimed by its hello.
+ * A car that connects again replaces its previous connection only if nothing has been received on it for the source-timeout
+ * (see {@link VideoConfiguration#getSourceTimeout()}), otherwise the new connection is closed right after the reply.<br>
+ * The connections are non-blocking. The acceptor of the relay reads the hellos and hands every connection over to one of the {@link VideoLoop}s,
+ * which is chosen by the ID of the car, so a car and all of its phones are served by the same thread and the frames are relayed without any locks.
+ * A frame is read into a pooled direct buffer once and written to every phone from a view of the same buffer, so it is never copied on the Java-heap.
+ * A phone that cannot keep up is sent the newest frame, as soon as it has received the current one, and the frames in between are dropped
+ * (see {@link VideoStatistics#getDroppedFrames()}), so a slow phone neither delays the other phones nor falls behind the car.
+ */
+public class VideoRelay implements Runnable {
+
+	/** The maximum time in milliseconds between two checks of the deadlines of the hellos. */
+	private static final long HELLO_CHECK_INTERVAL = 100;
+
+	/** The settings of the relay. */
+	private final VideoConfiguration configuration;
+
+	/** Decides, which cars and phones may send and receive video. */
+	private final IVideoAuthorization authorization;
+
+	/** The counters of the relay. */
+	private final VideoStatistics statistics = new VideoStatistics();
+
+	/** The threads that relay the frames. */
+	private final VideoLoop[] loops;
+
+	/** The channel that accepts the connections. */
+	private ServerSocketChannel serverChannel;
+
+	/** The selector of the acceptor. */
+	private Selector selector;
+
+	/** The flag, that indicates, if the relay should keep running or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(VideoRelay.class);
+
+
+	/**
+	 * @param configuration the settings of the relay.
+	 * @param authorization decides, which cars and phones may send and receive video.
+	 */
+	public VideoRelay(VideoConfiguration configuration, IVideoAuthorization authorization) {
+		this.configuration = configuration;
+		this.authorization = authorization;
+		this.loops = new VideoLoop[configuration.getLoops()];
+	}
+
+
+	/**
+	 * Binds the video-port and starts the threads of the relay.
+	 * @throws IOException if the video-port could not be bound.
+	 */
+	public void start() throws IOException {
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			this.serverChannel.bind(new InetSocketAddress(this.configuration.getVideoPort()));
+			this.serverChannel.configureBlocking(false);
+			this.selector = Selector.open();
+			this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+			for(int i = 0; i < this.loops.length; i++)
+				this.loops[i] = new VideoLoop(this, i);
+		} catch(IOException ioe) {
+			this.serverChannel.close();
+			if(this.selector != null)
+				this.selector.close();
+			throw ioe;
+		}
+		for(VideoLoop loop : this.loops)
+			loop.start();
+		(new Thread(this, "Video Acceptor")).start();
+		VideoRelay.logger.info("Relaying video on the port {} with {} threads.", Unbox.box(this.configuration.getVideoPort()), Unbox.box(this.loops.length));
+	}
+
+	/**
+	 * Stops the relay and closes all of its connections.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+		if(this.selector != null)
+			this.selector.wakeup();
+		for(VideoLoop loop : this.loops) {
+			if(loop != null)
+				loop.wakeup();
+		}
+	}
+
+	boolean isRunning() { return this.keepRunning; }
+
+	VideoConfiguration getConfiguration() { return this.configuration; }
+
+	IVideoAuthorization getAuthorization() { return this.authorization; }
+
+	/**
+	 * @return the counters of the relay.
+	 */
+	public VideoStatistics getStatistics() { return this.statistics; }
+
+	@Override
+	public void run() {
+		try {
+			while(this.keepRunning) {
+				this.selector.select(HELLO_CHECK_INTERVAL);
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+						continue;
+					if(key.isAcceptable())
+						accept();
+					else if(key.isReadable())
+						readHello(key);
+				}
+				expireHellos();
+			}
+		} catch(IOException ioe) {
+			VideoRelay.logger.error("The video-acceptor failed.", ioe);
+		} finally {
+			for(SelectionKey key : this.selector.keys())
+				close(key.channel());
+			try {
+				this.selector.close();
+			} catch(IOException ioe) {}
+		}
+	}
+
+	/**
+	 * Accepts all pending connections and waits for their hellos.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while((channel = this.serverChannel.accept()) != null) {
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				if(this.configuration.getSendBufferSize() > 0)
+					channel.socket().setSendBufferSize(this.configuration.getSendBufferSize());
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.configuration.getHelloTimeout());
+				channel.register(this.selector, SelectionKey.OP_READ, new VideoHello(channel, deadline));
+			} catch(IOException ioe) {
+				VideoRelay.logger.debug("Could not accept a video-connection: {}", ioe.getMessage());
+				close(channel);
+			}
+		}
+	}
+
+	/**
+	 * Reads the hello of a connection and hands the connection over to its loop, once the hello is complete and the connection is allowed.
+	 */
+	private void readHello(SelectionKey key) {
+		VideoHello hello = (VideoHello) key.attachment();
+		try {
+			if(!hello.read())
+				return;
+		} catch(IOException ioe) {
+			VideoRelay.logger.debug("Invalid hello on the video-port: {}", ioe.getMessage());
+			this.statistics.connectionRejected();
+			close(key.channel());
+			return;
+		}
+		key.cancel();
+		boolean allowed = hello.getRole() == EVideoRole.CAR ? this.authorization.mayStream(hello.getCarId(), hello.getAddress())
+				: this.authorization.mayView(hello.getPhoneId(), hello.getCarId(), hello.getAddress());
+		try {
+			// a single byte always fits into the empty send-buffer of a new connection
+			if(hello.getChannel().write(ByteBuffer.wrap(new byte[] {(byte) (allowed ? 1 : 0)})) == 1 && allowed) {
+				this.loops[loopIndex(hello.getCarId())].handOver(hello);
+				return;
+			}
+		} catch(IOException ioe) {}
+		if(!allowed) {
+			VideoRelay.logger.debug("Rejected the video of the car {} for {}.", Unbox.box(hello.getCarId()), hello.getRole() == EVideoRole.CAR ? "the car" : hello.getPhoneId());
+			this.statistics.connectionRejected();
+		}
+		close(hello.getChannel());
+	}
+
+	/**
+	 * Closes the connections, that have not completed their hellos in time.
+	 */
+	private void expireHellos() {
+		long now = System.nanoTime();
+		for(SelectionKey key : this.selector.keys()) {
+			if(key.isValid() && key.attachment() instanceof VideoHello && now - ((VideoHello) key.attachment()).getDeadline() > 0) {
+				this.statistics.connectionRejected();
+				close(key.channel());
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the loop, that serves the car with the passed ID and all of its phones.
+	 */
+	private int loopIndex(long carId) {
+		return (Long.hashCode(carId) & Integer.MAX_VALUE) % this.loops.length;
+	}
+
+	/**
+	 * Closes a channel and ignores any errors.
+	 */
+	static void close(Channel channel) {
+		try {
+			channel.close();
+		} catch(IOException ioe) {}
+	}
+
+}
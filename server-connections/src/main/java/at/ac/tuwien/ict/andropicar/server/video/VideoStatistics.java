@@ -0,0 +1,108 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts the frames and bytes, that a {@link VideoRelay} has received from cars and sent to phones.<br>
+ * A frame that has been replaced by a newer one before it could be sent to a slow phone counts as dropped.
+ * The counters are updated by the threads of the relay and can be read by any thread.
+ */
+public class VideoStatistics {
+
+	/** The number of cars, that are currently sending video. */
+	private final LongAdder sources = new LongAdder();
+
+	/** The number of phones, that are currently receiving video. */
+	private final LongAdder viewers = new LongAdder();
+
+	/** The number of connections, that have been rejected. */
+	private final LongAdder rejected = new LongAdder();
+
+	/** The number of frames received from cars. */
+	private final LongAdder receivedFrames = new LongAdder();
+
+	/** The number of bytes received from cars, including the headers of the frames. */
+	private final LongAdder receivedBytes = new LongAdder();
+
+	/** The number of frames sent to phones. */
+	private final LongAdder sentFrames = new LongAdder();
+
+	/** The number of bytes sent to phones, including the headers of the frames. */
+	private final LongAdder sentBytes = new LongAdder();
+
+	/** The number of frames, that have not been sent to a phone, because a newer frame has been received first. */
+	private final LongAdder droppedFrames = new LongAdder();
+
+
+	void sourceAdded() { this.sources.increment(); }
+
+	void sourceRemoved() { this.sources.decrement(); }
+
+	void viewerAdded() { this.viewers.increment(); }
+
+	void viewerRemoved() { this.viewers.decrement(); }
+
+	void connectionRejected() { this.rejected.increment(); }
+
+	/**
+	 * Counts a frame received from a car.
+	 * @param bytes the size of the frame, including its header.
+	 */
+	void frameReceived(int bytes) {
+		this.receivedFrames.increment();
+		this.receivedBytes.add(bytes);
+	}
+
+	/**
+	 * Counts a frame sent to a phone.
+	 * @param bytes the size of the frame, including its header.
+	 */
+	void frameSent(int bytes) {
+		this.sentFrames.increment();
+		this.sentBytes.add(bytes);
+	}
+
+	void frameDropped() { this.droppedFrames.increment(); }
+
+	/**
+	 * @return the number of cars, that are currently sending video.
+	 */
+	public long getSources() { return this.sources.sum(); }
+
+	/**
+	 * @return the number of phones, that are currently receiving video.
+	 */
+	public long getViewers() { return this.viewers.sum(); }
+
+	/**
+	 * @return the number of connections, that have been rejected.
+	 */
+	public long getRejected() { return this.rejected.sum(); }
+
+	/**
+	 * @return the number of frames received from cars.
+	 */
+	public long getReceivedFrames() { return this.receivedFrames.sum(); }
+
+	/**
+	 * @return the number of bytes received from cars, including the headers of the frames.
+	 */
+	public long getReceivedBytes() { return this.receivedBytes.sum(); }
+
+	/**
+	 * @return the number of frames sent to phones.
+	 */
+	public long getSentFrames() { return this.sentFrames.sum(); }
+
+	/**
+	 * @return the number of bytes sent to phones, including the headers of the frames.
+	 */
+	public long getSentBytes() { return this.sentBytes.sum(); }
+
+	/**
+	 * @return the number of frames, that have not been sent to a phone, because a newer frame has been received first.
+	 */
+	public long getDroppedFrames() { return this.droppedFrames.sum(); }
+
+}
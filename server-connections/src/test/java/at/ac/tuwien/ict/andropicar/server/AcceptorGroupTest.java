@@ -0,0 +1,137 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.connections.Connection;
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Measures the accepted connections per second of an {@link AcceptorGroup} with one and with several acceptors per port on loopback.
+ */
+public class AcceptorGroupTest {
+
+	/** The number of connections that are opened per measurement. */
+	private static final int CONNECTIONS = 1000;
+
+	/** The number of threads that open the connections. */
+	private static final int CLIENTS = 4;
+
+	/** The maximum time in milliseconds to wait for an accepted connection. */
+	private static final long TIMEOUT = 10000;
+
+
+	@Test
+	public void acceptsConnectionsWithOneAcceptor() throws Exception {
+		measureAcceptRate(1);
+	}
+
+	@Test
+	public void acceptsConnectionsWithSeveralAcceptors() throws Exception {
+		measureAcceptRate(4);
+	}
+
+	/**
+	 * Opens {@link #CONNECTIONS} connections to a group with the passed number of acceptors, waits until all of them have been handed to the main-thread
+	 * and prints the accepted connections per second.
+	 */
+	private void measureAcceptRate(int acceptorsPerPort) throws Exception {
+		AcceptorConfiguration configuration = new AcceptorConfiguration();
+		configuration.setAcceptorsPerPort(acceptorsPerPort);
+		LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+		ConnectionAcceptor[] acceptors = new ConnectionAcceptor[acceptorsPerPort];
+		int port = freePort();
+		for(int i = 0; i < acceptorsPerPort; i++)
+			acceptors[i] = new CarConnectionAcceptor(port, operationQueue, configuration);
+		AcceptorGroup group = new AcceptorGroup("Test acceptor", acceptors);
+		assertTrue(group.start());
+
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		List<Future<List<Socket>>> opened = new ArrayList<>();
+		List<Connection> accepted = new ArrayList<>();
+		try {
+			long start = System.nanoTime();
+			for(int i = 0; i < CLIENTS; i++)
+				opened.add(clients.submit(new Opener(group.getPort(), CONNECTIONS / CLIENTS)));
+			while(accepted.size() < CONNECTIONS) {
+				QueueElement element = operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+				if(element == null)
+					break;
+				if(element.getOperationType() == EOperationType.CONNECT)
+					accepted.add(element.getConnection());
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format(Locale.ROOT, "%d acceptor(s): %d connections accepted in %.1f ms, %.0f connections/s",
+					acceptorsPerPort, accepted.size(), elapsed / 1e6, accepted.size() * 1e9 / elapsed));
+			assertEquals(CONNECTIONS, accepted.size());
+		} finally {
+			group.finish();
+			for(Connection connection : accepted)
+				connection.finishConnection();
+			for(Future<List<Socket>> sockets : opened) {
+				for(Socket socket : sockets.get())
+					socket.close();
+			}
+			clients.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return a port that is currently not in use.
+	 */
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+
+	/**
+	 * Opens a number of connections to a port and keeps them open.
+	 */
+	private static class Opener implements Callable<List<Socket>> {
+
+		/** The port to connect to. */
+		private final int port;
+
+		/** The number of connections to open. */
+		private final int count;
+
+
+		private Opener(int port, int count) {
+			this.port = port;
+			this.count = count;
+		}
+
+
+		@Override
+		public List<Socket> call() throws IOException {
+			List<Socket> sockets = new ArrayList<>();
+			for(int i = 0; i < this.count; i++) {
+				Socket socket = new Socket();
+				socket.connect(new InetSocketAddress("localhost", this.port), (int) TIMEOUT);
+				sockets.add(socket);
+			}
+			return sockets;
+		}
+	}
+
+}
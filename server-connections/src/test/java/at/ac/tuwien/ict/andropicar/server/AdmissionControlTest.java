@@ -0,0 +1,137 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOverflowPolicy;
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitStatistics;
+
+
+public class AdmissionControlTest {
+
+	private HashedTimingWheel timer;
+
+	private ServerSocket listener;
+
+	private final List<Socket> sockets = new ArrayList<>();
+
+
+	@Before
+	public void setUp() throws IOException {
+		this.timer = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 64);
+		(new Thread(this.timer, "Timer")).start();
+		this.listener = new ServerSocket(0);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.timer.stop();
+		this.listener.close();
+		for(Socket socket : this.sockets)
+			socket.close();
+	}
+
+	@Test
+	public void defersDelayedConnectionsWithoutBlocking() throws Exception {
+		RateLimitStatistics statistics = new RateLimitStatistics();
+		AdmissionControl admissionControl = new AdmissionControl(settings(EOverflowPolicy.DELAY), statistics, this.timer);
+		RecordingAcceptor acceptor = new RecordingAcceptor();
+
+		assertTrue(admissionControl.admit(accept(), acceptor));
+		long start = System.nanoTime();
+		assertFalse(admissionControl.admit(accept(), acceptor));
+		assertFalse(admissionControl.admit(accept(), acceptor));
+		// the acceptor-thread has not waited for the reservations
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(2, statistics.getDelayedConnections());
+
+		// 10 connections per second, so the deferred connections are handed over after about 100 and 200 ms
+		assertNotNull(acceptor.handedOver.poll(1, TimeUnit.SECONDS));
+		assertNotNull(acceptor.handedOver.poll(1, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+
+		// a connection that would have to wait longer than the maximum delay is rejected
+		for(int i = 0; i < 5; i++)
+			admissionControl.admit(accept(), acceptor);
+		assertTrue(statistics.getRejectedConnections() > 0);
+	}
+
+	@Test
+	public void rejectsConnectionsAboveRate() throws Exception {
+		RateLimitStatistics statistics = new RateLimitStatistics();
+		AdmissionControl admissionControl = new AdmissionControl(settings(EOverflowPolicy.DROP), statistics, this.timer);
+		RecordingAcceptor acceptor = new RecordingAcceptor();
+		Socket admitted = accept();
+		assertTrue(admissionControl.admit(admitted, acceptor));
+		Socket rejected = accept();
+		assertFalse(admissionControl.admit(rejected, acceptor));
+		assertTrue(rejected.isClosed());
+		assertEquals(1, statistics.getRejectedConnections());
+	}
+
+	/**
+	 * @return the server-side socket of a new connection to the {@link #listener}.
+	 */
+	private Socket accept() throws IOException {
+		Socket client = new Socket();
+		client.connect(new InetSocketAddress("localhost", this.listener.getLocalPort()));
+		this.sockets.add(client);
+		Socket socket = this.listener.accept();
+		this.sockets.add(socket);
+		return socket;
+	}
+
+	/**
+	 * @return settings that allow 10 connections per second per IP-address, without a burst, and delay them by at most 300 ms.
+	 */
+	private static RateLimitSettings settings(EOverflowPolicy policy) {
+		RateLimitSettings settings = new RateLimitSettings();
+		settings.setConnectionsPerSecond(10);
+		settings.setConnectionBurst(1);
+		settings.setAdmissionPolicy(policy);
+		settings.setMaxDelay(300);
+		return settings;
+	}
+
+
+	/**
+	 * An acceptor that records the connections that are handed over to it, instead of creating {@link at.ac.tuwien.ict.andropicar.server.connections.Connection}s.
+	 */
+	private static class RecordingAcceptor extends ConnectionAcceptor {
+
+		private final LinkedBlockingQueue<Socket> handedOver = new LinkedBlockingQueue<>();
+
+
+		private RecordingAcceptor() {
+			super(0, new LinkedBlockingQueue<QueueElement>());
+		}
+
+
+		@Override
+		protected void handOver(Socket socket) {
+			this.handedOver.add(socket);
+		}
+
+		@Override
+		public void run() {}
+	}
+
+}
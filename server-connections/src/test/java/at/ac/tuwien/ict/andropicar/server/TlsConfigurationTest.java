@@ -0,0 +1,177 @@
+package at.ac.tuwien.ict.andropicar.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import at.ac.tuwien.ict.andropicar.server.connections.CarConnection;
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+import at.ac.tuwien.ict.andropicar.server.helper.TlsStatistics;
+
+
+/**
+ * Connects a car twice to a TLS-wrapped connection on loopback, with a key-store that is generated by the keytool of the running JVM.
+ */
+public class TlsConfigurationTest {
+
+	/** The password of the generated key-store and its key. */
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	/** The maximum time in milliseconds to wait for a handshake or a registration. */
+	private static final int TIMEOUT = 10000;
+
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	private final TlsStatistics statistics = new TlsStatistics();
+
+	private TlsConfiguration configuration;
+
+	private ServerSocket serverSocket;
+
+	/** The context of the car, which trusts the self-signed certificate of the server and keeps its sessions for resumption. */
+	private SSLContext carContext;
+
+
+	@Before
+	public void setUp() throws Exception {
+		File keyStore = new File(folder.getRoot(), "server.p12");
+		if(!keyStore.exists())
+			generateKeyStore(keyStore);
+		this.configuration = new TlsConfiguration(TlsConfiguration.createContext(keyStore.getPath(), PASSWORD));
+		this.configuration.applySessionSettings();
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		this.carContext = SSLContext.getInstance("TLS");
+		this.carContext.init(null, new TrustManager[] {new X509TrustManager() {
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers() { return new X509Certificate[0]; }
+		}}, null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.serverSocket.close();
+	}
+
+	@Test
+	public void wrappedConnectionCompletesHandshake() throws Exception {
+		connectCar(17);
+		assertEquals(1, this.statistics.getFullHandshakes());
+		assertEquals(0, this.statistics.getResumedHandshakes());
+		assertEquals(0, this.statistics.getFailedHandshakes());
+	}
+
+	@Test
+	public void reconnectingCarResumesItsSession() throws Exception {
+		connectCar(17);
+		// the creation time of a session has a resolution of milliseconds
+		Thread.sleep(10);
+		connectCar(17);
+		assertEquals(1, this.statistics.getFullHandshakes());
+		assertEquals(1, this.statistics.getResumedHandshakes());
+		assertEquals(1, this.statistics.getResumedHandshakeTime().getCount());
+	}
+
+	@Test
+	public void plainConnectionFailsHandshake() throws Exception {
+		Socket device = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		CarConnection car = acceptCar();
+		OutputStream output = device.getOutputStream();
+		output.write("{\"id\":17}".getBytes(StandardCharsets.UTF_8));
+		output.flush();
+		assertTrue(car.awaitClosed(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(1, this.statistics.getFailedHandshakes());
+		assertEquals(0, this.statistics.getFullHandshakes());
+		device.close();
+	}
+
+	/**
+	 * Connects a car over TLS, lets it register and closes its connection again.
+	 */
+	private void connectCar(long id) throws Exception {
+		long handshakes = this.statistics.getFullHandshakes() + this.statistics.getResumedHandshakes();
+		SSLSocket device = (SSLSocket) this.carContext.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		CarConnection car = acceptCar();
+		device.setSoTimeout(TIMEOUT);
+		device.startHandshake();
+		OutputStream output = device.getOutputStream();
+		output.write(("{\"id\":" + id + "}").getBytes(StandardCharsets.UTF_8));
+		output.flush();
+		QueueElement element;
+		do {
+			element = this.operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			assertNotNull("The car has not registered.", element);
+		} while(element.getOperationType() != EOperationType.REGISTER);
+		assertEquals(handshakes + 1, this.statistics.getFullHandshakes() + this.statistics.getResumedHandshakes());
+
+		// reading processes the session-ticket, that a TLS 1.3 server sends after the handshake
+		device.setSoTimeout(100);
+		try {
+			device.getInputStream().read();
+		} catch(SocketTimeoutException ste) {
+			// nothing else is sent to the car
+		}
+		car.finishConnection();
+		device.close();
+		assertTrue(car.awaitClosed(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Accepts the next connection, wraps it like the acceptors do and starts the thread of the car.
+	 */
+	private CarConnection acceptCar() throws IOException {
+		Socket socket = this.serverSocket.accept();
+		socket.setSoTimeout(1);
+		socket.setTcpNoDelay(true);
+		CarConnection car = new CarConnection(this.configuration.wrap(socket), this.operationQueue);
+		car.setTls(this.configuration.getHandshakeTimeout(), this.statistics);
+		new Thread(car, "Car").start();
+		return car;
+	}
+
+	/**
+	 * Generates a key-store with a self-signed certificate for localhost, using the keytool of the running JVM.
+	 */
+	private static void generateKeyStore(File keyStore) throws IOException, InterruptedException {
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.getPath(),
+				"-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD)).redirectErrorStream(true).start();
+		assertTrue("keytool did not finish in time", process.waitFor(60, TimeUnit.SECONDS));
+		assertEquals("keytool failed", 0, process.exitValue());
+	}
+
+}
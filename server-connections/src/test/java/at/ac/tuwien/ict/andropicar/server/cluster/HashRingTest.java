@@ -0,0 +1,121 @@
+package at.ac.tuwien.ict.andropicar.server.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+
+public class HashRingTest {
+
+	/** The number of points per node, which is the default of the {@link ClusterConfiguration}. */
+	private static final int VIRTUAL_NODES = 128;
+
+	/** The number of cars whose owners are compared. */
+	private static final int CARS = 100000;
+
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyRing() {
+		new HashRing(Collections.<String>emptyList(), VIRTUAL_NODES);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsRingWithoutPoints() {
+		new HashRing(Arrays.asList("a"), 0);
+	}
+
+	@Test
+	public void singleNodeOwnsAllCars() {
+		HashRing ring = new HashRing(Arrays.asList("a"), VIRTUAL_NODES);
+		assertEquals(VIRTUAL_NODES, ring.size());
+		for(long carId = 0; carId < 1000; carId++)
+			assertEquals("a", ring.ownerOf(carId));
+	}
+
+	@Test
+	public void everyNodeBuildsTheSameRing() {
+		HashRing ring = new HashRing(Arrays.asList("a", "b", "c", "d"), VIRTUAL_NODES);
+		HashRing shuffledRing = new HashRing(Arrays.asList("c", "a", "d", "b"), VIRTUAL_NODES);
+		assertEquals(4 * VIRTUAL_NODES, ring.size());
+		for(long carId = 0; carId < CARS; carId++)
+			assertEquals(ring.ownerOf(carId), shuffledRing.ownerOf(carId));
+	}
+
+	@Test
+	public void spreadsCarsEvenly() {
+		List<String> nodes = nodes(4);
+		HashRing ring = new HashRing(nodes, VIRTUAL_NODES);
+		HashMap<String, Integer> counts = new HashMap<>();
+		for(long carId = 0; carId < CARS; carId++) {
+			String owner = ring.ownerOf(carId);
+			Integer count = counts.get(owner);
+			counts.put(owner, count == null ? 1 : count + 1);
+		}
+		assertEquals(nodes.size(), counts.size());
+		for(int count : counts.values()) {
+			double share = (double) count / CARS;
+			assertTrue("share " + share, share > 0.25 * 0.8 && share < 0.25 * 1.2);
+		}
+	}
+
+	@Test
+	public void joiningNodeTakesOverAboutOneNthOfTheCars() {
+		for(int nodeCount = 2; nodeCount <= 8; nodeCount++) {
+			HashRing before = new HashRing(nodes(nodeCount - 1), VIRTUAL_NODES);
+			HashRing after = new HashRing(nodes(nodeCount), VIRTUAL_NODES);
+			String joined = "node" + (nodeCount - 1);
+			int moved = 0;
+			for(long carId = 0; carId < CARS; carId++) {
+				String owner = after.ownerOf(carId);
+				if(!owner.equals(before.ownerOf(carId))) {
+					// a car only moves to the joining node, never between the remaining nodes
+					assertEquals(joined, owner);
+					moved++;
+				}
+			}
+			double share = (double) moved / CARS;
+			System.out.println(String.format(Locale.ROOT, "%d -> %d nodes: %.3f of the cars moved, 1/N is %.3f", nodeCount - 1, nodeCount, share, 1.0 / nodeCount));
+			assertTrue("share " + share, share > 0.8 / nodeCount && share < 1.2 / nodeCount);
+		}
+	}
+
+	@Test
+	public void leavingNodeOnlyHandsOverItsOwnCars() {
+		HashRing before = new HashRing(nodes(5), VIRTUAL_NODES);
+		List<String> remaining = nodes(5);
+		remaining.remove("node2");
+		HashRing after = new HashRing(remaining, VIRTUAL_NODES);
+		HashMap<String, Integer> takenOver = new HashMap<>();
+		for(long carId = 0; carId < CARS; carId++) {
+			String previousOwner = before.ownerOf(carId);
+			String owner = after.ownerOf(carId);
+			if(previousOwner.equals("node2")) {
+				Integer count = takenOver.get(owner);
+				takenOver.put(owner, count == null ? 1 : count + 1);
+			}
+			else
+				assertEquals(previousOwner, owner);
+		}
+		// the virtual nodes spread the cars of the leaving node over all remaining nodes
+		assertEquals(remaining.size(), takenOver.size());
+	}
+
+	/**
+	 * @return the IDs of the passed number of nodes.
+	 */
+	private static List<String> nodes(int count) {
+		List<String> nodes = new ArrayList<>();
+		for(int i = 0; i < count; i++)
+			nodes.add("node" + i);
+		return nodes;
+	}
+
+}
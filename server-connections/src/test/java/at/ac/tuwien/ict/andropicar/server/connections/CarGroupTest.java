@@ -0,0 +1,128 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Sends commands to a group of two cars on loopback, whose frame-queues are flooded right after the command.
+ */
+public class CarGroupTest {
+
+	/** The IDs of the cars of the group. */
+	private static final long[] CAR_IDS = {17, 18};
+
+	/** The maximum time in milliseconds to wait for a car or a command. */
+	private static final int TIMEOUT = 5000;
+
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	private ServerSocket serverSocket;
+
+	/** The ends of the car-connections on the side of the cars. */
+	private final Socket[] carDevices = new Socket[CAR_IDS.length];
+
+	private final CarConnection[] cars = new CarConnection[CAR_IDS.length];
+
+	private CarGroup group;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.group = new CarGroup("group", Arrays.asList(CAR_IDS[0], CAR_IDS[1]));
+		for(int i = 0; i < CAR_IDS.length; i++) {
+			this.carDevices[i] = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+			this.carDevices[i].setSoTimeout(TIMEOUT);
+			Socket socket = this.serverSocket.accept();
+			socket.setSoTimeout(1);
+			this.cars[i] = new CarConnection(socket, this.operationQueue);
+			new Thread(this.cars[i], "Car " + CAR_IDS[i]).start();
+			OutputStream output = this.carDevices[i].getOutputStream();
+			output.write(("{\"id\":" + CAR_IDS[i] + "}").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			QueueElement element;
+			do {
+				element = this.operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+				assertNotNull("The car has not registered.", element);
+			} while(element.getOperationType() != EOperationType.REGISTER);
+			assertTrue(this.group.addMember(this.cars[i]));
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for(int i = 0; i < CAR_IDS.length; i++) {
+			this.cars[i].finishConnection();
+			this.carDevices[i].close();
+		}
+		this.serverSocket.close();
+	}
+
+	@Test
+	public void stopReachesEveryMemberWhoseQueueIsFull() throws IOException {
+		assertEquals(CAR_IDS.length, this.group.broadcast(message(Keywords.stop, 1)));
+		// more frames than the queues can hold, so the oldest queued frames are dropped
+		for(int i = 0; i < 64; i++)
+			for(CarConnection car : this.cars)
+				car.offerFrame(SharedFrame.encode(message(Keywords.frontLights, i % 2), null));
+
+		for(Socket carDevice : this.carDevices) {
+			InputStreamReader input = new InputStreamReader(carDevice.getInputStream(), StandardCharsets.UTF_8);
+			// the read times out, if the stop-command is never sent
+			while(!readMessage(input).contains("\"" + Keywords.stop + "\""));
+		}
+	}
+
+	@Test
+	public void commandWithoutStopIsQueued() throws IOException {
+		assertEquals(CAR_IDS.length, this.group.broadcast(message(Keywords.backLights, 1)));
+		for(Socket carDevice : this.carDevices) {
+			InputStreamReader input = new InputStreamReader(carDevice.getInputStream(), StandardCharsets.UTF_8);
+			String message = readMessage(input);
+			assertTrue(message, message.contains("\"" + Keywords.backLights + "\":1"));
+		}
+	}
+
+	/**
+	 * Reads the next message that is sent to a car.
+	 */
+	private static String readMessage(InputStreamReader input) throws IOException {
+		StringBuilder message = new StringBuilder();
+		int character;
+		while((character = input.read()) != -1) {
+			message.append((char) character);
+			if(character == '}')
+				return message.toString();
+		}
+		throw new IOException("The connection has been closed.");
+	}
+
+	private static HashMap<String, Object> message(String key, long value) {
+		HashMap<String, Object> message = new HashMap<>();
+		message.put(key, value);
+		return message;
+	}
+
+}
@@ -0,0 +1,64 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOverflowPolicy;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings;
+import at.ac.tuwien.ict.andropicar.server.helper.RateLimitStatistics;
+
+
+public class ConnectionRateLimiterTest {
+
+	@Test
+	public void oversizedMessagesDoNotUseUpMessageBudget() {
+		oversizedMessagesDoNotUseUpMessageBudget(EOverflowPolicy.DROP);
+	}
+
+	@Test
+	public void oversizedDelayedMessagesDoNotUseUpMessageBudget() {
+		oversizedMessagesDoNotUseUpMessageBudget(EOverflowPolicy.DELAY);
+	}
+
+	/**
+	 * Sends many messages that exceed the byte-limit, followed by small messages, which have to be admitted as long as the message-limit allows them.
+	 */
+	private void oversizedMessagesDoNotUseUpMessageBudget(EOverflowPolicy policy) {
+		RateLimitStatistics statistics = new RateLimitStatistics();
+		ConnectionRateLimiter limiter = new ConnectionRateLimiter(settings(policy), statistics);
+		for(int i = 0; i < 20; i++)
+			assertFalse(limiter.admit(100000));
+		assertEquals(20, statistics.getDroppedMessages());
+		for(int i = 0; i < 5; i++)
+			assertTrue("message " + i, limiter.admit(10));
+	}
+
+	@Test
+	public void dropsMessagesAboveRate() {
+		RateLimitStatistics statistics = new RateLimitStatistics();
+		ConnectionRateLimiter limiter = new ConnectionRateLimiter(settings(EOverflowPolicy.DROP), statistics);
+		int admitted = 0;
+		for(int i = 0; i < 10; i++)
+			admitted += limiter.admit(10) ? 1 : 0;
+		assertEquals(5, admitted);
+		assertEquals(5, statistics.getDroppedMessages());
+	}
+
+	/**
+	 * @return settings with a burst of 5 messages and 1000 bytes, that are refilled slowly.
+	 */
+	private static RateLimitSettings settings(EOverflowPolicy policy) {
+		RateLimitSettings settings = new RateLimitSettings();
+		settings.setMessagesPerSecond(1);
+		settings.setMessageBurst(5);
+		settings.setBytesPerSecond(1);
+		settings.setByteBurst(1000);
+		settings.setMessagePolicy(policy);
+		settings.setMaxDelay(10);
+		return settings;
+	}
+
+}
@@ -0,0 +1,170 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Links a phone that never sends control-data to a car on loopback, and measures the time between the deadline of the link
+ * and the stop-command arriving at the car.
+ */
+public class ControlWatchdogTest {
+
+	/** The time in milliseconds without control-data, after which the car is stopped. */
+	private static final long CONTROL_TIMEOUT = 20;
+
+	/** The time in milliseconds after the deadline, that 99 % of the stop-commands have to arrive at the car within.
+	 * This is two ticks of the timing wheel and the read-timeout of the car, with generous slack for the scheduler. */
+	private static final long MAX_STOP_DELAY = 50;
+
+	/** The number of stop-commands that are measured. */
+	private static final int SAMPLES = 100;
+
+	/** The maximum time in milliseconds to wait for the car or a stop-command. */
+	private static final int TIMEOUT = 5000;
+
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	private ServerSocket serverSocket;
+
+	private HashedTimingWheel timer;
+
+	/** The end of the car-connection on the side of the car. */
+	private Socket carDevice;
+
+	/** The end of the phone-connection on the side of the phone. */
+	private Socket phoneDevice;
+
+	private CarConnection car;
+
+	private PhoneConnection phone;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.timer = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 512);
+		new Thread(this.timer, "Timer").start();
+
+		this.carDevice = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		this.carDevice.setSoTimeout(TIMEOUT);
+		this.car = new CarConnection(accept(), this.operationQueue);
+		new Thread(this.car, "Car").start();
+		OutputStream output = this.carDevice.getOutputStream();
+		output.write("{\"id\":17}".getBytes(StandardCharsets.UTF_8));
+		output.flush();
+		QueueElement element;
+		do {
+			element = this.operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			assertNotNull("The car has not registered.", element);
+		} while(element.getOperationType() != EOperationType.REGISTER);
+
+		// the phone does not need a thread, since it never sends anything
+		this.phoneDevice = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		this.phone = new PhoneConnection(accept(), this.operationQueue);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.timer.stop();
+		this.car.finishConnection();
+		this.phone.finishConnection();
+		this.carDevice.close();
+		this.phoneDevice.close();
+		this.serverSocket.close();
+	}
+
+	@Test
+	public void stopsCarShortlyAfterDeadline() throws IOException {
+		ControlWatchdog watchdog = new ControlWatchdog(this.timer, CONTROL_TIMEOUT, TimeUnit.MILLISECONDS);
+		InputStreamReader input = new InputStreamReader(this.carDevice.getInputStream(), StandardCharsets.UTF_8);
+		LatencyHistogram delays = new LatencyHistogram();
+		for(int i = 0; i < SAMPLES; i++) {
+			// linking resets the last control-data of the phone, and watching the link again replaces the previous deadline
+			this.phone.setLinkedCar(this.car);
+			this.car.setLinkedPhone(this.phone);
+			long deadline = this.phone.getLastControl() + TimeUnit.MILLISECONDS.toNanos(CONTROL_TIMEOUT);
+			watchdog.watch(this.phone, this.car);
+			String message = readMessage(input);
+			delays.record(System.nanoTime() - deadline);
+			assertTrue(message, message.contains("\"" + Keywords.stop + "\""));
+		}
+		LatencySnapshot snapshot = delays.getSnapshot();
+		assertEquals(SAMPLES, snapshot.getCount());
+		assertTrue("p99 of " + snapshot.getP99(TimeUnit.MILLISECONDS) + " ms", snapshot.getP99(TimeUnit.MILLISECONDS) < MAX_STOP_DELAY);
+		assertEquals(SAMPLES, watchdog.getStopCount());
+		assertEquals(1, watchdog.getWatchedLinks());
+	}
+
+	@Test
+	public void urgentFrameIsNotDroppedByQueuedFrames() throws IOException, InterruptedException {
+		SharedFrame stopFrame = SharedFrame.encode(message(Keywords.stop, 1), null);
+		stopFrame.retain();
+		this.car.offerUrgentFrame(stopFrame);
+		// more frames than the queue can hold, so the oldest queued frames are dropped
+		for(int i = 0; i < 64; i++)
+			this.car.offerFrame(SharedFrame.encode(message(Keywords.state, i), null));
+		InputStreamReader input = new InputStreamReader(this.carDevice.getInputStream(), StandardCharsets.UTF_8);
+		// the read times out, if the stop-command is never sent
+		while(!readMessage(input).contains("\"" + Keywords.stop + "\""));
+		// the car releases the frame right after writing it
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		while(stopFrame.getReferenceCount() > 1 && System.nanoTime() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, stopFrame.getReferenceCount());
+	}
+
+	/**
+	 * @return the connection of the next device on the server-side, configured like the acceptors do.
+	 */
+	private Socket accept() throws IOException {
+		Socket socket = this.serverSocket.accept();
+		socket.setSoTimeout(1);
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * Reads the next message that is sent to a device.
+	 */
+	private static String readMessage(InputStreamReader input) throws IOException {
+		StringBuilder message = new StringBuilder();
+		int character;
+		while((character = input.read()) != -1) {
+			message.append((char) character);
+			if(character == '}')
+				return message.toString();
+		}
+		throw new IOException("The connection has been closed.");
+	}
+
+	private static HashMap<String, Object> message(String key, long value) {
+		HashMap<String, Object> message = new HashMap<>();
+		message.put(key, value);
+		return message;
+	}
+
+}
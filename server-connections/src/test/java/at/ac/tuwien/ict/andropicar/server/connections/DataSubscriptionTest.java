@@ -0,0 +1,42 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+public class DataSubscriptionTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownKeywords() {
+		new DataSubscription(null, null, "typo");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownKeywordsAmongKnownOnes() {
+		new DataSubscription(null, null, Keywords.steering, "typo");
+	}
+
+	@Test
+	public void matchesDataSetsWithOneOfTheKeywords() {
+		DataSubscription subscription = new DataSubscription(Arrays.asList(3L, 1L), null, Keywords.steering, Keywords.acceleration);
+		assertTrue(subscription.matches(1, "phone", Keywords.maskOf(Keywords.acceleration, Keywords.stop)));
+		assertFalse(subscription.matches(1, "phone", Keywords.maskOf(Keywords.stop)));
+		assertFalse(subscription.matches(2, "phone", Keywords.maskOf(Keywords.steering)));
+	}
+
+	@Test
+	public void matchesAllKeywordsWithoutKeywords() {
+		DataSubscription subscription = new DataSubscription(null, "phone");
+		assertEquals(0, subscription.getKeywordMask());
+		assertTrue(subscription.matches(7, "phone", Keywords.maskOf(Keywords.hallSensor)));
+		assertFalse(subscription.matches(7, "other", Keywords.maskOf(Keywords.hallSensor)));
+	}
+
+}
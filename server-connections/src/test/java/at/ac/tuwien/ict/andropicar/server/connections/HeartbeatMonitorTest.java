@@ -0,0 +1,160 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.HashedTimingWheel;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Watches a car on loopback, whose end of the connection is driven by the test.
+ */
+public class HeartbeatMonitorTest {
+
+	/** The time in milliseconds without incoming data, after which the car is pinged. */
+	private static final long PING_INTERVAL = 100;
+
+	/** The time in milliseconds that the car has to answer a ping within. */
+	private static final long PING_TIMEOUT = 100;
+
+	/** The maximum time in milliseconds to wait for the car, a ping or the connection to be closed. */
+	private static final int TIMEOUT = 5000;
+
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	private ServerSocket serverSocket;
+
+	private HashedTimingWheel timer;
+
+	private HeartbeatMonitor monitor;
+
+	/** The end of the car-connection on the side of the car. */
+	private Socket carDevice;
+
+	private CarConnection car;
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.timer = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 512);
+		new Thread(this.timer, "Timer").start();
+		this.monitor = new HeartbeatMonitor(this.timer, PING_INTERVAL, PING_TIMEOUT, TimeUnit.MILLISECONDS);
+
+		this.carDevice = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		this.carDevice.setSoTimeout(TIMEOUT);
+		Socket socket = this.serverSocket.accept();
+		socket.setSoTimeout(1);
+		this.car = new CarConnection(socket, this.operationQueue);
+		new Thread(this.car, "Car").start();
+		send("{\"id\":17}");
+		QueueElement element;
+		do {
+			element = this.operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			assertNotNull("The car has not registered.", element);
+		} while(element.getOperationType() != EOperationType.REGISTER);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.timer.stop();
+		this.car.finishConnection();
+		this.carDevice.close();
+		this.serverSocket.close();
+	}
+
+	@Test
+	public void abortsConnectionOfSilentDevice() throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		this.monitor.watch(this.car);
+		InputStreamReader input = new InputStreamReader(this.carDevice.getInputStream(), StandardCharsets.UTF_8);
+		assertTrue(readMessage(input).contains("\"" + Keywords.ping + "\""));
+
+		assertTrue(this.car.awaitClosed(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(this.car.getCloseConnection());
+		// the device had the ping-interval to send something, and the ping-timeout to answer the ping
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= PING_INTERVAL + PING_TIMEOUT);
+	}
+
+	@Test
+	public void keepsConnectionOfDeviceThatAnswersPings() throws IOException, InterruptedException {
+		this.monitor.watch(this.car);
+		InputStreamReader input = new InputStreamReader(this.carDevice.getInputStream(), StandardCharsets.UTF_8);
+		for(int i = 1; i <= 3; i++) {
+			String message = readMessage(input);
+			assertTrue(message, message.contains("\"" + Keywords.ping + "\":" + i));
+			send("{\"" + Keywords.pong + "\":" + i + "}");
+		}
+		assertFalse(this.car.awaitClosed(PING_INTERVAL, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void activityMovesDeadline() throws IOException, InterruptedException {
+		this.monitor.watch(this.car);
+		InputStreamReader input = new InputStreamReader(this.carDevice.getInputStream(), StandardCharsets.UTF_8);
+		// the car sends sensor-data for more than three ping-intervals, but never more than a quarter of an interval apart
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(3 * PING_INTERVAL + PING_TIMEOUT);
+		while(System.nanoTime() < end) {
+			send("{\"" + Keywords.ultrasonicSensor + "\":1}");
+			Thread.sleep(PING_INTERVAL / 4);
+		}
+		assertFalse(this.car.getCloseConnection());
+
+		this.carDevice.setSoTimeout((int) (PING_INTERVAL / 2));
+		try {
+			fail("The active car has been pinged: " + readMessage(input));
+		} catch(SocketTimeoutException ste) {
+			// nothing has been sent to the car
+		}
+	}
+
+	@Test
+	public void pongIsNotPassedOn() {
+		HashMap<String, Object> decodedDataset = this.car.decode("{\"" + Keywords.pong + "\":1,\"" + Keywords.ultrasonicSensor + "\":2}");
+		assertFalse(decodedDataset.containsKey(Keywords.pong));
+		assertEquals(Long.valueOf(2), decodedDataset.get(Keywords.ultrasonicSensor));
+	}
+
+	private void send(String message) throws IOException {
+		OutputStream output = this.carDevice.getOutputStream();
+		output.write(message.getBytes(StandardCharsets.UTF_8));
+		output.flush();
+	}
+
+	/**
+	 * Reads the next message that is sent to the car.
+	 */
+	private static String readMessage(InputStreamReader input) throws IOException {
+		StringBuilder message = new StringBuilder();
+		int character;
+		while((character = input.read()) != -1) {
+			message.append((char) character);
+			if(character == '}')
+				return message.toString();
+		}
+		throw new IOException("The connection has been closed.");
+	}
+
+}
@@ -0,0 +1,201 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EDispatchPolicy;
+
+
+public class ListenerDispatcherTest {
+
+	/** The maximum time in milliseconds to wait for a delivery. */
+	private static final int TIMEOUT = 5000;
+
+
+	@Test
+	public void dropOldestKeepsNewestDataSets() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		ListenerDispatcher dispatcher = new ListenerDispatcher(listener, 4, 1, EDispatchPolicy.DROP_OLDEST, 1);
+		publishWhileBlocked(dispatcher, listener, 6);
+		assertEquals(2, dispatcher.getDropped());
+		listener.unblock();
+		assertEquals(Arrays.asList(0L, 3L, 4L, 5L, 6L), listener.await(5));
+		dispatcher.stop();
+	}
+
+	@Test
+	public void blockWaitsForFreeSpace() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		final ListenerDispatcher dispatcher = new ListenerDispatcher(listener, 2, 1, EDispatchPolicy.BLOCK, 1);
+		publishWhileBlocked(dispatcher, listener, 2);
+		Thread publisher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatcher.updateListener(3, null, new HashMap<String, Object>());
+			}
+		});
+		publisher.start();
+		publisher.join(100);
+		// the buffer is full and the listener does not take anything out of it
+		assertTrue(publisher.isAlive());
+
+		listener.unblock();
+		publisher.join(TIMEOUT);
+		assertFalse(publisher.isAlive());
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L), listener.await(4));
+		assertEquals(0, dispatcher.getDropped());
+		dispatcher.stop();
+	}
+
+	@Test
+	public void sampleKeepsEveryNthDataSetWhenMoreThanHalfFull() throws InterruptedException {
+		BlockingListener listener = new BlockingListener();
+		ListenerDispatcher dispatcher = new ListenerDispatcher(listener, 8, 1, EDispatchPolicy.SAMPLE, 2);
+		// 1 to 5 fill half of the buffer and one more slot, of the remaining ones every second one is kept
+		publishWhileBlocked(dispatcher, listener, 10);
+		assertEquals(2, dispatcher.getDropped());
+		listener.unblock();
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L, 8L, 10L), listener.await(9));
+		dispatcher.stop();
+	}
+
+	@Test
+	public void incompleteBatchIsDeliveredAfterMaxBatchDelay() throws InterruptedException {
+		final long maxBatchDelay = 100;
+		final LinkedBlockingQueue<Long> deliveries = new LinkedBlockingQueue<>();
+		final LinkedBlockingQueue<Integer> batchSizes = new LinkedBlockingQueue<>();
+		ListenerDispatcher dispatcher = new ListenerDispatcher(new IBatchDataListener() {
+			@Override
+			public void updateListener(DataBatch batch) {
+				// the size first, since the test waits for the time
+				batchSizes.add(batch.size());
+				deliveries.add(System.nanoTime());
+			}
+		}, 16, 10, maxBatchDelay, TimeUnit.MILLISECONDS, EDispatchPolicy.DROP_OLDEST, 1);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < 3; i++)
+			dispatcher.updateListener(i, null, new HashMap<String, Object>());
+		Long delivered = deliveries.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull(delivered);
+		assertEquals(Integer.valueOf(3), batchSizes.poll());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(delivered - start) >= maxBatchDelay);
+
+		// a full batch does not wait for its deadline
+		start = System.nanoTime();
+		for(int i = 0; i < 10; i++)
+			dispatcher.updateListener(i, null, new HashMap<String, Object>());
+		delivered = deliveries.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull(delivered);
+		assertEquals(Integer.valueOf(10), batchSizes.poll());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(delivered - start) < maxBatchDelay);
+		dispatcher.stop();
+	}
+
+	@Test
+	public void sharedDispatcherStopsWhenReleasedByLastConnection() throws InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		ListenerDispatcher dispatcher = ListenerDispatcher.acquire(listener);
+		assertSame(dispatcher, ListenerDispatcher.acquire(listener));
+		assertTrue(dispatcher.isShared());
+		Thread thread = findThread("ListenerDispatcher " + RecordingListener.class.getSimpleName());
+		assertNotNull(thread);
+
+		assertTrue(ListenerDispatcher.release(listener));
+		assertTrue(dispatcher.isShared());
+		assertTrue(ListenerDispatcher.getSharedDispatchers().contains(dispatcher));
+		dispatcher.updateListener(1, null, new HashMap<String, Object>());
+		assertEquals(Long.valueOf(1), listener.carIds.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		assertTrue(ListenerDispatcher.release(listener));
+		assertFalse(dispatcher.isShared());
+		assertFalse(ListenerDispatcher.getSharedDispatchers().contains(dispatcher));
+		thread.join(TIMEOUT);
+		assertFalse(thread.isAlive());
+		assertFalse(ListenerDispatcher.release(listener));
+	}
+
+	/**
+	 * Publishes the data-set 0 and waits until the listener blocks on it. Then publishes the data-sets 1 to count.
+	 * The car-ID of each data-set is its number.
+	 */
+	private static void publishWhileBlocked(ListenerDispatcher dispatcher, BlockingListener listener, int count) throws InterruptedException {
+		dispatcher.updateListener(0, null, new HashMap<String, Object>());
+		assertTrue(listener.blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		for(long i = 1; i <= count; i++)
+			dispatcher.updateListener(i, null, new HashMap<String, Object>());
+	}
+
+	private static Thread findThread(String name) {
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.getName().equals(name))
+				return thread;
+		return null;
+	}
+
+
+	/**
+	 * Records the car-IDs of the data-sets it is informed about.
+	 */
+	private static class RecordingListener implements IDataListener {
+
+		protected final LinkedBlockingQueue<Long> carIds = new LinkedBlockingQueue<>();
+
+		@Override
+		public void updateListener(long carId, String phoneId, HashMap<String, Object> dataset) {
+			this.carIds.add(carId);
+		}
+
+		/**
+		 * @return the car-IDs of the next count data-sets.
+		 */
+		List<Long> await(int count) throws InterruptedException {
+			List<Long> received = new ArrayList<>();
+			for(int i = 0; i < count; i++) {
+				Long carId = this.carIds.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+				assertNotNull("Received only " + received, carId);
+				received.add(carId);
+			}
+			return received;
+		}
+	}
+
+	/**
+	 * Blocks on the first data-set, until it is unblocked.
+	 */
+	private static class BlockingListener extends RecordingListener {
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+
+		private final CountDownLatch unblocked = new CountDownLatch(1);
+
+		@Override
+		public void updateListener(long carId, String phoneId, HashMap<String, Object> dataset) {
+			super.updateListener(carId, phoneId, dataset);
+			this.blocked.countDown();
+			try {
+				this.unblocked.await();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void unblock() {
+			this.unblocked.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Drives a {@link SensorRateController} with writes of 100 bytes at points in time, that are passed in milliseconds after the start of the test.
+ */
+public class SensorRateControllerTest {
+
+	/** The size of a message in bytes. */
+	private static final int LENGTH = 100;
+
+	/** The time in milliseconds of a write, that has been blocked by a full send-buffer. */
+	private static final long BLOCKED = 2;
+
+	private SensorRateController controller;
+
+	/** The point in time of the start of the test. */
+	private long base;
+
+
+	@Before
+	public void setUp() {
+		this.controller = new SensorRateController();
+		this.base = System.nanoTime();
+	}
+
+	@Test
+	public void doesNotLimitByDefault() {
+		for(int i = 0; i < 100; i++) {
+			write(i, 0);
+			assertTrue(this.controller.isDue(at(i)));
+		}
+		assertEquals(0, this.controller.getRate(), 0);
+		assertEquals(0, this.controller.getDrainRate(), 0);
+	}
+
+	@Test
+	public void limitsToRequestedRate() {
+		this.controller.setRequestedRate(50);
+		assertEquals(50, this.controller.getRate(), 0);
+		write(0, 0);
+		assertFalse(this.controller.isDue(at(19)));
+		assertTrue(this.controller.isDue(at(20)));
+	}
+
+	@Test
+	public void clampsRequestedRate() {
+		this.controller.setRequestedRate(SensorRateController.MAX_REQUESTED_RATE + 1);
+		assertEquals(SensorRateController.MAX_REQUESTED_RATE, this.controller.getRequestedRate());
+		this.controller.setRequestedRate(-1);
+		assertEquals(0, this.controller.getRequestedRate());
+		assertEquals(0, this.controller.getRate(), 0);
+	}
+
+	@Test
+	public void ignoresShortWrites() {
+		// a write of almost a millisecond, e.g. a slow flush, does not count as blocked
+		for(int i = 0; i < 100; i++)
+			write(10 * i, TimeUnit.MICROSECONDS.toNanos(999));
+		assertEquals(0, this.controller.getRate(), 0);
+	}
+
+	@Test
+	public void halvesRateOnBlockedWrite() {
+		// 100 messages per second
+		for(int i = 0; i < 10; i++)
+			write(10 * i, 0);
+		write(100, TimeUnit.MILLISECONDS.toNanos(BLOCKED));
+		assertEquals(50, this.controller.getRate(), 0.01);
+		assertFalse(this.controller.isDue(at(119)));
+		assertTrue(this.controller.isDue(at(120)));
+
+		// the writes, that are blocked by the same backlog, decrease the rate only once
+		write(120, TimeUnit.MILLISECONDS.toNanos(BLOCKED));
+		assertEquals(50, this.controller.getRate(), 0.01);
+	}
+
+	@Test
+	public void samplesDrainRateBetweenBlockedWrites() {
+		write(0, TimeUnit.MILLISECONDS.toNanos(BLOCKED));
+		// 1000 bytes in 100 ms, including the next blocked write
+		for(int i = 1; i < 10; i++)
+			write(10 * i, 0);
+		write(100, TimeUnit.MILLISECONDS.toNanos(BLOCKED));
+		assertEquals(10 * LENGTH / 0.1, this.controller.getDrainRate(), 0.01);
+		// at most 80 % of the drain-rate of 100 messages per second, and at most half of the rate that has been written at
+		assertTrue(this.controller.getRate() > 0);
+		assertTrue(this.controller.getRate() <= 50);
+	}
+
+	@Test
+	public void recoversWhileWritesDoNotBlock() {
+		write(0, 0);
+		write(10, TimeUnit.MILLISECONDS.toNanos(BLOCKED));
+		double decreased = this.controller.getRate();
+		assertTrue(decreased > 0);
+		long time = 10;
+		double rate = decreased;
+		while(rate > 0 && time < 60000) {
+			time += 10;
+			write(time, 0);
+			double current = this.controller.getRate();
+			// the rate is increased step by step, and not before the increase-interval has passed since the last change
+			assertTrue(current == 0 || current >= rate);
+			assertTrue(current == 0 || time >= 500 || current == decreased);
+			rate = current;
+		}
+		assertEquals(0, this.controller.getRate(), 0);
+	}
+
+	/**
+	 * Tells the controller about a write of a message.
+	 * @param millis the point in time of the write in milliseconds after the start of the test.
+	 * @param writeTime the time in nanoseconds that the write to the socket took.
+	 */
+	private void write(long millis, long writeTime) {
+		this.controller.written(LENGTH, writeTime, at(millis));
+	}
+
+	/**
+	 * @return the point in time, that is the passed number of milliseconds after the start of the test.
+	 */
+	private long at(long millis) {
+		return this.base + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+}
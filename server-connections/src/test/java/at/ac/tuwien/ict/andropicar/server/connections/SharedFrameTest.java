@@ -0,0 +1,184 @@
+package at.ac.tuwien.ict.andropicar.server.connections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Fans the sensor-data of a car out to several observing phones on loopback.
+ */
+public class SharedFrameTest {
+
+	/** The number of observing phones. */
+	private static final int OBSERVERS = 3;
+
+	/** The maximum time in milliseconds to wait for a phone or a frame. */
+	private static final int TIMEOUT = 5000;
+
+	private final LinkedBlockingQueue<QueueElement> operationQueue = new LinkedBlockingQueue<>();
+
+	private ServerSocket serverSocket;
+
+	/** The end of the car-connection on the side of the car, which is never read from. */
+	private Socket carDevice;
+
+	/** The car, which has no thread, since the test passes the messages of the car to it directly. */
+	private CarConnection car;
+
+	/** The ends of the phone-connections on the side of the phones. */
+	private final Socket[] phoneDevices = new Socket[OBSERVERS];
+
+	/** Read the messages that are sent to the phones. */
+	private final InputStreamReader[] phoneInputs = new InputStreamReader[OBSERVERS];
+
+	private final PhoneConnection[] phones = new PhoneConnection[OBSERVERS];
+
+
+	@Before
+	public void setUp() throws Exception {
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.carDevice = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+		this.car = new CarConnection(accept(), this.operationQueue);
+		for(int i = 0; i < OBSERVERS; i++) {
+			this.phoneDevices[i] = new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort());
+			this.phoneDevices[i].setSoTimeout(TIMEOUT);
+			this.phoneInputs[i] = new InputStreamReader(this.phoneDevices[i].getInputStream(), StandardCharsets.UTF_8);
+			this.phones[i] = new PhoneConnection(accept(), this.operationQueue);
+			new Thread(this.phones[i], "Phone " + i).start();
+			OutputStream output = this.phoneDevices[i].getOutputStream();
+			output.write(("{\"id\":\"phone" + i + "\"}").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			QueueElement element;
+			do {
+				element = this.operationQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+				assertNotNull("The phone has not registered.", element);
+			} while(element.getOperationType() != EOperationType.REGISTER);
+			assertTrue(this.car.addObserver(this.phones[i]));
+			this.phones[i].setObservedCar(this.car);
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for(int i = 0; i < OBSERVERS; i++) {
+			this.phones[i].finishConnection();
+			this.phoneDevices[i].close();
+		}
+		this.car.finishConnection();
+		this.carDevice.close();
+		this.serverSocket.close();
+	}
+
+	@Test
+	public void frameReturnsToPoolOnceReleasedByAllReceivers() {
+		ArrayBlockingQueue<SharedFrame> pool = new ArrayBlockingQueue<>(1);
+		SharedFrame frame = SharedFrame.encode(message(Keywords.hallSensor, 1), pool);
+		frame.retain();
+		frame.retain();
+		frame.release();
+		frame.release();
+		assertEquals(1, frame.getReferenceCount());
+		assertEquals(0, pool.size());
+		frame.release();
+		assertEquals(0, frame.getReferenceCount());
+		assertSame(frame, pool.peek());
+		// the next message reuses the frame
+		assertSame(frame, SharedFrame.encode(message(Keywords.hallSensor, 2), pool));
+		assertEquals(1, frame.getReferenceCount());
+	}
+
+	@Test
+	public void sensorDataReachesEveryObserver() throws IOException {
+		for(long value = 1; value <= 10; value++) {
+			HashMap<String, Object> decodedDataset = message(Keywords.ultrasonicSensor, value);
+			// control-data is not sent to the observers
+			decodedDataset.put(Keywords.steering, value);
+			this.car.processMessage(decodedDataset);
+			for(InputStreamReader input : this.phoneInputs)
+				assertEquals("{\"" + Keywords.ultrasonicSensor + "\":" + value + "}", readMessage(input));
+		}
+	}
+
+	@Test
+	public void everyObserverReleasesFrame() throws IOException, InterruptedException {
+		ArrayBlockingQueue<SharedFrame> pool = new ArrayBlockingQueue<>(1);
+		SharedFrame frame = SharedFrame.encode(message(Keywords.hallSensor, 7), pool);
+		for(PhoneConnection phone : this.phones) {
+			frame.retain();
+			phone.offerFrame(frame);
+		}
+		frame.release();
+		for(InputStreamReader input : this.phoneInputs)
+			assertEquals("{\"" + Keywords.hallSensor + "\":7}", readMessage(input));
+		// the phones release the frame right after writing it
+		assertSame(frame, pool.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(0, frame.getReferenceCount());
+	}
+
+	@Test
+	public void closedObserverReleasesFrameRightAway() {
+		ArrayBlockingQueue<SharedFrame> pool = new ArrayBlockingQueue<>(1);
+		SharedFrame frame = SharedFrame.encode(message(Keywords.hallSensor, 8), pool);
+		PhoneConnection phone = this.phones[0];
+		// a closed connection does not send its frames anymore
+		phone.finishConnection();
+		frame.retain();
+		phone.offerFrame(frame);
+		frame.release();
+		assertEquals(0, frame.getReferenceCount());
+		assertSame(frame, pool.peek());
+	}
+
+	/**
+	 * @return the connection of the next device on the server-side, configured like the acceptors do.
+	 */
+	private Socket accept() throws IOException {
+		Socket socket = this.serverSocket.accept();
+		socket.setSoTimeout(1);
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * Reads the next message that is sent to a device.
+	 */
+	private static String readMessage(InputStreamReader input) throws IOException {
+		StringBuilder message = new StringBuilder();
+		int character;
+		while((character = input.read()) != -1) {
+			message.append((char) character);
+			if(character == '}')
+				return message.toString();
+		}
+		throw new IOException("The connection has been closed.");
+	}
+
+	private static HashMap<String, Object> message(String key, long value) {
+		HashMap<String, Object> message = new HashMap<>();
+		message.put(key, value);
+		return message;
+	}
+
+}
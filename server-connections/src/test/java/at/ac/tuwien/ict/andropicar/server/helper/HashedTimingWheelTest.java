@@ -0,0 +1,135 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class HashedTimingWheelTest {
+
+	/** The duration of a tick in milliseconds. */
+	private static final long TICK = 10;
+
+	/** The number of buckets, which is small, so that a single wheel-round only lasts 80 ms. */
+	private static final int TICKS_PER_WHEEL = 8;
+
+	/** The time in milliseconds, that a timeout may expire later than its deadline, since the timer-thread may be delayed by the scheduler. */
+	private static final long SLACK = 200;
+
+	private HashedTimingWheel wheel;
+
+
+	@Before
+	public void setUp() {
+		this.wheel = new HashedTimingWheel(TICK, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+		Thread thread = new Thread(this.wheel, "Timer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void tearDown() {
+		this.wheel.stop();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveTickDuration() {
+		new HashedTimingWheel(0, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+	}
+
+	@Test
+	public void executesTaskNotBeforeItsDeadline() throws InterruptedException {
+		assertExpiresAfter(30);
+	}
+
+	@Test
+	public void executesTaskThatTakesMoreThanOneRound() throws InterruptedException {
+		// 250 ms are more than three rounds of the wheel
+		assertExpiresAfter(250);
+	}
+
+	@Test
+	public void cancelledTaskIsNotExecuted() throws InterruptedException {
+		final AtomicInteger executions = new AtomicInteger();
+		ITimerTask task = new ITimerTask() {
+			@Override
+			public void run(HashedTimingWheel.Timeout timeout) {
+				executions.incrementAndGet();
+			}
+		};
+		HashedTimingWheel.Timeout cancelled = this.wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		// a timeout can only be cancelled once
+		assertFalse(cancelled.cancel());
+
+		CountDownLatch later = expiry(100);
+		assertTrue(later.await(100 + SLACK, TimeUnit.MILLISECONDS));
+		assertEquals(0, executions.get());
+		assertFalse(cancelled.isExpired());
+	}
+
+	@Test
+	public void taskCanRescheduleItself() throws InterruptedException {
+		final int rounds = 5;
+		final CountDownLatch done = new CountDownLatch(rounds);
+		final long start = System.nanoTime();
+		this.wheel.schedule(new ITimerTask() {
+			@Override
+			public void run(HashedTimingWheel.Timeout timeout) {
+				assertTrue(timeout.isExpired());
+				done.countDown();
+				if(done.getCount() > 0)
+					timeout.getTimer().schedule(this, 20, TimeUnit.MILLISECONDS);
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+
+		assertTrue(done.await(rounds * 20 + SLACK, TimeUnit.MILLISECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= rounds * 20);
+	}
+
+	/**
+	 * Schedules a task with the passed delay and asserts that it is executed within its tick, but not before.
+	 */
+	private void assertExpiresAfter(long delay) throws InterruptedException {
+		final AtomicLong expired = new AtomicLong();
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		this.wheel.schedule(new ITimerTask() {
+			@Override
+			public void run(HashedTimingWheel.Timeout timeout) {
+				expired.set(System.nanoTime());
+				latch.countDown();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		assertTrue(latch.await(delay + SLACK, TimeUnit.MILLISECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(expired.get() - start);
+		assertTrue("Expired after " + elapsed + " ms", elapsed >= delay);
+		assertTrue("Expired after " + elapsed + " ms", elapsed < delay + SLACK);
+	}
+
+	/**
+	 * @return a latch, that is released by a task with the passed delay.
+	 */
+	private CountDownLatch expiry(long delay) {
+		final CountDownLatch latch = new CountDownLatch(1);
+		this.wheel.schedule(new ITimerTask() {
+			@Override
+			public void run(HashedTimingWheel.Timeout timeout) {
+				latch.countDown();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return latch;
+	}
+
+}
@@ -0,0 +1,116 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+	/** The largest relative error of a percentile, which is the width of a bucket relative to its lowest value. */
+	private static final double MAX_RELATIVE_ERROR = 1.0 / 32;
+
+
+	@Test
+	public void emptyHistogramHasNoLatencies() {
+		LatencySnapshot snapshot = new LatencyHistogram().getSnapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getP50(TimeUnit.NANOSECONDS));
+		assertEquals(0, snapshot.getMaximum(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void recordsSmallLatenciesExactly() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long latency = 1; latency <= 31; latency++)
+			histogram.record(latency);
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(31, snapshot.getCount());
+		assertEquals(16, snapshot.getMean(TimeUnit.NANOSECONDS));
+		assertEquals(16, snapshot.getP50(TimeUnit.NANOSECONDS));
+		assertEquals(31, snapshot.getP99(TimeUnit.NANOSECONDS));
+		assertEquals(31, snapshot.getMaximum(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void clampsNegativeAndHugeLatencies() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(1, snapshot.getCount());
+		assertEquals(0, snapshot.getMaximum(TimeUnit.NANOSECONDS));
+
+		histogram.record(Long.MAX_VALUE);
+		snapshot = histogram.getSnapshot();
+		assertEquals(2, snapshot.getCount());
+		// 2^43 - 1 nanoseconds, which is the largest latency that can be recorded
+		assertEquals((1L << 43) - 1, snapshot.getMaximum(TimeUnit.NANOSECONDS));
+		assertEquals(snapshot.getMaximum(TimeUnit.NANOSECONDS), snapshot.getP99(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void convertsUnits() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(3, TimeUnit.MILLISECONDS);
+		assertEquals(3, histogram.getSnapshot().getMaximum(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void percentilesMatchSortedLatenciesWithinBucketWidth() {
+		Random random = new Random(7);
+		for(int round = 0; round < 20; round++) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			long[] latencies = new long[1 + random.nextInt(5000)];
+			for(int i = 0; i < latencies.length; i++) {
+				// log-uniformly distributed between 1 ns and about 17 minutes
+				latencies[i] = (long) Math.pow(2, random.nextDouble() * 40);
+				histogram.record(latencies[i]);
+			}
+			Arrays.sort(latencies);
+			LatencySnapshot snapshot = histogram.getSnapshot();
+			assertEquals(latencies.length, snapshot.getCount());
+			assertEquals(latencies[latencies.length - 1], snapshot.getMaximum(TimeUnit.NANOSECONDS));
+			assertPercentile(latencies, 0.5, snapshot.getP50(TimeUnit.NANOSECONDS));
+			assertPercentile(latencies, 0.99, snapshot.getP99(TimeUnit.NANOSECONDS));
+			assertPercentile(latencies, 0.999, snapshot.getP999(TimeUnit.NANOSECONDS));
+		}
+	}
+
+	@Test
+	public void countsConcurrentRecordings() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(long latency = 1; latency <= 100000; latency++)
+						histogram.record(latency);
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(4 * 100000, snapshot.getCount());
+		assertEquals(100000, snapshot.getMaximum(TimeUnit.NANOSECONDS));
+		assertEquals(50000, snapshot.getMean(TimeUnit.NANOSECONDS));
+	}
+
+	/**
+	 * Asserts, that the percentile of the histogram is the exact percentile of the sorted latencies, or at most one bucket-width above it.
+	 */
+	private static void assertPercentile(long[] sortedLatencies, double percentile, long actual) {
+		long expected = sortedLatencies[(int) Math.max(0, Math.ceil(percentile * sortedLatencies.length) - 1)];
+		String message = "p" + percentile + " of " + sortedLatencies.length + " latencies: expected " + expected + ", was " + actual;
+		assertTrue(message, actual >= expected);
+		assertTrue(message, actual <= expected + Math.max(1, (long) (expected * MAX_RELATIVE_ERROR)));
+	}
+
+}
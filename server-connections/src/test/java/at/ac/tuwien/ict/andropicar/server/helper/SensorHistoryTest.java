@@ -0,0 +1,144 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Drives a {@link SensorHistory} with slots of one second, so that every point in time is exactly at the beginning of its slot.
+ */
+public class SensorHistoryTest {
+
+	/** The number of slots of the history. */
+	private static final int SLOTS = 50;
+
+	private SensorHistory history;
+
+	/** The point in time of the first slot. */
+	private long base;
+
+
+	@Before
+	public void setUp() {
+		this.history = new SensorHistory(Keywords.sensorKeywords, 1, SLOTS, TimeUnit.SECONDS);
+		this.base = System.nanoTime();
+	}
+
+	@Test
+	public void aggregatesOneSlot() {
+		update(0, Keywords.hallSensor, 1);
+		update(0, Keywords.hallSensor, 5);
+		update(0, Keywords.hallSensor, 3);
+		SensorAggregate aggregate = aggregate(0, Keywords.hallSensor, 1);
+		assertEquals(3, aggregate.getCount());
+		assertEquals(9, aggregate.getSum());
+		assertEquals(1, aggregate.getMinimum());
+		assertEquals(5, aggregate.getMaximum());
+		assertEquals(3.0, aggregate.getAverage(), 0);
+	}
+
+	@Test
+	public void aggregatesAcrossBlocks() {
+		for(int slot = 0; slot < SLOTS; slot++)
+			update(slot, Keywords.hallSensor, slot);
+		SensorAggregate aggregate = aggregate(SLOTS - 1, Keywords.hallSensor, 25);
+		assertEquals(25, aggregate.getCount());
+		assertEquals(925, aggregate.getSum());
+		assertEquals(25, aggregate.getMinimum());
+		assertEquals(49, aggregate.getMaximum());
+	}
+
+	@Test
+	public void limitsWindowToLength() {
+		for(int slot = 0; slot < 2 * SLOTS; slot++)
+			update(slot, Keywords.hallSensor, slot);
+		SensorAggregate aggregate = aggregate(2 * SLOTS - 1, Keywords.hallSensor, 10 * SLOTS);
+		assertEquals(SLOTS, aggregate.getCount());
+		assertEquals(SLOTS, aggregate.getMinimum());
+		assertEquals(2 * SLOTS - 1, aggregate.getMaximum());
+	}
+
+	@Test
+	public void forgetsOldValues() {
+		update(0, Keywords.hallSensor, 7);
+		assertTrue(this.history.aggregate(Keywords.hallSensor, SLOTS, TimeUnit.SECONDS, new SensorAggregate(), at(SLOTS - 1)));
+		assertFalse(this.history.aggregate(Keywords.hallSensor, SLOTS, TimeUnit.SECONDS, new SensorAggregate(), at(SLOTS)));
+	}
+
+	@Test
+	public void ignoresUnknownAndMissingSensors() {
+		update(0, Keywords.hallSensor, 7);
+		assertFalse(this.history.aggregate("unknown", 1, TimeUnit.SECONDS, new SensorAggregate(), at(0)));
+		assertFalse(this.history.aggregate(Keywords.ultrasonicSensor, 1, TimeUnit.SECONDS, new SensorAggregate(), at(0)));
+	}
+
+	@Test
+	public void matchesBruteForceWithGaps() {
+		Random random = new Random(42);
+		long[][] values = new long[4 * SLOTS][];
+		for(int slot = 0; slot < values.length; slot++) {
+			// every third slot on average has no values
+			int count = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(3);
+			values[slot] = new long[count];
+			for(int i = 0; i < count; i++) {
+				values[slot][i] = random.nextInt(2000) - 1000;
+				update(slot, Keywords.ultrasonicSensor, values[slot][i]);
+			}
+			for(int window = 1; window <= SLOTS; window += 7)
+				assertAggregate(values, slot, window);
+		}
+	}
+
+	/**
+	 * Compares the aggregate of the history with the one computed from all values.
+	 */
+	private void assertAggregate(long[][] values, int end, int window) {
+		long count = 0, sum = 0, minimum = Long.MAX_VALUE, maximum = Long.MIN_VALUE;
+		for(int slot = Math.max(0, end - window + 1); slot <= end; slot++) {
+			for(long value : values[slot]) {
+				count++;
+				sum += value;
+				minimum = Math.min(minimum, value);
+				maximum = Math.max(maximum, value);
+			}
+		}
+		SensorAggregate aggregate = new SensorAggregate();
+		boolean found = this.history.aggregate(Keywords.ultrasonicSensor, window, TimeUnit.SECONDS, aggregate, at(end));
+		String message = "slot " + end + ", window " + window;
+		assertEquals(message, count > 0, found);
+		if(!found)
+			return;
+		assertEquals(message, count, aggregate.getCount());
+		assertEquals(message, sum, aggregate.getSum());
+		assertEquals(message, minimum, aggregate.getMinimum());
+		assertEquals(message, maximum, aggregate.getMaximum());
+	}
+
+	private void update(int slot, String sensor, long value) {
+		HashMap<String, Object> dataset = new HashMap<>();
+		dataset.put(sensor, value);
+		this.history.update(dataset, at(slot));
+	}
+
+	private SensorAggregate aggregate(int slot, String sensor, int window) {
+		SensorAggregate aggregate = new SensorAggregate();
+		assertTrue(this.history.aggregate(sensor, window, TimeUnit.SECONDS, aggregate, at(slot)));
+		return aggregate;
+	}
+
+	/**
+	 * @return the point in time of the passed slot.
+	 */
+	private long at(int slot) {
+		return this.base + TimeUnit.SECONDS.toNanos(slot);
+	}
+
+}
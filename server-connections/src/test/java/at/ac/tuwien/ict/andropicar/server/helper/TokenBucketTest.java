@@ -0,0 +1,62 @@
+package at.ac.tuwien.ict.andropicar.server.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+public class TokenBucketTest {
+
+	@Test
+	public void allowsBurstUpToCapacity() {
+		TokenBucket bucket = new TokenBucket(5, 1);
+		for(int i = 0; i < 5; i++)
+			assertTrue(bucket.tryConsume(1));
+		assertFalse(bucket.tryConsume(1));
+	}
+
+	@Test
+	public void refillsAtRate() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(100, 1000);
+		assertTrue(bucket.tryConsume(100));
+		assertFalse(bucket.tryConsume(1));
+		Thread.sleep(50);
+		// at least 50 tokens have been added, but the bucket does not grow beyond its capacity
+		assertTrue(bucket.tryConsume(40));
+		Thread.sleep(200);
+		assertTrue(bucket.isFull());
+		assertFalse(bucket.tryConsume(101));
+	}
+
+	@Test
+	public void reservesWithinMaximumWait() {
+		TokenBucket bucket = new TokenBucket(1, 10);
+		assertEquals(0, bucket.reserve(1, 0));
+		long wait = bucket.reserve(1, TimeUnit.SECONDS.toNanos(1));
+		assertTrue("wait " + wait, wait > TimeUnit.MILLISECONDS.toNanos(50) && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+		// the next token is reserved already, so another one would take about 200 ms
+		assertEquals(-1, bucket.reserve(1, TimeUnit.MILLISECONDS.toNanos(150)));
+	}
+
+	@Test
+	public void refundsUpToCapacity() {
+		TokenBucket bucket = new TokenBucket(2, 1);
+		assertTrue(bucket.tryConsume(2));
+		bucket.refund(1);
+		assertTrue(bucket.tryConsume(1));
+		assertFalse(bucket.tryConsume(1));
+		bucket.refund(10);
+		assertTrue(bucket.isFull());
+		assertFalse(bucket.tryConsume(3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyBucket() {
+		new TokenBucket(0, 1);
+	}
+
+}
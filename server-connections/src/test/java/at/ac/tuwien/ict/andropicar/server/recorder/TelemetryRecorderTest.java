@@ -0,0 +1,148 @@
+package at.ac.tuwien.ict.andropicar.server.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+public class TelemetryRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Test
+	public void readsBackRecordedValues() throws IOException {
+		File directory = this.folder.getRoot();
+		TelemetryRecorder recorder = new TelemetryRecorder(directory, 1 << 20, 1, TimeUnit.HOURS);
+		recorder.record(1000, ETelemetrySource.CAR, 7, null, Keywords.indexOf(Keywords.hallSensor), 42);
+		recorder.record(1001, ETelemetrySource.PHONE, 7, "phone-a", Keywords.indexOf(Keywords.steering), -5);
+		HashMap<String, Object> dataset = new HashMap<>();
+		dataset.put(Keywords.ultrasonicSensor, 120L);
+		dataset.put(Keywords.leftInfraredSensor, "not a number");
+		dataset.put(Keywords.hallSensor, 3L);
+		assertEquals(2, recorder.record(ETelemetrySource.CAR, 8, "phone-b", dataset, Keywords.sensorKeywords));
+		recorder.close();
+		assertFalse(recorder.isRecording());
+		assertEquals(4, recorder.getRecordCount());
+
+		List<String> phoneIds = TelemetrySegmentReader.readPhoneDictionary(directory);
+		assertEquals(Arrays.asList("phone-a", "phone-b"), phoneIds);
+		File[] segments = TelemetrySegmentReader.listSegments(directory);
+		// the segment that has been opened in advance is deleted, when the recorder is closed
+		assertEquals(1, segments.length);
+		try(TelemetrySegmentReader reader = new TelemetrySegmentReader(segments[0], phoneIds)) {
+			assertEquals(4, reader.getRecordCount());
+			assertTrue(reader.next());
+			assertEquals(1000, reader.getTime());
+			assertEquals(7, reader.getCarId());
+			assertNull(reader.getPhoneId());
+			assertEquals(Keywords.hallSensor, reader.getKeyword());
+			assertEquals(ETelemetrySource.CAR, reader.getSource());
+			assertEquals(42, reader.getValue());
+			assertTrue(reader.next());
+			assertEquals("phone-a", reader.getPhoneId());
+			assertEquals(Keywords.steering, reader.getKeyword());
+			assertEquals(ETelemetrySource.PHONE, reader.getSource());
+			assertEquals(-5, reader.getValue());
+			assertTrue(reader.next());
+			assertEquals(Keywords.ultrasonicSensor, reader.getKeyword());
+			assertEquals("phone-b", reader.getPhoneId());
+			assertEquals(120, reader.getValue());
+			assertTrue(reader.next());
+			assertEquals(Keywords.hallSensor, reader.getKeyword());
+			assertEquals(3, reader.getValue());
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void rollsFullSegments() throws IOException, InterruptedException {
+		File directory = this.folder.getRoot();
+		int recordsPerSegment = 100;
+		TelemetryRecorder recorder = new TelemetryRecorder(directory, TelemetryRecorder.HEADER_SIZE + recordsPerSegment * TelemetryRecorder.RECORD_SIZE, 1, TimeUnit.HOURS);
+		int values = 10 * recordsPerSegment;
+		for(int i = 0; i < values; i++) {
+			recorder.record(i, ETelemetrySource.CAR, 1, "phone", 0, i);
+			if(i % recordsPerSegment == 0)
+				// gives the thread of the recorder time to open the next segment
+				Thread.sleep(20);
+		}
+		recorder.close();
+		assertEquals(values, recorder.getRecordCount() + recorder.getDroppedRecords());
+
+		List<String> phoneIds = TelemetrySegmentReader.readPhoneDictionary(directory);
+		File[] segments = TelemetrySegmentReader.listSegments(directory);
+		assertTrue(segments.length >= 10);
+		long read = 0;
+		long previous = -1;
+		for(File segment : segments) {
+			try(TelemetrySegmentReader reader = new TelemetrySegmentReader(segment, phoneIds)) {
+				assertTrue(reader.getRecordCount() <= recordsPerSegment);
+				while(reader.next()) {
+					// dropped values leave gaps, but the order is kept
+					assertTrue(reader.getValue() > previous);
+					assertEquals("phone", reader.getPhoneId());
+					previous = reader.getValue();
+					read++;
+				}
+			}
+		}
+		assertEquals(recorder.getRecordCount(), read);
+	}
+
+	@Test
+	public void rollsOldSegments() throws IOException, InterruptedException {
+		File directory = this.folder.getRoot();
+		TelemetryRecorder recorder = new TelemetryRecorder(directory, 1 << 16, 50, TimeUnit.MILLISECONDS);
+		long start = System.currentTimeMillis();
+		recorder.record(start, ETelemetrySource.CAR, 1, null, 0, 1);
+		Thread.sleep(200);
+		long later = System.currentTimeMillis();
+		recorder.record(later, ETelemetrySource.CAR, 1, null, 0, 2);
+		recorder.close();
+		File[] segments = TelemetrySegmentReader.listSegments(directory);
+		assertEquals(2, segments.length);
+		try(TelemetrySegmentReader reader = new TelemetrySegmentReader(segments[1], TelemetrySegmentReader.readPhoneDictionary(directory))) {
+			assertEquals(later, reader.getStartTime());
+			assertTrue(reader.next());
+			assertEquals(2, reader.getValue());
+		}
+	}
+
+	@Test
+	public void continuesPhoneDictionary() throws IOException {
+		File directory = this.folder.getRoot();
+		TelemetryRecorder first = new TelemetryRecorder(directory, 1 << 16, 1, TimeUnit.HOURS);
+		first.record(1, ETelemetrySource.PHONE, 1, "phone-a", 0, 1);
+		first.close();
+		TelemetryRecorder second = new TelemetryRecorder(directory, 1 << 16, 1, TimeUnit.HOURS);
+		second.record(2, ETelemetrySource.PHONE, 1, "phone-b", 0, 1);
+		second.record(3, ETelemetrySource.PHONE, 1, "phone-a", 0, 1);
+		second.close();
+		assertEquals(Arrays.asList("phone-a", "phone-b"), TelemetrySegmentReader.readPhoneDictionary(directory));
+	}
+
+	@Test
+	public void discardsValuesAfterClose() throws IOException {
+		TelemetryRecorder recorder = new TelemetryRecorder(this.folder.getRoot(), 1 << 16, 1, TimeUnit.HOURS);
+		recorder.close();
+		recorder.record(1, ETelemetrySource.CAR, 1, null, 0, 1);
+		assertEquals(0, recorder.getRecordCount());
+	}
+
+}
@@ -0,0 +1,268 @@
+package at.ac.tuwien.ict.andropicar.server.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import at.ac.tuwien.ict.andropicar.server.helper.EOperationType;
+import at.ac.tuwien.ict.andropicar.server.helper.QueueElement;
+
+
+/**
+ * Follows a primary on loopback with a standby, whose main-thread is played by the test.
+ */
+public class ReplicationReplicaTest {
+
+	/** The heartbeat-interval of the primary and the pause between two attempts of the standby to reach it, in milliseconds. */
+	private static final long HEARTBEAT_INTERVAL = 20;
+
+	/** The time in milliseconds without anything received from the primary, after which the standby may take over. */
+	private static final long FAILOVER_TIMEOUT = 200;
+
+	/** The maximum time in milliseconds to wait for the standby. */
+	private static final int TIMEOUT = 5000;
+
+	/** The operation-queue of the primary, which receives the requests for a snapshot. */
+	private final LinkedBlockingQueue<QueueElement> primaryQueue = new LinkedBlockingQueue<>();
+
+	/** The operation-queue of the standby, which receives the requests to apply changes. */
+	private final LinkedBlockingQueue<QueueElement> standbyQueue = new LinkedBlockingQueue<>();
+
+	/** The replication-port of the {@link #source}. */
+	private int replicationPort;
+
+	private ReplicationSource source;
+
+	private ReplicationReplica replica;
+
+	/** A primary that is played by the test, instead of a {@link ReplicationSource}. */
+	private ServerSocket fakePrimary;
+
+
+	@After
+	public void tearDown() throws IOException {
+		if(this.replica != null)
+			this.replica.stop();
+		if(this.source != null)
+			this.source.stop();
+		if(this.fakePrimary != null)
+			this.fakePrimary.close();
+	}
+
+	@Test
+	public void takesOverAfterFailoverTimeout() throws Exception {
+		startPrimary(65536);
+		startStandby(1);
+		synchronize(true);
+
+		this.source.stop();
+		awaitPromotion();
+		// a refused connection fails right away, so the timeout is what keeps the standby from taking over earlier
+		assertTrue(this.replica.getFailoverTime(TimeUnit.MILLISECONDS) >= FAILOVER_TIMEOUT);
+	}
+
+	@Test
+	public void takesOverAfterConsecutiveFailedAttempts() throws Exception {
+		// the attempts take far longer than the timeout
+		int attempts = 20;
+		startPrimary(65536);
+		startStandby(attempts);
+		synchronize(true);
+
+		this.source.stop();
+		awaitPromotion();
+		assertTrue(this.replica.getFailoverTime(TimeUnit.MILLISECONDS) >= (attempts - 1) * HEARTBEAT_INTERVAL);
+	}
+
+	@Test
+	public void doesNotTakeOverBeforeSnapshotEnd() throws Exception {
+		startPrimary(65536);
+		startStandby(1);
+		synchronize(false);
+
+		this.source.stop();
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(3 * FAILOVER_TIMEOUT);
+		while(System.nanoTime() < end) {
+			applyReceivedChanges(HEARTBEAT_INTERVAL);
+			assertFalse(this.replica.isPromoted());
+		}
+		assertFalse(this.replica.isSynchronized());
+	}
+
+	@Test
+	public void doesNotTakeOverWhilePrimaryIsReachable() throws Exception {
+		// the primary closes every connection right after the snapshot or a heartbeat, but accepts the standby again
+		this.fakePrimary = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread primary = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long sequence = 0;
+				try {
+					while(true) {
+						try(Socket socket = ReplicationReplicaTest.this.fakePrimary.accept()) {
+							DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+							if(sequence == 0) {
+								change(EChangeType.SNAPSHOT_BEGIN, ++sequence).writeTo(output);
+								change(EChangeType.SNAPSHOT_END, ++sequence).writeTo(output);
+							}
+							else {
+								change(EChangeType.HEARTBEAT, ++sequence).writeTo(output);
+							}
+							output.flush();
+						}
+					}
+				} catch(IOException ioe) {
+					// the test has finished
+				}
+			}
+		}, "Fake Primary");
+		primary.setDaemon(true);
+		primary.start();
+
+		ReplicationConfiguration configuration = configuration(1);
+		configuration.setPrimary("127.0.0.1", this.fakePrimary.getLocalPort());
+		this.replica = new ReplicationReplica(configuration, this.standbyQueue);
+		this.replica.start();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		while(!this.replica.isSynchronized() && System.nanoTime() < deadline)
+			applyReceivedChanges(HEARTBEAT_INTERVAL);
+		assertTrue(this.replica.isSynchronized());
+
+		// every connection is closed, but the primary answers every attempt
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(3 * FAILOVER_TIMEOUT);
+		while(System.nanoTime() < end) {
+			applyReceivedChanges(HEARTBEAT_INTERVAL);
+			assertFalse(this.replica.isPromoted());
+		}
+		assertTrue(this.replica.getSequence() > 2);
+	}
+
+	@Test
+	public void sourceDisconnectsStandbyThatCannotKeepUp() throws Exception {
+		startPrimary(4);
+		// a standby that never reads, so the writer-thread of the primary blocks once the socket-buffers are full
+		Socket standby = new Socket();
+		standby.setReceiveBufferSize(4096);
+		standby.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.replicationPort));
+		awaitSnapshotRequest();
+
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 1000; i++)
+			text.append("0123456789");
+		for(int i = 0; i < 100000 && this.source.isStandbyConnected(); i++)
+			this.source.publish(EChangeType.CAR_INFO, null, text.toString(), i, 0);
+		assertFalse(this.source.isStandbyConnected());
+
+		// the primary closes the connection after the changes that have been written
+		standby.setSoTimeout(TIMEOUT);
+		InputStream input = standby.getInputStream();
+		byte[] buffer = new byte[65536];
+		while(input.read(buffer) != -1);
+		standby.close();
+	}
+
+	/**
+	 * Starts a primary, that accepts a standby on a free port.
+	 */
+	private void startPrimary(int queueCapacity) throws IOException {
+		ReplicationConfiguration configuration = configuration(1);
+		this.replicationPort = freePort();
+		configuration.setReplicationPort(this.replicationPort);
+		configuration.setQueueCapacity(queueCapacity);
+		this.source = new ReplicationSource(configuration, this.primaryQueue);
+		this.source.start();
+	}
+
+	/**
+	 * Starts a standby, that follows the {@link #source}.
+	 */
+	private void startStandby(int failoverAttempts) {
+		ReplicationConfiguration configuration = configuration(failoverAttempts);
+		configuration.setPrimary("127.0.0.1", this.replicationPort);
+		this.replica = new ReplicationReplica(configuration, this.standbyQueue);
+		this.replica.start();
+	}
+
+	/**
+	 * Lets the primary publish a snapshot, once the standby has connected, and applies it on the standby.
+	 * @param complete false, if the snapshot should not be ended.
+	 */
+	private void synchronize(boolean complete) throws InterruptedException {
+		awaitSnapshotRequest();
+		this.source.publish(EChangeType.SNAPSHOT_BEGIN, null, null);
+		this.source.publish(EChangeType.ALLOW_LINK, "phone", null, 17);
+		if(complete)
+			this.source.publish(EChangeType.SNAPSHOT_END, null, null);
+		long sequence = this.source.getSequence();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		while(this.replica.getSequence() < sequence && System.nanoTime() < deadline)
+			applyReceivedChanges(HEARTBEAT_INTERVAL);
+		assertTrue(this.replica.getSequence() >= sequence);
+		assertEquals(complete, this.replica.isSynchronized());
+	}
+
+	/**
+	 * Waits for the primary to ask its main-thread for a snapshot, which means that the standby has connected.
+	 */
+	private void awaitSnapshotRequest() throws InterruptedException {
+		QueueElement element = this.primaryQueue.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull("The standby has not connected.", element);
+		assertEquals(EOperationType.SNAPSHOT, element.getOperationType());
+	}
+
+	/**
+	 * Waits until the standby takes over, applying the received changes like the main-thread of the standby does.
+	 */
+	private void awaitPromotion() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		while(!this.replica.isPromoted() && System.nanoTime() < deadline)
+			applyReceivedChanges(HEARTBEAT_INTERVAL);
+		assertTrue(this.replica.isPromoted());
+	}
+
+	/**
+	 * Plays the main-thread of the standby: waits for a request to apply the received changes and applies them.
+	 */
+	private void applyReceivedChanges(long timeout) throws InterruptedException {
+		QueueElement element = this.standbyQueue.poll(timeout, TimeUnit.MILLISECONDS);
+		if(element == null)
+			return;
+		assertEquals(EOperationType.REPLICATE, element.getOperationType());
+		Change change;
+		while((change = this.replica.poll()) != null)
+			this.replica.applied(change);
+	}
+
+	private static ReplicationConfiguration configuration(int failoverAttempts) {
+		ReplicationConfiguration configuration = new ReplicationConfiguration();
+		configuration.setHeartbeatInterval(HEARTBEAT_INTERVAL);
+		configuration.setFailoverTimeout(FAILOVER_TIMEOUT);
+		configuration.setFailoverAttempts(failoverAttempts);
+		return configuration;
+	}
+
+	private static Change change(EChangeType type, long sequence) {
+		return new Change(type, sequence, Change.currentMicros(), null, null, new long[0]);
+	}
+
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package at.ac.tuwien.ict.andropicar.server.video;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Connects cameras and viewers to a relay on loopback, whose authorization only accepts the connections from a single address.
+ */
+public class VideoRelayTest {
+
+	/** The ID of the car. */
+	private static final long CAR_ID = 17;
+
+	/** The ID of the phone, that may view the car. */
+	private static final String PHONE_ID = "phone";
+
+	/** The maximum time in milliseconds to wait for a reply or a frame. */
+	private static final int TIMEOUT = 5000;
+
+	/** The time in milliseconds without anything received from a camera, after which another connection of the car may replace it. */
+	private static final int SOURCE_TIMEOUT = 200;
+
+	private VideoRelay relay;
+
+	private int port;
+
+
+	@After
+	public void tearDown() {
+		if(this.relay != null)
+			this.relay.stop();
+	}
+
+	@Test
+	public void rejectsConnectionsFromOtherAddresses() throws IOException {
+		start(InetAddress.getByName("192.0.2.1"));
+		Socket camera = connect(EVideoRole.CAR, null);
+		Socket viewer = connect(EVideoRole.PHONE, PHONE_ID);
+		assertEquals(0, camera.getInputStream().read());
+		assertEquals(0, viewer.getInputStream().read());
+		camera.close();
+		viewer.close();
+	}
+
+	@Test
+	public void keepsCameraThatIsStillSending() throws IOException {
+		start(InetAddress.getLoopbackAddress());
+		Socket camera = connect(EVideoRole.CAR, null);
+		assertEquals(1, camera.getInputStream().read());
+		Socket viewer = connect(EVideoRole.PHONE, PHONE_ID);
+		assertEquals(1, viewer.getInputStream().read());
+
+		Socket intruder = connect(EVideoRole.CAR, null);
+		assertEquals(1, intruder.getInputStream().read());
+		// the loop closes the second camera, since the first one has just been connected
+		assertEquals(-1, intruder.getInputStream().read());
+		intruder.close();
+
+		sendFrame(camera, 42);
+		assertEquals(42, readFrame(viewer));
+		camera.close();
+		viewer.close();
+	}
+
+	@Test
+	public void replacesSilentCamera() throws IOException, InterruptedException {
+		start(InetAddress.getLoopbackAddress());
+		Socket camera = connect(EVideoRole.CAR, null);
+		assertEquals(1, camera.getInputStream().read());
+		Socket viewer = connect(EVideoRole.PHONE, PHONE_ID);
+		assertEquals(1, viewer.getInputStream().read());
+		Thread.sleep(2 * SOURCE_TIMEOUT);
+
+		Socket reconnected = connect(EVideoRole.CAR, null);
+		assertEquals(1, reconnected.getInputStream().read());
+		assertEquals(-1, camera.getInputStream().read());
+		camera.close();
+
+		sendFrame(reconnected, 43);
+		assertEquals(43, readFrame(viewer));
+		reconnected.close();
+		viewer.close();
+	}
+
+	/**
+	 * Starts a relay on a free port, that accepts the car and the phone from the passed address only.
+	 */
+	private void start(final InetAddress allowed) throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			this.port = socket.getLocalPort();
+		}
+		VideoConfiguration configuration = new VideoConfiguration(this.port);
+		configuration.setLoops(1);
+		configuration.setSourceTimeout(SOURCE_TIMEOUT);
+		this.relay = new VideoRelay(configuration, new IVideoAuthorization() {
+			@Override
+			public boolean mayStream(long carId, InetAddress address) {
+				return carId == CAR_ID && address.equals(allowed);
+			}
+
+			@Override
+			public boolean mayView(String phoneId, long carId, InetAddress address) {
+				return carId == CAR_ID && phoneId.equals(PHONE_ID) && address.equals(allowed);
+			}
+		});
+		this.relay.start();
+	}
+
+	/**
+	 * Connects to the relay and sends a hello.
+	 */
+	private Socket connect(EVideoRole role, String phoneId) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+		socket.setSoTimeout(TIMEOUT);
+		DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+		output.writeByte(role.getCode());
+		output.writeLong(CAR_ID);
+		if(phoneId != null) {
+			byte[] id = phoneId.getBytes(StandardCharsets.UTF_8);
+			output.writeShort(id.length);
+			output.write(id);
+		}
+		output.flush();
+		return socket;
+	}
+
+	private static void sendFrame(Socket camera, int content) throws IOException {
+		DataOutputStream output = new DataOutputStream(camera.getOutputStream());
+		output.writeInt(1);
+		output.writeByte(content);
+		output.flush();
+	}
+
+	/**
+	 * @return the content of the next frame, which consists of a single byte.
+	 */
+	private static int readFrame(Socket viewer) throws IOException {
+		DataInputStream input = new DataInputStream(viewer.getInputStream());
+		assertEquals(1, input.readInt());
+		return input.readUnsignedByte();
+	}
+
+}
@@ -0,0 +1,208 @@
+package at.ac.tuwien.ict.andropicar.server.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.replication.ReplicationConfiguration;
+import at.ac.tuwien.ict.andropicar.server.replication.ReplicationReplica;
+import at.ac.tuwien.ict.andropicar.server.tools.ReplayContext;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedCar;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedDevice;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedPhone;
+
+
+/**
+ * Measures the replication-lag and the failover-time of a primary server and its standby on loopback, with the primary in a process of its own.<br>
+ * The test starts the primary as a child-process and the standby within its own process, links the phones to their cars on the primary,
+ * kills the primary forcibly and reconnects all devices to the standby, as soon as it has taken over. The standby restores every link as soon as both devices have registered,
+ * without a new link-request of the phone. The test reports:
+ * <ul>
+ * <li>the replication-lag, i.e. the time between publishing a change on the primary and applying it on the standby,</li>
+ * <li>the detection-time, i.e. the time between the last change of the primary and the standby taking over,</li>
+ * <li>the failover-time, i.e. the time between killing the primary and the last link being restored on the standby,
+ * including the reconnects and registrations of all devices.</li>
+ * </ul>
+ * Usage: <code>FailoverTest [--links &lt;n&gt;] [--car-port &lt;port&gt;] [--phone-port &lt;port&gt;] [--replication-port &lt;port&gt;]</code><br>
+ * The primary listens on the passed ports, the standby on the same ports plus 10.
+ */
+public class FailoverTest {
+
+	/** The maximum time in milliseconds to wait for a connection, a registration, a link or the synchronization of the standby. */
+	private static final int TIMEOUT = 5000;
+
+	/** The ID of the first car. */
+	private static final long FIRST_CAR_ID = 1;
+
+
+	public static void main(String[] args) throws Exception {
+		int links = 100;
+		int carPort = 6633;
+		int phonePort = 6636;
+		int replicationPort = 6639;
+		boolean primary = false;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--links": links = Integer.parseInt(args[++i]);
+					break;
+				case "--car-port": carPort = Integer.parseInt(args[++i]);
+					break;
+				case "--phone-port": phonePort = Integer.parseInt(args[++i]);
+					break;
+				case "--replication-port": replicationPort = Integer.parseInt(args[++i]);
+					break;
+				case "--primary": primary = true;
+					break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.err.println("Usage: FailoverTest [--links <n>] [--car-port <port>] [--phone-port <port>] [--replication-port <port>]");
+					System.exit(1);
+			}
+		}
+
+		ReplicationConfiguration replication = new ReplicationConfiguration();
+		replication.setReplicationPort(primary ? replicationPort : replicationPort + 10);
+		if(primary) {
+			// runs until it is killed by the test
+			Server server = new Server(carPort, phonePort);
+			server.setReplicationConfiguration(replication);
+			LoadGenerator.startEmbeddedServer(server, links, FIRST_CAR_ID, 0);
+			return;
+		}
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process primaryProcess = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), FailoverTest.class.getName(), "--primary",
+				"--links", String.valueOf(links), "--car-port", String.valueOf(carPort), "--phone-port", String.valueOf(phonePort),
+				"--replication-port", String.valueOf(replicationPort)).inheritIO().start();
+		Server standby = new Server(carPort + 10, phonePort + 10);
+		replication.setPrimary("localhost", replicationPort);
+		standby.setReplicationConfiguration(replication);
+		// the standby is the second server of this host
+		standby.setJmxEnabled(false);
+		LoadGenerator.startEmbeddedServer(standby, links, FIRST_CAR_ID, 0);
+		try {
+			run(standby, links, carPort, phonePort, primaryProcess);
+		} finally {
+			primaryProcess.destroyForcibly();
+			standby.shutdown();
+		}
+	}
+
+	/**
+	 * Links all devices on the primary, kills the primary and reconnects all devices to the standby.
+	 */
+	private static void run(Server standby, int links, int carPort, int phonePort, Process primaryProcess) throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while(standby.getReplica() == null || !standby.getReplica().isSynchronized()) {
+			if(System.nanoTime() > deadline || !primaryProcess.isAlive())
+				throw new IOException("The standby did not synchronize with the primary.");
+			Thread.sleep(100);
+		}
+		ReplicationReplica replica = standby.getReplica();
+
+		System.out.println("Linking " + links + " phones on the primary...");
+		ReplayContext primaryContext = new ReplayContext(new InetSocketAddress("localhost", carPort), new InetSocketAddress("localhost", phonePort), 1);
+		List<SimulatedDevice> devices = new ArrayList<>();
+		int linked = 0;
+		for(int i = 0; i < links; i++) {
+			SimulatedCar car = new SimulatedCar(primaryContext, FIRST_CAR_ID + i);
+			SimulatedPhone phone = new SimulatedPhone(primaryContext, LoadGenerator.PHONE_PREFIX + i);
+			devices.add(car);
+			devices.add(phone);
+			if(!register(car) || !register(phone))
+				continue;
+			HashMap<String, Object> request = new HashMap<>();
+			request.put(Keywords.connect, FIRST_CAR_ID + i);
+			long updates = phone.getStateUpdates();
+			phone.send(request);
+			if(phone.awaitState(updates, TIMEOUT) == 2)
+				linked++;
+		}
+		// gives the standby a few heartbeats to catch up
+		Thread.sleep(500);
+		long appliedBeforeFailover = replica.getAppliedChanges();
+
+		System.out.println("Established " + linked + " links. Killing the primary...");
+		long kill = System.nanoTime();
+		primaryProcess.destroyForcibly();
+		primaryProcess.waitFor();
+		for(SimulatedDevice device : devices)
+			device.close();
+		// the standby opens its device-ports only once it has taken over
+		deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while(!isOpen(carPort + 10) || !isOpen(phonePort + 10)) {
+			if(System.nanoTime() > deadline)
+				throw new IOException("The standby did not take over.");
+			Thread.sleep(1);
+		}
+
+		ReplayContext standbyContext = new ReplayContext(new InetSocketAddress("localhost", carPort + 10), new InetSocketAddress("localhost", phonePort + 10), 1);
+		List<SimulatedPhone> phones = new ArrayList<>();
+		List<Long> updates = new ArrayList<>();
+		for(int i = 0; i < links; i++) {
+			SimulatedPhone phone = new SimulatedPhone(standbyContext, LoadGenerator.PHONE_PREFIX + i);
+			long phoneUpdates = phone.getStateUpdates();
+			if(register(phone) && register(new SimulatedCar(standbyContext, FIRST_CAR_ID + i))) {
+				phones.add(phone);
+				updates.add(phoneUpdates);
+			}
+		}
+		int restored = 0;
+		for(int i = 0; i < phones.size(); i++) {
+			// the registration has been the first state, the restored link is the second one
+			if(phones.get(i).awaitState(updates.get(i) + 1, TIMEOUT) == 2)
+				restored++;
+		}
+		long failover = System.nanoTime() - kill;
+
+		LatencySnapshot lag = replica.getLagSnapshot();
+		System.out.println("replication lag:  " + lag.getCount() + " changes (" + appliedBeforeFailover + " before the failover), p50 " + millis(lag.getP50(TimeUnit.NANOSECONDS))
+				+ " ms, p99 " + millis(lag.getP99(TimeUnit.NANOSECONDS)) + " ms, max " + millis(lag.getMaximum(TimeUnit.NANOSECONDS)) + " ms");
+		System.out.println("detection:        " + millis(replica.getFailoverTime(TimeUnit.NANOSECONDS)) + " ms after the last change of the primary");
+		System.out.println("failover:         " + restored + " of " + linked + " links restored " + millis(failover) + " ms after killing the primary");
+		standbyContext.stop();
+		primaryContext.stop();
+	}
+
+	/**
+	 * Connects and registers a device.
+	 * @return true, if the device has been registered, otherwise false.
+	 */
+	private static boolean register(SimulatedDevice device) throws InterruptedException {
+		try {
+			device.connect(TIMEOUT);
+			if(device.register(TIMEOUT))
+				return true;
+		} catch(IOException ioe) {
+			System.err.println("Could not connect the device " + device.getId() + ": " + ioe.getMessage());
+		}
+		device.close();
+		return false;
+	}
+
+	/**
+	 * @return true, if a connection to the passed port of this host can be established, otherwise false.
+	 */
+	private static boolean isOpen(int port) {
+		try(Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress("localhost", port), TIMEOUT);
+			return true;
+		} catch(IOException ioe) {
+			return false;
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
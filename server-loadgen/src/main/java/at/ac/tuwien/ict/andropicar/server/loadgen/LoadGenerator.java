@@ -0,0 +1,642 @@
+package at.ac.tuwien.ict.andropicar.server.loadgen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.TlsConfiguration;
+import at.ac.tuwien.ict.andropicar.server.cluster.ClusterConfiguration;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.tools.ReplayContext;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedCar;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedDevice;
+import at.ac.tuwien.ict.andropicar.server.tools.SimulatedPhone;
+
+
+/**
+ * Puts a {@link Server} under a synthetic load of thousands of simulated cars and phones, to size hardware and to catch scaling regressions.<br>
+ * Every car gets exactly one phone. The load test runs in three phases:
+ * <ol>
+ * <li>All devices connect and register with the real handshake (id and state), with a limited number of registrations in flight.
+ * The throughput of the registrations is measured.</li>
+ * <li>Every phone requests the link to its car (connect and state). The time until the link is established is measured per link.</li>
+ * <li>The cars stream sensor-frames and the phones stream control-frames at fixed rates, for the configured duration.
+ * The forwarding latencies are measured in both directions, like in a replay (see {@link at.ac.tuwien.ict.andropicar.server.tools.LatencyProbe}).</li>
+ * </ol>
+ * Optionally, all devices then reconnect and register once more at the same time, like a fleet after a network outage. The throughput of the reconnects is measured,
+ * which shows the benefit of resumed TLS-sessions, if the devices connect with TLS.<br>
+ * The CPU-load and the heap of the server are sampled during all phases (see {@link ResourceSampler}).<br>
+ * <br>
+ * Usage: <code>LoadGenerator [options]</code>
+ * <table border="1" summary="Options">
+ * <tr><td>--host &lt;host&gt;</td><td>the host of the server (default: localhost)</td></tr>
+ * <tr><td>--car-port &lt;port&gt;</td><td>the port that cars connect to (default: 6633)</td></tr>
+ * <tr><td>--phone-port &lt;port&gt;</td><td>the port that phones connect to (default: 6636)</td></tr>
+ * <tr><td>--links &lt;n&gt;</td><td>the number of simulated cars, and phones (default: 1000)</td></tr>
+ * <tr><td>--first-car-id &lt;id&gt;</td><td>the ID of the first car, the others follow consecutively (default: 1)</td></tr>
+ * <tr><td>--sensor-rate &lt;hz&gt;</td><td>the sensor-frames per second of every car, 0 disables them (default: 20)</td></tr>
+ * <tr><td>--phone-rate &lt;hz&gt;</td><td>the rate of sensor-data, that every phone requests after its link has been established, 0 for no limit (default: 0)</td></tr>
+ * <tr><td>--control-rate &lt;hz&gt;</td><td>the control-frames per second of every phone, 0 disables them (default: 50)</td></tr>
+ * <tr><td>--duration &lt;seconds&gt;</td><td>the duration of the streaming phase (default: 30)</td></tr>
+ * <tr><td>--connect-rate &lt;n&gt;</td><td>the maximum number of new connections per second, 0 for no limit (default: 0)</td></tr>
+ * <tr><td>--concurrency &lt;n&gt;</td><td>the maximum number of registrations and link-requests in flight (default: 64)</td></tr>
+ * <tr><td>--senders &lt;n&gt;</td><td>the number of threads that send the frames of all devices (default: 4)</td></tr>
+ * <tr><td>--embedded</td><td>starts a server within this process, which whitelists all links, instead of connecting to a running one</td></tr>
+ * <tr><td>--nodes &lt;n&gt;</td><td>starts a cluster of n embedded servers on loopback instead, the cars connect to the last node and the phones to the first one,
+ * so that every link is relayed between the nodes (default: 1)</td></tr>
+ * <tr><td>--placement</td><td>enables the placement of the cars in the embedded cluster, the cars and phones follow the redirects to the node of their car instead</td></tr>
+ * <tr><td>--reconnect</td><td>reconnects and registers all devices once more after the streaming phase</td></tr>
+ * <tr><td>--tls</td><td>connects the devices with TLS, and enables TLS on the embedded servers</td></tr>
+ * <tr><td>--key-store &lt;file&gt;</td><td>the key-store of the embedded servers, whose certificate the devices trust
+ * (default: a temporary key-store with a self-signed certificate, which requires --embedded)</td></tr>
+ * <tr><td>--key-store-password &lt;password&gt;</td><td>the password of the key-store (default: changeit)</td></tr>
+ * <tr><td>--jmx &lt;host:port&gt;</td><td>samples the CPU and heap of a running server via its JMX-agent</td></tr>
+ * <tr><td>--report &lt;file&gt;</td><td>writes all counters, percentiles and resources to a properties-file</td></tr>
+ * </table>
+ * The phone <code>loadgen-phone-i</code> is linked to the car <code>first-car-id + i</code>. A running server has to whitelist these links
+ * and must admit the connections of the load generator (see {@link at.ac.tuwien.ict.andropicar.server.helper.RateLimitSettings}), since they all come from one address.
+ * An embedded server shares the JVM with the load generator, so its CPU-load and heap include those of the simulated devices.
+ * The node i of an embedded cluster listens on the ports of the options plus 10 * i, and on the phone-port plus 3 for the relay-channels.
+ */
+public class LoadGenerator {
+
+	/** The maximum time in milliseconds to wait for a connection, a registration or a link. */
+	private static final int TIMEOUT = 5000;
+
+	/** The time in milliseconds that the devices stay connected after the streaming phase, so that the last forwarded frames can be received. */
+	private static final long LINGER = 1000;
+
+	/** The prefix of the IDs of the simulated phones. */
+	public static final String PHONE_PREFIX = "loadgen-phone-";
+
+	/** Everything that the simulated devices share: the addresses of the server, the latency probes and the counters. */
+	private final ReplayContext context;
+
+	/** The results that are not counted by the simulated devices themselves. */
+	private final LoadStatistics statistics = new LoadStatistics();
+
+	/** The simulated cars. */
+	private final List<SimulatedCar> cars = new ArrayList<>();
+
+	/** The simulated phones. The phone at an index is linked to the car at the same index. */
+	private final List<SimulatedPhone> phones = new ArrayList<>();
+
+	/** The maximum number of registrations and link-requests in flight. */
+	private final int concurrency;
+
+	/** The minimum time in nanoseconds between two new connections, or 0. */
+	private final long connectInterval;
+
+	/** The point in time (see {@link System#nanoTime()}) that the next connection may be opened at. */
+	private final AtomicLong nextConnect = new AtomicLong();
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+
+
+	/**
+	 * @param context the context that the simulated devices share.
+	 * @param links the number of simulated cars, and phones.
+	 * @param firstCarId the ID of the first car.
+	 * @param concurrency the maximum number of registrations and link-requests in flight.
+	 * @param connectRate the maximum number of new connections per second, or 0 for no limit.
+	 */
+	public LoadGenerator(ReplayContext context, int links, long firstCarId, int concurrency, int connectRate) {
+		this.context = context;
+		this.concurrency = Math.max(concurrency, 1);
+		this.connectInterval = connectRate > 0 ? TimeUnit.SECONDS.toNanos(1) / connectRate : 0;
+		for(int i = 0; i < links; i++) {
+			this.cars.add(new SimulatedCar(context, firstCarId + i));
+			this.phones.add(new SimulatedPhone(context, LoadGenerator.PHONE_PREFIX + i));
+		}
+	}
+
+
+	public LoadStatistics getStatistics() { return this.statistics; }
+
+	/**
+	 * Connects and registers all devices, with at most {@link #concurrency} registrations in flight.
+	 * @return the number of registered devices.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public long registerAll() throws InterruptedException {
+		List<Callable<Boolean>> registrations = new ArrayList<>();
+		for(int i = 0; i < this.cars.size(); i++) {
+			registrations.add(new Registration(this.cars.get(i)));
+			registrations.add(new Registration(this.phones.get(i)));
+		}
+		this.nextConnect.set(System.nanoTime());
+		long start = System.nanoTime();
+		long registered = LoadGenerator.count(this.invokeAll(registrations));
+		this.statistics.registrationsFinished(registered, System.nanoTime() - start);
+		return registered;
+	}
+
+	/**
+	 * Requests the links of all registered phones, with at most {@link #concurrency} link-requests in flight.
+	 * @return the number of established links.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public long linkAll() throws InterruptedException {
+		List<Callable<Boolean>> links = new ArrayList<>();
+		for(int i = 0; i < this.phones.size(); i++)
+			if(this.phones.get(i).isConnected() && this.cars.get(i).isConnected())
+				links.add(new LinkRequest(this.phones.get(i), (Long) this.cars.get(i).getId()));
+		return LoadGenerator.count(this.invokeAll(links));
+	}
+
+	/**
+	 * Requests a rate of sensor-data on all connected phones, e.g. the refresh-rate of their displays.
+	 * @param rate the sensor-data per second, that every phone wants to receive, or 0 for no limit.
+	 */
+	public void requestSensorRate(int rate) {
+		HashMap<String, Object> request = new HashMap<>();
+		request.put(Keywords.rate, rate);
+		for(SimulatedDevice phone : this.phones)
+			if(phone.isConnected()) {
+				try {
+					phone.send(request);
+				} catch(IOException ioe) {
+					LoadGenerator.logger.warn("Could not request the sensor-rate of the phone " + phone.getId() + ": " + ioe.getMessage());
+				}
+			}
+	}
+
+	/**
+	 * Streams sensor-frames from all connected cars and control-frames from all connected phones.
+	 * @param sensorRate the sensor-frames per second of every car, or 0.
+	 * @param controlRate the control-frames per second of every phone, or 0.
+	 * @param senders the number of threads that send the frames.
+	 * @param duration the duration of the streaming in milliseconds.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public void stream(int sensorRate, int controlRate, int senders, long duration) throws InterruptedException {
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(senders, 1));
+		for(int i = 0; i < this.cars.size(); i++) {
+			if(sensorRate > 0 && this.cars.get(i).isConnected())
+				this.schedule(scheduler, new FrameSender(this.cars.get(i), false, sensorRate));
+			if(controlRate > 0 && this.phones.get(i).isConnected())
+				this.schedule(scheduler, new FrameSender(this.phones.get(i), true, controlRate));
+		}
+		Thread.sleep(duration);
+		scheduler.shutdownNow();
+		scheduler.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+		Thread.sleep(LINGER);
+	}
+
+	/**
+	 * Closes the connections of all devices, and connects and registers them again, with at most {@link #concurrency} registrations in flight.
+	 * @return the number of registered devices.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public long reconnectAll() throws InterruptedException {
+		close();
+		List<Callable<Boolean>> registrations = new ArrayList<>();
+		for(int i = 0; i < this.cars.size(); i++) {
+			registrations.add(new Registration(this.cars.get(i)));
+			registrations.add(new Registration(this.phones.get(i)));
+		}
+		this.nextConnect.set(System.nanoTime());
+		long start = System.nanoTime();
+		long registered = LoadGenerator.count(this.invokeAll(registrations));
+		this.statistics.reconnectsFinished(registered, System.nanoTime() - start);
+		return registered;
+	}
+
+	/**
+	 * Closes the connections of all devices.
+	 */
+	public void close() {
+		for(SimulatedDevice car : this.cars)
+			car.close();
+		for(SimulatedDevice phone : this.phones)
+			phone.close();
+	}
+
+	/**
+	 * Schedules the sender at its rate, with a random offset, so that the frames of all devices are spread evenly.
+	 */
+	private void schedule(ScheduledExecutorService scheduler, FrameSender sender) {
+		long offset = ThreadLocalRandom.current().nextLong(sender.period);
+		sender.start = System.nanoTime() + offset;
+		scheduler.scheduleAtFixedRate(sender, offset, sender.period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Waits until the next connection may be opened, according to {@link #connectInterval}.
+	 */
+	private void pace() throws InterruptedException {
+		if(this.connectInterval == 0)
+			return;
+		long delay = this.nextConnect.getAndAdd(this.connectInterval) - System.nanoTime();
+		if(delay > 0)
+			TimeUnit.NANOSECONDS.sleep(delay);
+	}
+
+	/**
+	 * Runs the passed tasks with at most {@link #concurrency} of them in parallel.
+	 */
+	private List<Future<Boolean>> invokeAll(List<Callable<Boolean>> tasks) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(this.concurrency);
+		try {
+			return executor.invokeAll(tasks);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the number of tasks that have returned true.
+	 */
+	private static long count(List<Future<Boolean>> results) throws InterruptedException {
+		long count = 0;
+		for(Future<Boolean> result : results) {
+			try {
+				if(result.get())
+					count++;
+			} catch(ExecutionException ee) {
+				LoadGenerator.logger.warn("A task of the load generator failed.", ee.getCause());
+			}
+		}
+		return count;
+	}
+
+
+	public static void main(String[] args) throws IOException, InterruptedException, JMException, GeneralSecurityException {
+		String host = "localhost";
+		int carPort = 6633;
+		int phonePort = 6636;
+		int links = 1000;
+		long firstCarId = 1;
+		int sensorRate = 20;
+		int controlRate = 50;
+		int phoneRate = 0;
+		long duration = 30;
+		int connectRate = 0;
+		int concurrency = 64;
+		int senders = 4;
+		boolean embedded = false;
+		boolean placement = false;
+		int nodes = 1;
+		boolean reconnect = false;
+		boolean tls = false;
+		File keyStore = null;
+		char[] keyStorePassword = "changeit".toCharArray();
+		String jmx = null;
+		File report = null;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--host": host = args[++i];
+					break;
+				case "--car-port": carPort = Integer.parseInt(args[++i]);
+					break;
+				case "--phone-port": phonePort = Integer.parseInt(args[++i]);
+					break;
+				case "--links": links = Integer.parseInt(args[++i]);
+					break;
+				case "--first-car-id": firstCarId = Long.parseLong(args[++i]);
+					break;
+				case "--sensor-rate": sensorRate = Integer.parseInt(args[++i]);
+					break;
+				case "--phone-rate": phoneRate = Integer.parseInt(args[++i]);
+					break;
+				case "--control-rate": controlRate = Integer.parseInt(args[++i]);
+					break;
+				case "--duration": duration = Long.parseLong(args[++i]);
+					break;
+				case "--connect-rate": connectRate = Integer.parseInt(args[++i]);
+					break;
+				case "--concurrency": concurrency = Integer.parseInt(args[++i]);
+					break;
+				case "--senders": senders = Integer.parseInt(args[++i]);
+					break;
+				case "--embedded": embedded = true;
+					break;
+				case "--nodes": nodes = Integer.parseInt(args[++i]);
+					embedded = true;
+					break;
+				case "--placement": placement = true;
+					break;
+				case "--reconnect": reconnect = true;
+					break;
+				case "--tls": tls = true;
+					break;
+				case "--key-store": keyStore = new File(args[++i]);
+					break;
+				case "--key-store-password": keyStorePassword = args[++i].toCharArray();
+					break;
+				case "--jmx": jmx = args[++i];
+					break;
+				case "--report": report = new File(args[++i]);
+					break;
+				default:
+					usage("Unknown option " + args[i]);
+			}
+		}
+		if(links <= 0 || sensorRate < 0 || phoneRate < 0 || controlRate < 0 || duration < 0 || nodes < 1)
+			usage("The number of links and nodes must be positive, the rates and the duration must not be negative.");
+		if(tls && keyStore == null) {
+			if(!embedded)
+				usage("A running server requires the --key-store of its certificate.");
+			keyStore = createKeyStore(keyStorePassword);
+		}
+
+		List<Server> servers = new ArrayList<>();
+		if(embedded) {
+			for(int n = 0; n < nodes; n++) {
+				Server embeddedServer = new Server(carPort + 10 * n, phonePort + 10 * n);
+				if(nodes > 1) {
+					ClusterConfiguration cluster = new ClusterConfiguration("node-" + n, phonePort + 10 * n + 3);
+					for(int peer = 0; peer < nodes; peer++)
+						cluster.addPeer("node-" + peer, "localhost", phonePort + 10 * peer + 3, carPort + 10 * peer, phonePort + 10 * peer);
+					cluster.setPlacementEnabled(placement);
+					embeddedServer.setClusterConfiguration(cluster);
+					// the MBeans of the servers would have the same names
+					embeddedServer.setJmxEnabled(n == 0);
+				}
+				if(tls)
+					embeddedServer.setTlsConfiguration(new TlsConfiguration(TlsConfiguration.createContext(keyStore.getPath(), keyStorePassword)));
+				startEmbeddedServer(embeddedServer, links, firstCarId, Math.max(sensorRate, controlRate));
+				servers.add(embeddedServer);
+			}
+			host = "localhost";
+			carPort = servers.get(nodes - 1).getCarAcceptorPort();
+			phonePort = servers.get(0).getPhoneAcceptorPort();
+			// gives the acceptors time to open their ports, and the nodes time to open their relay-channels
+			Thread.sleep(LINGER);
+		}
+
+		ResourceSampler resources = jmx != null ? ResourceSampler.remote(jmx) : embedded ? ResourceSampler.local() : null;
+		if(resources != null) {
+			Thread sampler = new Thread(resources, "Resource sampler");
+			sampler.setDaemon(true);
+			sampler.start();
+		}
+
+		ReplayContext context = new ReplayContext(new InetSocketAddress(host, carPort), new InetSocketAddress(host, phonePort), 1);
+		if(tls)
+			context.setTls(createTrustManagers(keyStore, keyStorePassword));
+		LoadGenerator generator = new LoadGenerator(context, links, firstCarId, concurrency, connectRate);
+		if(tls) {
+			for(Server server : servers)
+				generator.getStatistics().addTlsStatistics(server.getTlsStatistics());
+		}
+		System.out.println("Registering " + links + " cars and " + links + " phones...");
+		long registered = generator.registerAll();
+		System.out.println("Registered " + registered + " devices. Linking...");
+		long linked = generator.linkAll();
+		if(phoneRate > 0)
+			generator.requestSensorRate(phoneRate);
+		System.out.println("Established " + linked + " links. Streaming " + sensorRate + " sensor-frames and " + controlRate + " control-frames per second for " + duration + " s...");
+		generator.stream(sensorRate, controlRate, senders, TimeUnit.SECONDS.toMillis(duration));
+		if(reconnect) {
+			System.out.println("Reconnecting all devices...");
+			generator.reconnectAll();
+		}
+		if(resources != null) {
+			resources.sample();
+			resources.stop();
+		}
+		generator.close();
+
+		context.getStatistics().print(System.out);
+		generator.getStatistics().print(System.out, resources);
+		if(report != null) {
+			Properties properties = context.getStatistics().toProperties();
+			properties.putAll(generator.getStatistics().toProperties(resources));
+			try(OutputStream out = new FileOutputStream(report)) {
+				properties.store(out, "Load of " + links + " links with " + sensorRate + " sensor-frames and " + controlRate + " control-frames per second for " + duration + " s");
+			}
+		}
+		for(Server server : servers)
+			server.shutdown();
+	}
+
+	/**
+	 * Starts an embedded server in its own thread, which whitelists all links and admits the connections and messages of the load generator.
+	 * @param server the server.
+	 * @param links the number of simulated cars, and phones.
+	 * @param firstCarId the ID of the first car.
+	 * @param rate the highest rate of frames per second of a device.
+	 */
+	static void startEmbeddedServer(final Server server, int links, long firstCarId, int rate) {
+		for(int i = 0; i < links; i++)
+			server.allowLink(LoadGenerator.PHONE_PREFIX + i, firstCarId + i);
+		// all connections come from the same address, and the rates are chosen by the load generator
+		server.getRateLimitSettings().setConnectionsPerSecond(Integer.MAX_VALUE);
+		server.getRateLimitSettings().setConnectionBurst(Integer.MAX_VALUE);
+		long messageRate = Math.max(server.getRateLimitSettings().getMessagesPerSecond(), 2L * rate);
+		server.getRateLimitSettings().setMessagesPerSecond(messageRate);
+		server.getRateLimitSettings().setMessageBurst(2 * messageRate);
+		new Thread("Server") {
+			@Override
+			public void run() {
+				server.run();
+			}
+		}.start();
+	}
+
+	/**
+	 * Creates a temporary key-store with a self-signed certificate for localhost, with the keytool of the running JVM. The key-store is deleted on exit.
+	 * @param password the password of the key-store and the key.
+	 * @return the key-store.
+	 */
+	private static File createKeyStore(char[] password) throws IOException, InterruptedException {
+		File keyStore = File.createTempFile("loadgen", ".p12");
+		// keytool refuses to overwrite an existing file
+		keyStore.delete();
+		keyStore.deleteOnExit();
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost",
+				"-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.getPath(), "-storepass", new String(password), "-keypass", new String(password))
+				.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		if(process.waitFor() != 0)
+			throw new IOException("keytool could not create the key-store " + keyStore + ".");
+		return keyStore;
+	}
+
+	/**
+	 * Creates the trust-managers of the TLS-connections of the simulated devices, which trust the certificates of the passed key-store.
+	 * @param keyStore the key-store of the server.
+	 * @param password the password of the key-store.
+	 * @return the trust-managers.
+	 */
+	private static TrustManager[] createTrustManagers(File keyStore, char[] password) throws IOException, GeneralSecurityException {
+		KeyStore trusted = KeyStore.getInstance(keyStore.getName().endsWith(".jks") ? "JKS" : "PKCS12");
+		try(InputStream input = new FileInputStream(keyStore)) {
+			trusted.load(input, password);
+		}
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(trusted);
+		return trustManagers.getTrustManagers();
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("Usage: LoadGenerator [--host <host>] [--car-port <port>] [--phone-port <port>] [--links <n>] [--first-car-id <id>] [--sensor-rate <hz>]"
+				+ " [--phone-rate <hz>] [--control-rate <hz>] [--duration <seconds>] [--connect-rate <n>] [--concurrency <n>] [--senders <n>] [--embedded] [--nodes <n>] [--placement] [--reconnect] [--tls] [--key-store <file>] [--key-store-password <password>]"
+				+ " [--jmx <host:port>] [--report <file>]");
+		System.exit(1);
+	}
+
+
+	/**
+	 * Connects and registers one device.
+	 */
+	private class Registration implements Callable<Boolean> {
+
+		private final SimulatedDevice device;
+
+		private Registration(SimulatedDevice device) {
+			this.device = device;
+		}
+
+		@Override
+		public Boolean call() throws InterruptedException {
+			LoadGenerator.this.pace();
+			try {
+				this.device.connect(TIMEOUT);
+				if(this.device.register(TIMEOUT))
+					return true;
+				LoadGenerator.logger.warn("The server did not accept the registration of the device " + this.device.getId() + ".");
+			} catch(IOException ioe) {
+				LoadGenerator.logger.warn("Could not connect the device " + this.device.getId() + ": " + ioe.getMessage());
+			}
+			this.device.close();
+			return false;
+		}
+	}
+
+
+	/**
+	 * Requests the link of one phone and measures the time until it is established.
+	 */
+	private class LinkRequest implements Callable<Boolean> {
+
+		private final SimulatedPhone phone;
+
+		private final long carId;
+
+		private LinkRequest(SimulatedPhone phone, long carId) {
+			this.phone = phone;
+			this.carId = carId;
+		}
+
+		@Override
+		public Boolean call() throws InterruptedException {
+			HashMap<String, Object> request = new HashMap<>();
+			request.put(Keywords.connect, this.carId);
+			long updates = this.phone.getStateUpdates();
+			long start = System.nanoTime();
+			try {
+				this.phone.send(request);
+			} catch(IOException ioe) {
+				LoadGenerator.logger.warn("Could not request the link of the phone " + this.phone.getId() + ": " + ioe.getMessage());
+				LoadGenerator.this.statistics.linkFailed();
+				return false;
+			}
+			int state = this.phone.awaitState(updates, TIMEOUT);
+			if(state == 4) {
+				// the car belongs to another node of the cluster, the phone registers there and requests the link again
+				try {
+					this.phone.redirect(TIMEOUT);
+					if(this.phone.register(TIMEOUT)) {
+						updates = this.phone.getStateUpdates();
+						this.phone.send(request);
+						state = this.phone.awaitState(updates, TIMEOUT);
+					}
+				} catch(IOException ioe) {
+					LoadGenerator.logger.warn("Could not follow the redirect of the phone " + this.phone.getId() + ": " + ioe.getMessage());
+				}
+			}
+			if(state == 2) {
+				LoadGenerator.this.statistics.linkEstablished(System.nanoTime() - start);
+				return true;
+			}
+			LoadGenerator.logger.warn("The link of the phone " + this.phone.getId() + " to the car " + this.carId + " has not been established (state " + state + ").");
+			LoadGenerator.this.statistics.linkFailed();
+			return false;
+		}
+	}
+
+
+	/**
+	 * Sends the frames of one device at a fixed rate. Consecutive frames differ, so that the latency probes can tell them apart.
+	 */
+	private class FrameSender implements Runnable {
+
+		/** The device that sends the frames. */
+		private final SimulatedDevice device;
+
+		/** True, if the device sends control-frames, false if it sends sensor-frames. */
+		private final boolean control;
+
+		/** The time in nanoseconds between two frames. */
+		private final long period;
+
+		/** The point in time (see {@link System#nanoTime()}) of the first frame. */
+		private long start;
+
+		/** The number of frames that have been sent. */
+		private long sequence = 0;
+
+		private FrameSender(SimulatedDevice device, boolean control, int rate) {
+			this.device = device;
+			this.control = control;
+			this.period = TimeUnit.SECONDS.toNanos(1) / rate;
+		}
+
+		@Override
+		public void run() {
+			if(!this.device.isConnected())
+				return;
+			if(System.nanoTime() - (this.start + this.sequence * this.period) > this.period)
+				LoadGenerator.this.statistics.frameLate();
+			HashMap<String, Object> frame = new HashMap<>();
+			if(this.control) {
+				frame.put(Keywords.steering, this.sequence % 201 - 100);
+				frame.put(Keywords.acceleration, 50L);
+			}
+			else {
+				frame.put(Keywords.ultrasonicSensor, this.sequence % 400);
+				frame.put(Keywords.leftInfraredSensor, 30L);
+				frame.put(Keywords.rightInfraredSensor, 28L);
+				frame.put(Keywords.hallSensor, 15L);
+			}
+			this.sequence++;
+			try {
+				this.device.send(frame);
+			} catch(IOException ioe) {
+				LoadGenerator.logger.debug("Could not send a frame of the device " + this.device.getId() + ".", ioe);
+			}
+		}
+	}
+
+}
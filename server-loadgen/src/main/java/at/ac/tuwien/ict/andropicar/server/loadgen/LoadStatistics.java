@@ -0,0 +1,172 @@
+package at.ac.tuwien.ict.andropicar.server.loadgen;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.helper.TlsStatistics;
+import at.ac.tuwien.ict.andropicar.server.tools.LatencyStatistics;
+import at.ac.tuwien.ict.andropicar.server.tools.ReplayStatistics;
+
+
+/**
+ * The results of a load test, that are not already counted by the {@link ReplayStatistics} of the simulated devices:
+ * the throughput of the registrations and reconnects, the time to set up the links, the TLS-handshakes and the resources that the server used.
+ */
+public class LoadStatistics {
+
+	/** The time in nanoseconds that registering all devices took. */
+	private volatile long registrationTime = 0;
+
+	/** The number of devices that have been registered. */
+	private volatile long registeredDevices = 0;
+
+	/** The time in nanoseconds that reconnecting and registering all devices once more took, or 0 if they have not reconnected. */
+	private volatile long reconnectTime = 0;
+
+	/** The number of devices that have been registered again after reconnecting. */
+	private volatile long reconnectedDevices = 0;
+
+	/** The TLS-handshakes of the embedded servers. */
+	private final List<TlsStatistics> tlsStatistics = new CopyOnWriteArrayList<>();
+
+	/** The times between sending link-requests and receiving the state of the established links. */
+	private final LatencyStatistics linkSetup = new LatencyStatistics();
+
+	/** The number of links that have been rejected or timed out. */
+	private final AtomicLong failedLinks = new AtomicLong();
+
+	/** The number of frames that could not be sent in time, because the senders fell behind. */
+	private final AtomicLong lateFrames = new AtomicLong();
+
+
+	/**
+	 * @param registeredDevices the number of devices that have been registered.
+	 * @param registrationTime the time in nanoseconds that registering all devices took.
+	 */
+	public void registrationsFinished(long registeredDevices, long registrationTime) {
+		this.registeredDevices = registeredDevices;
+		this.registrationTime = registrationTime;
+	}
+
+	/**
+	 * @param reconnectedDevices the number of devices that have been registered again after reconnecting.
+	 * @param reconnectTime the time in nanoseconds that reconnecting and registering all devices took.
+	 */
+	public void reconnectsFinished(long reconnectedDevices, long reconnectTime) {
+		this.reconnectedDevices = reconnectedDevices;
+		this.reconnectTime = reconnectTime;
+	}
+
+	/**
+	 * Adds the TLS-handshakes of an embedded server to the results.
+	 * @param tlsStatistics the counters of the server.
+	 */
+	public void addTlsStatistics(TlsStatistics tlsStatistics) { this.tlsStatistics.add(tlsStatistics); }
+
+	/**
+	 * @param setupTime the time in nanoseconds between sending the link-request and receiving the state of the established link.
+	 */
+	public void linkEstablished(long setupTime) { this.linkSetup.add(setupTime); }
+
+	public void linkFailed() { this.failedLinks.incrementAndGet(); }
+
+	public void frameLate() { this.lateFrames.incrementAndGet(); }
+
+	/**
+	 * @return the number of registrations per second, or 0 if nothing has been registered.
+	 */
+	public double getRegistrationThroughput() {
+		long time = this.registrationTime;
+		return time == 0 ? 0 : this.registeredDevices * 1e9 / time;
+	}
+
+	/**
+	 * @return the number of reconnects per second, or 0 if the devices have not reconnected.
+	 */
+	public double getReconnectThroughput() {
+		long time = this.reconnectTime;
+		return time == 0 ? 0 : this.reconnectedDevices * 1e9 / time;
+	}
+
+	/**
+	 * @return the times between sending link-requests and receiving the state of the established links.
+	 */
+	public LatencyStatistics getLinkSetup() { return this.linkSetup; }
+
+	/**
+	 * @param resources the samples of the servers resources, or null.
+	 * @return all results (times in milliseconds), e.g. to be stored and compared with the results of another release.
+	 */
+	public Properties toProperties(ResourceSampler resources) {
+		Properties properties = new Properties();
+		properties.setProperty("registrationsPerSecond", format(getRegistrationThroughput()));
+		properties.setProperty("registrationTime", millis(this.registrationTime));
+		properties.setProperty("linkSetup.count", String.valueOf(this.linkSetup.getCount()));
+		properties.setProperty("linkSetup.failed", String.valueOf(this.failedLinks.get()));
+		properties.setProperty("linkSetup.p50", millis(this.linkSetup.getPercentile(50)));
+		properties.setProperty("linkSetup.p99", millis(this.linkSetup.getPercentile(99)));
+		properties.setProperty("linkSetup.max", millis(this.linkSetup.getMax()));
+		properties.setProperty("lateFrames", String.valueOf(this.lateFrames.get()));
+		if(this.reconnectTime > 0) {
+			properties.setProperty("reconnectsPerSecond", format(getReconnectThroughput()));
+			properties.setProperty("reconnectTime", millis(this.reconnectTime));
+		}
+		for(int i = 0; i < this.tlsStatistics.size(); i++) {
+			TlsStatistics tls = this.tlsStatistics.get(i);
+			String prefix = "server." + i + ".tls.";
+			properties.setProperty(prefix + "full", String.valueOf(tls.getFullHandshakes()));
+			properties.setProperty(prefix + "resumed", String.valueOf(tls.getResumedHandshakes()));
+			properties.setProperty(prefix + "failed", String.valueOf(tls.getFailedHandshakes()));
+			properties.setProperty(prefix + "full.p50", millis(tls.getFullHandshakeTime().getP50(TimeUnit.NANOSECONDS)));
+			properties.setProperty(prefix + "resumed.p50", millis(tls.getResumedHandshakeTime().getP50(TimeUnit.NANOSECONDS)));
+		}
+		if(resources != null) {
+			properties.setProperty("server.cpu.average", format(resources.getAverageCpu()));
+			properties.setProperty("server.cpu.max", format(resources.getMaxCpu()));
+			properties.setProperty("server.heap.max", String.valueOf(resources.getMaxHeap()));
+			properties.setProperty("server.heap.last", String.valueOf(resources.getLastHeap()));
+			properties.setProperty("server.heap.committed", String.valueOf(resources.getCommittedHeap()));
+		}
+		return properties;
+	}
+
+	/**
+	 * Prints a summary of the results.
+	 * @param out the stream to print to.
+	 * @param resources the samples of the servers resources, or null.
+	 */
+	public void print(PrintStream out, ResourceSampler resources) {
+		out.println("registration:     " + this.registeredDevices + " devices in " + millis(this.registrationTime) + " ms, " + format(getRegistrationThroughput()) + " per second");
+		out.println("link setup:       " + this.linkSetup.getCount() + " links (" + this.failedLinks.get() + " failed), p50 " + millis(this.linkSetup.getPercentile(50))
+				+ " ms, p99 " + millis(this.linkSetup.getPercentile(99)) + " ms, max " + millis(this.linkSetup.getMax()) + " ms");
+		out.println("late frames:      " + this.lateFrames.get());
+		if(this.reconnectTime > 0)
+			out.println("reconnect:        " + this.reconnectedDevices + " devices in " + millis(this.reconnectTime) + " ms, " + format(getReconnectThroughput()) + " per second");
+		for(int i = 0; i < this.tlsStatistics.size(); i++) {
+			TlsStatistics tls = this.tlsStatistics.get(i);
+			LatencySnapshot full = tls.getFullHandshakeTime();
+			LatencySnapshot resumed = tls.getResumedHandshakeTime();
+			out.println("tls handshakes:   " + (this.tlsStatistics.size() > 1 ? "node " + i + ": " : "") + full.getCount() + " full (p50 " + millis(full.getP50(TimeUnit.NANOSECONDS))
+					+ " ms), " + resumed.getCount() + " resumed (p50 " + millis(resumed.getP50(TimeUnit.NANOSECONDS)) + " ms), " + tls.getFailedHandshakes() + " failed");
+		}
+		if(resources != null) {
+			out.println("server cpu:       average " + format(resources.getAverageCpu()) + " %, max " + format(resources.getMaxCpu()) + " %");
+			out.println("server heap:      max " + resources.getMaxHeap() + " MB, last " + resources.getLastHeap() + " MB of " + resources.getCommittedHeap() + " MB committed");
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
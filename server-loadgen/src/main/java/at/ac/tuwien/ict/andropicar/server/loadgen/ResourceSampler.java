@@ -0,0 +1,200 @@
+package at.ac.tuwien.ict.andropicar.server.loadgen;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Samples the CPU-load and the heap of the servers JVM once per second, via the platform MBeans of that JVM.<br>
+ * The MBeans are either read locally (for an embedded server, which shares the JVM with the load generator) or over a remote JMX-connection.
+ * The CPU-load is only available on JVMs that provide <code>com.sun.management.OperatingSystemMXBean</code>, otherwise it is reported as -1.
+ */
+public class ResourceSampler implements Runnable {
+
+	/** The time in milliseconds between two samples. */
+	private static final long INTERVAL = 1000;
+
+	/** The connection to the MBeans of the servers JVM. */
+	private final MBeanServerConnection connection;
+
+	/** The remote JMX-connection, or null if the MBeans are read locally. */
+	private final JMXConnector connector;
+
+	/** The name of the operating-system MBean. */
+	private final ObjectName operatingSystem;
+
+	/** The name of the memory MBean. */
+	private final ObjectName memory;
+
+	/** Guards all samples. */
+	private final Object lock = new Object();
+
+	/** The number of CPU-samples. */
+	private long cpuSamples = 0;
+
+	/** The sum of all CPU-samples, between 0 and 1 each. */
+	private double cpuSum = 0;
+
+	/** The highest CPU-sample, or -1 if there is none. */
+	private double cpuMax = -1;
+
+	/** The highest used heap in bytes. */
+	private long heapMax = 0;
+
+	/** The last used heap in bytes. */
+	private long heapLast = 0;
+
+	/** The last committed heap in bytes. */
+	private long heapCommitted = 0;
+
+	/** The flag, that indicates, if the sampler should continue or not. */
+	private volatile boolean keepRunning = true;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(ResourceSampler.class);
+
+
+	private ResourceSampler(MBeanServerConnection connection, JMXConnector connector) throws JMException {
+		this.connection = connection;
+		this.connector = connector;
+		this.operatingSystem = new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+		this.memory = new ObjectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+	}
+
+
+	/**
+	 * @return a sampler of the JVM that the load generator runs in.
+	 * @throws JMException if the names of the MBeans are invalid.
+	 */
+	public static ResourceSampler local() throws JMException {
+		return new ResourceSampler(ManagementFactory.getPlatformMBeanServer(), null);
+	}
+
+	/**
+	 * @param address the host and port of the JMX-agent of the servers JVM (see <code>com.sun.management.jmxremote.port</code>), e.g. "localhost:9010".
+	 * @return a sampler of the remote JVM.
+	 * @throws IOException if the JMX-connection could not be established.
+	 * @throws JMException if the names of the MBeans are invalid.
+	 */
+	public static ResourceSampler remote(String address) throws IOException, JMException {
+		JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi"));
+		return new ResourceSampler(connector.getMBeanServerConnection(), connector);
+	}
+
+	@Override
+	public void run() {
+		while(this.keepRunning) {
+			sample();
+			try {
+				Thread.sleep(ResourceSampler.INTERVAL);
+			} catch(InterruptedException ie) {
+				break;
+			}
+		}
+		if(this.connector != null) {
+			try {
+				this.connector.close();
+			} catch(IOException ioe) {}
+		}
+	}
+
+	/**
+	 * Stops the sampler after its current sample.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+	}
+
+	/**
+	 * Takes one sample of the CPU-load and the heap.
+	 */
+	public void sample() {
+		double cpu = -1;
+		try {
+			Object load = this.connection.getAttribute(this.operatingSystem, "ProcessCpuLoad");
+			if(load instanceof Double)
+				cpu = (Double) load;
+		} catch(JMException | IOException e) {
+			// the attribute is not supported by this JVM
+		}
+		long used = -1;
+		long committed = -1;
+		try {
+			CompositeData heap = (CompositeData) this.connection.getAttribute(this.memory, "HeapMemoryUsage");
+			used = (Long) heap.get("used");
+			committed = (Long) heap.get("committed");
+		} catch(JMException | IOException e) {
+			ResourceSampler.logger.warn("Could not sample the heap of the server: " + e.getMessage());
+		}
+		synchronized(this.lock) {
+			// the first samples of a JVM may be negative, while the load is not known yet
+			if(cpu >= 0) {
+				this.cpuSamples++;
+				this.cpuSum += cpu;
+				this.cpuMax = Math.max(this.cpuMax, cpu);
+			}
+			if(used >= 0) {
+				this.heapLast = used;
+				this.heapMax = Math.max(this.heapMax, used);
+				this.heapCommitted = committed;
+			}
+		}
+	}
+
+	/**
+	 * @return the average CPU-load of the servers process in percent of all processors, or -1 if it is not available.
+	 */
+	public double getAverageCpu() {
+		synchronized(this.lock) {
+			return this.cpuSamples == 0 ? -1 : this.cpuSum / this.cpuSamples * 100;
+		}
+	}
+
+	/**
+	 * @return the highest CPU-load of the servers process in percent of all processors, or -1 if it is not available.
+	 */
+	public double getMaxCpu() {
+		synchronized(this.lock) {
+			return this.cpuMax < 0 ? -1 : this.cpuMax * 100;
+		}
+	}
+
+	/**
+	 * @return the highest used heap in megabytes.
+	 */
+	public long getMaxHeap() {
+		synchronized(this.lock) {
+			return this.heapMax / (1024 * 1024);
+		}
+	}
+
+	/**
+	 * @return the last used heap in megabytes.
+	 */
+	public long getLastHeap() {
+		synchronized(this.lock) {
+			return this.heapLast / (1024 * 1024);
+		}
+	}
+
+	/**
+	 * @return the last committed heap in megabytes.
+	 */
+	public long getCommittedHeap() {
+		synchronized(this.lock) {
+			return this.heapCommitted / (1024 * 1024);
+		}
+	}
+
+}
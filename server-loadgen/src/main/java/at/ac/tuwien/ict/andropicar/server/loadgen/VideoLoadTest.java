@@ -0,0 +1,357 @@
+package at.ac.tuwien.ict.andropicar.server.loadgen;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencyHistogram;
+import at.ac.tuwien.ict.andropicar.server.helper.LatencySnapshot;
+import at.ac.tuwien.ict.andropicar.server.tools.ReplayContext;
+import at.ac.tuwien.ict.andropicar.server.video.EVideoRole;
+import at.ac.tuwien.ict.andropicar.server.video.VideoConfiguration;
+import at.ac.tuwien.ict.andropicar.server.video.VideoRelay;
+import at.ac.tuwien.ict.andropicar.server.video.VideoStatistics;
+
+
+/**
+ * Measures the throughput and the latency of the video-relay of an embedded server on loopback.<br>
+ * The test registers and links the cars and phones like the {@link LoadGenerator}, connects a camera for every car and a viewer for every phone
+ * to the video-port, and sends frames of a fixed size at a fixed rate from every camera. Every frame carries the time it has been sent, so every viewer
+ * records the latency from the camera to itself. The first viewers can be made slow, i.e. they wait after every frame, to show that a slow phone
+ * is sent the newest frame instead of falling behind, while the other phones are not affected. The test reports:
+ * <ul>
+ * <li>the offered and the relayed throughput in total and per car,</li>
+ * <li>the latency of the normal and of the slow viewers,</li>
+ * <li>the number of frames that have been dropped for the slow viewers,</li>
+ * <li>the CPU-load of the JVM.</li>
+ * </ul>
+ * Usage: <code>VideoLoadTest [--cars &lt;n&gt;] [--fps &lt;n&gt;] [--frame-size &lt;bytes&gt;] [--slow-viewers &lt;n&gt;] [--duration &lt;seconds&gt;] [--loops &lt;n&gt;]
+ * [--car-port &lt;port&gt;] [--phone-port &lt;port&gt;] [--video-port &lt;port&gt;]</code>
+ */
+public class VideoLoadTest {
+
+	/** The maximum time in milliseconds to wait for a connection or the reply to a hello. */
+	private static final int TIMEOUT = 5000;
+
+	/** The ID of the first car. */
+	private static final long FIRST_CAR_ID = 1;
+
+	/** The time in milliseconds that a slow viewer waits after every frame. */
+	private static final long SLOW_VIEWER_DELAY = 100;
+
+	/** The size of the receive-buffer of a viewer in bytes, which is about that of a phone on a mobile network, rather than that of loopback. */
+	private static final int VIEWER_RECEIVE_BUFFER = 65536;
+
+
+	public static void main(String[] args) throws IOException, InterruptedException, JMException {
+		int cars = 100;
+		int fps = 30;
+		int frameSize = 16384;
+		int slowViewers = 0;
+		int duration = 10;
+		int loops = 0;
+		int carPort = 6633;
+		int phonePort = 6636;
+		int videoPort = 6640;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--cars": cars = Integer.parseInt(args[++i]);
+					break;
+				case "--fps": fps = Integer.parseInt(args[++i]);
+					break;
+				case "--frame-size": frameSize = Integer.parseInt(args[++i]);
+					break;
+				case "--slow-viewers": slowViewers = Integer.parseInt(args[++i]);
+					break;
+				case "--duration": duration = Integer.parseInt(args[++i]);
+					break;
+				case "--loops": loops = Integer.parseInt(args[++i]);
+					break;
+				case "--car-port": carPort = Integer.parseInt(args[++i]);
+					break;
+				case "--phone-port": phonePort = Integer.parseInt(args[++i]);
+					break;
+				case "--video-port": videoPort = Integer.parseInt(args[++i]);
+					break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					System.err.println("Usage: VideoLoadTest [--cars <n>] [--fps <n>] [--frame-size <bytes>] [--slow-viewers <n>] [--duration <seconds>] [--loops <n>]"
+							+ " [--car-port <port>] [--phone-port <port>] [--video-port <port>]");
+					System.exit(1);
+			}
+		}
+		// the timestamp of a frame has to fit into the frame
+		frameSize = Math.max(frameSize, 8);
+
+		Server server = new Server(carPort, phonePort);
+		VideoConfiguration video = new VideoConfiguration(videoPort);
+		if(loops > 0)
+			video.setLoops(loops);
+		server.setVideoConfiguration(video);
+		LoadGenerator.startEmbeddedServer(server, cars, FIRST_CAR_ID, 0);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+		while(server.getVideoRelay() == null) {
+			if(System.nanoTime() > deadline)
+				throw new IOException("The video-relay has not been started.");
+			Thread.sleep(10);
+		}
+
+		ReplayContext context = new ReplayContext(new InetSocketAddress("localhost", carPort), new InetSocketAddress("localhost", phonePort), 1);
+		LoadGenerator generator = new LoadGenerator(context, cars, FIRST_CAR_ID, 16, 0);
+		try {
+			System.out.println("Registered " + generator.registerAll() + " devices and established " + generator.linkAll() + " links.");
+			run(server.getVideoRelay(), cars, fps, frameSize, slowViewers, duration, videoPort);
+		} finally {
+			generator.close();
+			context.stop();
+			server.shutdown();
+		}
+	}
+
+	/**
+	 * Connects the cameras and viewers, streams the frames and prints the results.
+	 */
+	private static void run(VideoRelay relay, int cars, int fps, int frameSize, int slowViewers, int duration, int videoPort)
+			throws IOException, InterruptedException, JMException {
+		InetSocketAddress address = new InetSocketAddress("localhost", videoPort);
+		Socket intruder = connect(address, EVideoRole.PHONE, FIRST_CAR_ID, "intruder");
+		System.out.println("A phone without a link has been " + (intruder == null ? "rejected." : "accepted!"));
+		if(intruder != null)
+			intruder.close();
+
+		LatencyHistogram normalLatency = new LatencyHistogram();
+		LatencyHistogram slowLatency = new LatencyHistogram();
+		List<Viewer> viewers = new ArrayList<>();
+		List<Camera> cameras = new ArrayList<>();
+		for(int i = 0; i < cars; i++) {
+			Socket socket = connect(address, EVideoRole.PHONE, FIRST_CAR_ID + i, LoadGenerator.PHONE_PREFIX + i);
+			if(socket != null)
+				viewers.add(new Viewer(socket, i < slowViewers, i < slowViewers ? slowLatency : normalLatency));
+			socket = connect(address, EVideoRole.CAR, FIRST_CAR_ID + i, null);
+			if(socket != null)
+				cameras.add(new Camera(socket, frameSize));
+		}
+		System.out.println("Connected " + cameras.size() + " cameras and " + viewers.size() + " viewers (" + Math.min(slowViewers, viewers.size()) + " slow).");
+		for(Viewer viewer : viewers)
+			viewer.start();
+
+		ResourceSampler sampler = ResourceSampler.local();
+		Thread samplerThread = new Thread(sampler, "Resource Sampler");
+		samplerThread.setDaemon(true);
+		samplerThread.start();
+		VideoStatistics statistics = relay.getStatistics();
+		long receivedBefore = statistics.getReceivedBytes();
+		long sentBefore = statistics.getSentBytes();
+		long droppedBefore = statistics.getDroppedFrames();
+		ScheduledExecutorService senders = Executors.newScheduledThreadPool(Math.max(1, Math.min(4, cameras.size())));
+		long interval = TimeUnit.SECONDS.toNanos(1) / fps;
+		for(int i = 0; i < cameras.size(); i++)
+			senders.scheduleAtFixedRate(cameras.get(i), interval * i / cameras.size(), interval, TimeUnit.NANOSECONDS);
+		long start = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		senders.shutdownNow();
+		senders.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS);
+		double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+		// lets the viewers receive the frames in flight
+		Thread.sleep(200);
+		sampler.stop();
+
+		long normalFrames = 0;
+		long slowFrames = 0;
+		long viewerBytes = 0;
+		int normalViewers = 0;
+		for(Viewer viewer : viewers) {
+			viewer.close();
+			viewerBytes += viewer.bytes.sum();
+			if(viewer.slow)
+				slowFrames += viewer.frames.sum();
+			else {
+				normalFrames += viewer.frames.sum();
+				normalViewers++;
+			}
+		}
+		long failedSends = 0;
+		for(Camera camera : cameras) {
+			failedSends += camera.failed.sum();
+			camera.close();
+		}
+
+		double offered = cameras.size() * (double) fps * (frameSize + 4) * 8 / 1e6;
+		System.out.println("offered:          " + mbits(offered) + " Mbit/s (" + mbits(offered / Math.max(cameras.size(), 1)) + " Mbit/s per car, " + fps + " frames/s of " + frameSize + " bytes)"
+				+ (failedSends > 0 ? ", " + failedSends + " cameras failed" : ""));
+		System.out.println("received by relay: " + mbits((statistics.getReceivedBytes() - receivedBefore) * 8 / seconds / 1e6) + " Mbit/s");
+		System.out.println("sent by relay:    " + mbits((statistics.getSentBytes() - sentBefore) * 8 / seconds / 1e6) + " Mbit/s, " + (statistics.getDroppedFrames() - droppedBefore) + " frames dropped");
+		System.out.println("received by phones: " + mbits(viewerBytes * 8 / seconds / 1e6) + " Mbit/s");
+		print("normal viewers:   ", normalFrames, normalViewers, seconds, normalLatency.getSnapshot());
+		if(viewers.size() > normalViewers)
+			print("slow viewers:     ", slowFrames, viewers.size() - normalViewers, seconds, slowLatency.getSnapshot());
+		System.out.println("cpu:              " + String.format(Locale.ROOT, "%.1f", sampler.getAverageCpu()) + " % average, "
+				+ String.format(Locale.ROOT, "%.1f", sampler.getMaxCpu()) + " % max");
+	}
+
+	/**
+	 * Connects to the video-port and sends a hello.
+	 * @return the connected socket, or null if the connection has been rejected or failed.
+	 */
+	private static Socket connect(InetSocketAddress address, EVideoRole role, long carId, String phoneId) {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			if(role == EVideoRole.PHONE)
+				socket.setReceiveBufferSize(VIEWER_RECEIVE_BUFFER);
+			socket.connect(address, TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+			output.writeByte(role.getCode());
+			output.writeLong(carId);
+			if(role == EVideoRole.PHONE) {
+				byte[] id = phoneId.getBytes(StandardCharsets.UTF_8);
+				output.writeShort(id.length);
+				output.write(id);
+			}
+			output.flush();
+			if(socket.getInputStream().read() == 1) {
+				socket.setSoTimeout(0);
+				return socket;
+			}
+		} catch(IOException ioe) {
+			System.err.println("Could not connect the video of the car " + carId + ": " + ioe.getMessage());
+		}
+		try {
+			socket.close();
+		} catch(IOException ioe) {}
+		return null;
+	}
+
+	private static void print(String label, long frames, int viewers, double seconds, LatencySnapshot latency) {
+		System.out.println(label + String.format(Locale.ROOT, "%.1f", frames / seconds / Math.max(viewers, 1)) + " frames/s per viewer, latency p50 "
+				+ millis(latency.getP50(TimeUnit.NANOSECONDS)) + " ms, p99 " + millis(latency.getP99(TimeUnit.NANOSECONDS)) + " ms, max "
+				+ millis(latency.getMaximum(TimeUnit.NANOSECONDS)) + " ms");
+	}
+
+	private static String mbits(double mbits) {
+		return String.format(Locale.ROOT, "%.1f", mbits);
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+
+	/**
+	 * The video-connection of a car, which sends a frame with the current time, whenever it is run.
+	 */
+	private static class Camera implements Runnable {
+
+		/** The connection to the video-port. */
+		private final Socket socket;
+
+		/** The stream of the connection. */
+		private final OutputStream output;
+
+		/** The header and the content of the frame, which is sent over and over again. */
+		private final ByteBuffer frame;
+
+		/** The number of frames, that could not be sent. */
+		private final LongAdder failed = new LongAdder();
+
+
+		private Camera(Socket socket, int frameSize) throws IOException {
+			this.socket = socket;
+			this.output = socket.getOutputStream();
+			this.frame = ByteBuffer.allocate(4 + frameSize);
+			this.frame.putInt(0, frameSize);
+		}
+
+
+		@Override
+		public void run() {
+			this.frame.putLong(4, System.nanoTime());
+			try {
+				this.output.write(this.frame.array());
+			} catch(IOException ioe) {
+				this.failed.increment();
+			}
+		}
+
+		private void close() throws IOException {
+			this.socket.close();
+		}
+
+	}
+
+
+	/**
+	 * The video-connection of a phone, which receives frames in a thread of its own and records their latency.
+	 */
+	private static class Viewer extends Thread {
+
+		/** The connection to the video-port. */
+		private final Socket socket;
+
+		/** True, if this viewer waits after every frame. */
+		private final boolean slow;
+
+		/** The number of received frames. */
+		private final LongAdder frames = new LongAdder();
+
+		/** The number of received bytes, including the headers of the frames. */
+		private final LongAdder bytes = new LongAdder();
+
+		/** The time between sending and receiving every frame, which is shared by all viewers of the same kind. */
+		private final LatencyHistogram latency;
+
+
+		private Viewer(Socket socket, boolean slow, LatencyHistogram latency) {
+			super("Viewer " + socket.getLocalPort());
+			this.socket = socket;
+			this.slow = slow;
+			this.latency = latency;
+			this.setDaemon(true);
+		}
+
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+				byte[] content = new byte[0];
+				while(true) {
+					int length = input.readInt();
+					if(content.length < length)
+						content = new byte[length];
+					input.readFully(content, 0, length);
+					this.latency.record(System.nanoTime() - ByteBuffer.wrap(content).getLong(0));
+					this.frames.increment();
+					this.bytes.add(4 + length);
+					if(this.slow)
+						Thread.sleep(SLOW_VIEWER_DELAY);
+				}
+			} catch(IOException | InterruptedException e) {
+				// closed by the test or by the relay
+			}
+		}
+
+		private void close() throws IOException {
+			this.socket.close();
+		}
+
+	}
+
+}
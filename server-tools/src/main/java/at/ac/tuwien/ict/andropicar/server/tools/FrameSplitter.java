@@ -0,0 +1,67 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Splits a stream of characters into JSON-objects.<br>
+ * The server does not delimit its messages, so several messages may arrive with one read and a message may be split across several reads.
+ * The splitter keeps track of the nesting depth (ignoring braces within strings) and returns every object as soon as it is complete.
+ * Characters between objects are skipped.
+ */
+public class FrameSplitter {
+
+	/** The characters of the incomplete object. */
+	private final StringBuilder frame = new StringBuilder();
+
+	/** The nesting depth of the incomplete object, or 0 if there is none. */
+	private int depth = 0;
+
+	/** True, if the last character was within a string, otherwise false. */
+	private boolean inString = false;
+
+	/** True, if the last character was an escaping backslash within a string, otherwise false. */
+	private boolean escaped = false;
+
+
+	/**
+	 * Appends the passed characters to the stream.
+	 * @param buffer the buffer that contains the characters.
+	 * @param offset the index of the first character.
+	 * @param length the number of characters.
+	 * @return all objects that have been completed by the passed characters, in the order they have been received.
+	 */
+	public List<String> feed(char[] buffer, int offset, int length) {
+		List<String> frames = null;
+		for(int i = offset; i < offset + length; i++) {
+			char c = buffer[i];
+			if(this.depth == 0 && c != '{')
+				continue;
+			this.frame.append(c);
+			if(this.inString) {
+				if(this.escaped)
+					this.escaped = false;
+				else if(c == '\\')
+					this.escaped = true;
+				else if(c == '"')
+					this.inString = false;
+			}
+			else if(c == '"') {
+				this.inString = true;
+			}
+			else if(c == '{') {
+				this.depth++;
+			}
+			else if(c == '}' && --this.depth == 0) {
+				if(frames == null)
+					frames = new ArrayList<>();
+				frames.add(this.frame.toString());
+				this.frame.setLength(0);
+			}
+		}
+		return frames != null ? frames : Collections.<String>emptyList();
+	}
+
+}
@@ -0,0 +1,130 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * Measures the forwarding latency of one direction of a link (e.g. from a car to its linked phone).<br>
+ * The sender reports every message together with the point in time when it has been sent. The receiver reports every message that it receives
+ * and the probe matches it against the oldest pending message with the same signature, i.e. the same forwarded keywords and values.
+ * Since the server keeps the order of the messages of a link, older pending messages are considered lost once a newer one has been matched.
+ * Messages that have not been matched within {@link #EXPIRY} (e.g. because no phone was linked) are discarded.
+ */
+public class LatencyProbe {
+
+	/** The time in nanoseconds after which a pending message is discarded. */
+	public static final long EXPIRY = TimeUnit.SECONDS.toNanos(2);
+
+	/** The keywords that are forwarded from a car to its linked phone. */
+	public static final String[] CAR_TO_PHONE = {Keywords.phoneControl, Keywords.ultrasonicSensor, Keywords.leftInfraredSensor, Keywords.rightInfraredSensor, Keywords.hallSensor};
+
+	/** The keywords that are forwarded from a phone to its linked car. */
+	public static final String[] PHONE_TO_CAR = Keywords.controlKeywords;
+
+	/** The messages that have been sent, but not yet received, in the order they have been sent. */
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+	/** The statistics that the latencies are added to. */
+	private final LatencyStatistics statistics;
+
+	/** The number of messages that have not been received. */
+	private long lost = 0;
+
+
+	/**
+	 * @param statistics the statistics that the latencies are added to.
+	 */
+	public LatencyProbe(LatencyStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+
+	/**
+	 * @param message a message.
+	 * @param keywords the keywords that are forwarded.
+	 * @return the signature of the forwarded part of the message, or null if nothing of the message is forwarded.
+	 */
+	public static String signature(Map<String, Object> message, String[] keywords) {
+		StringBuilder signature = null;
+		for(String keyword : keywords) {
+			Object value = message.get(keyword);
+			if(!(value instanceof Long))
+				continue;
+			if(signature == null)
+				signature = new StringBuilder();
+			signature.append(keyword).append('=').append(value).append(';');
+		}
+		return signature != null ? signature.toString() : null;
+	}
+
+	/**
+	 * @return the number of messages that have not been received.
+	 */
+	public synchronized long getLost() {
+		return this.lost;
+	}
+
+	/**
+	 * Reports a message that has been sent.
+	 * @param signature the signature of the message, or null.
+	 * @param nanos the point in time (see {@link System#nanoTime()}) when the message has been sent.
+	 */
+	public synchronized void sent(String signature, long nanos) {
+		if(signature == null)
+			return;
+		expire(nanos);
+		this.pending.addLast(new Pending(signature, nanos));
+	}
+
+	/**
+	 * Reports a message that has been received.
+	 * @param signature the signature of the message, or null.
+	 * @param nanos the point in time (see {@link System#nanoTime()}) when the message has been received.
+	 */
+	public synchronized void received(String signature, long nanos) {
+		if(signature == null)
+			return;
+		int index = 0;
+		Iterator<Pending> iterator = this.pending.iterator();
+		while(iterator.hasNext() && !iterator.next().signature.equals(signature))
+			index++;
+		if(index == this.pending.size())
+			return;
+		this.lost += index;
+		for(int i = 0; i < index; i++)
+			this.pending.removeFirst();
+		this.statistics.add(nanos - this.pending.removeFirst().nanos);
+	}
+
+	/**
+	 * Discards all pending messages, that have been sent more than {@link #EXPIRY} ago.
+	 */
+	private void expire(long now) {
+		while(!this.pending.isEmpty() && now - this.pending.peekFirst().nanos > EXPIRY) {
+			this.pending.removeFirst();
+			this.lost++;
+		}
+	}
+
+
+	/**
+	 * A message that has been sent, but not yet received.
+	 */
+	private static class Pending {
+
+		private final String signature;
+
+		private final long nanos;
+
+		private Pending(String signature, long nanos) {
+			this.signature = signature;
+			this.nanos = nanos;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.Arrays;
+
+
+/**
+ * Collects latencies in nanoseconds and calculates their percentiles. All samples are kept, which is fine for the duration of a replay.
+ */
+public class LatencyStatistics {
+
+	/** The samples. Only the first {@link #count} elements are valid. */
+	private long[] samples = new long[1024];
+
+	/** The number of samples. */
+	private int count = 0;
+
+
+	/**
+	 * Adds a sample.
+	 * @param latency the latency in nanoseconds.
+	 */
+	public synchronized void add(long latency) {
+		if(this.count == this.samples.length)
+			this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+		this.samples[this.count++] = latency;
+	}
+
+	/**
+	 * @return the number of samples.
+	 */
+	public synchronized int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100.
+	 * @return the latency in nanoseconds, that the passed percentage of all samples is below or equal to, or 0 if there are no samples.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if(this.count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(this.samples, this.count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * this.count) - 1;
+		return sorted[Math.max(0, Math.min(index, this.count - 1))];
+	}
+
+	/**
+	 * @return the maximum latency in nanoseconds, or 0 if there are no samples.
+	 */
+	public long getMax() {
+		return getPercentile(100);
+	}
+
+}
@@ -0,0 +1,124 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder;
+import at.ac.tuwien.ict.andropicar.server.recorder.TelemetrySegmentReader;
+
+
+/**
+ * The traffic of all devices, that has been recorded by a {@link TelemetryRecorder}, split into one {@link ReplaySession} per device.<br>
+ * The values that a device sent with one message share their point in time and are combined into one message again.
+ * A registration of a device is replayed as a (re-)connect, so reconnect-storms are reproduced as well.
+ * If a device has already been connected when the recording started, it connects with its first value
+ * and a phone that was already linked requests the link to its car again.
+ */
+public class Recording {
+
+	/** The sessions of all devices. */
+	private final List<ReplaySession> sessions;
+
+
+	private Recording(List<ReplaySession> sessions) {
+		this.sessions = sessions;
+	}
+
+
+	/**
+	 * Reads all segments of a directory.
+	 * @param directory the directory of a {@link TelemetryRecorder}.
+	 * @return the recording.
+	 * @throws IOException if a segment could not be read.
+	 */
+	public static Recording load(File directory) throws IOException {
+		List<String> phoneIds = TelemetrySegmentReader.readPhoneDictionary(directory);
+		int idIndex = Keywords.indexOf(Keywords.id);
+		Map<String, ReplaySession> sessions = new LinkedHashMap<>();
+		long start = -1;
+		for(File file : TelemetrySegmentReader.listSegments(directory)) {
+			try(TelemetrySegmentReader reader = new TelemetrySegmentReader(file, phoneIds)) {
+				while(reader.next()) {
+					if(start < 0)
+						start = reader.getTime();
+					long offset = Math.max(reader.getTime() - start, 0);
+					ETelemetrySource source = reader.getSource();
+					String key = source == ETelemetrySource.CAR ? "car:" + reader.getCarId() : "phone:" + reader.getPhoneId();
+					ReplaySession session = sessions.get(key);
+					if(session == null) {
+						session = source == ETelemetrySource.CAR ? new ReplaySession(source, reader.getCarId(), null) : new ReplaySession(source, 0, reader.getPhoneId());
+						sessions.put(key, session);
+						if(reader.getFieldId() != idIndex) {
+							// the device has already been connected when the recording started
+							session.addConnect(offset);
+							if(source == ETelemetrySource.PHONE && reader.getCarId() != 0)
+								session.addValue(offset, Keywords.connect, reader.getCarId());
+						}
+					}
+					if(reader.getFieldId() == idIndex)
+						session.addConnect(offset);
+					else if(reader.getKeyword() != null)
+						session.addValue(offset, reader.getKeyword(), reader.getValue());
+				}
+			}
+		}
+		return new Recording(new ArrayList<>(sessions.values()));
+	}
+
+	/**
+	 * @return the sessions of all devices.
+	 */
+	public List<ReplaySession> getSessions() {
+		return Collections.unmodifiableList(this.sessions);
+	}
+
+	/**
+	 * @return the duration of the recording in milliseconds.
+	 */
+	public long getDuration() {
+		long duration = 0;
+		for(ReplaySession session : this.sessions)
+			duration = Math.max(duration, session.getEnd());
+		return duration;
+	}
+
+	/**
+	 * @return the ID of the car, that every phone requests to be linked to last, by the phones ID. Used to whitelist the phones.
+	 */
+	public Map<String, Long> getLinks() {
+		Map<String, Long> links = new HashMap<>();
+		for(ReplaySession session : this.sessions)
+			links.putAll(session.getLinkRequests());
+		return links;
+	}
+
+	/**
+	 * Multiplies the recording, so that it is replayed by several devices in parallel.
+	 * @param copies the number of copies of every session, including the original one.
+	 * @return the multiplied recording.
+	 */
+	public Recording multiply(int copies) {
+		if(copies <= 1)
+			return this;
+		long maxCarId = 0;
+		for(ReplaySession session : this.sessions)
+			maxCarId = Math.max(maxCarId, session.getCarId());
+		for(Long carId : getLinks().values())
+			maxCarId = Math.max(maxCarId, carId);
+		List<ReplaySession> sessions = new ArrayList<>(this.sessions);
+		for(int i = 1; i < copies; i++) {
+			for(ReplaySession session : this.sessions)
+				sessions.add(session.copy(i, maxCarId + 1));
+		}
+		return new Recording(sessions);
+	}
+
+}
@@ -0,0 +1,155 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+
+/**
+ * Everything that the {@link SessionPlayer}s of a replay share: the addresses of the server, the time-line and the statistics.
+ */
+public class ReplayContext {
+
+	/** The address that simulated cars connect to. */
+	private final InetSocketAddress carAddress;
+
+	/** The address that simulated phones connect to. */
+	private final InetSocketAddress phoneAddress;
+
+	/** The factor by which the replay is faster than the recording (e.g. 2 replays a recording twice as fast). */
+	private final double speed;
+
+	/** The counters and latencies of the replay. */
+	private final ReplayStatistics statistics = new ReplayStatistics();
+
+	/** The latency probes of all links, by car ID. */
+	private final ConcurrentMap<Long, LatencyProbe[]> probes = new ConcurrentHashMap<>();
+
+	/** The trust-managers of the TLS-connections of the simulated devices, or null if they connect without TLS. */
+	private volatile TrustManager[] trustManagers = null;
+
+	/** The point in time (see {@link System#nanoTime()}) that corresponds to the start of the recording. */
+	private volatile long startNanos = 0;
+
+	/** The flag, that indicates, if the replay should continue or not. */
+	private volatile boolean keepRunning = true;
+
+
+	/**
+	 * @param carAddress the address that simulated cars connect to.
+	 * @param phoneAddress the address that simulated phones connect to.
+	 * @param speed the factor by which the replay is faster than the recording.
+	 */
+	public ReplayContext(InetSocketAddress carAddress, InetSocketAddress phoneAddress, double speed) {
+		if(speed <= 0)
+			throw new IllegalArgumentException("speed must be greater than 0: " + speed);
+		this.carAddress = carAddress;
+		this.phoneAddress = phoneAddress;
+		this.speed = speed;
+	}
+
+
+	public InetSocketAddress getCarAddress() { return this.carAddress; }
+
+	public InetSocketAddress getPhoneAddress() { return this.phoneAddress; }
+
+	public ReplayStatistics getStatistics() { return this.statistics; }
+
+	public boolean isKeepRunning() { return this.keepRunning; }
+
+	/**
+	 * Makes the simulated devices connect with TLS. Has to be called before the devices are created.
+	 * @param trustManagers the trust-managers, that decide which certificates of the server are trusted, or null to connect without TLS.
+	 */
+	public void setTls(TrustManager[] trustManagers) { this.trustManagers = trustManagers; }
+
+	/**
+	 * Creates the factory of the TLS-connections of one simulated device. Every device gets a session-cache of its own, like a real device,
+	 * so a device that reconnects resumes its own previous session instead of competing with all other devices for the one cached session of the server.
+	 * @return the factory, or null if the devices connect without TLS.
+	 * @throws IllegalStateException if the JVM does not support TLS.
+	 */
+	public SSLSocketFactory createSocketFactory() {
+		TrustManager[] trustManagers = this.trustManagers;
+		if(trustManagers == null)
+			return null;
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, trustManagers, null);
+			return context.getSocketFactory();
+		} catch(GeneralSecurityException gse) {
+			throw new IllegalStateException("TLS is not supported.", gse);
+		}
+	}
+
+	/**
+	 * Starts the time-line of the replay.
+	 * @param delay the time in milliseconds from now, that corresponds to the start of the recording.
+	 */
+	public void start(long delay) {
+		this.startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+	}
+
+	/**
+	 * Stops the replay. Waiting {@link SessionPlayer}s return immediately.
+	 */
+	public void stop() {
+		this.keepRunning = false;
+	}
+
+	/**
+	 * @param carId the cars ID.
+	 * @return the latency probe of the messages from the car to its linked phone.
+	 */
+	public LatencyProbe getCarToPhoneProbe(long carId) {
+		return probes(carId)[0];
+	}
+
+	/**
+	 * @param carId the cars ID.
+	 * @return the latency probe of the messages from the linked phone to the car.
+	 */
+	public LatencyProbe getPhoneToCarProbe(long carId) {
+		return probes(carId)[1];
+	}
+
+	/**
+	 * Sleeps until the passed point in time of the recording has been reached on the time-line of the replay.
+	 * @param offset the point in time in milliseconds, relative to the start of the recording.
+	 * @return true, if the point in time has been reached, false if the replay has been stopped.
+	 */
+	public boolean sleepUntil(long offset) {
+		long target = this.startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(offset) / this.speed);
+		while(this.keepRunning) {
+			long remaining = target - System.nanoTime();
+			if(remaining <= 0)
+				return true;
+			try {
+				TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)));
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private LatencyProbe[] probes(long carId) {
+		LatencyProbe[] probes = this.probes.get(carId);
+		if(probes == null) {
+			probes = new LatencyProbe[] {new LatencyProbe(this.statistics.getCarToPhone()), new LatencyProbe(this.statistics.getPhoneToCar())};
+			LatencyProbe[] existing = this.probes.putIfAbsent(carId, probes);
+			if(existing != null)
+				probes = existing;
+		}
+		return probes;
+	}
+
+}
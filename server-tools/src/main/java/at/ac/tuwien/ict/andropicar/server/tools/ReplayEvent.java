@@ -0,0 +1,43 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.HashMap;
+
+
+/**
+ * One step of a {@link ReplaySession}: either a message that is sent, or a (re-)connect of the device.
+ */
+public class ReplayEvent {
+
+	/** The point in time in milliseconds, relative to the start of the recording. */
+	private final long offset;
+
+	/** The message, or null if the device (re-)connects. */
+	private final HashMap<String, Object> message;
+
+
+	/**
+	 * @param offset the point in time in milliseconds, relative to the start of the recording.
+	 * @param message the message, or null if the device (re-)connects.
+	 */
+	public ReplayEvent(long offset, HashMap<String, Object> message) {
+		this.offset = offset;
+		this.message = message;
+	}
+
+
+	/**
+	 * @return the point in time in milliseconds, relative to the start of the recording.
+	 */
+	public long getOffset() { return this.offset; }
+
+	/**
+	 * @return the message, or null if the device (re-)connects.
+	 */
+	public HashMap<String, Object> getMessage() { return this.message; }
+
+	/**
+	 * @return true, if the device (re-)connects, false if a message is sent.
+	 */
+	public boolean isConnect() { return this.message == null; }
+
+}
@@ -0,0 +1,120 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
+
+
+/**
+ * The recorded traffic of one device: its (re-)connects and the messages it has sent, in the order they have been received by the server.
+ */
+public class ReplaySession {
+
+	/** The kind of device. */
+	private final ETelemetrySource source;
+
+	/** The cars ID, or 0 if the device is a phone. */
+	private final long carId;
+
+	/** The phones ID, or null if the device is a car. */
+	private final String phoneId;
+
+	/** The events of the device, ordered by their point in time. */
+	private final List<ReplayEvent> events = new ArrayList<>();
+
+
+	/**
+	 * @param source the kind of device.
+	 * @param carId the cars ID, or 0 if the device is a phone.
+	 * @param phoneId the phones ID, or null if the device is a car.
+	 */
+	public ReplaySession(ETelemetrySource source, long carId, String phoneId) {
+		this.source = source;
+		this.carId = carId;
+		this.phoneId = phoneId;
+	}
+
+
+	public ETelemetrySource getSource() { return this.source; }
+
+	public long getCarId() { return this.carId; }
+
+	public String getPhoneId() { return this.phoneId; }
+
+	/**
+	 * @return the events of the device, ordered by their point in time.
+	 */
+	public List<ReplayEvent> getEvents() { return Collections.unmodifiableList(this.events); }
+
+	/**
+	 * @return the point in time of the last event in milliseconds, relative to the start of the recording, or 0 if there are no events.
+	 */
+	public long getEnd() { return this.events.isEmpty() ? 0 : this.events.get(this.events.size() - 1).getOffset(); }
+
+	/**
+	 * Appends a (re-)connect of the device.
+	 * @param offset the point in time in milliseconds, relative to the start of the recording.
+	 */
+	public void addConnect(long offset) {
+		this.events.add(new ReplayEvent(offset, null));
+	}
+
+	/**
+	 * Appends a value to the last message, if it has been sent at the same point in time and does not contain the keyword yet, otherwise to a new message.
+	 * @param offset the point in time in milliseconds, relative to the start of the recording.
+	 * @param keyword the keyword of the value.
+	 * @param value the value.
+	 */
+	public void addValue(long offset, String keyword, long value) {
+		ReplayEvent last = this.events.isEmpty() ? null : this.events.get(this.events.size() - 1);
+		if(last == null || last.isConnect() || last.getOffset() != offset || last.getMessage().containsKey(keyword)) {
+			last = new ReplayEvent(offset, new HashMap<String, Object>());
+			this.events.add(last);
+		}
+		last.getMessage().put(keyword, value);
+	}
+
+	/**
+	 * Creates a copy of this session for another device, so that a recording can be replayed several times in parallel.
+	 * @param index the index of the copy, which has to be greater than 0.
+	 * @param carIdOffset the offset of the car-IDs of consecutive copies.
+	 * @return the copy, whose car-ID (also in link-requests) is increased by index * carIdOffset and whose phone-ID gets the suffix "#index".
+	 */
+	public ReplaySession copy(int index, long carIdOffset) {
+		long shift = index * carIdOffset;
+		ReplaySession copy = new ReplaySession(this.source, this.carId != 0 ? this.carId + shift : 0, this.phoneId != null ? this.phoneId + "#" + index : null);
+		for(ReplayEvent event : this.events) {
+			if(event.isConnect()) {
+				copy.events.add(event);
+				continue;
+			}
+			HashMap<String, Object> message = new HashMap<>(event.getMessage());
+			Object connect = message.get(Keywords.connect);
+			if(connect instanceof Long && (Long) connect > 0)
+				message.put(Keywords.connect, (Long) connect + shift);
+			copy.events.add(new ReplayEvent(event.getOffset(), message));
+		}
+		return copy;
+	}
+
+	/**
+	 * @return the IDs of the cars that this session (a phone) requests to be linked to, by the phones ID.
+	 */
+	public Map<String, Long> getLinkRequests() {
+		Map<String, Long> links = new HashMap<>();
+		if(this.phoneId == null)
+			return links;
+		for(ReplayEvent event : this.events) {
+			Object connect = event.isConnect() ? null : event.getMessage().get(Keywords.connect);
+			if(connect instanceof Long && (Long) connect > 0)
+				links.put(this.phoneId, (Long) connect);
+		}
+		return links;
+	}
+
+}
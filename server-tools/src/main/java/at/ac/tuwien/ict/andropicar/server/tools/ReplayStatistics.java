@@ -0,0 +1,108 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The counters and latencies of a replay.
+ */
+public class ReplayStatistics {
+
+	/** The number of connections that have been opened. */
+	private final AtomicLong connections = new AtomicLong();
+
+	/** The number of connections that have been closed by the server or failed. */
+	private final AtomicLong connectionsLost = new AtomicLong();
+
+	/** The number of successful registrations. */
+	private final AtomicLong registrations = new AtomicLong();
+
+	/** The number of registrations that have been rejected or timed out. */
+	private final AtomicLong failedRegistrations = new AtomicLong();
+
+	/** The number of messages that have been sent. */
+	private final AtomicLong messagesSent = new AtomicLong();
+
+	/** The number of messages that have been received. */
+	private final AtomicLong messagesReceived = new AtomicLong();
+
+	/** The forwarding latencies from the cars to their linked phones. */
+	private final LatencyStatistics carToPhone = new LatencyStatistics();
+
+	/** The forwarding latencies from the phones to their linked cars. */
+	private final LatencyStatistics phoneToCar = new LatencyStatistics();
+
+
+	public void connectionOpened() { this.connections.incrementAndGet(); }
+
+	public void connectionLost() { this.connectionsLost.incrementAndGet(); }
+
+	public void registered() { this.registrations.incrementAndGet(); }
+
+	public void registrationFailed() { this.failedRegistrations.incrementAndGet(); }
+
+	public void messageSent() { this.messagesSent.incrementAndGet(); }
+
+	public void messageReceived() { this.messagesReceived.incrementAndGet(); }
+
+	/**
+	 * @return the forwarding latencies from the cars to their linked phones.
+	 */
+	public LatencyStatistics getCarToPhone() { return this.carToPhone; }
+
+	/**
+	 * @return the forwarding latencies from the phones to their linked cars.
+	 */
+	public LatencyStatistics getPhoneToCar() { return this.phoneToCar; }
+
+	/**
+	 * @return all counters and percentiles (latencies in milliseconds), e.g. to be stored and compared with the results of another release.
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("connections", String.valueOf(this.connections.get()));
+		properties.setProperty("connectionsLost", String.valueOf(this.connectionsLost.get()));
+		properties.setProperty("registrations", String.valueOf(this.registrations.get()));
+		properties.setProperty("failedRegistrations", String.valueOf(this.failedRegistrations.get()));
+		properties.setProperty("messagesSent", String.valueOf(this.messagesSent.get()));
+		properties.setProperty("messagesReceived", String.valueOf(this.messagesReceived.get()));
+		addLatencies(properties, "carToPhone", this.carToPhone);
+		addLatencies(properties, "phoneToCar", this.phoneToCar);
+		return properties;
+	}
+
+	/**
+	 * Prints a summary of the replay.
+	 * @param out the stream to print to.
+	 */
+	public void print(PrintStream out) {
+		out.println("connections:      " + this.connections.get() + " (" + this.connectionsLost.get() + " lost)");
+		out.println("registrations:    " + this.registrations.get() + " (" + this.failedRegistrations.get() + " failed)");
+		out.println("messages:         " + this.messagesSent.get() + " sent, " + this.messagesReceived.get() + " received");
+		printLatencies(out, "car -> phone:     ", this.carToPhone);
+		printLatencies(out, "phone -> car:     ", this.phoneToCar);
+	}
+
+	private static void addLatencies(Properties properties, String prefix, LatencyStatistics latencies) {
+		properties.setProperty(prefix + ".count", String.valueOf(latencies.getCount()));
+		properties.setProperty(prefix + ".p50", millis(latencies.getPercentile(50)));
+		properties.setProperty(prefix + ".p90", millis(latencies.getPercentile(90)));
+		properties.setProperty(prefix + ".p99", millis(latencies.getPercentile(99)));
+		properties.setProperty(prefix + ".p999", millis(latencies.getPercentile(99.9)));
+		properties.setProperty(prefix + ".max", millis(latencies.getMax()));
+	}
+
+	private static void printLatencies(PrintStream out, String label, LatencyStatistics latencies) {
+		out.println(label + latencies.getCount() + " samples, p50 " + millis(latencies.getPercentile(50)) + " ms, p90 " + millis(latencies.getPercentile(90))
+				+ " ms, p99 " + millis(latencies.getPercentile(99)) + " ms, p99.9 " + millis(latencies.getPercentile(99.9)) + " ms, max " + millis(latencies.getMax()) + " ms");
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+}
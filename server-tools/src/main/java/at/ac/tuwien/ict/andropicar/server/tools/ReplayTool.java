@@ -0,0 +1,131 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import at.ac.tuwien.ict.andropicar.server.Server;
+
+
+/**
+ * Replays the traffic that has been recorded by a {@link at.ac.tuwien.ict.andropicar.server.recorder.TelemetryRecorder} against a running {@link Server},
+ * with one simulated device per recorded car and phone, all of them in parallel.<br>
+ * The original timing of the messages, connects and reconnects is kept, optionally accelerated, so that load patterns like bursts and reconnect-storms
+ * can be reproduced locally. The forwarding latencies between cars and their linked phones are measured in both directions
+ * and can be written to a report, to compare them between releases.<br>
+ * <br>
+ * Usage: <code>ReplayTool --recording &lt;directory&gt; [options]</code>
+ * <table border="1" summary="Options">
+ * <tr><td>--host &lt;host&gt;</td><td>the host of the server (default: localhost)</td></tr>
+ * <tr><td>--car-port &lt;port&gt;</td><td>the port that cars connect to (default: 6633)</td></tr>
+ * <tr><td>--phone-port &lt;port&gt;</td><td>the port that phones connect to (default: 6636)</td></tr>
+ * <tr><td>--speed &lt;factor&gt;</td><td>the factor by which the replay is faster than the recording (default: 1)</td></tr>
+ * <tr><td>--copies &lt;n&gt;</td><td>the number of devices that replay every recorded device, with shifted IDs (default: 1)</td></tr>
+ * <tr><td>--embedded</td><td>starts a server within this process and whitelists the recorded links, instead of connecting to a running one</td></tr>
+ * <tr><td>--report &lt;file&gt;</td><td>writes the counters and latency-percentiles to a properties-file</td></tr>
+ * </table>
+ * A running server has to whitelist the phones of the recording (and their copies) itself.
+ */
+public class ReplayTool {
+
+	/** The time in milliseconds between the start of the players and the start of the time-line. */
+	private static final long START_DELAY = 500;
+
+	/** The time in milliseconds that the devices stay connected after their last event. */
+	private static final long LINGER = 1000;
+
+
+	private ReplayTool() {}
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File recordingDirectory = null;
+		String host = "localhost";
+		int carPort = 6633;
+		int phonePort = 6636;
+		double speed = 1;
+		int copies = 1;
+		boolean embedded = false;
+		File report = null;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--recording": recordingDirectory = new File(args[++i]);
+					break;
+				case "--host": host = args[++i];
+					break;
+				case "--car-port": carPort = Integer.parseInt(args[++i]);
+					break;
+				case "--phone-port": phonePort = Integer.parseInt(args[++i]);
+					break;
+				case "--speed": speed = Double.parseDouble(args[++i]);
+					break;
+				case "--copies": copies = Integer.parseInt(args[++i]);
+					break;
+				case "--embedded": embedded = true;
+					break;
+				case "--report": report = new File(args[++i]);
+					break;
+				default:
+					usage("Unknown option " + args[i]);
+			}
+		}
+		if(recordingDirectory == null || !recordingDirectory.isDirectory())
+			usage("The directory of the recording is missing.");
+
+		Recording recording = Recording.load(recordingDirectory).multiply(copies);
+		System.out.println("Replaying " + recording.getSessions().size() + " sessions (" + recording.getDuration() + " ms recorded) at " + speed + "x.");
+
+		Server server = null;
+		if(embedded) {
+			final Server embeddedServer = new Server();
+			for(Map.Entry<String, Long> link : recording.getLinks().entrySet())
+				embeddedServer.allowLink(link.getKey(), link.getValue());
+			new Thread("Server") {
+				@Override
+				public void run() {
+					embeddedServer.run();
+				}
+			}.start();
+			server = embeddedServer;
+			host = "localhost";
+			carPort = server.getCarAcceptorPort();
+			phonePort = server.getPhoneAcceptorPort();
+		}
+
+		ReplayContext context = new ReplayContext(new InetSocketAddress(host, carPort), new InetSocketAddress(host, phonePort), speed);
+		List<Thread> players = new ArrayList<>();
+		for(ReplaySession session : recording.getSessions()) {
+			Thread player = new Thread(new SessionPlayer(session, context, LINGER), "Player " + (session.getPhoneId() != null ? session.getPhoneId() : session.getCarId()));
+			players.add(player);
+		}
+		long start = System.nanoTime();
+		context.start(START_DELAY);
+		for(Thread player : players)
+			player.start();
+		for(Thread player : players)
+			player.join();
+		long duration = (System.nanoTime() - start) / 1000000 - START_DELAY - LINGER;
+
+		System.out.println("Replayed in " + duration + " ms.");
+		context.getStatistics().print(System.out);
+		if(report != null) {
+			try(OutputStream out = new FileOutputStream(report)) {
+				context.getStatistics().toProperties().store(out, "Replay of " + recordingDirectory + " at " + speed + "x with " + copies + " copies");
+			}
+		}
+		if(server != null)
+			server.shutdown();
+	}
+
+	private static void usage(String error) {
+		System.err.println(error);
+		System.err.println("Usage: ReplayTool --recording <directory> [--host <host>] [--car-port <port>] [--phone-port <port>] [--speed <factor>] [--copies <n>] [--embedded] [--report <file>]");
+		System.exit(1);
+	}
+
+}
@@ -0,0 +1,93 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.server.recorder.ETelemetrySource;
+
+
+/**
+ * Replays one {@link ReplaySession} with a simulated device, following the time-line of its {@link ReplayContext}.<br>
+ * Messages are sent at their (scaled) point in time. If the player falls behind (e.g. while waiting for a registration), the late messages are sent immediately.
+ */
+public class SessionPlayer implements Runnable {
+
+	/** The maximum time in milliseconds to wait for a connection or a registration. */
+	private static final int TIMEOUT = 5000;
+
+	/** The session to be replayed. */
+	private final ReplaySession session;
+
+	/** The context of the replay. */
+	private final ReplayContext context;
+
+	/** The time in milliseconds that the connection is kept open after the last event, so that the last forwarded messages can be received. */
+	private final long linger;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(SessionPlayer.class);
+
+
+	/**
+	 * @param session the session to be replayed.
+	 * @param context the context of the replay.
+	 * @param linger the time in milliseconds that the connection is kept open after the last event.
+	 */
+	public SessionPlayer(ReplaySession session, ReplayContext context, long linger) {
+		this.session = session;
+		this.context = context;
+		this.linger = linger;
+	}
+
+
+	@Override
+	public void run() {
+		SimulatedDevice device = this.session.getSource() == ETelemetrySource.CAR ? new SimulatedCar(this.context, this.session.getCarId())
+				: new SimulatedPhone(this.context, this.session.getPhoneId());
+		try {
+			for(ReplayEvent event : this.session.getEvents()) {
+				if(!this.context.sleepUntil(event.getOffset()))
+					break;
+				if(event.isConnect()) {
+					device.close();
+					connect(device);
+					continue;
+				}
+				if(!device.isConnected() && !connect(device))
+					continue;
+				try {
+					device.send(event.getMessage());
+				} catch(IOException ioe) {
+					SessionPlayer.logger.debug("Could not send a message of the device " + device.getId() + ".", ioe);
+					device.close();
+				}
+			}
+			Thread.sleep(this.linger);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			device.close();
+		}
+	}
+
+	/**
+	 * Connects and registers the device.
+	 * @return true, if the device has been registered, otherwise false.
+	 * @throws InterruptedException if the thread has been interrupted while waiting for the registration.
+	 */
+	private boolean connect(SimulatedDevice device) throws InterruptedException {
+		try {
+			device.connect(TIMEOUT);
+			if(device.register(TIMEOUT))
+				return true;
+			SessionPlayer.logger.warn("The server did not accept the registration of the device " + device.getId() + ".");
+		} catch(IOException ioe) {
+			SessionPlayer.logger.warn("Could not connect the device " + device.getId() + ": " + ioe.getMessage());
+		}
+		device.close();
+		return false;
+	}
+
+}
@@ -0,0 +1,49 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.HashMap;
+
+
+/**
+ * A simulated car. It reports the messages that it sends to the probe of the messages to its linked phone
+ * and the messages that it receives to the probe of the messages from its linked phone (see {@link LatencyProbe}).
+ */
+public class SimulatedCar extends SimulatedDevice {
+
+	/** The cars ID. */
+	private final long id;
+
+	/** The probe of the messages from the car to its linked phone. */
+	private final LatencyProbe toPhone;
+
+	/** The probe of the messages from the linked phone to the car. */
+	private final LatencyProbe toCar;
+
+
+	/**
+	 * @param context the context of the replay.
+	 * @param id the cars ID.
+	 */
+	public SimulatedCar(ReplayContext context, long id) {
+		super(context.getCarAddress(), context.getStatistics(), context.createSocketFactory());
+		this.id = id;
+		this.toPhone = context.getCarToPhoneProbe(id);
+		this.toCar = context.getPhoneToCarProbe(id);
+	}
+
+
+	@Override
+	public Object getId() {
+		return this.id;
+	}
+
+	@Override
+	protected void sent(HashMap<String, Object> message, long nanos) {
+		this.toPhone.sent(LatencyProbe.signature(message, LatencyProbe.CAR_TO_PHONE), nanos);
+	}
+
+	@Override
+	protected void received(HashMap<String, Object> message, long nanos) {
+		this.toCar.received(LatencyProbe.signature(message, LatencyProbe.PHONE_TO_CAR), nanos);
+	}
+
+}
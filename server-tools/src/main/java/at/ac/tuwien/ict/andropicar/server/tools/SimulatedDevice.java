@@ -0,0 +1,345 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import at.ac.tuwien.ict.andropicar.json.JSONDecoder;
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * A simulated device, that connects to the server like a real car or phone does.<br>
+ * Received messages are processed by a thread of their own: pings are answered, state changes are tracked (see {@link #awaitState(long, long)})
+ * and all messages are passed on to {@link #received(HashMap, long)}.<br>
+ * A server of a cluster can redirect the device to another server (state 4, see {@link #redirect(int)}), which {@link #register(long)} follows on its own.
+ */
+public abstract class SimulatedDevice {
+
+	/** The maximum number of redirects that are followed by one registration. */
+	private static final int MAX_REDIRECTS = 3;
+
+	/** The address of the server. Changed, when the device follows a redirect. */
+	private volatile InetSocketAddress address;
+
+	/** The address of the server that the device has been redirected to, or null. */
+	private volatile InetSocketAddress redirection = null;
+
+	/** The counters of the replay. */
+	private final ReplayStatistics statistics;
+
+	/** Creates the TLS-connections, or null if the device connects without TLS. */
+	private final SSLSocketFactory socketFactory;
+
+	/** The socket of the current connection, or null. */
+	private Socket socket = null;
+
+	/** Writes the messages to the current connection. */
+	private Writer writer = null;
+
+	/** True, if the device is connected, otherwise false. */
+	private volatile boolean connected = false;
+
+	/** Guards {@link #state} and {@link #stateUpdates}. */
+	private final Object stateLock = new Object();
+
+	/** The last state that the server has sent. */
+	private int state = 0;
+
+	/** The number of states that the server has sent. */
+	private long stateUpdates = 0;
+
+	/** The logger that is used for logging messages. Part of the log4j2 library. */
+	private static final Logger logger = LogManager.getLogger(SimulatedDevice.class);
+
+
+	/**
+	 * @param address the address of the server.
+	 * @param statistics the counters of the replay.
+	 */
+	protected SimulatedDevice(InetSocketAddress address, ReplayStatistics statistics) {
+		this(address, statistics, null);
+	}
+
+	/**
+	 * @param address the address of the server.
+	 * @param statistics the counters of the replay.
+	 * @param socketFactory creates the TLS-connections, or null to connect without TLS.
+	 */
+	protected SimulatedDevice(InetSocketAddress address, ReplayStatistics statistics, SSLSocketFactory socketFactory) {
+		this.address = address;
+		this.statistics = statistics;
+		this.socketFactory = socketFactory;
+	}
+
+
+	/**
+	 * @return the ID that the device registers with.
+	 */
+	public abstract Object getId();
+
+	/**
+	 * Called for every message that has been sent.
+	 * @param message the message.
+	 * @param nanos the point in time (see {@link System#nanoTime()}) when the message has been sent.
+	 */
+	protected abstract void sent(HashMap<String, Object> message, long nanos);
+
+	/**
+	 * Called for every message that has been received.
+	 * @param message the message.
+	 * @param nanos the point in time (see {@link System#nanoTime()}) when the message has been received.
+	 */
+	protected abstract void received(HashMap<String, Object> message, long nanos);
+
+	/**
+	 * Called for every state that the server sends, before the message is passed on to {@link #received(HashMap, long)}.
+	 * @param state the state.
+	 */
+	protected void stateChanged(int state) {}
+
+	/**
+	 * @return true, if the device is connected, otherwise false.
+	 */
+	public boolean isConnected() {
+		return this.connected;
+	}
+
+	/**
+	 * Opens a new connection to the server and starts its receiving thread. A TLS-connection completes its handshake first.
+	 * @param timeout the connect-timeout in milliseconds, which applies to the TLS-handshake as well.
+	 * @throws IOException if the connection could not be opened.
+	 */
+	public synchronized void connect(int timeout) throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(this.address, timeout);
+		if(this.socketFactory != null)
+			socket = handshake(socket, timeout);
+		this.socket = socket;
+		this.writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		synchronized(this.stateLock) {
+			this.state = 0;
+		}
+		this.connected = true;
+		this.statistics.connectionOpened();
+		Thread thread = new Thread(new ReceiveLoop(socket, new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)), "Simulated device " + getId());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Wraps a connected socket into TLS and completes the handshake. The session is resumed, if the device has been connected to the same server before.
+	 * @param socket the connected socket, which is closed if the handshake fails.
+	 * @param timeout the time in milliseconds to wait for the handshake.
+	 * @return the socket of the TLS-connection.
+	 * @throws IOException if the handshake failed.
+	 */
+	private Socket handshake(Socket socket, int timeout) throws IOException {
+		try {
+			SSLSocket sslSocket = (SSLSocket) this.socketFactory.createSocket(socket, this.address.getHostString(), this.address.getPort(), true);
+			sslSocket.setSoTimeout(timeout);
+			sslSocket.startHandshake();
+			sslSocket.setSoTimeout(0);
+			return sslSocket;
+		} catch(IOException ioe) {
+			socket.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Sends the ID of this device and waits for the server to accept it. If the server redirects the device, it connects to the other server and registers there.
+	 * @param timeout the time in milliseconds to wait for the answer of the server.
+	 * @return true, if the server has accepted the registration, otherwise false.
+	 * @throws IOException if the ID could not be sent.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public boolean register(long timeout) throws IOException, InterruptedException {
+		HashMap<String, Object> message = new HashMap<>();
+		message.put(Keywords.id, getId());
+		int state = Integer.MIN_VALUE;
+		for(int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+			long updates = getStateUpdates();
+			send(message);
+			state = awaitState(updates, timeout);
+			if(state != 4 || redirects == MAX_REDIRECTS)
+				break;
+			redirect((int) timeout);
+		}
+		boolean registered = state == 1;
+		if(registered)
+			this.statistics.registered();
+		else
+			this.statistics.registrationFailed();
+		return registered;
+	}
+
+	/**
+	 * @return the address of the server that the device has been redirected to by the last state 4, or null.
+	 */
+	public InetSocketAddress getRedirection() {
+		return this.redirection;
+	}
+
+	/**
+	 * Closes the current connection and connects to the server, that the device has been redirected to. The device has to register again.
+	 * @param timeout the connect-timeout in milliseconds.
+	 * @throws IOException if the device has not been redirected, or the connection could not be opened.
+	 */
+	public synchronized void redirect(int timeout) throws IOException {
+		InetSocketAddress redirection = this.redirection;
+		if(redirection == null)
+			throw new IOException("The device " + getId() + " has not been redirected.");
+		close();
+		this.redirection = null;
+		this.address = redirection;
+		connect(timeout);
+	}
+
+	/**
+	 * Sends a message to the server.
+	 * @param message the message.
+	 * @throws IOException if the message could not be sent.
+	 */
+	public synchronized void send(HashMap<String, Object> message) throws IOException {
+		if(this.writer == null)
+			throw new IOException("Not connected.");
+		this.writer.write(JSONDecoder.encodeFromMap(message));
+		this.writer.flush();
+		this.statistics.messageSent();
+		sent(message, System.nanoTime());
+	}
+
+	/**
+	 * Closes the current connection, if any.
+	 */
+	public synchronized void close() {
+		this.connected = false;
+		this.writer = null;
+		if(this.socket != null) {
+			try {
+				this.socket.close();
+			} catch(IOException ioe) {}
+		}
+		this.socket = null;
+	}
+
+	/**
+	 * @return the number of states that the server has sent so far.
+	 */
+	public long getStateUpdates() {
+		synchronized(this.stateLock) {
+			return this.stateUpdates;
+		}
+	}
+
+	/**
+	 * Waits for the server to send a state.
+	 * @param updates the number of states that had been sent before (see {@link #getStateUpdates()}).
+	 * @param timeout the time in milliseconds to wait.
+	 * @return the state, that the server has sent, or {@link Integer#MIN_VALUE} if it has not sent a new state in time.
+	 * @throws InterruptedException if the thread has been interrupted while waiting.
+	 */
+	public int awaitState(long updates, long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		synchronized(this.stateLock) {
+			while(this.stateUpdates == updates) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0 || !this.connected)
+					return Integer.MIN_VALUE;
+				TimeUnit.NANOSECONDS.timedWait(this.stateLock, remaining);
+			}
+			return this.state;
+		}
+	}
+
+	/**
+	 * Processes a received message.
+	 */
+	private void process(HashMap<String, Object> message, long nanos) {
+		Object cache;
+		if((cache = message.get(Keywords.ping)) != null) {
+			HashMap<String, Object> pong = new HashMap<>();
+			pong.put(Keywords.pong, cache);
+			try {
+				send(pong);
+			} catch(IOException ioe) {
+				SimulatedDevice.logger.debug("Could not answer a ping.", ioe);
+			}
+		}
+		if((cache = message.get(Keywords.state)) instanceof Long) {
+			int state = ((Long) cache).intValue();
+			if(state == 4 && message.get(Keywords.host) instanceof String && message.get(Keywords.port) instanceof Long)
+				this.redirection = new InetSocketAddress((String) message.get(Keywords.host), ((Long) message.get(Keywords.port)).intValue());
+			stateChanged(state);
+			synchronized(this.stateLock) {
+				this.state = state;
+				this.stateUpdates++;
+				this.stateLock.notifyAll();
+			}
+		}
+		received(message, nanos);
+	}
+
+
+	/**
+	 * Receives the messages of one connection, until it is closed.
+	 */
+	private class ReceiveLoop implements Runnable {
+
+		private final Socket socket;
+
+		private final Reader reader;
+
+		private ReceiveLoop(Socket socket, Reader reader) {
+			this.socket = socket;
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			char[] buffer = new char[1024];
+			FrameSplitter splitter = new FrameSplitter();
+			try {
+				int length;
+				while((length = this.reader.read(buffer)) != -1) {
+					long nanos = System.nanoTime();
+					for(String frame : splitter.feed(buffer, 0, length)) {
+						HashMap<String, Object> message = JSONDecoder.decode(frame);
+						if(message == null)
+							continue;
+						SimulatedDevice.this.statistics.messageReceived();
+						process(message, nanos);
+					}
+				}
+			} catch(IOException ioe) {
+				SimulatedDevice.logger.debug("The connection of the simulated device " + getId() + " failed.", ioe);
+			}
+			synchronized(SimulatedDevice.this) {
+				if(SimulatedDevice.this.socket == this.socket && SimulatedDevice.this.connected) {
+					// the server closed the connection
+					SimulatedDevice.this.statistics.connectionLost();
+					close();
+				}
+			}
+			synchronized(SimulatedDevice.this.stateLock) {
+				SimulatedDevice.this.stateLock.notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+package at.ac.tuwien.ict.andropicar.server.tools;
+
+import java.util.HashMap;
+
+import at.ac.tuwien.ict.andropicar.server.helper.Keywords;
+
+
+/**
+ * A simulated phone. It keeps track of the car it is linked to, based on the link-requests it sends and the states it receives,
+ * and reports its messages to the probes of that car (see {@link LatencyProbe}).
+ */
+public class SimulatedPhone extends SimulatedDevice {
+
+	/** The context of the replay. */
+	private final ReplayContext context;
+
+	/** The phones ID. */
+	private final String id;
+
+	/** The ID of the car that the phone has requested to be linked to last. */
+	private volatile long requestedCar = 0;
+
+	/** The ID of the car that the phone is linked to, or 0. */
+	private volatile long linkedCar = 0;
+
+
+	/**
+	 * @param context the context of the replay.
+	 * @param id the phones ID.
+	 */
+	public SimulatedPhone(ReplayContext context, String id) {
+		super(context.getPhoneAddress(), context.getStatistics(), context.createSocketFactory());
+		this.context = context;
+		this.id = id;
+	}
+
+
+	@Override
+	public Object getId() {
+		return this.id;
+	}
+
+	/**
+	 * @return the ID of the car that the phone is linked to, or 0.
+	 */
+	public long getLinkedCar() {
+		return this.linkedCar;
+	}
+
+	@Override
+	protected void stateChanged(int state) {
+		if(state == 2)
+			this.linkedCar = this.requestedCar;
+		else if(state <= 0)
+			this.linkedCar = 0;
+	}
+
+	@Override
+	protected void sent(HashMap<String, Object> message, long nanos) {
+		Object connect = message.get(Keywords.connect);
+		if(connect instanceof Long) {
+			if((Long) connect > 0)
+				this.requestedCar = (Long) connect;
+			else
+				this.linkedCar = 0;
+		}
+		long car = this.linkedCar;
+		if(car != 0)
+			this.context.getPhoneToCarProbe(car).sent(LatencyProbe.signature(message, LatencyProbe.PHONE_TO_CAR), nanos);
+	}
+
+	@Override
+	protected void received(HashMap<String, Object> message, long nanos) {
+		long car = this.linkedCar;
+		if(car != 0)
+			this.context.getCarToPhoneProbe(car).received(LatencyProbe.signature(message, LatencyProbe.CAR_TO_PHONE), nanos);
+	}
+
+}